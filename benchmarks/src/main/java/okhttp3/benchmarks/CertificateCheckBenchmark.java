@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.benchmarks;
+
+import com.google.caliper.Param;
+import com.google.caliper.runner.CaliperMain;
+import java.security.KeyPair;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.CertificatePinner;
+import okhttp3.internal.SslContextBuilder;
+import okhttp3.internal.tls.OkHostnameVerifier;
+
+/**
+ * Measures the CPU cost of checking a server's certificate against a hostname and a set of pins,
+ * as is done after each TLS handshake. With few distinct certificates the verification results are
+ * memoized; with more certificates than fit in the caches every check is computed from scratch.
+ */
+public class CertificateCheckBenchmark extends com.google.caliper.Benchmark {
+  private static final String HOSTNAME = "example.com";
+
+  /** How many distinct certificates are checked in rotation. */
+  @Param({"1", "1024"})
+  int certificateCount;
+
+  private List<Certificate>[] chains;
+  private CertificatePinner certificatePinner;
+
+  public static void main(String[] args) {
+    CaliperMain.main(CertificateCheckBenchmark.class, args);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override protected void setUp() throws Exception {
+    SslContextBuilder sslContextBuilder = new SslContextBuilder(HOSTNAME);
+    chains = new List[certificateCount];
+    KeyPair keyPair = sslContextBuilder.generateKeyPair();
+    for (int i = 0; i < certificateCount; i++) {
+      X509Certificate certificate =
+          sslContextBuilder.selfSignedCertificate(keyPair, Integer.toString(i + 1));
+      chains[i] = Collections.<Certificate>singletonList(certificate);
+    }
+
+    // Pin the key shared by all certificates plus several that never match.
+    CertificatePinner.Builder builder = new CertificatePinner.Builder()
+        .add(HOSTNAME, CertificatePinner.pin(chains[0].get(0)));
+    for (int i = 0; i < 4; i++) {
+      X509Certificate other = sslContextBuilder.selfSignedCertificate(
+          sslContextBuilder.generateKeyPair(), Integer.toString(certificateCount + i + 1));
+      builder.add(HOSTNAME, CertificatePinner.pin(other));
+    }
+    certificatePinner = builder.build();
+  }
+
+  public int timeCheck(int reps) throws Exception {
+    int verified = 0;
+    for (int i = 0; i < reps; i++) {
+      List<Certificate> chain = chains[i % certificateCount];
+      if (OkHostnameVerifier.INSTANCE.verify(HOSTNAME, (X509Certificate) chain.get(0))) {
+        verified++;
+      }
+      certificatePinner.check(HOSTNAME, chain);
+    }
+    return verified;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.benchmarks;
+
+import com.google.caliper.Param;
+import com.google.caliper.runner.CaliperMain;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okhttp3.ChannelSocketFactory;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Measures downloading a response body from a loopback server to a file. Loopback transfers are
+ * bound by the CPU, so the time differences between the modes are the costs of the copies and
+ * system calls each makes on the way to the file.
+ */
+public class FileDownloadBenchmark extends com.google.caliper.Benchmark {
+  enum Mode {
+    /** Copies the body's Okio buffers to a file output stream, one segment per write. */
+    READ_ALL,
+
+    /** Stages the body's Okio buffers in a direct buffer that is written to the file channel. */
+    WRITE_TO,
+
+    /** Reads the socket channel straight into a direct buffer that is written to the file. */
+    WRITE_TO_FROM_CHANNEL
+  }
+
+  /** Size of the downloaded body in MiB. */
+  @Param({"64"})
+  int bodySizeMebibytes;
+
+  @Param
+  Mode mode;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private ServerSocket serverSocket;
+  private File file;
+  private OkHttpClient client;
+  private Request request;
+
+  public static void main(String[] args) {
+    CaliperMain.main(FileDownloadBenchmark.class, args);
+  }
+
+  @Override protected void setUp() throws Exception {
+    file = File.createTempFile("download", ".bin");
+    file.deleteOnExit();
+
+    serverSocket = new ServerSocket(0);
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          while (true) {
+            final Socket socket = serverSocket.accept();
+            executor.execute(new Runnable() {
+              @Override public void run() {
+                serveBody(socket, bodySizeMebibytes);
+              }
+            });
+          }
+        } catch (IOException ignored) {
+          // The server socket was closed.
+        }
+      }
+    });
+
+    OkHttpClient.Builder builder = new OkHttpClient.Builder();
+    if (mode == Mode.WRITE_TO_FROM_CHANNEL) {
+      builder.socketFactory(new ChannelSocketFactory());
+    }
+    client = builder.build();
+    request = new Request.Builder()
+        .url("http://127.0.0.1:" + serverSocket.getLocalPort() + "/")
+        .build();
+  }
+
+  @Override protected void tearDown() throws Exception {
+    serverSocket.close();
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  public long timeDownload(int reps) throws Exception {
+    long bytes = 0;
+    for (int i = 0; i < reps; i++) {
+      Response response = client.newCall(request).execute();
+      if (mode == Mode.READ_ALL) {
+        Sink sink = Okio.sink(file);
+        try {
+          bytes += response.body().source().readAll(sink);
+        } finally {
+          sink.close();
+          response.body().close();
+        }
+      } else {
+        bytes += response.body().writeTo(file);
+      }
+    }
+    return bytes;
+  }
+
+  /** Reads requests from {@code socket}, answering each with a body of {@code mebibytes} MiB. */
+  private static void serveBody(Socket socket, int mebibytes) {
+    try {
+      BufferedSource source = Okio.buffer(Okio.source(socket));
+      BufferedSink sink = Okio.buffer(Okio.sink(socket));
+      byte[] chunk = new byte[1024 * 1024];
+      while (true) {
+        while (!source.readUtf8LineStrict().isEmpty()) {
+        }
+        sink.writeUtf8("HTTP/1.1 200 OK\r\nContent-Length: " + mebibytes * 1024L * 1024L
+            + "\r\n\r\n");
+        for (int i = 0; i < mebibytes; i++) {
+          sink.write(chunk);
+        }
+        sink.flush();
+      }
+    } catch (IOException ignored) {
+      // The client closed the connection.
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.benchmarks;
+
+import com.google.caliper.Param;
+import com.google.caliper.runner.CaliperMain;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okhttp3.ChannelSocketFactory;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Measures uploading a file to a loopback server that discards it. Loopback transfers are bound by
+ * the CPU, so the time difference between the two modes is the cost of copying the file through
+ * user space buffers.
+ */
+public class FileUploadBenchmark extends com.google.caliper.Benchmark {
+  private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+  /** Size of the uploaded file in MiB. */
+  @Param({"64"})
+  int fileSizeMebibytes;
+
+  /** True to let the kernel send the file; false to copy it through Okio buffers. */
+  @Param({"true", "false"})
+  boolean zeroCopy;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private ServerSocket serverSocket;
+  private File file;
+  private OkHttpClient client;
+  private Request request;
+
+  public static void main(String[] args) {
+    CaliperMain.main(FileUploadBenchmark.class, args);
+  }
+
+  @Override protected void setUp() throws Exception {
+    file = File.createTempFile("upload", ".bin");
+    file.deleteOnExit();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    byte[] chunk = new byte[1024 * 1024];
+    for (int i = 0; i < fileSizeMebibytes; i++) {
+      sink.write(chunk);
+    }
+    sink.close();
+
+    serverSocket = new ServerSocket(0);
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          while (true) {
+            final Socket socket = serverSocket.accept();
+            executor.execute(new Runnable() {
+              @Override public void run() {
+                serveDiscarding(socket);
+              }
+            });
+          }
+        } catch (IOException ignored) {
+          // The server socket was closed.
+        }
+      }
+    });
+
+    client = new OkHttpClient.Builder()
+        .socketFactory(new ChannelSocketFactory())
+        .build();
+    RequestBody body = zeroCopy
+        ? RequestBody.create(OCTET_STREAM, file)
+        : bufferedFileBody(file);
+    request = new Request.Builder()
+        .url("http://127.0.0.1:" + serverSocket.getLocalPort() + "/")
+        .post(body)
+        .build();
+  }
+
+  @Override protected void tearDown() throws Exception {
+    serverSocket.close();
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  public long timeUpload(int reps) throws Exception {
+    long bytes = 0;
+    for (int i = 0; i < reps; i++) {
+      Response response = client.newCall(request).execute();
+      response.body().close();
+      bytes += file.length();
+    }
+    return bytes;
+  }
+
+  /** Returns a body that streams {@code file} through Okio buffers. */
+  private static RequestBody bufferedFileBody(final File file) {
+    return new RequestBody() {
+      @Override public MediaType contentType() {
+        return OCTET_STREAM;
+      }
+
+      @Override public long contentLength() {
+        return file.length();
+      }
+
+      @Override public void writeTo(BufferedSink sink) throws IOException {
+        Source source = Okio.source(file);
+        try {
+          sink.writeAll(source);
+        } finally {
+          source.close();
+        }
+      }
+    };
+  }
+
+  /** Reads requests from {@code socket}, discarding their bodies and answering each with a 200. */
+  private static void serveDiscarding(Socket socket) {
+    try {
+      BufferedSource source = Okio.buffer(Okio.source(socket));
+      BufferedSink sink = Okio.buffer(Okio.sink(socket));
+      while (true) {
+        long contentLength = 0;
+        for (String line; !(line = source.readUtf8LineStrict()).isEmpty(); ) {
+          if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+            contentLength = Long.parseLong(line.substring(15).trim());
+          }
+        }
+        source.skip(contentLength);
+        sink.writeUtf8("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+        sink.flush();
+      }
+    } catch (IOException ignored) {
+      // The client closed the connection.
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+}
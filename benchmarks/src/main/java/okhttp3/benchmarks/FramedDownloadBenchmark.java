@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.benchmarks;
+
+import com.google.caliper.Param;
+import com.google.caliper.runner.CaliperMain;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import okhttp3.Protocol;
+import okhttp3.internal.Util;
+import okhttp3.internal.framed.FramedConnection;
+import okhttp3.internal.framed.FramedStream;
+import okhttp3.internal.framed.Header;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Downloads large bodies on many concurrent HTTP/2 streams of one loopback connection, and reports
+ * the bytes received. This exercises the path that DATA frames take from the connection's reader
+ * to the streams' sources without the cost of TLS or HTTP.
+ */
+public class FramedDownloadBenchmark extends com.google.caliper.Benchmark {
+  private static final List<Header> REQUEST_HEADERS = asList(
+      new Header(":method", "GET"),
+      new Header(":path", "/"),
+      new Header(":authority", "localhost"),
+      new Header(":scheme", "http"));
+  private static final List<Header> RESPONSE_HEADERS = asList(
+      new Header(":status", "200"));
+
+  @Param({"1", "8", "32"})
+  int concurrency;
+
+  @Param({"1048576", "8388608"})
+  int bodyByteCount;
+
+  private ServerSocket serverSocket;
+  private FramedConnection server;
+  private FramedConnection client;
+  private ExecutorService executor;
+
+  public static void main(String[] args) {
+    CaliperMain.main(FramedDownloadBenchmark.class, args);
+  }
+
+  @Override protected void setUp() throws Exception {
+    executor = Executors.newCachedThreadPool();
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Future<FramedConnection> accepted = executor.submit(new Callable<FramedConnection>() {
+      @Override public FramedConnection call() throws Exception {
+        return new FramedConnection.Builder(false)
+            .socket(serverSocket.accept())
+            .protocol(Protocol.HTTP_2)
+            .listener(new Responder())
+            .build();
+      }
+    });
+
+    client = new FramedConnection.Builder(true)
+        .socket(new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort()))
+        .protocol(Protocol.HTTP_2)
+        .build();
+    client.sendConnectionPreface();
+
+    // Send the server's settings after the client's preface so the client doesn't acknowledge
+    // them before its preface.
+    server = accepted.get();
+    server.sendConnectionPreface();
+  }
+
+  @Override protected void tearDown() throws Exception {
+    client.close();
+    Util.closeQuietly(server); // The client may have closed the socket already.
+    serverSocket.close();
+    executor.shutdown();
+  }
+
+  public long timeDownload(int reps) throws Exception {
+    long byteCount = 0;
+    for (int i = 0; i < reps; i++) {
+      List<Future<Long>> downloads = new ArrayList<>();
+      for (int j = 0; j < concurrency; j++) {
+        downloads.add(executor.submit(new Callable<Long>() {
+          @Override public Long call() throws Exception {
+            return download();
+          }
+        }));
+      }
+      for (Future<Long> download : downloads) {
+        byteCount += download.get();
+      }
+    }
+    return byteCount;
+  }
+
+  private long download() throws IOException {
+    FramedStream stream = client.newStream(REQUEST_HEADERS, false, true);
+    Source source = stream.getSource();
+    Buffer buffer = new Buffer();
+    long byteCount = 0;
+    for (long read; (read = source.read(buffer, 8192)) != -1; ) {
+      byteCount += read;
+      buffer.clear();
+    }
+    source.close();
+    return byteCount;
+  }
+
+  /** Replies to each stream with {@link #bodyByteCount} bytes. */
+  class Responder extends FramedConnection.Listener {
+    private final byte[] chunk = new byte[8192];
+
+    @Override public void onStream(FramedStream stream) throws IOException {
+      stream.reply(RESPONSE_HEADERS, true);
+      BufferedSink sink = Okio.buffer(stream.getSink());
+      for (int remaining = bodyByteCount; remaining > 0; ) {
+        int byteCount = Math.min(remaining, chunk.length);
+        sink.write(chunk, 0, byteCount);
+        remaining -= byteCount;
+      }
+      sink.close();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.benchmarks;
+
+import com.google.caliper.Param;
+import com.google.caliper.runner.CaliperMain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import okhttp3.Headers;
+
+/**
+ * Compares looking up header values with {@link Headers}, which indexes large header sets, against
+ * scanning every field. Each repetition copies the headers, as if for a new response, and then does
+ * the lookups that caching and cookie handling do on it: several present and absent names, each
+ * more than once, then the multimap.
+ */
+public class HeadersBenchmark extends com.google.caliper.Benchmark {
+  private static final String[] LOOKUPS = {
+      "Cache-Control", "Date", "Expires", "Last-Modified", "ETag", "Vary", "Age", "Pragma",
+      "Set-Cookie", "Content-Type", "Content-Encoding", "Warning",
+  };
+
+  /** Fields in the response, mostly with distinct names. */
+  @Param({"8", "32", "128"})
+  int headerCount;
+
+  @Param
+  Lookup lookup;
+
+  private Headers headers;
+
+  public static void main(String[] args) {
+    CaliperMain.main(HeadersBenchmark.class, args);
+  }
+
+  @Override protected void setUp() throws Exception {
+    Headers.Builder builder = new Headers.Builder()
+        .add("Date", "Thu, 01 Jan 2015 00:00:00 GMT")
+        .add("Cache-Control", "max-age=60")
+        .add("Content-Type", "text/plain")
+        .add("Set-Cookie", "a=1");
+    for (int i = builder.build().size(); i < headerCount; i++) {
+      builder.add("X-Header-" + i, "value" + i);
+    }
+    headers = builder.build();
+  }
+
+  public int timeLookups(int reps) {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      Headers headers = this.headers.newBuilder().build();
+      for (int j = 0; j < 3; j++) {
+        for (String name : LOOKUPS) {
+          if (lookup.get(headers, name) != null) found++;
+          found += lookup.values(headers, name).size();
+        }
+        found += lookup.toMultimap(headers).size();
+      }
+    }
+    return found;
+  }
+
+  enum Lookup {
+    /** The {@link Headers} methods. */
+    HEADERS {
+      @Override String get(Headers headers, String name) {
+        return headers.get(name);
+      }
+
+      @Override List<String> values(Headers headers, String name) {
+        return headers.values(name);
+      }
+
+      @Override Map<String, List<String>> toMultimap(Headers headers) {
+        return headers.toMultimap();
+      }
+    },
+
+    /** Scans every field on every lookup. */
+    SCAN {
+      @Override String get(Headers headers, String name) {
+        for (int i = headers.size() - 1; i >= 0; i--) {
+          if (name.equalsIgnoreCase(headers.name(i))) return headers.value(i);
+        }
+        return null;
+      }
+
+      @Override List<String> values(Headers headers, String name) {
+        List<String> result = new ArrayList<>(2);
+        for (int i = 0, size = headers.size(); i < size; i++) {
+          if (name.equalsIgnoreCase(headers.name(i))) result.add(headers.value(i));
+        }
+        return result;
+      }
+
+      @Override Map<String, List<String>> toMultimap(Headers headers) {
+        return headers.toMultimap();
+      }
+    };
+
+    abstract String get(Headers headers, String name);
+
+    abstract List<String> values(Headers headers, String name);
+
+    abstract Map<String, List<String>> toMultimap(Headers headers);
+  }
+}
@@ -48,4 +48,12 @@ public final class AddressTest {
         authenticator, null, protocols, connectionSpecs, new RecordingProxySelector());
     assertFalse(a.equals(b));
   }
+
+  @Test public void differentSocketOptionsAreDifferent() throws Exception {
+    Address a = new Address("square.com", 80, dns, socketFactory, SocketOptions.DEFAULT, null,
+        null, null, authenticator, null, protocols, connectionSpecs, proxySelector);
+    Address b = new Address("square.com", 80, dns, socketFactory, SocketOptions.LATENCY, null,
+        null, null, authenticator, null, protocols, connectionSpecs, proxySelector);
+    assertFalse(a.equals(b));
+  }
 }
@@ -1434,6 +1434,87 @@ public final class CacheTest {
     assertEquals(2, cache.hitCount());
   }
 
+  @Test public void memoryCacheServesRepeatedHits() throws Exception {
+    useMemoryCache();
+    server.enqueue(new MockResponse()
+        .addHeader("Cache-Control: max-age=60")
+        .setBody("A"));
+
+    assertEquals("A", get(server.url("/")).body().string());
+    assertEquals("A", get(server.url("/")).body().string());
+    assertEquals("A", get(server.url("/")).body().string());
+    assertEquals(2, cache.hitCount());
+    assertEquals(2, cache.memoryHitCount());
+    assertEquals(0, cache.diskHitCount());
+    assertTrue(cache.memorySize() > 0);
+  }
+
+  @Test public void diskHitPopulatesMemoryCache() throws Exception {
+    server.enqueue(new MockResponse()
+        .addHeader("Cache-Control: max-age=60")
+        .setBody("A"));
+    assertEquals("A", get(server.url("/")).body().string());
+
+    useMemoryCache();
+    assertEquals("A", get(server.url("/")).body().string());
+    assertEquals("A", get(server.url("/")).body().string());
+    assertEquals(1, cache.diskHitCount());
+    assertEquals(1, cache.memoryHitCount());
+  }
+
+  @Test public void largeBodiesAreNotHeldInMemory() throws Exception {
+    useMemoryCache();
+    String body = TestUtil.repeat('a', 64 * 1024 + 1);
+    server.enqueue(new MockResponse()
+        .addHeader("Cache-Control: max-age=60")
+        .setBody(body));
+
+    assertEquals(body, get(server.url("/")).body().string());
+    assertEquals(body, get(server.url("/")).body().string());
+    assertEquals(1, cache.diskHitCount());
+    assertEquals(0, cache.memoryHitCount());
+    assertEquals(0, cache.memorySize());
+  }
+
+  @Test public void conditionalCacheHitUpdatesMemoryCache() throws Exception {
+    useMemoryCache();
+    server.enqueue(new MockResponse()
+        .addHeader("Last-Modified: " + formatDate(-1, TimeUnit.HOURS))
+        .addHeader("Cache-Control: max-age=0")
+        .addHeader("X-Version: 1")
+        .setBody("A"));
+    server.enqueue(new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED)
+        .addHeader("Cache-Control: max-age=60")
+        .addHeader("X-Version: 2"));
+
+    assertEquals("A", get(server.url("/")).body().string());
+    Response conditional = get(server.url("/"));
+    assertEquals("A", conditional.body().string());
+    assertEquals("2", conditional.header("X-Version"));
+    Response cached = get(server.url("/"));
+    assertEquals("A", cached.body().string());
+    assertEquals("2", cached.header("X-Version"));
+    assertEquals(2, server.getRequestCount());
+    assertEquals(2, cache.memoryHitCount());
+  }
+
+  @Test public void removedResponsesAreNotServedFromMemory() throws Exception {
+    useMemoryCache();
+    server.enqueue(new MockResponse()
+        .addHeader("Cache-Control: max-age=60")
+        .setBody("A"));
+    server.enqueue(new MockResponse()
+        .setBody("B"));
+
+    assertEquals("A", get(server.url("/")).body().string());
+    Iterator<String> urls = cache.urls();
+    urls.next();
+    urls.remove();
+    assertEquals("B", get(server.url("/")).body().string());
+    assertEquals(0, cache.memoryHitCount());
+  }
+
   @Test public void varyMatchesChangedRequestHeaderField() throws Exception {
     server.enqueue(new MockResponse()
         .addHeader("Cache-Control: max-age=60")
@@ -2308,6 +2389,15 @@ public final class CacheTest {
     assertEquals("v2", server.takeRequest().getHeader("If-None-Match"));
   }
 
+  /** Replaces the cache with one on the same directory that also holds responses in memory. */
+  private void useMemoryCache() throws IOException {
+    cache.close();
+    cache = new Cache(new File("/cache/"), Integer.MAX_VALUE, 1024 * 1024, fileSystem);
+    client = client.newBuilder()
+        .cache(cache)
+        .build();
+  }
+
   private Response get(HttpUrl url) throws IOException {
     Request request = new Request.Builder()
         .url(url)
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.internal.http.FakeDns;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class CachingDnsTest {
+  private final FakeDns upstream = new FakeDns();
+  private final List<Runnable> pendingRefreshes = new ArrayList<>();
+  private final CachingDns dns = new CachingDns.Builder()
+      .upstream(upstream)
+      .maxEntries(2)
+      .ttl(100L, TimeUnit.NANOSECONDS)
+      .staleTtl(50L, TimeUnit.NANOSECONDS)
+      .negativeTtl(10L, TimeUnit.NANOSECONDS)
+      .build();
+
+  {
+    dns.executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        pendingRefreshes.add(command);
+      }
+    };
+  }
+
+  @Test public void freshResultIsServedFromCache() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 0L));
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 99L));
+    upstream.assertRequests("a");
+
+    assertEquals(2, dns.requestCount());
+    assertEquals(1, dns.hitCount());
+    assertEquals(0, dns.staleHitCount());
+    assertEquals(1, dns.upstreamCount());
+  }
+
+  @Test public void staleResultIsServedWhileRefreshing() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+
+    upstream.addresses(addresses("10.0.0.2"));
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 100L));
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 110L));
+    upstream.assertRequests("a");
+    assertEquals(1, pendingRefreshes.size()); // Only one refresh is started.
+
+    pendingRefreshes.remove(0).run();
+    upstream.assertRequests("a");
+    assertEquals(addresses("10.0.0.2"), dns.lookup("a", 120L));
+
+    assertEquals(4, dns.requestCount());
+    assertEquals(1, dns.hitCount());
+    assertEquals(2, dns.staleHitCount());
+    assertEquals(2, dns.upstreamCount());
+  }
+
+  @Test public void staleResultRetainedWhenRefreshFails() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+
+    upstream.unknownHost();
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 100L));
+    pendingRefreshes.remove(0).run();
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 101L));
+  }
+
+  @Test public void failedRefreshIsNotRetriedUntilNegativeTtl() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+
+    upstream.unknownHost();
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 100L));
+    pendingRefreshes.remove(0).run();
+    assertEquals(2, dns.upstreamCount());
+
+    // While the upstream keeps failing, stale lookups don't query it again.
+    for (long now = 101L; now < 110L; now++) {
+      assertEquals(addresses("10.0.0.1"), dns.lookup("a", now));
+    }
+    assertEquals(0, pendingRefreshes.size());
+    assertEquals(2, dns.upstreamCount());
+
+    // After the negative TTL one more refresh is attempted.
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 110L));
+    assertEquals(1, pendingRefreshes.size());
+    assertEquals(3, dns.upstreamCount());
+  }
+
+  @Test public void expiredResultRequiresLookup() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+
+    upstream.addresses(addresses("10.0.0.2"));
+    assertEquals(addresses("10.0.0.2"), dns.lookup("a", 150L));
+    upstream.assertRequests("a", "a");
+    assertEquals(0, pendingRefreshes.size());
+  }
+
+  @Test public void failuresAreCachedForNegativeTtl() throws Exception {
+    upstream.unknownHost();
+    assertUnknownHost("a", 0L);
+    assertUnknownHost("a", 9L);
+    upstream.assertRequests("a");
+
+    upstream.addresses(addresses("10.0.0.1"));
+    assertEquals(addresses("10.0.0.1"), dns.lookup("a", 10L));
+    upstream.assertRequests("a");
+  }
+
+  @Test public void leastRecentlyUsedHostIsEvicted() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+    dns.lookup("b", 0L);
+    dns.lookup("a", 1L);
+    dns.lookup("c", 2L);
+    assertEquals(2, dns.size());
+    upstream.assertRequests("a", "b", "c");
+
+    dns.lookup("a", 3L);
+    dns.lookup("b", 3L);
+    upstream.assertRequests("b");
+  }
+
+  @Test public void evict() throws Exception {
+    upstream.addresses(addresses("10.0.0.1"));
+    dns.lookup("a", 0L);
+    dns.evict("a");
+    dns.lookup("a", 1L);
+    upstream.assertRequests("a", "a");
+
+    dns.evictAll();
+    assertEquals(0, dns.size());
+  }
+
+  @Test public void concurrentLookupsAreCoalesced() throws Exception {
+    final CountDownLatch lookupStarted = new CountDownLatch(1);
+    final CountDownLatch releaseLookup = new CountDownLatch(1);
+    final AtomicInteger upstreamCount = new AtomicInteger();
+    final CachingDns dns = new CachingDns.Builder()
+        .upstream(new Dns() {
+          @Override public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            upstreamCount.incrementAndGet();
+            lookupStarted.countDown();
+            try {
+              releaseLookup.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError();
+            }
+            return addresses("10.0.0.1");
+          }
+        })
+        .build();
+
+    final List<InetAddress> secondResult = new ArrayList<>();
+    Thread first = new Thread() {
+      @Override public void run() {
+        try {
+          dns.lookup("a");
+        } catch (UnknownHostException e) {
+          throw new AssertionError();
+        }
+      }
+    };
+    first.start();
+    lookupStarted.await();
+
+    Thread second = new Thread() {
+      @Override public void run() {
+        try {
+          secondResult.addAll(dns.lookup("a"));
+        } catch (UnknownHostException e) {
+          throw new AssertionError();
+        }
+      }
+    };
+    second.start();
+
+    // Wait for the second lookup to block on the first.
+    while (dns.requestCount() < 2) {
+      Thread.sleep(10);
+    }
+    releaseLookup.countDown();
+    first.join();
+    second.join();
+
+    assertEquals(addresses("10.0.0.1"), secondResult);
+    assertEquals(1, upstreamCount.get());
+    assertEquals(1, dns.upstreamCount());
+  }
+
+  private void assertUnknownHost(String hostname, long now) {
+    try {
+      dns.lookup(hostname, now);
+      fail();
+    } catch (UnknownHostException expected) {
+    }
+  }
+
+  private static List<InetAddress> addresses(String... ipAddresses) throws UnknownHostException {
+    List<InetAddress> result = new ArrayList<>();
+    for (String ipAddress : ipAddresses) {
+      result.add(InetAddress.getByName(ipAddress));
+    }
+    return result;
+  }
+}
@@ -27,6 +27,9 @@ import java.net.InetSocketAddress;
 import java.net.ProtocolException;
 import java.net.Proxy;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
 import java.net.UnknownServiceException;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
@@ -43,6 +46,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ServerSocketFactory;
+import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLPeerUnverifiedException;
@@ -50,7 +54,9 @@ import javax.net.ssl.SSLProtocolException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import okhttp3.internal.DoubleInetAddressDns;
+import okhttp3.internal.Internal;
 import okhttp3.internal.RecordingOkAuthenticator;
+import okhttp3.internal.RouteDatabase;
 import okhttp3.internal.SingleInetAddressDns;
 import okhttp3.internal.SslContextBuilder;
 import okhttp3.internal.Util;
@@ -2136,6 +2142,62 @@ public final class CallTest {
     dns.assertRequests("android.com");
   }
 
+  @Test public void connectionRaceSkipsUnresponsiveAddress() throws Exception {
+    // The first address never completes its TCP handshake, as if packets were being dropped.
+    final InetAddress unresponsive = InetAddress.getByName("192.0.2.1");
+    List<InetAddress> addresses = new ArrayList<>();
+    addresses.add(unresponsive);
+    addresses.addAll(Dns.SYSTEM.lookup(server.url("/").host()));
+    FakeDns dns = new FakeDns().addresses(addresses);
+
+    client = client.newBuilder()
+        .dns(dns)
+        .socketFactory(new DelegatingSocketFactory(SocketFactory.getDefault()) {
+          @Override public Socket createSocket() throws IOException {
+            return new Socket() {
+              final CountDownLatch closed = new CountDownLatch(1);
+
+              @Override public void connect(SocketAddress endpoint, int timeout)
+                  throws IOException {
+                if (!((InetSocketAddress) endpoint).getAddress().equals(unresponsive)) {
+                  super.connect(endpoint, timeout);
+                  return;
+                }
+                try {
+                  closed.await();
+                } catch (InterruptedException e) {
+                  throw new InterruptedIOException();
+                }
+                throw new SocketException("Socket closed");
+              }
+
+              @Override public synchronized void close() throws IOException {
+                closed.countDown();
+                super.close();
+              }
+            };
+          }
+        })
+        .connectTimeout(20, TimeUnit.SECONDS)
+        .connectionAttemptDelay(250, TimeUnit.MILLISECONDS)
+        .build();
+
+    server.enqueue(new MockResponse().setBody("abc"));
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .build();
+
+    long startNanos = System.nanoTime();
+    executeSynchronously(request).assertBody("abc");
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    assertTrue("elapsed: " + elapsedMillis, elapsedMillis < 10_000);
+    assertEquals(1, server.getRequestCount());
+
+    // The unresponsive address lost the race, but it didn't fail, so it isn't postponed.
+    RouteDatabase routeDatabase = Internal.instance.routeDatabase(client.connectionPool());
+    assertEquals(0, routeDatabase.failedRoutesCount());
+  }
+
   /** We had a bug where failed HTTP/2 calls could break the entire connection. */
   @Test public void failingCallsDoNotInterfereWithConnection() throws Exception {
     enableProtocol(Protocol.HTTP_2);
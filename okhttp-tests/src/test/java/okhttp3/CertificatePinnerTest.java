@@ -27,7 +27,9 @@ import org.junit.Test;
 import static okhttp3.TestUtil.setOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -255,4 +257,27 @@ public final class CertificatePinnerTest {
     assertNull(certificatePinner.findMatchingPins("example.com"));
     assertNull(certificatePinner.findMatchingPins("a.b.example.com"));
   }
+
+  @Test public void cachedHashIsReused() throws Exception {
+    ByteString hash = CertificatePinner.sha1(keypairACertificate1);
+    assertSame(hash, CertificatePinner.sha1(keypairACertificate1));
+  }
+
+  @Test public void differentCertificateIsNotServedFromCache() throws Exception {
+    ByteString hash = CertificatePinner.sha1(keypairACertificate1);
+    assertEquals(keypairBCertificate1PinBase64, CertificatePinner.sha1(keypairBCertificate1));
+
+    // A different certificate for the same key is hashed again, to the same value.
+    X509Certificate keypairACertificate2 = sslContextBuilder.selfSignedCertificate(keyPairA, "2");
+    ByteString hash2 = CertificatePinner.sha1(keypairACertificate2);
+    assertNotSame(hash, hash2);
+    assertEquals(hash, hash2);
+  }
+
+  @Test public void hashCacheIsBounded() throws Exception {
+    for (int i = 0; i <= CertificatePinner.MAX_CACHED_HASHES; i++) {
+      CertificatePinner.pin(sslContextBuilder.selfSignedCertificate(keyPairC, "" + (1000 + i)));
+    }
+    assertEquals(CertificatePinner.MAX_CACHED_HASHES, CertificatePinner.cachedHashCount());
+  }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
+import okhttp3.internal.RouteDatabase;
+import okhttp3.internal.io.InMemoryFileSystem;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ConnectionHintsTest {
+  @Rule public final InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+
+  private final File file = new File("/hints");
+  private final List<Runnable> pendingTasks = new ArrayList<>();
+  private final Address address = new Address("a", 80, Dns.SYSTEM, SocketFactory.getDefault(),
+      null, null, null, Authenticator.NONE, null, Collections.singletonList(Protocol.HTTP_1_1),
+      Collections.singletonList(ConnectionSpec.CLEARTEXT), ProxySelector.getDefault());
+
+  @Test public void dnsResultsAreRestored() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.dnsResolved("a", addresses("10.0.0.1", "10.0.0.2"), 0L);
+    assertNull(hints.hintedAddresses("a", 0L)); // Results from this process are not hints.
+    hints.save();
+
+    ConnectionHints restored = newHints(new RouteDatabase());
+    assertEquals(addresses("10.0.0.1", "10.0.0.2"), restored.hintedAddresses("a", 1L));
+    assertNull(restored.hintedAddresses("b", 1L));
+    assertEquals(1, restored.hitCount());
+  }
+
+  @Test public void expiredDnsResultsAreNotUsed() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.dnsResolved("a", addresses("10.0.0.1"), 0L);
+    hints.save();
+
+    ConnectionHints restored = newHints(new RouteDatabase());
+    assertNull(restored.hintedAddresses("a", ConnectionHints.DNS_TTL_MILLIS));
+  }
+
+  @Test public void connectFailureInvalidatesDnsHint() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.dnsResolved("a", addresses("10.0.0.1"), 0L);
+    hints.save();
+
+    ConnectionHints restored = newHints(new RouteDatabase());
+    restored.connectFailed(route("10.0.0.1"));
+    assertNull(restored.hintedAddresses("a", 1L));
+  }
+
+  @Test public void protocolsAreRestored() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.connected(route("10.0.0.1"), Protocol.HTTP_2);
+    hints.save();
+
+    ConnectionHints restored = newHints(new RouteDatabase());
+    assertEquals(Protocol.HTTP_2, restored.protocol(HttpUrl.parse("http://a/")));
+    assertNull(restored.protocol(HttpUrl.parse("https://a/")));
+  }
+
+  @Test public void routeHistoryIsRestored() throws Exception {
+    RouteDatabase routeDatabase = new RouteDatabase();
+    ConnectionHints hints = newHints(routeDatabase);
+    routeDatabase.connected(route("10.0.0.1"), TimeUnit.SECONDS.toNanos(1));
+    routeDatabase.failed(route("10.0.0.2"));
+    hints.save();
+
+    RouteDatabase restoredDatabase = new RouteDatabase();
+    newHints(restoredDatabase);
+    assertTrue(restoredDatabase.expectedConnectNanos(route("10.0.0.1"))
+        > TimeUnit.MILLISECONDS.toNanos(900));
+    assertTrue(restoredDatabase.shouldPostpone(route("10.0.0.2")));
+  }
+
+  @Test public void changesAreSavedInTheBackground() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.dnsResolved("a", addresses("10.0.0.1"), 0L);
+    hints.connected(route("10.0.0.1"), Protocol.HTTP_1_1);
+    assertEquals(1, pendingTasks.size()); // Changes are batched into a single save.
+    assertFalse(fileSystem.exists(file));
+  }
+
+  @Test public void corruptFileIsDiscarded() throws Exception {
+    BufferedSink sink = Okio.buffer(fileSystem.sink(file));
+    sink.writeUtf8("okhttp3.ConnectionHints\n1\n1\na notANumber 10.0.0.1\n");
+    sink.close();
+
+    ConnectionHints hints = newHints(new RouteDatabase());
+    assertNull(hints.hintedAddresses("a", 0L));
+    assertFalse(fileSystem.exists(file));
+  }
+
+  @Test public void hintsAreLoadedWhenAttached() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    hints.dnsResolved("a", addresses("10.0.0.1"), 0L);
+    hints.save();
+
+    ConnectionHints restored = new ConnectionHints(file, fileSystem);
+    restored.executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        pendingTasks.add(command);
+      }
+    };
+    RouteDatabase routeDatabase = new RouteDatabase();
+    restored.attach(routeDatabase, Dns.SYSTEM);
+    pendingTasks.remove(pendingTasks.size() - 1).run();
+    assertEquals(addresses("10.0.0.1"), restored.hintedAddresses("a", 1L));
+  }
+
+  @Test public void hintsRememberTheFirstDnsAttached() throws Exception {
+    ConnectionHints hints = newHints(new RouteDatabase());
+    Dns otherDns = new Dns() {
+      @Override public List<InetAddress> lookup(String hostname) {
+        throw new AssertionError();
+      }
+    };
+    hints.attach(new RouteDatabase(), otherDns);
+    assertEquals(Dns.SYSTEM, hints.internalHints.dns());
+  }
+
+  private ConnectionHints newHints(RouteDatabase routeDatabase) {
+    ConnectionHints result = new ConnectionHints(file, fileSystem);
+    result.executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        pendingTasks.add(command);
+      }
+    };
+    result.attach(routeDatabase, Dns.SYSTEM);
+    result.initialize();
+    pendingTasks.clear(); // Discard the background load; it's already been done.
+    return result;
+  }
+
+  private Route route(String ipAddress) throws Exception {
+    return new Route(address, Proxy.NO_PROXY,
+        new InetSocketAddress(InetAddress.getByName(ipAddress), 80));
+  }
+
+  private static List<InetAddress> addresses(String... ipAddresses) throws Exception {
+    List<InetAddress> result = new ArrayList<>();
+    for (String ipAddress : Arrays.asList(ipAddresses)) {
+      result.add(InetAddress.getByName(ipAddress));
+    }
+    return result;
+  }
+}
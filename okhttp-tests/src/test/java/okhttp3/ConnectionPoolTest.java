@@ -15,22 +15,36 @@
  */
 package okhttp3;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.ProxySelector;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.net.SocketFactory;
 import okhttp3.internal.Internal;
 import okhttp3.internal.RecordingOkAuthenticator;
+import okhttp3.internal.Util;
+import okhttp3.internal.framed.FramedConnection;
+import okhttp3.internal.http.ConnectionGroup;
+import okhttp3.internal.http.RouteException;
 import okhttp3.internal.http.StreamAllocation;
 import okhttp3.internal.io.RealConnection;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public final class ConnectionPoolTest {
   private final Address addressA = newAddress("a");
@@ -40,10 +54,24 @@ public final class ConnectionPoolTest {
   private final Address addressC = newAddress("c");
   private final Route routeC1 = newRoute(addressC);
 
+  private final List<Socket> sockets = new ArrayList<>();
+  private ServerSocket serverSocket;
+
   static {
     Internal.initializeInstanceForTests();
   }
 
+  @Before public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+  }
+
+  @After public void tearDown() throws Exception {
+    for (Socket socket : sockets) {
+      Util.closeQuietly(socket);
+    }
+    Util.closeQuietly(serverSocket);
+  }
+
   @Test public void connectionsEvictedWhenIdleLongEnough() throws Exception {
     ConnectionPool pool = new ConnectionPool(Integer.MAX_VALUE, 100L, TimeUnit.NANOSECONDS);
     pool.cleanupRunning = true; // Prevent the cleanup runnable from being started.
@@ -170,6 +198,121 @@ public final class ConnectionPoolTest {
     assertTrue(c1.noNewStreams); // Can't allocate once a leak has been detected.
   }
 
+  @Test public void groupPlacesStreamsOnLeastLoadedConnection() throws Exception {
+    ConnectionPool pool = new ConnectionPool(Integer.MAX_VALUE, 100L, TimeUnit.NANOSECONDS);
+    pool.cleanupRunning = true; // Prevent the cleanup runnable from being started.
+    ConnectionGroup group = new ConnectionGroup(1, 4);
+
+    RealConnection c1 = newMultiplexedConnection(pool, routeA1);
+    RealConnection c2 = newMultiplexedConnection(pool, routeA1);
+    new StreamAllocation(pool, addressA).acquire(c1);
+    new StreamAllocation(pool, addressA).acquire(c1);
+    new StreamAllocation(pool, addressA).acquire(c2);
+
+    synchronized (pool) {
+      assertSame(c2, pool.get(addressA, new StreamAllocation(pool, addressA, group)));
+      assertEquals(2, c2.allocations.size());
+      // Without a group the first connection with room is used.
+      assertSame(c1, pool.get(addressA, new StreamAllocation(pool, addressA)));
+    }
+  }
+
+  @Test public void groupGrowsToMinimumBeforeSharing() throws Exception {
+    ConnectionPool pool = new ConnectionPool(Integer.MAX_VALUE, 100L, TimeUnit.NANOSECONDS);
+    pool.cleanupRunning = true; // Prevent the cleanup runnable from being started.
+    ConnectionGroup group = new ConnectionGroup(2, 4);
+
+    RealConnection c1 = newMultiplexedConnection(pool, routeA1);
+    StreamAllocation a1 = new StreamAllocation(pool, addressA, group);
+    synchronized (pool) {
+      // An idle connection is always used.
+      assertSame(c1, pool.get(addressA, a1));
+
+      // A busy one isn't while the group is smaller than its minimum.
+      assertNull(pool.get(addressA, new StreamAllocation(pool, addressA, group)));
+    }
+
+    RealConnection c2 = newMultiplexedConnection(pool, routeA1);
+    new StreamAllocation(pool, addressA).acquire(c2);
+    synchronized (pool) {
+      assertEquals(2, pool.connectionGroupSize(addressA));
+      assertSame(c1, pool.get(addressA, new StreamAllocation(pool, addressA, group)));
+      assertSame(c2, pool.get(addressA, new StreamAllocation(pool, addressA, group)));
+    }
+  }
+
+  @Test public void connectionGroupSize() throws Exception {
+    ConnectionPool pool = new ConnectionPool(Integer.MAX_VALUE, 100L, TimeUnit.NANOSECONDS);
+    pool.cleanupRunning = true; // Prevent the cleanup runnable from being started.
+
+    newMultiplexedConnection(pool, routeA1);
+    newMultiplexedConnection(pool, routeB1);
+    newConnection(pool, routeA1, 0L); // HTTP/1.1 connections don't count.
+    RealConnection connecting = new RealConnection(routeA1);
+    new StreamAllocation(pool, addressA).acquire(connecting);
+    RealConnection unusable = newMultiplexedConnection(pool, routeA1);
+    unusable.noNewStreams = true;
+    synchronized (pool) {
+      pool.put(connecting);
+      assertEquals(2, pool.connectionGroupSize(addressA));
+      assertEquals(1, pool.connectionGroupSize(addressB));
+      assertEquals(0, pool.connectionGroupSize(addressC));
+    }
+  }
+
+  @Test public void connectingConnection() throws Exception {
+    ConnectionPool pool = new ConnectionPool(Integer.MAX_VALUE, 100L, TimeUnit.NANOSECONDS);
+    pool.cleanupRunning = true; // Prevent the cleanup runnable from being started.
+
+    RealConnection failed = new RealConnection(routeA1);
+    connectAndFail(failed);
+    RealConnection connecting = new RealConnection(routeA1);
+    synchronized (pool) {
+      pool.put(failed);
+      assertNull(pool.connecting(addressA));
+      pool.put(connecting);
+      assertSame(connecting, pool.connecting(addressA));
+      assertNull(pool.connecting(addressB));
+      connecting.noNewStreams = true;
+      assertNull(pool.connecting(addressA));
+    }
+  }
+
+  @Test public void awaitConnectFinishedTimesOut() throws Exception {
+    RealConnection connection = new RealConnection(routeA1);
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    assertFalse(connection.awaitConnectFinished(deadlineNanos));
+    assertTrue(System.nanoTime() - deadlineNanos >= 0);
+  }
+
+  @Test public void failedConnectWakesAwaitConnectFinished() throws Exception {
+    final RealConnection connection = new RealConnection(routeA1);
+    Thread connector = new Thread() {
+      @Override public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        connectAndFail(connection);
+      }
+    };
+    connector.start();
+    assertFalse(connection.isConnectFinished());
+    assertTrue(connection.awaitConnectFinished(0L));
+    assertTrue(connection.isConnectFinished());
+  }
+
+  /** Connects {@code connection}, which fails because its address supports no connection specs. */
+  private static void connectAndFail(RealConnection connection) {
+    try {
+      connection.connect(
+          0, 0, 0, Collections.<ConnectionSpec>emptyList(), false, null, null, null);
+      fail();
+    } catch (RouteException expected) {
+    }
+  }
+
   /** Use a helper method so there's no hidden reference remaining on the stack. */
   private void allocateAndLeakAllocation(ConnectionPool pool, RealConnection connection) {
     StreamAllocation leak = new StreamAllocation(pool, connection.route().address());
@@ -197,6 +340,24 @@ public final class ConnectionPoolTest {
     return connection;
   }
 
+  /** Returns a connection to {@code route} that multiplexes streams over a local socket. */
+  private RealConnection newMultiplexedConnection(ConnectionPool pool, Route route)
+      throws IOException {
+    RealConnection connection = new RealConnection(route);
+    Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    sockets.add(socket);
+    sockets.add(serverSocket.accept());
+    connection.socket = socket;
+    connection.framedConnection = new FramedConnection.Builder(true)
+        .socket(socket)
+        .protocol(Protocol.HTTP_2)
+        .build();
+    synchronized (pool) {
+      pool.put(connection);
+    }
+    return connection;
+  }
+
   private Address newAddress(String name) {
     return new Address(name, 1, Dns.SYSTEM, SocketFactory.getDefault(), null, null, null,
         new RecordingOkAuthenticator("password"), null, Collections.<Protocol>emptyList(),
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.Okio;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class DownloadTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final OkHttpClient client = new OkHttpClient();
+
+  @Test public void writeTo() throws Exception {
+    Buffer content = content(1024 * 1024);
+    server.enqueue(new MockResponse().setBody(content.clone()));
+
+    File file = temporaryFolder.newFile();
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals(content.size(), response.body().writeTo(file));
+    assertEquals(content.readByteString(), read(file));
+  }
+
+  @Test public void writeChunkedBody() throws Exception {
+    Buffer content = content(100 * 1024);
+    server.enqueue(new MockResponse().setChunkedBody(content.clone(), 4096));
+
+    File file = temporaryFolder.newFile();
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals(content.size(), response.body().writeTo(file));
+    assertEquals(content.readByteString(), read(file));
+  }
+
+  @Test public void existingContentIsReplaced() throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    File file = temporaryFolder.newFile();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    sink.writeUtf8("0123456789");
+    sink.close();
+
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    response.body().writeTo(file);
+    assertEquals(ByteString.encodeUtf8("abc"), read(file));
+  }
+
+  @Test public void progressAndOptions() throws Exception {
+    Buffer content = content(64 * 1024);
+    server.enqueue(new MockResponse().setBody(content.clone()));
+
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder()
+        .preallocate(false)
+        .sync(true)
+        .bufferSize(1000)
+        .progress(progress)
+        .build();
+    File file = temporaryFolder.newFile();
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    response.body().writeTo(file, options);
+    assertEquals(content.size(), progress.get());
+    assertEquals(content.readByteString(), read(file));
+  }
+
+  @Test public void invalidOptions() throws Exception {
+    try {
+      new DownloadOptions.Builder().bufferSize(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new DownloadOptions.Builder().progress(null);
+      fail();
+    } catch (NullPointerException expected) {
+    }
+  }
+
+  @Test public void contentLengthMismatch() throws Exception {
+    ResponseBody body = ResponseBody.create(
+        MediaType.parse("text/plain"), 5, new Buffer().writeUtf8("abc"));
+    try {
+      body.writeTo(temporaryFolder.newFile());
+      fail();
+    } catch (IOException expected) {
+      assertEquals("Content-Length and stream length disagree", expected.getMessage());
+    }
+  }
+
+  static Buffer content(int size) {
+    Buffer content = new Buffer();
+    for (int i = 0; i < size; i += 16) {
+      content.writeUtf8("0123456789abcdef");
+    }
+    return content;
+  }
+
+  static ByteString read(File file) throws IOException {
+    Buffer result = new Buffer();
+    result.writeAll(Okio.source(file));
+    return result.readByteString();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.internal.io.RealConnection;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/** File bodies move directly between files and sockets when their sockets have channels. */
+public final class FileTransferTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /** Records whether each connection used by a call supports file transfer. */
+  private final List<Boolean> supportsFileTransfer = new ArrayList<>();
+  private final Interceptor recordFileTransfer = new Interceptor() {
+    @Override public Response intercept(Chain chain) throws IOException {
+      RealConnection connection = (RealConnection) chain.connection();
+      supportsFileTransfer.add(connection.supportsFileTransfer());
+      return chain.proceed(chain.request());
+    }
+  };
+
+  @Test public void postFileWithDefaultSocketFactory() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .addNetworkInterceptor(recordFileTransfer)
+        .build();
+    assertPostFile(client);
+    assertEquals(false, supportsFileTransfer.get(0));
+  }
+
+  @Test public void postFileWithChannelSocketFactory() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketFactory(new ChannelSocketFactory())
+        .addNetworkInterceptor(recordFileTransfer)
+        .build();
+    assertPostFile(client);
+    assertEquals(true, supportsFileTransfer.get(0));
+  }
+
+  @Test public void postLargeFileWithWriteTimeout() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketFactory(new ChannelSocketFactory())
+        .writeTimeout(5, TimeUnit.SECONDS)
+        .addNetworkInterceptor(recordFileTransfer)
+        .build();
+    assertPostFile(client, 5 * 1024 * 1024);
+    assertEquals(true, supportsFileTransfer.get(0));
+  }
+
+  @Test public void writeToWithChannelSocketFactory() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketFactory(new ChannelSocketFactory())
+        .addNetworkInterceptor(recordFileTransfer)
+        .build();
+    Buffer content = DownloadTest.content(1024 * 1024);
+    server.enqueue(new MockResponse().setBody(content.clone()));
+
+    File file = temporaryFolder.newFile();
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder()
+        .bufferSize(64 * 1024)
+        .progress(progress)
+        .build();
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals(content.size(), response.body().writeTo(file, options));
+    assertEquals(content.size(), progress.get());
+    assertEquals(content.readByteString(), DownloadTest.read(file));
+    assertEquals(true, supportsFileTransfer.get(0));
+  }
+
+  private void assertPostFile(OkHttpClient client) throws Exception {
+    assertPostFile(client, 1024 * 1024);
+  }
+
+  private void assertPostFile(OkHttpClient client, int size) throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    Buffer content = DownloadTest.content(size);
+    File file = temporaryFolder.newFile();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    sink.write(content.clone(), content.size());
+    sink.close();
+
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), file))
+        .build();
+    assertEquals("abc", client.newCall(request).execute().body().string());
+
+    RecordedRequest recorded = server.takeRequest();
+    assertEquals(Long.toString(content.size()), recorded.getHeader("Content-Length"));
+    assertEquals(content.readByteString(), recorded.getBody().readByteString());
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import okhttp3.internal.SslContextBuilder;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okhttp3.testing.RecordingHostnameVerifier;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class NioEngineTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final SSLContext sslContext = SslContextBuilder.localhost();
+  private OkHttpClient client = new OkHttpClient.Builder()
+      .nioEngine(new NioEngine(1))
+      .build();
+
+  @After public void tearDown() throws Exception {
+    executor.shutdown();
+  }
+
+  @Test public void get() throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals("abc", response.body().string());
+  }
+
+  @Test public void postLargeBody() throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    Buffer body = new Buffer();
+    for (int i = 0; i < 1024 * 1024; i += 16) {
+      body.writeUtf8("0123456789abcdef");
+    }
+    long size = body.size();
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), body.readByteString()))
+        .build();
+    assertEquals("abc", client.newCall(request).execute().body().string());
+
+    RecordedRequest recorded = server.takeRequest();
+    assertEquals(size, recorded.getBodySize());
+  }
+
+  @Test public void postFile() throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    Buffer content = new Buffer();
+    for (int i = 0; i < 1024 * 1024; i += 16) {
+      content.writeUtf8("0123456789abcdef");
+    }
+    File file = temporaryFolder.newFile();
+    BufferedSink sink = Okio.buffer(Okio.sink(file));
+    sink.write(content.clone(), content.size());
+    sink.close();
+
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), file))
+        .build();
+    assertEquals("abc", client.newCall(request).execute().body().string());
+
+    RecordedRequest recorded = server.takeRequest();
+    assertEquals(Long.toString(content.size()), recorded.getHeader("Content-Length"));
+    assertEquals(content.readByteString(), recorded.getBody().readByteString());
+  }
+
+  @Test public void downloadToFile() throws Exception {
+    Buffer content = DownloadTest.content(1024 * 1024);
+    server.enqueue(new MockResponse().setBody(content.clone()));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    File file = temporaryFolder.newFile();
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder()
+        .bufferSize(8192)
+        .progress(progress)
+        .build();
+    Request request = new Request.Builder().url(server.url("/")).build();
+    assertEquals(content.size(), client.newCall(request).execute().body().writeTo(file, options));
+    assertEquals(content.size(), progress.get());
+    assertEquals(content.readByteString(), DownloadTest.read(file));
+
+    // The connection is released for reuse once the body has been transferred.
+    assertEquals("b", client.newCall(request).execute().body().string());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test public void downloadTruncatedBody() throws Exception {
+    server.enqueue(new MockResponse()
+        .setBody(DownloadTest.content(64 * 1024))
+        .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+
+    Request request = new Request.Builder().url(server.url("/")).build();
+    Response response = client.newCall(request).execute();
+    try {
+      response.body().writeTo(temporaryFolder.newFile());
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void httpsGet() throws Exception {
+    enableTls();
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals("abc", response.body().string());
+    assertNotNull(response.handshake());
+  }
+
+  @Test public void httpsLargeBodies() throws Exception {
+    enableTls();
+    Buffer content = DownloadTest.content(1024 * 1024);
+    server.enqueue(new MockResponse().setBody(content.clone()));
+
+    Request request = new Request.Builder()
+        .url(server.url("/"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), content.snapshot()))
+        .build();
+    Response response = client.newCall(request).execute();
+    assertEquals(content.snapshot(), response.body().source().readByteString());
+    assertEquals(content.readByteString(), server.takeRequest().getBody().readByteString());
+  }
+
+  @Test public void httpsConnectionsAreReused() throws Exception {
+    enableTls();
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    Request request = new Request.Builder().url(server.url("/")).build();
+    assertEquals("a", client.newCall(request).execute().body().string());
+    assertEquals("b", client.newCall(request).execute().body().string());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test public void httpsUntrustedServer() throws Exception {
+    server.useHttps(sslContext.getSocketFactory(), false);
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    // The client's default SSL context doesn't trust the server's certificate.
+    client = client.newBuilder()
+        .retryOnConnectionFailure(false)
+        .build();
+    try {
+      client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+      fail();
+    } catch (SSLHandshakeException expected) {
+    }
+  }
+
+  @Test public void connectionsAreReused() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    Request request = new Request.Builder().url(server.url("/")).build();
+    assertEquals("a", client.newCall(request).execute().body().string());
+    assertEquals("b", client.newCall(request).execute().body().string());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test public void concurrentCallsShareOneEventLoop() throws Exception {
+    int callCount = 8;
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < callCount; i++) {
+      server.enqueue(new MockResponse()
+          .setBody("abcdef")
+          .throttleBody(2, 50, TimeUnit.MILLISECONDS));
+    }
+    for (int i = 0; i < callCount; i++) {
+      results.add(executor.submit(new Callable<String>() {
+        @Override public String call() throws Exception {
+          Request request = new Request.Builder().url(server.url("/")).build();
+          return client.newCall(request).execute().body().string();
+        }
+      }));
+    }
+    for (Future<String> result : results) {
+      assertEquals("abcdef", result.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test public void readTimeout() throws Exception {
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+    client = client.newBuilder()
+        .readTimeout(100, TimeUnit.MILLISECONDS)
+        .retryOnConnectionFailure(false)
+        .build();
+    try {
+      client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+      fail();
+    } catch (InterruptedIOException expected) {
+    }
+  }
+
+  @Test public void connectFailure() throws Exception {
+    ServerSocket serverSocket = new ServerSocket(0);
+    int port = serverSocket.getLocalPort();
+    serverSocket.close();
+
+    try {
+      client.newCall(new Request.Builder().url("http://127.0.0.1:" + port + "/").build())
+          .execute();
+      fail();
+    } catch (ConnectException expected) {
+    }
+  }
+
+  @Test public void cancelWakesBlockedRead() throws Exception {
+    server.enqueue(new MockResponse()
+        .setBody("abc")
+        .throttleBody(1, 750, TimeUnit.MILLISECONDS));
+
+    final Call call = client.newCall(new Request.Builder().url(server.url("/")).build());
+    final BufferedSource body = call.execute().body().source();
+    Future<Long> read = executor.submit(new Callable<Long>() {
+      @Override public Long call() throws Exception {
+        long start = System.nanoTime();
+        try {
+          body.readUtf8(3);
+          fail();
+        } catch (IOException expected) {
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      }
+    });
+
+    Thread.sleep(250);
+    call.cancel();
+    assertTrue(read.get(5, TimeUnit.SECONDS) < 1500); // Faster than reading the whole body.
+  }
+
+  private void enableTls() {
+    server.useHttps(sslContext.getSocketFactory(), false);
+    client = client.newBuilder()
+        .sslContext(sslContext)
+        .hostnameVerifier(new RecordingHostnameVerifier())
+        .build();
+  }
+}
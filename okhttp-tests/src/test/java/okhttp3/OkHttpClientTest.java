@@ -22,12 +22,15 @@ import java.net.ProxySelector;
 import java.net.ResponseCache;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import okhttp3.internal.Internal;
+import okhttp3.internal.http.ConnectionGroup;
 import org.junit.After;
 import org.junit.Test;
 
 import static okhttp3.TestUtil.defaultClient;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
@@ -112,6 +115,30 @@ public final class OkHttpClientTest {
     assertSame(a.sslSocketFactory(), b.sslSocketFactory());
   }
 
+  @Test public void connectionGroupRejectsInvalidBounds() throws Exception {
+    OkHttpClient.Builder builder = new OkHttpClient.Builder();
+    try {
+      builder.connectionGroup("a", 0, 4);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      builder.connectionGroup("a", 3, 2);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void connectionGroupHostIsCanonicalized() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .connectionGroup("Example.COM", 2, 4)
+        .build();
+    ConnectionGroup connectionGroup = Internal.instance.connectionGroup(client, "example.com");
+    assertEquals(2, connectionGroup.minConnections);
+    assertEquals(4, connectionGroup.maxConnections);
+    assertNull(Internal.instance.connectionGroup(client, "Example.COM"));
+  }
+
   @Test public void setProtocolsRejectsHttp10() throws Exception {
     OkHttpClient.Builder builder = new OkHttpClient.Builder();
     try {
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipeliningTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private OkHttpClient client;
+
+  @Before public void setUp() throws Exception {
+    client = new OkHttpClient.Builder()
+        .pipelining(server.getHostName(), 4)
+        .build();
+  }
+
+  @After public void tearDown() throws Exception {
+    executor.shutdown();
+  }
+
+  @Test public void pipelinedCallsShareOneConnection() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/a")).build()).execute();
+    Future<String> second = executeAsync(new Request.Builder().url(server.url("/b")).build());
+
+    // The second request is sent before the first response body is consumed.
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+    assertEquals("a", first.body().string());
+    assertEquals("b", second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test public void responsesAreReadInOrder() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+    server.enqueue(new MockResponse().setBody("c"));
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/a")).build()).execute();
+    Future<String> second = executeAsync(new Request.Builder().url(server.url("/b")).build());
+    assertEquals("/a", server.takeRequest().getPath());
+    assertEquals("/b", server.takeRequest().getPath());
+    Future<String> third = executeAsync(new Request.Builder().url(server.url("/c")).build());
+    assertEquals(2, server.takeRequest().getSequenceNumber());
+
+    assertEquals("a", first.body().string());
+    assertEquals("b", second.get(5, TimeUnit.SECONDS));
+    assertEquals("c", third.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test public void postIsNotPipelined() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+    Request post = new Request.Builder()
+        .url(server.url("/"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), "body"))
+        .build();
+    assertEquals("b", client.newCall(post).execute().body().string());
+    assertEquals("a", first.body().string());
+
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+  }
+
+  /** HEAD calls get an extensive health check, which can't share a socket with other calls. */
+  @Test public void headIsNotPipelined() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse());
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+    Request head = new Request.Builder()
+        .url(server.url("/"))
+        .head()
+        .build();
+    assertEquals(200, client.newCall(head).execute().code());
+    assertEquals("a", first.body().string());
+
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test public void hostsThatArentPipelinedUseSeparateConnections() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    client = new OkHttpClient.Builder()
+        .pipelining("other.example.com", 4)
+        .build();
+    Response first = client.newCall(new Request.Builder().url(server.url("/")).build()).execute();
+    assertEquals("b", executeAsync(new Request.Builder().url(server.url("/")).build())
+        .get(5, TimeUnit.SECONDS));
+    assertEquals("a", first.body().string());
+
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+  }
+
+  @Test public void callsQueuedBehindADisconnectAreRetried() throws Exception {
+    server.enqueue(new MockResponse()
+        .setBody("a")
+        .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    final CountDownLatch joined = new CountDownLatch(1);
+    client = client.newBuilder()
+        .addNetworkInterceptor(new Interceptor() {
+          @Override public Response intercept(Chain chain) throws IOException {
+            if (chain.request().url().encodedPath().equals("/b")) joined.countDown();
+            return chain.proceed(chain.request());
+          }
+        })
+        .build();
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/a")).build()).execute();
+    Future<String> second = executeAsync(new Request.Builder().url(server.url("/b")).build());
+    assertTrue(joined.await(5, TimeUnit.SECONDS));
+    assertEquals("a", first.body().string());
+    assertEquals("b", second.get(5, TimeUnit.SECONDS));
+
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(0, server.takeRequest().getSequenceNumber()); // The retry used a new connection.
+  }
+
+  @Test public void callsQueuedBehindAnAbandonedBodyAreRetried() throws Exception {
+    Buffer body = new Buffer();
+    for (int i = 0; i < 32 * 1024; i++) {
+      body.writeUtf8("a\n");
+    }
+    server.enqueue(new MockResponse()
+        .setBody(body)
+        .throttleBody(1024, 1, TimeUnit.SECONDS));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    final CountDownLatch joined = new CountDownLatch(1);
+    client = client.newBuilder()
+        .addNetworkInterceptor(new Interceptor() {
+          @Override public Response intercept(Chain chain) throws IOException {
+            if (chain.request().url().encodedPath().equals("/b")) joined.countDown();
+            return chain.proceed(chain.request());
+          }
+        })
+        .build();
+
+    Response first = client.newCall(new Request.Builder().url(server.url("/a")).build()).execute();
+    Future<String> second = executeAsync(new Request.Builder().url(server.url("/b")).build());
+    assertTrue(joined.await(5, TimeUnit.SECONDS));
+    assertEquals("a", first.body().source().readUtf8LineStrict());
+
+    // The rest of the first body can't be discarded in time, so the connection is unusable.
+    first.body().close();
+    assertEquals("b", second.get(5, TimeUnit.SECONDS));
+
+    assertEquals("/a", server.takeRequest().getPath());
+    RecordedRequest retry = server.takeRequest();
+    assertEquals("/b", retry.getPath());
+    assertEquals(0, retry.getSequenceNumber()); // The retry used a new connection.
+  }
+
+  @Test public void maxPipelinedCallsMustBePositive() throws Exception {
+    try {
+      new OkHttpClient.Builder().pipelining("example.com", 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertEquals(1, new OkHttpClient().maxPipelinedCalls("example.com"));
+    assertEquals(4, client.maxPipelinedCalls(server.getHostName()));
+  }
+
+  @Test public void pipeliningHostIsCanonicalized() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .pipelining("Example.COM", 4)
+        .build();
+    assertEquals(4, client.maxPipelinedCalls("example.com"));
+  }
+
+  private Future<String> executeAsync(final Request request) {
+    return executor.submit(new Callable<String>() {
+      @Override public String call() throws Exception {
+        return client.newCall(request).execute().body().string();
+      }
+    });
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class RangedDownloadTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ObjectDispatcher dispatcher = new ObjectDispatcher();
+  private final OkHttpClient client = new OkHttpClient();
+  private final RangedDownload download = new RangedDownload.Builder(client)
+      .parallelism(3)
+      .rangeSize(10000)
+      .maxRetries(1)
+      .build();
+  private File file;
+
+  @Before public void setUp() throws Exception {
+    server.setDispatcher(dispatcher);
+    file = temporaryFolder.newFile();
+  }
+
+  @Test public void downloadRanges() throws Exception {
+    dispatcher.object = object(100500);
+
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder().progress(progress).build();
+    assertEquals(100500, download.download(request(), file, options));
+    assertEquals(dispatcher.object, DownloadTest.read(file));
+    assertEquals(100500, progress.get());
+
+    Set<String> expected = new LinkedHashSet<>();
+    for (int start = 0; start < 100500; start += 10000) {
+      expected.add("bytes=" + start + "-" + (Math.min(start + 10000, 100500) - 1));
+    }
+    assertEquals(expected, new LinkedHashSet<>(dispatcher.ranges));
+  }
+
+  @Test public void rangeRequestsHaveValidatorAndNoCompression() throws Exception {
+    dispatcher.object = object(25000);
+
+    download.download(request(), file);
+    RecordedRequest first = server.takeRequest();
+    assertEquals("identity", first.getHeader("Accept-Encoding"));
+    assertEquals(null, first.getHeader("If-Range"));
+    for (int i = 1; i < 3; i++) {
+      RecordedRequest range = server.takeRequest();
+      assertEquals("identity", range.getHeader("Accept-Encoding"));
+      assertEquals("\"v1\"", range.getHeader("If-Range"));
+    }
+  }
+
+  @Test public void smallObjectIsFetchedWithOneRequest() throws Exception {
+    dispatcher.object = object(500);
+
+    assertEquals(500, download.download(request(), file));
+    assertEquals(dispatcher.object, DownloadTest.read(file));
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test public void serverIgnoresRanges() throws Exception {
+    dispatcher.object = object(50000);
+    dispatcher.supportsRanges = false;
+
+    assertEquals(50000, download.download(request(), file));
+    assertEquals(dispatcher.object, DownloadTest.read(file));
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test public void emptyObject() throws Exception {
+    dispatcher.object = ByteString.EMPTY;
+
+    assertEquals(0, download.download(request(), file));
+    assertEquals(0, file.length());
+  }
+
+  @Test public void failedRangeIsResumed() throws Exception {
+    dispatcher.object = object(40000);
+    dispatcher.disconnectOnce.add(20000L);
+
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder().progress(progress).build();
+    assertEquals(40000, download.download(request(), file, options));
+    assertEquals(dispatcher.object, DownloadTest.read(file));
+    assertEquals(40000, progress.get());
+    assertTrue(dispatcher.ranges.toString(), dispatcher.ranges.contains("bytes=25000-29999"));
+  }
+
+  @Test public void rangeFailsAfterRetries() throws Exception {
+    dispatcher.object = object(40000);
+    dispatcher.disconnectOnce.add(20000L);
+    dispatcher.disconnectOnce.add(25000L);
+
+    try {
+      download.download(request(), file);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void interruptedDownloadWaitsForRanges() throws Exception {
+    dispatcher.object = object(40000);
+    dispatcher.throttle = true;
+
+    final Thread downloadThread = Thread.currentThread();
+    new Thread() {
+      @Override public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          throw new AssertionError();
+        }
+        downloadThread.interrupt();
+      }
+    }.start();
+
+    AtomicLong progress = new AtomicLong();
+    DownloadOptions options = new DownloadOptions.Builder().progress(progress).build();
+    try {
+      download.download(request(), file, options);
+      fail();
+    } catch (IOException expected) {
+    }
+    Thread.interrupted(); // Clear the interrupt for the next test.
+
+    // Every range stopped writing before the download returned.
+    long written = progress.get();
+    assertTrue(written < 40000);
+    Thread.sleep(200);
+    assertEquals(written, progress.get());
+  }
+
+  @Test public void objectChangedDuringDownload() throws Exception {
+    dispatcher.object = object(40000);
+    dispatcher.changeAfterFirstRequest = true;
+
+    try {
+      download.download(request(), file);
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().startsWith("Object changed"));
+    }
+
+    // The changed responses were closed, releasing their connections.
+    ConnectionPool pool = client.connectionPool();
+    assertEquals(pool.connectionCount(), pool.idleConnectionCount());
+  }
+
+  @Test public void onlyGetIsSupported() throws Exception {
+    Request request = request().newBuilder()
+        .post(RequestBody.create(MediaType.parse("text/plain"), "a"))
+        .build();
+    try {
+      download.download(request, file);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private Request request() {
+    return new Request.Builder().url(server.url("/object")).build();
+  }
+
+  private static ByteString object(int size) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) (i % 251);
+    }
+    return ByteString.of(bytes);
+  }
+
+  /** Serves byte ranges of an object, like a server with static files. */
+  static final class ObjectDispatcher extends Dispatcher {
+    ByteString object;
+    boolean supportsRanges = true;
+    boolean changeAfterFirstRequest;
+    boolean throttle;
+    final Set<Long> disconnectOnce = Collections.synchronizedSet(new LinkedHashSet<Long>());
+    final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    int requestCount;
+
+    @Override public synchronized MockResponse dispatch(RecordedRequest request) {
+      String etag = changeAfterFirstRequest && requestCount++ > 0 ? "\"v2\"" : "\"v1\"";
+      String range = request.getHeader("Range");
+      String ifRange = request.getHeader("If-Range");
+      if (range != null) ranges.add(range);
+
+      if (!supportsRanges || range == null || (ifRange != null && !ifRange.equals(etag))) {
+        return new MockResponse()
+            .setHeader("ETag", etag)
+            .setBody(new Buffer().write(object));
+      }
+      if (object.size() == 0) {
+        return new MockResponse().setResponseCode(416);
+      }
+
+      int dash = range.indexOf('-');
+      int start = Integer.parseInt(range.substring("bytes=".length(), dash));
+      int end = Math.min(Integer.parseInt(range.substring(dash + 1)), object.size() - 1);
+      MockResponse response = new MockResponse()
+          .setResponseCode(206)
+          .setHeader("ETag", etag)
+          .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + object.size())
+          .setBody(new Buffer().write(object.substring(start, end + 1)));
+      if (throttle) {
+        response.throttleBody(1024, 10, MILLISECONDS);
+      }
+      if (disconnectOnce.remove((long) start)) {
+        response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+      }
+      return response;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.SocketFactory;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SocketOptionsTest {
+  @Rule public final MockWebServer server = new MockWebServer();
+
+  private final List<Socket> sockets = new ArrayList<>();
+  private final SocketFactory socketFactory =
+      new DelegatingSocketFactory(SocketFactory.getDefault()) {
+        @Override protected Socket configureSocket(Socket socket) throws IOException {
+          sockets.add(socket);
+          return socket;
+        }
+      };
+
+  @Test public void defaultsChangeNothing() throws Exception {
+    SocketOptions options = SocketOptions.DEFAULT;
+    assertNull(options.tcpNoDelay());
+    assertNull(options.keepAlive());
+    assertEquals(0, options.sendBufferSize());
+    assertEquals(0, options.receiveBufferSize());
+    assertEquals(-1, options.trafficClass());
+  }
+
+  @Test public void applyBeforeConnect() throws Exception {
+    SocketOptions options = new SocketOptions.Builder()
+        .tcpNoDelay(true)
+        .keepAlive(true)
+        .receiveBufferSize(128 * 1024)
+        .build();
+    Socket socket = new Socket();
+    try {
+      options.apply(socket);
+      assertTrue(socket.getTcpNoDelay());
+      assertTrue(socket.getKeepAlive());
+      assertTrue(socket.getReceiveBufferSize() > 0);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test public void equalsAndHashCode() throws Exception {
+    SocketOptions a = new SocketOptions.Builder().tcpNoDelay(true).build();
+    SocketOptions b = SocketOptions.DEFAULT.newBuilder().tcpNoDelay(true).build();
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertEquals(SocketOptions.LATENCY, a);
+    assertFalse(a.equals(SocketOptions.DEFAULT));
+    assertFalse(SocketOptions.THROUGHPUT.equals(SocketOptions.DEFAULT));
+  }
+
+  @Test public void invalidValuesAreRejected() throws Exception {
+    try {
+      new SocketOptions.Builder().receiveBufferSize(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new SocketOptions.Builder().trafficClass(256);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void hostOptionsOverrideDefaults() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketOptions(SocketOptions.LATENCY)
+        .socketOptions("downloads.example.com", SocketOptions.THROUGHPUT)
+        .build();
+    assertEquals(SocketOptions.LATENCY, client.socketOptions("api.example.com"));
+    assertEquals(SocketOptions.THROUGHPUT, client.socketOptions("downloads.example.com"));
+    assertEquals(SocketOptions.THROUGHPUT,
+        client.newBuilder().build().socketOptions("downloads.example.com"));
+  }
+
+  @Test public void hostOptionsAreCanonicalized() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketOptions("Downloads.Example.COM", SocketOptions.THROUGHPUT)
+        .socketOptions("[0:0:0:0:0:0:0:1]", SocketOptions.LATENCY)
+        .build();
+    assertEquals(SocketOptions.THROUGHPUT, client.socketOptions("downloads.example.com"));
+    assertEquals(SocketOptions.LATENCY, client.socketOptions("::1"));
+  }
+
+  @Test public void hostOptionsRejectInvalidHosts() throws Exception {
+    try {
+      new OkHttpClient.Builder().socketOptions("a b", SocketOptions.LATENCY);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void optionsAreAppliedToConnections() throws Exception {
+    server.enqueue(new MockResponse().setBody("abc"));
+
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketFactory(socketFactory)
+        .socketOptions(server.getHostName(), new SocketOptions.Builder()
+            .tcpNoDelay(true)
+            .keepAlive(true)
+            .build())
+        .build();
+
+    Response response = client.newCall(new Request.Builder().url(server.url("/")).build())
+        .execute();
+    assertEquals(1, sockets.size());
+    assertTrue(sockets.get(0).getTcpNoDelay());
+    assertTrue(sockets.get(0).getKeepAlive());
+    assertEquals("abc", response.body().string());
+  }
+
+  @Test public void connectionsWithDifferentOptionsAreNotShared() throws Exception {
+    server.enqueue(new MockResponse().setBody("a"));
+    server.enqueue(new MockResponse().setBody("b"));
+
+    OkHttpClient client = new OkHttpClient.Builder()
+        .socketFactory(socketFactory)
+        .build();
+    Request request = new Request.Builder().url(server.url("/")).build();
+    assertEquals("a", client.newCall(request).execute().body().string());
+
+    OkHttpClient latencyClient = client.newBuilder()
+        .socketOptions(SocketOptions.LATENCY)
+        .build();
+    assertEquals("b", latencyClient.newCall(request).execute().body().string());
+    assertEquals(2, sockets.size());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.SSLSession;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TlsSessionCacheTest {
+  private final TlsSessionCache cache = new TlsSessionCache(2);
+  private final List<SSLSession> invalidated = new ArrayList<>();
+
+  @Test public void newSessionIsFullHandshake() throws Exception {
+    assertFalse(cache.handshakeCompleted("a", 443, session(1, 1000L), 1000L));
+    assertEquals(0, cache.resumedHandshakeCount());
+    assertEquals(1, cache.fullHandshakeCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test public void sameSessionIdIsResumed() throws Exception {
+    cache.handshakeCompleted("a", 443, session(1, 1000L), 1000L);
+    assertTrue(cache.handshakeCompleted("a", 443, session(1, 2000L), 2000L));
+    assertEquals(1, cache.resumedHandshakeCount());
+    assertEquals(1, cache.fullHandshakeCount());
+  }
+
+  @Test public void sessionCreatedBeforeHandshakeIsResumed() throws Exception {
+    // The provider resumed a session that this cache didn't know about, like one for another port.
+    assertTrue(cache.handshakeCompleted("a", 443, session(1, 1000L), 2000L));
+  }
+
+  @Test public void sessionIdsAreScopedToHostAndPort() throws Exception {
+    cache.handshakeCompleted("a", 443, session(1, 1000L), 1000L);
+    assertFalse(cache.handshakeCompleted("a", 8443, session(1, 2000L), 2000L));
+    assertFalse(cache.handshakeCompleted("b", 443, session(1, 3000L), 3000L));
+  }
+
+  @Test public void leastRecentlyUsedSessionIsEvicted() throws Exception {
+    cache.handshakeCompleted("a", 443, session(1, 1000L), 1000L);
+    cache.handshakeCompleted("b", 443, session(2, 1000L), 1000L);
+    cache.handshakeCompleted("c", 443, session(3, 1000L), 1000L);
+    assertEquals(2, cache.size());
+    assertFalse(cache.handshakeCompleted("a", 443, session(1, 2000L), 2000L));
+  }
+
+  @Test public void invalidatedSessionIsForgotten() throws Exception {
+    SSLSession session = session(1, 1000L);
+    cache.handshakeCompleted("a", 443, session, 1000L);
+    cache.invalidate("a", 443, session);
+    assertEquals(0, cache.size());
+    assertEquals(1, invalidated.size());
+  }
+
+  @Test public void evictAllInvalidatesSessions() throws Exception {
+    cache.handshakeCompleted("a", 443, session(1, 1000L), 1000L);
+    cache.handshakeCompleted("b", 443, session(2, 1000L), 1000L);
+    cache.evictAll();
+    assertEquals(0, cache.size());
+    assertEquals(2, invalidated.size());
+  }
+
+  private SSLSession session(final int id, final long creationTime) {
+    return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(),
+        new Class<?>[] {SSLSession.class}, new InvocationHandler() {
+          @Override public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+              case "getId":
+                return new byte[] {(byte) id};
+              case "getCreationTime":
+                return creationTime;
+              case "invalidate":
+                invalidated.add((SSLSession) proxy);
+                return null;
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              case "equals":
+                return proxy == args[0];
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          }
+        });
+  }
+}
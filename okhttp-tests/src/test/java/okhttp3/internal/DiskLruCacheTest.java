@@ -786,6 +786,35 @@ public final class DiskLruCacheTest {
     assertValue("a", "a", "a2");
   }
 
+  @Test public void isCurrentAndEditBySequenceNumber() throws Exception {
+    set("a", "a", "a");
+    DiskLruCache.Snapshot snapshot = cache.get("a");
+    snapshot.close();
+    assertTrue(cache.isCurrent("a", snapshot.sequenceNumber()));
+    assertFalse(cache.isCurrent("b", snapshot.sequenceNumber()));
+
+    DiskLruCache.Editor editor = cache.edit("a", snapshot.sequenceNumber());
+    setString(editor, 1, "a2");
+    editor.commit();
+    assertFalse(cache.isCurrent("a", snapshot.sequenceNumber()));
+    assertTrue(cache.isCurrent("a", editor.sequenceNumber()));
+    assertNull(cache.edit("a", snapshot.sequenceNumber()));
+
+    cache.remove("a");
+    assertFalse(cache.isCurrent("a", editor.sequenceNumber()));
+  }
+
+  @Test public void isCurrentAfterReopenAndEdit() throws Exception {
+    set("a", "a", "a");
+    cache.close();
+    createNewCache();
+
+    DiskLruCache.Snapshot snapshot = cache.get("a");
+    snapshot.close();
+    set("a", "a2", "a2");
+    assertFalse(cache.isCurrent("a", snapshot.sequenceNumber()));
+  }
+
   @Test public void editSnapshotAfterChangeCommitted() throws Exception {
     set("a", "a", "a");
     DiskLruCache.Snapshot snapshot = cache.get("a");
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.util.Collections;
+import javax.net.SocketFactory;
+import okhttp3.Address;
+import okhttp3.Authenticator;
+import okhttp3.ConnectionSpec;
+import okhttp3.Dns;
+import okhttp3.Protocol;
+import okhttp3.Route;
+import okio.Buffer;
+import org.junit.Test;
+
+import static okhttp3.internal.RouteDatabase.HALF_LIFE_NANOS;
+import static okhttp3.internal.RouteDatabase.INITIAL_BACKOFF_NANOS;
+import static okhttp3.internal.RouteDatabase.MAX_BACKOFF_NANOS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class RouteDatabaseTest {
+  private final RouteDatabase routeDatabase = new RouteDatabase();
+  private final Route routeA = newRoute(1);
+  private final Route routeB = newRoute(2);
+
+  @Test public void failedRouteIsPostponedUntilBackoffElapses() throws Exception {
+    routeDatabase.failed(routeA, 0L);
+    assertTrue(routeDatabase.shouldPostpone(routeA, 0L));
+    assertTrue(routeDatabase.shouldPostpone(routeA, INITIAL_BACKOFF_NANOS - 1));
+    assertFalse(routeDatabase.shouldPostpone(routeA, INITIAL_BACKOFF_NANOS));
+    assertFalse(routeDatabase.shouldPostpone(routeB, 0L));
+  }
+
+  @Test public void backoffDoublesWithConsecutiveFailures() throws Exception {
+    routeDatabase.failed(routeA, 0L);
+    routeDatabase.failed(routeA, 0L);
+    assertTrue(routeDatabase.shouldPostpone(routeA, 2 * INITIAL_BACKOFF_NANOS - 1));
+    assertFalse(routeDatabase.shouldPostpone(routeA, 2 * INITIAL_BACKOFF_NANOS));
+
+    assertEquals(MAX_BACKOFF_NANOS, RouteDatabase.backoffNanos(100));
+  }
+
+  @Test public void failedRoutesCount() throws Exception {
+    routeDatabase.failed(routeA);
+    routeDatabase.failed(routeB);
+    routeDatabase.connected(routeB, 10L);
+    assertEquals(1, routeDatabase.failedRoutesCount());
+  }
+
+  @Test public void connectingResetsBackoff() throws Exception {
+    routeDatabase.failed(routeA, 0L);
+    routeDatabase.connected(routeA, 10L, 1L);
+    assertFalse(routeDatabase.shouldPostpone(routeA, 1L));
+  }
+
+  @Test public void expectedConnectTimeIsAverageOfRecentConnects() throws Exception {
+    assertEquals(0L, routeDatabase.expectedConnectNanos(routeA, 0L));
+
+    routeDatabase.connected(routeA, 100L, 0L);
+    routeDatabase.connected(routeA, 300L, 0L);
+    assertEquals(200L, routeDatabase.expectedConnectNanos(routeA, 0L));
+  }
+
+  @Test public void oldConnectTimesCountForLess() throws Exception {
+    routeDatabase.connected(routeA, 100L, 0L);
+    // One half-life later, the old sample has half the weight of the new one.
+    routeDatabase.connected(routeA, 400L, HALF_LIFE_NANOS);
+    assertEquals(300L, routeDatabase.expectedConnectNanos(routeA, HALF_LIFE_NANOS));
+  }
+
+  @Test public void outpacedRouteIsChargedItsElapsedTimeButNotPostponed() throws Exception {
+    routeDatabase.connected(routeA, 100L, 0L);
+    routeDatabase.outpaced(routeA, 300L, 0L);
+    assertEquals(200L, routeDatabase.expectedConnectNanos(routeA, 0L));
+    assertFalse(routeDatabase.shouldPostpone(routeA, 0L));
+    assertEquals(0, routeDatabase.failedRoutesCount());
+  }
+
+  @Test public void outpacedRouteKeepsItsBackoff() throws Exception {
+    routeDatabase.failed(routeA, 0L);
+    routeDatabase.outpaced(routeA, 300L, 1L);
+    assertTrue(routeDatabase.shouldPostpone(routeA, 1L));
+  }
+
+  @Test public void failuresArePenalizedAndFade() throws Exception {
+    routeDatabase.failed(routeA, 0L);
+    assertEquals(RouteDatabase.FAILURE_PENALTY_NANOS,
+        routeDatabase.expectedConnectNanos(routeA, 0L));
+    assertEquals(RouteDatabase.FAILURE_PENALTY_NANOS / 2,
+        routeDatabase.expectedConnectNanos(routeA, HALF_LIFE_NANOS));
+  }
+
+  @Test public void historySurvivesWriteAndRead() throws Exception {
+    routeDatabase.connected(routeA, 100L, 0L);
+    routeDatabase.failed(routeB, 0L);
+    Buffer buffer = new Buffer();
+    routeDatabase.writeHistory(buffer, 0L, 1000L);
+
+    // Another process reads the history one second later with an unrelated nanoTime() origin.
+    RouteDatabase restored = new RouteDatabase();
+    long now = 7_000_000_000L;
+    restored.readHistory(buffer, now, 2000L);
+    assertTrue(buffer.exhausted());
+
+    assertEquals(100L, restored.expectedConnectNanos(routeA, now), 1L);
+    assertTrue(restored.shouldPostpone(routeB, now));
+    assertFalse(restored.shouldPostpone(routeB, now + INITIAL_BACKOFF_NANOS - 1_000_000_000L));
+  }
+
+  @Test public void restoredHistoryDoesNotReplaceNewerHistory() throws Exception {
+    RouteDatabase previous = new RouteDatabase();
+    previous.failed(routeA, 0L);
+    Buffer buffer = new Buffer();
+    previous.writeHistory(buffer, 0L, 1000L);
+
+    routeDatabase.connected(routeA, 100L, 0L);
+    routeDatabase.readHistory(buffer, 0L, 1000L);
+    assertFalse(routeDatabase.shouldPostpone(routeA, 0L));
+    assertEquals(100L, routeDatabase.expectedConnectNanos(routeA, 0L));
+  }
+
+  private static Route newRoute(int lastOctet) {
+    try {
+      Address address = new Address("a", 80, Dns.SYSTEM, SocketFactory.getDefault(), null, null,
+          null, Authenticator.NONE, null, Collections.singletonList(Protocol.HTTP_1_1),
+          Collections.singletonList(ConnectionSpec.CLEARTEXT), ProxySelector.getDefault());
+      InetAddress inetAddress = InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) lastOctet});
+      return new Route(address, Proxy.NO_PROXY, new InetSocketAddress(inetAddress, 80));
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public final class SegmentedLruCacheTest {
+  private final SegmentedLruCache<String, String> cache = new SegmentedLruCache<>(100);
+
+  @Test public void putGetRemove() {
+    cache.put("a", "A", 10);
+    cache.put("b", "B", 20);
+    assertEquals("A", cache.get("a"));
+    assertEquals("B", cache.get("b"));
+    assertNull(cache.get("c"));
+    assertEquals(30, cache.size());
+
+    assertEquals("A", cache.remove("a"));
+    assertNull(cache.remove("a"));
+    assertNull(cache.get("a"));
+    assertEquals(20, cache.size());
+  }
+
+  @Test public void putReplaces() {
+    cache.put("a", "A", 10);
+    cache.put("a", "A2", 30);
+    assertEquals("A2", cache.get("a"));
+    assertEquals(30, cache.size());
+  }
+
+  @Test public void evictsLeastRecentlyUsedProbationaryValue() {
+    cache.put("a", "A", 40);
+    cache.put("b", "B", 40);
+    cache.put("c", "C", 40);
+    assertNull(cache.get("a"));
+    assertEquals("B", cache.get("b"));
+    assertEquals("C", cache.get("c"));
+    assertEquals(80, cache.size());
+  }
+
+  @Test public void readValuesSurviveScans() {
+    cache.put("hot", "H", 30);
+    assertEquals("H", cache.get("hot"));
+
+    // Values that are never read are evicted before the protected one.
+    for (int i = 0; i < 10; i++) {
+      cache.put("scan" + i, "S", 30);
+    }
+    assertEquals("H", cache.get("hot"));
+    assertEquals(90, cache.size());
+  }
+
+  @Test public void protectedOverflowIsDemoted() {
+    cache.put("a", "A", 40);
+    cache.put("b", "B", 40);
+    cache.get("a");
+    cache.get("b"); // The protected segment holds 80; both fit.
+    cache.put("c", "C", 10);
+    cache.get("c"); // Demotes "a", the least recently used protected value.
+
+    cache.put("d", "D", 20); // Evicts "a".
+    assertNull(cache.get("a"));
+    assertEquals("B", cache.get("b"));
+    assertEquals("C", cache.get("c"));
+    assertEquals("D", cache.get("d"));
+  }
+
+  @Test public void valueLargerThanMaxSizeIsNotStored() {
+    cache.put("a", "A", 10);
+    cache.put("a", "A2", 101);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test public void evictAll() {
+    cache.put("a", "A", 10);
+    cache.get("a");
+    cache.put("b", "B", 10);
+    cache.evictAll();
+    assertNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test public void maxSizeMustBePositive() {
+    try {
+      new SegmentedLruCache<String, String>(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static okhttp3.internal.framed.BdpEstimator.HTTP2_DEFAULT_WINDOW;
+import static okhttp3.internal.framed.BdpEstimator.INITIAL_WINDOW;
+import static okhttp3.internal.framed.BdpEstimator.PROBE_THRESHOLD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class BdpEstimatorTest {
+  private static final long RTT = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final BdpEstimator.Budget budget = new BdpEstimator.Budget(4 * 1024 * 1024);
+  private final BdpEstimator estimator = new BdpEstimator(budget);
+
+  @Test public void probesOnlyAfterThreshold() {
+    assertFalse(estimator.dataReceived(PROBE_THRESHOLD - 1));
+    assertTrue(estimator.dataReceived(1));
+    assertFalse(estimator.dataReceived(PROBE_THRESHOLD)); // Already probing.
+    estimator.pingAcknowledged(RTT);
+    assertFalse(estimator.dataReceived(PROBE_THRESHOLD - 1));
+    assertTrue(estimator.dataReceived(1));
+  }
+
+  @Test public void growsWhenSampleFillsWindow() {
+    assertEquals(2 * 800000, sample(800000));
+    assertEquals(2 * 800000, budget.reserved());
+  }
+
+  @Test public void keepsWindowForModerateSamples() {
+    assertEquals(INITIAL_WINDOW, sample(INITIAL_WINDOW / 2));
+    assertEquals(INITIAL_WINDOW, sample(INITIAL_WINDOW / 2));
+    assertEquals(INITIAL_WINDOW, sample(INITIAL_WINDOW / 2));
+  }
+
+  @Test public void shrinksAfterSmallSamples() {
+    assertEquals(3000000, sample(1500000));
+    assertEquals(3000000, sample(1000));
+    assertEquals(3000000, sample(1000));
+    assertEquals(1500000, sample(1000));
+    assertEquals(1500000, estimator.window());
+  }
+
+  @Test public void shrinkingKeepsReservationUntilCreditIsRead() {
+    assertEquals(3000000, sample(1500000));
+    sample(1000);
+    sample(1000);
+    assertEquals(1500000, sample(1000));
+    assertEquals(3000000, budget.reserved());
+
+    // The peer may still send the bytes the connection withholds updates for.
+    estimator.creditOwed(1500000);
+    assertEquals(3000000, budget.reserved());
+    estimator.creditOwed(500000);
+    assertEquals(2000000, budget.reserved());
+    estimator.creditOwed(0);
+    assertEquals(1500000, budget.reserved());
+  }
+
+  @Test public void doesNotShrinkBelowInitialWindow() {
+    for (int i = 0; i < 30; i++) {
+      sample(1000);
+    }
+    assertEquals(INITIAL_WINDOW, estimator.window());
+
+    sample(1500000);
+    for (int i = 0; i < 30; i++) {
+      sample(1000);
+    }
+    assertEquals(INITIAL_WINDOW, estimator.window());
+    estimator.creditOwed(0);
+    assertEquals(INITIAL_WINDOW, budget.reserved());
+  }
+
+  @Test public void growthIsLimitedByBudget() {
+    BdpEstimator other = new BdpEstimator(budget);
+    assertTrue(other.dataReceived(PROBE_THRESHOLD));
+    other.dataReceived(4 * 1024 * 1024);
+    assertEquals(3 * INITIAL_WINDOW, other.pingAcknowledged(RTT));
+    assertEquals(4 * INITIAL_WINDOW, budget.reserved());
+
+    assertEquals(INITIAL_WINDOW, sample(INITIAL_WINDOW));
+
+    other.release();
+    assertEquals(INITIAL_WINDOW, budget.reserved());
+    assertEquals(2 * INITIAL_WINDOW, sample(INITIAL_WINDOW));
+  }
+
+  @Test public void initialWindowIsLimitedByBudget() {
+    BdpEstimator second = new BdpEstimator(budget);
+    BdpEstimator third = new BdpEstimator(budget);
+    budget.reserve(INITIAL_WINDOW / 2, 0);
+    assertEquals(3 * INITIAL_WINDOW + INITIAL_WINDOW / 2, budget.reserved());
+
+    BdpEstimator fourth = new BdpEstimator(budget);
+    assertEquals(INITIAL_WINDOW / 2, fourth.window());
+    assertEquals(4 * INITIAL_WINDOW, budget.reserved());
+
+    // HTTP/2 connections start with a small window that can't be withheld.
+    BdpEstimator fifth = new BdpEstimator(budget);
+    assertEquals(HTTP2_DEFAULT_WINDOW, fifth.window());
+    assertEquals(4 * INITIAL_WINDOW + HTTP2_DEFAULT_WINDOW, budget.reserved());
+
+    // Windows that start small don't grow while the budget is spent.
+    assertTrue(fifth.dataReceived(PROBE_THRESHOLD));
+    fifth.dataReceived(HTTP2_DEFAULT_WINDOW);
+    assertEquals(HTTP2_DEFAULT_WINDOW, fifth.pingAcknowledged(RTT));
+
+    second.release();
+    third.release();
+    assertEquals(2 * HTTP2_DEFAULT_WINDOW, sample(fifth, HTTP2_DEFAULT_WINDOW));
+  }
+
+  @Test public void releaseReturnsReservation() {
+    sample(INITIAL_WINDOW);
+    assertEquals(2 * INITIAL_WINDOW, budget.reserved());
+    estimator.release();
+    assertEquals(0, budget.reserved());
+    estimator.release();
+    assertEquals(0, budget.reserved());
+  }
+
+  @Test public void failedPingDoesNotResize() {
+    assertTrue(estimator.dataReceived(PROBE_THRESHOLD));
+    estimator.dataReceived(INITIAL_WINDOW);
+    assertEquals(INITIAL_WINDOW, estimator.pingAcknowledged(-1));
+  }
+
+  /** Takes a sample that receives {@code byteCount} bytes in a round trip. */
+  private int sample(long byteCount) {
+    return sample(estimator, byteCount);
+  }
+
+  private int sample(BdpEstimator estimator, long byteCount) {
+    assertTrue(estimator.dataReceived(PROBE_THRESHOLD));
+    estimator.dataReceived(byteCount);
+    return estimator.pingAcknowledged(RTT);
+  }
+}
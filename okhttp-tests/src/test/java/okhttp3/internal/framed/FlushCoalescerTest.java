@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class FlushCoalescerTest {
+  private final FlushCoalescer coalescer = new FlushCoalescer();
+
+  @Test public void loneWriterFlushesImmediately() {
+    coalescer.beginWrite();
+    assertTrue(coalescer.endWrite(true));
+    coalescer.beginWrite();
+    assertFalse(coalescer.endWrite(false));
+  }
+
+  @Test public void lastWriterFlushesForEarlierWriters() {
+    coalescer.beginWrite();
+    coalescer.beginWrite();
+    coalescer.beginWrite();
+    assertFalse(coalescer.endWrite(true));
+    assertFalse(coalescer.endWrite(true));
+    assertTrue(coalescer.endWrite(false));
+
+    // The owed flush was taken.
+    coalescer.beginWrite();
+    assertFalse(coalescer.endWrite(false));
+  }
+
+  @Test public void writesThatDontNeedFlushingDontFlush() {
+    coalescer.beginWrite();
+    coalescer.beginWrite();
+    assertFalse(coalescer.endWrite(false));
+    assertFalse(coalescer.endWrite(false));
+  }
+
+  @Test public void endWithoutBegin() {
+    try {
+      coalescer.endWrite(true);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
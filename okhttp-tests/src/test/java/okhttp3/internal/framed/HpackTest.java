@@ -16,6 +16,7 @@
 package okhttp3.internal.framed;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import okio.Buffer;
@@ -37,7 +38,7 @@ public class HpackTest {
 
   @Before public void reset() {
     hpackReader = newReader(bytesIn);
-    hpackWriter = new Hpack.Writer(bytesOut);
+    hpackWriter = new Hpack.Writer(false, bytesOut);
   }
 
   /**
@@ -215,9 +216,6 @@ public class HpackTest {
     bytesIn.writeByte(0x0d); // Literal value (len = 13)
     bytesIn.writeUtf8("custom-header");
 
-    hpackWriter.writeHeaders(headerBlock);
-    assertEquals(bytesIn, bytesOut);
-
     hpackReader.readHeaders();
 
     assertEquals(0, hpackReader.headerCount);
@@ -674,7 +672,155 @@ public class HpackTest {
 
   @Test public void lowercaseHeaderNameBeforeEmit() throws IOException {
     hpackWriter.writeHeaders(Arrays.asList(new Header("FoO", "BaR")));
-    assertBytes(0, 3, 'f', 'o', 'o', 3, 'B', 'a', 'R');
+    assertBytes(0x40, 3, 'f', 'o', 'o', 3, 'B', 'a', 'R');
+  }
+
+  @Test public void writerIndexesRepeatedFields() throws IOException {
+    hpackWriter.writeHeaders(headerEntries("custom-key", "custom-header"));
+    assertBytes(0x40, 10, 'c', 'u', 's', 't', 'o', 'm', '-', 'k', 'e', 'y',
+        13, 'c', 'u', 's', 't', 'o', 'm', '-', 'h', 'e', 'a', 'd', 'e', 'r');
+    assertEquals(1, hpackWriter.headerCount);
+    assertEquals(55, hpackWriter.dynamicTableByteCount);
+
+    hpackWriter.writeHeaders(headerEntries("custom-key", "custom-header"));
+    assertBytes(0xbe); // Indexed (idx = 62).
+  }
+
+  @Test public void writerIndexesRepeatedNames() throws IOException {
+    hpackWriter.writeHeaders(headerEntries("custom-key", "a"));
+    bytesOut.clear();
+
+    hpackWriter.writeHeaders(headerEntries("custom-key", "b"));
+    assertBytes(0x7e, 1, 'b'); // Literal indexed, indexed name (idx = 62).
+    assertEquals(2, hpackWriter.headerCount);
+  }
+
+  @Test public void writerUsesStaticTable() throws IOException {
+    hpackWriter.writeHeaders(headerEntries(":method", "GET", "accept-encoding", "gzip, deflate"));
+    assertBytes(0x82, 0x90);
+    assertEquals(0, hpackWriter.headerCount);
+  }
+
+  @Test public void writerIndexesAuthorityButNotOtherPseudoHeaders() throws IOException {
+    hpackWriter.writeHeaders(headerEntries(":path", "/a", ":authority", "b"));
+    assertBytes(0x04, 2, '/', 'a', 0x41, 1, 'b');
+    assertEquals(1, hpackWriter.headerCount);
+  }
+
+  @Test public void writerNeverIndexesSensitiveFields() throws IOException {
+    hpackWriter.writeHeaders(headerEntries("authorization", "a", "cookie", "b"));
+    assertBytes(0x1f, 8, 1, 'a', 0x1f, 17, 1, 'b'); // Never indexed (idx = 23, 32).
+    assertEquals(0, hpackWriter.headerCount);
+
+    char[] longCookie = new char[20];
+    Arrays.fill(longCookie, 'c');
+    hpackWriter.writeHeaders(headerEntries("cookie", new String(longCookie)));
+    assertEquals(1, hpackWriter.headerCount);
+  }
+
+  @Test public void writerDoesNotIndexFieldsLargerThanTable() throws IOException {
+    hpackWriter.writeHeaders(headerEntries("a", "b"));
+    char[] value = new char[4096];
+    Arrays.fill(value, '!');
+    hpackWriter.writeHeaders(headerEntries("custom-key", new String(value)));
+    assertEquals(1, hpackWriter.headerCount);
+  }
+
+  @Test public void writerEvictsOldestEntries() throws IOException {
+    hpackWriter.headerTableSizeSetting(110); // Room for two 55-byte entries.
+    hpackWriter.writeHeaders(headerEntries(
+        "custom-foo", "custom-header", "custom-bar", "custom-header"));
+    hpackWriter.writeHeaders(headerEntries("custom-baz", "custom-header"));
+    assertEquals(2, hpackWriter.headerCount);
+    assertEquals(110, hpackWriter.dynamicTableByteCount);
+    bytesOut.clear();
+
+    // custom-foo was evicted; custom-bar is now the oldest entry.
+    hpackWriter.writeHeaders(headerEntries("custom-bar", "custom-header"));
+    assertBytes(0xbf); // Indexed (idx = 63).
+    hpackWriter.writeHeaders(headerEntries("custom-foo", "custom-header"));
+    assertEquals(0x40, bytesOut.readByte() & 0xff);
+  }
+
+  @Test public void writerSignalsTableSizeChanges() throws IOException {
+    hpackWriter.headerTableSizeSetting(4096);
+    hpackWriter.writeHeaders(headerEntries(":method", "GET"));
+    assertBytes(0x82); // Unchanged, so not signaled.
+
+    hpackWriter.headerTableSizeSetting(0);
+    hpackWriter.headerTableSizeSetting(8192); // Limited to 4096.
+    hpackWriter.writeHeaders(headerEntries(":method", "GET"));
+    assertBytes(0x20, 0x3f, 0xe1, 0x1f, 0x82);
+  }
+
+  /**
+   * http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#appendix-C.3
+   */
+  @Test public void writeRequestExamplesWithoutHuffman() throws IOException {
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"));
+    assertEquals(decodeHex("828684410f7777772e6578616d706c652e636f6d"), bytesOut.readByteString());
+
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+        "cache-control", "no-cache"));
+    assertEquals(decodeHex("828684be58086e6f2d6361636865"), bytesOut.readByteString());
+
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "https", ":path", "/index.html",
+        ":authority", "www.example.com", "custom-key", "custom-value"));
+    assertEquals(decodeHex("828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+        bytesOut.readByteString());
+  }
+
+  /**
+   * http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#appendix-C.4
+   */
+  @Test public void writeRequestExamplesWithHuffman() throws IOException {
+    hpackWriter = new Hpack.Writer(bytesOut);
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"));
+    assertEquals(decodeHex("828684418cf1e3c2e5f23a6ba0ab90f4ff"), bytesOut.readByteString());
+
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+        "cache-control", "no-cache"));
+    assertEquals(decodeHex("828684be5886a8eb10649cbf"), bytesOut.readByteString());
+
+    hpackWriter.writeHeaders(headerEntries(
+        ":method", "GET", ":scheme", "https", ":path", "/index.html",
+        ":authority", "www.example.com", "custom-key", "custom-value"));
+    assertEquals(decodeHex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+        bytesOut.readByteString());
+  }
+
+  @Test public void huffmanIsOnlyUsedWhenShorter() throws IOException {
+    hpackWriter = new Hpack.Writer(bytesOut);
+    hpackWriter.writeByteString(ByteString.encodeUtf8("www.example.com"));
+    assertEquals(decodeHex("8cf1e3c2e5f23a6ba0ab90f4ff"), bytesOut.readByteString());
+
+    // Bytes like '{' have codes longer than 8 bits.
+    hpackWriter.writeByteString(ByteString.encodeUtf8("{{{"));
+    assertBytes(3, '{', '{', '{');
+  }
+
+  @Test public void writerTableMatchesReaderTable() throws IOException {
+    // Enough distinct fields to grow and wrap the writer's table, repeated across blocks.
+    for (int block = 0; block < 20; block++) {
+      List<Header> headerBlock = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        headerBlock.add(new Header("x-field-" + ((block * 7 + i) % 120), "value-" + (i % 3)));
+      }
+      headerBlock.add(new Header(":path", "/" + block));
+      headerBlock.add(new Header("authorization", "secret"));
+
+      hpackWriter.writeHeaders(headerBlock);
+      bytesIn.writeAll(bytesOut);
+      hpackReader.readHeaders();
+      assertEquals(headerBlock, hpackReader.getAndResetHeaderList());
+      assertEquals(hpackReader.headerCount, hpackWriter.headerCount);
+      assertEquals(hpackReader.dynamicTableByteCount, hpackWriter.dynamicTableByteCount);
+    }
   }
 
   @Test public void mixedCaseHeaderNameIsMalformed() throws IOException {
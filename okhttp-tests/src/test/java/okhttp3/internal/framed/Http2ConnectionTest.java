@@ -16,11 +16,17 @@
 package okhttp3.internal.framed;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import okhttp3.Priority;
+import okhttp3.internal.io.NioEventLoop;
+import okhttp3.internal.io.NioSocket;
 import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
@@ -48,6 +54,7 @@ import static okhttp3.internal.framed.Spdy3.TYPE_SETTINGS;
 import static okhttp3.internal.framed.Spdy3.TYPE_WINDOW_UPDATE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -101,6 +108,228 @@ public final class Http2ConnectionTest {
     assertFalse(pingFrame.ack);
   }
 
+  @Test public void exclusiveDependencyOnOpenParent() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+
+    // Write the mocking script.
+    peer.acceptFrame(); // HEADERS
+    peer.acceptFrame(); // HEADERS
+    peer.play();
+
+    // Play it back.
+    FramedConnection connection = connection(peer, HTTP_2);
+    Priority parent = Priority.create(32);
+    connection.newStream(headerEntries("a", "android"), false, true, parent);
+    connection.newStream(headerEntries("b", "banana"), false, true,
+        Priority.create(parent, 8, true));
+
+    // Verify the peer received what was expected.
+    MockSpdyPeer.InFrame parentHeaders = peer.takeFrame();
+    assertEquals(TYPE_HEADERS, parentHeaders.type);
+    assertEquals(0, parentHeaders.streamDependency);
+    assertEquals(32, parentHeaders.weight);
+    assertFalse(parentHeaders.exclusive);
+    MockSpdyPeer.InFrame childHeaders = peer.takeFrame();
+    assertEquals(TYPE_HEADERS, childHeaders.type);
+    assertEquals(parentHeaders.streamId, childHeaders.streamDependency);
+    assertEquals(8, childHeaders.weight);
+    assertTrue(childHeaders.exclusive);
+  }
+
+  @Test public void exclusiveDependencyOnMissingParentIsNotExclusive() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+
+    // Write the mocking script.
+    peer.acceptFrame(); // HEADERS
+    peer.play();
+
+    // Play it back. The parent has no stream on this connection.
+    FramedConnection connection = connection(peer, HTTP_2);
+    Priority parent = Priority.create(32);
+    connection.newStream(headerEntries("b", "banana"), false, true,
+        Priority.create(parent, 8, true));
+
+    // Verify the peer received what was expected.
+    MockSpdyPeer.InFrame headers = peer.takeFrame();
+    assertEquals(TYPE_HEADERS, headers.type);
+    assertEquals(0, headers.streamDependency);
+    assertEquals(8, headers.weight);
+    assertFalse(headers.exclusive);
+  }
+
+  @Test public void clientGrowsReceiveWindowWhenPeerFillsIt() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+
+    // Write the mocking script.
+    peer.acceptFrame(); // SYN_STREAM
+    peer.sendFrame().synReply(false, 3, headerEntries("a", "android"));
+    sendData(3, 16384, false);
+    peer.acceptFrame(); // PING
+    sendData(3, 800000, false); // Received in one round trip.
+    peer.sendFrame().ping(true, 1, 0x4f4b6264);
+    peer.acceptFrame(); // SETTINGS
+    sendData(3, 300000, true); // More than the initial window, but within the new one.
+    peer.play();
+
+    // Play it back.
+    BdpEstimator.Budget budget = new BdpEstimator.Budget(64 * 1024 * 1024);
+    FramedConnection connection = connectionBuilder(peer, HTTP_2).budget(budget).build();
+    FramedStream stream = connection.newStream(headerEntries("b", "banana"), false, true);
+    assertEquals(headerEntries("a", "android"), stream.getResponseHeaders());
+
+    // Verify the peer received what was expected.
+    assertEquals(TYPE_HEADERS, peer.takeFrame().type);
+    MockSpdyPeer.InFrame ping = peer.takeFrame();
+    assertEquals(TYPE_PING, ping.type);
+    assertFalse(ping.ack);
+    MockSpdyPeer.InFrame settings = peer.takeFrame();
+    assertEquals(TYPE_SETTINGS, settings.type);
+    assertEquals(1600000, settings.settings.getInitialWindowSize(-1));
+    assertEquals(1600000, budget.reserved());
+
+    Buffer buffer = new Buffer();
+    buffer.writeAll(stream.getSource());
+    assertEquals(16384 + 800000 + 300000, buffer.size());
+
+    connection.close();
+    assertEquals(0, budget.reserved());
+  }
+
+  @Test public void clientReceiveWindowIsReservedFromBudget() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+    peer.play();
+    MockSpdyPeer otherPeer = new MockSpdyPeer();
+    otherPeer.setVariantAndClient(HTTP_2, false);
+    otherPeer.play();
+
+    BdpEstimator.Budget budget = new BdpEstimator.Budget(BdpEstimator.INITIAL_WINDOW + 100000);
+    FramedConnection first = connectionBuilder(peer, HTTP_2).budget(budget).build();
+    assertEquals(BdpEstimator.INITIAL_WINDOW, first.okHttpSettings.getInitialWindowSize(-1));
+    FramedConnection second = connectionBuilder(otherPeer, HTTP_2).budget(budget).build();
+    assertEquals(100000, second.okHttpSettings.getInitialWindowSize(-1));
+    assertEquals(BdpEstimator.INITIAL_WINDOW + 100000, budget.reserved());
+
+    first.close();
+    second.close();
+    otherPeer.close();
+    assertEquals(0, budget.reserved());
+  }
+
+  @Test public void shrinkingReceiveWindowAcknowledgesBytesRead() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+
+    // Write the mocking script.
+    peer.acceptFrame(); // SYN_STREAM
+    peer.sendFrame().synReply(false, 3, headerEntries("a", "android"));
+    peer.sendFrame().data(false, 3, data(300), 300);
+    peer.acceptFrame(); // WINDOW_UPDATE
+    peer.play();
+
+    // Play it back.
+    FramedConnection connection = connection(peer, HTTP_2);
+    connection.okHttpSettings.set(INITIAL_WINDOW_SIZE, 0, 1000);
+    FramedStream stream = connection.newStream(headerEntries("b", "banana"), false, true);
+    BufferedSource source = Okio.buffer(stream.getSource());
+    source.readByteString(300);
+    assertEquals(300, stream.unacknowledgedBytesRead);
+
+    // 300 bytes is under half of the old window, but not the new one.
+    stream.receiveWindowSizeChanged(500);
+    assertEquals(0, stream.unacknowledgedBytesRead);
+
+    // Verify the peer received what was expected.
+    assertEquals(TYPE_HEADERS, peer.takeFrame().type);
+    MockSpdyPeer.InFrame windowUpdate = peer.takeFrame();
+    assertEquals(TYPE_WINDOW_UPDATE, windowUpdate.type);
+    assertEquals(3, windowUpdate.streamId);
+    assertEquals(300, windowUpdate.windowSizeIncrement);
+  }
+
+  /** Sends {@code byteCount} bytes of data in frames of the default maximum size. */
+  private void sendData(int streamId, int byteCount, boolean inFinished) throws IOException {
+    while (byteCount > 0) {
+      int frameSize = Math.min(byteCount, 16384);
+      byteCount -= frameSize;
+      peer.sendFrame().data(inFinished && byteCount == 0, streamId, data(frameSize), frameSize);
+    }
+  }
+
+  @Test public void readerRunsOnNonDaemonThreadByDefault() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+    peer.play();
+
+    Socket socket = peer.openSocket();
+    new FramedConnection.Builder(true)
+        .socket(socket, "nondaemon.test", Okio.buffer(Okio.source(socket)),
+            Okio.buffer(Okio.sink(socket)))
+        .protocol(HTTP_2.getProtocol())
+        .build();
+    assertFalse(awaitReaderThread("nondaemon.test").isDaemon());
+  }
+
+  @Test public void readerRunsOnDaemonThread() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+    peer.play();
+
+    Socket socket = peer.openSocket();
+    new FramedConnection.Builder(true)
+        .socket(socket, "daemon.test", Okio.buffer(Okio.source(socket)),
+            Okio.buffer(Okio.sink(socket)))
+        .protocol(HTTP_2.getProtocol())
+        .daemon(true)
+        .build();
+    assertTrue(awaitReaderThread("daemon.test").isDaemon());
+  }
+
+  @Test public void nonBlockingReaderWaitsForWholeHeaderBlocks() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+    List<Header> responseHeaders = headerEntries("a", repeat('a', 40000));
+    Buffer frames = new Buffer();
+    new Http2.Writer(frames, false).synReply(false, 3, responseHeaders);
+    byte[] bytes = frames.readByteArray();
+    int headersLength = (bytes[0] & 0xff) << 16 | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff);
+    int split = 9 + headersLength + 4; // Partway into the CONTINUATION frame's header.
+
+    // write the mocking script
+    peer.acceptFrame(); // HEADERS
+    peer.sendFrame(Arrays.copyOfRange(bytes, 0, split));
+    peer.acceptFrame(); // PING
+    peer.sendFrame(Arrays.copyOfRange(bytes, split, bytes.length));
+    peer.play();
+
+    // play it back
+    FramedConnection connection = nonBlockingConnection(peer, HTTP_2, "readiness.test");
+    FramedStream stream = connection.newStream(headerEntries("b", "banana"), false, true);
+    assertEquals(TYPE_HEADERS, peer.takeFrame().type);
+    Thread.sleep(100);
+    assertNull(readerThread("readiness.test")); // Waiting for the rest holds no thread.
+    connection.ping();
+    assertEquals(responseHeaders, stream.getResponseHeaders());
+
+    // verify the peer received what was expected
+    assertEquals(TYPE_PING, peer.takeFrame().type);
+  }
+
+  @Test public void nonBlockingReaderFailsStreamsOnTruncatedFrame() throws Exception {
+    peer.setVariantAndClient(HTTP_2, false);
+
+    // write the mocking script
+    peer.acceptFrame(); // HEADERS
+    peer.sendFrame().synReply(false, 3, headerEntries("a", "android"));
+    peer.truncateLastFrame(9 + 2);
+    peer.play();
+
+    // play it back
+    FramedConnection connection = nonBlockingConnection(peer, HTTP_2, "truncated.test");
+    FramedStream stream = connection.newStream(headerEntries("b", "banana"), false, true);
+    try {
+      stream.getResponseHeaders();
+      fail();
+    } catch (IOException expected) {
+      assertEquals("stream was reset: PROTOCOL_ERROR", expected.getMessage());
+    }
+  }
+
   @Test public void peerHttp2ServerLowersInitialWindowSize() throws Exception {
     peer.setVariantAndClient(HTTP_2, false);
 
@@ -487,6 +716,36 @@ public final class Http2ConnectionTest {
     return connection;
   }
 
+  /** Returns a connection that reads the peer through a non-blocking socket. */
+  private FramedConnection nonBlockingConnection(MockSpdyPeer peer, Variant variant,
+      String hostName) throws IOException {
+    NioSocket socket = new NioSocket(new NioEventLoop());
+    socket.connect(new InetSocketAddress("localhost", peer.getPort()));
+    return new FramedConnection.Builder(true)
+        .socket(socket, hostName, Okio.buffer(socket.source()), Okio.buffer(socket.sink()))
+        .nonBlockingSource(socket.source())
+        .pushObserver(IGNORE)
+        .protocol(variant.getProtocol())
+        .build();
+  }
+
+  /** Returns the thread that runs the reader of the connection to {@code hostName}, or null. */
+  private Thread readerThread(String hostName) {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("OkHttp " + hostName)) return thread;
+    }
+    return null;
+  }
+
+  private Thread awaitReaderThread(String hostName) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      Thread thread = readerThread(hostName);
+      if (thread != null) return thread;
+      Thread.sleep(10);
+    }
+    throw new AssertionError("no reader thread for " + hostName);
+  }
+
   private FramedConnection connection(MockSpdyPeer peer, Variant variant) throws IOException {
     return connectionBuilder(peer, variant).build();
   }
@@ -149,6 +149,27 @@ public class Http2Test {
     });
   }
 
+  @Test public void frameIsCompleteOnceItsHeaderBlockEnds() throws IOException {
+    Buffer frames = sendHeaderFrames(false, largeHeaders()); // HEADERS, then CONTINUATION.
+    long headersFrameSize = 9 + Http2.INITIAL_MAX_FRAME_SIZE;
+    Variant http2 = new Http2();
+
+    assertFalse(http2.isFrameComplete(prefix(frames, 8)));
+    assertFalse(http2.isFrameComplete(prefix(frames, headersFrameSize)));
+    assertFalse(http2.isFrameComplete(prefix(frames, frames.size() - 1)));
+    assertTrue(http2.isFrameComplete(frames));
+    assertTrue(http2.isFrameComplete(sendPingFrame(false, 1, 2)));
+  }
+
+  @Test public void oversizedFrameIsCompleteSoReadingFailsFast() throws IOException {
+    writeMedium(frame, Http2.INITIAL_MAX_FRAME_SIZE + 1);
+    frame.writeByte(Http2.TYPE_DATA);
+    frame.writeByte(FLAG_NONE);
+    frame.writeInt(expectedStreamId & 0x7fffffff);
+
+    assertTrue(new Http2().isFrameComplete(frame));
+  }
+
   @Test public void pushPromise() throws IOException {
     final int expectedPromisedStreamId = 11;
 
@@ -719,6 +740,12 @@ public class Http2Test {
     };
   }
 
+  private static Buffer prefix(Buffer buffer, long byteCount) {
+    Buffer result = new Buffer();
+    buffer.copyTo(result, 0, byteCount);
+    return result;
+  }
+
   private static Buffer gzip(byte[] data) throws IOException {
     Buffer buffer = new Buffer();
     Okio.buffer(new GzipSink(buffer)).write(data).close();
@@ -17,7 +17,12 @@ package okhttp3.internal.framed;
 
 import java.net.HttpURLConnection;
 import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Priority;
 import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.PushPromise;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -80,6 +85,32 @@ public class HttpOverHttp2Test extends HttpOverSpdyTest {
     assertEquals("bar", pushedRequest.getHeader("foo"));
   }
 
+  @Test public void requestPriorities() throws Exception {
+    server.enqueue(new MockResponse().setBody("ABC"));
+    server.enqueue(new MockResponse().setBody("DEF"));
+
+    OkHttpClient client = urlFactory.client();
+    Priority parent = Priority.create(256);
+    Request request1 = new Request.Builder()
+        .url(server.url("/a"))
+        .post(RequestBody.create(MediaType.parse("text/plain"), "upload"))
+        .priority(parent)
+        .build();
+    Request request2 = new Request.Builder()
+        .url(server.url("/b"))
+        .priority(Priority.create(parent, 8, false))
+        .build();
+    assertEquals("ABC", client.newCall(request1).execute().body().string());
+    assertEquals("DEF", client.newCall(request2).execute().body().string());
+
+    RecordedRequest recorded1 = server.takeRequest();
+    assertEquals("POST /a HTTP/1.1", recorded1.getRequestLine());
+    assertEquals("upload", recorded1.getBody().readUtf8());
+    RecordedRequest recorded2 = server.takeRequest();
+    assertEquals("GET /b HTTP/1.1", recorded2.getRequestLine());
+    assertEquals(1, recorded2.getSequenceNumber()); // Reused the connection.
+  }
+
   /**
    * Push a setting that permits up to 2 concurrent streams, then make 3 concurrent requests and
    * confirm that the third concurrent request prepared a new connection.
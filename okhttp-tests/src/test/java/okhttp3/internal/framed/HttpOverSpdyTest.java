@@ -15,6 +15,7 @@
  */
 package okhttp3.internal.framed;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Authenticator;
@@ -28,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import okhttp3.Cache;
+import okhttp3.ConnectionHints;
 import okhttp3.Cookie;
 import okhttp3.HttpUrl;
 import okhttp3.JavaNetAuthenticator;
@@ -58,6 +60,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /** Test how SPDY interacts with HTTP features. */
@@ -206,6 +209,29 @@ public abstract class HttpOverSpdyTest {
     assertEquals(1, server.takeRequest().getSequenceNumber());
   }
 
+  @Test public void concurrentRequestsToHintedOriginShareConnection() throws Exception {
+    server.enqueue(new MockResponse().setBody("A"));
+    server.enqueue(new MockResponse().setBody("A"));
+    server.enqueue(new MockResponse().setBody("A"));
+    urlFactory.setClient(urlFactory.client().newBuilder()
+        .connectionHints(new ConnectionHints(new File(tempDir.getRoot(), "hints")))
+        .build());
+
+    // Learn that the server multiplexes, then forget the connection.
+    assertContent("A", urlFactory.open(server.url("/r0").url()), Integer.MAX_VALUE);
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    urlFactory.client().connectionPool().evictAll();
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    CountDownLatch countDownLatch = new CountDownLatch(2);
+    executor.execute(new SpdyRequest("/r1", countDownLatch));
+    executor.execute(new SpdyRequest("/r2", countDownLatch));
+    assertTrue(countDownLatch.await(5, SECONDS));
+    assertEquals(0, server.takeRequest().getSequenceNumber());
+    assertEquals(1, server.takeRequest().getSequenceNumber());
+    assertEquals(1, urlFactory.client().connectionPool().connectionCount());
+  }
+
   @Test public void gzippedResponseBody() throws Exception {
     server.enqueue(
         new MockResponse().addHeader("Content-Encoding: gzip").setBody(gzip("ABCABCABC")));
@@ -15,15 +15,14 @@
  */
 package okhttp3.internal.framed;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Random;
+import okio.Buffer;
+import okio.ByteString;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Original version of this class was lifted from {@code com.twitter.hpack.HuffmanTest}.
@@ -43,13 +42,40 @@ public class HuffmanTest {
   }
 
   private void assertRoundTrip(byte[] buf) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    DataOutputStream dos = new DataOutputStream(baos);
+    Buffer buffer = new Buffer();
+    ByteString data = ByteString.of(buf);
 
-    Huffman.get().encode(buf, dos);
-    assertEquals(baos.size(), Huffman.get().encodedLength(buf));
+    Huffman.get().encode(data, buffer);
+    assertEquals(buffer.size(), Huffman.get().encodedLength(data));
 
-    byte[] decodedBytes = Huffman.get().decode(baos.toByteArray());
-    assertTrue(Arrays.equals(buf, decodedBytes));
+    Buffer decoded = new Buffer();
+    Huffman.get().decode(buffer, buffer.size(), decoded);
+    assertEquals(data, decoded.readByteString());
+  }
+
+  @Test public void decodeIgnoresPadding() throws IOException {
+    // 'a' is 00011, padded with ones to 00011111.
+    Buffer decoded = new Buffer();
+    Huffman.get().decode(new Buffer().writeByte(0x1f), 1, decoded);
+    assertEquals("a", decoded.readUtf8());
+  }
+
+  @Test public void decodeEosIsAnError() throws IOException {
+    // EOS is 30 ones.
+    Buffer encoded = new Buffer().writeInt(0xfffffffc);
+    try {
+      Huffman.get().decode(encoded, 4, new Buffer());
+      fail();
+    } catch (IOException expected) {
+      assertEquals("PROTOCOL_ERROR Huffman EOS", expected.getMessage());
+    }
+  }
+
+  @Test public void decodeEverySymbol() throws IOException {
+    byte[] buf = new byte[256 * 3];
+    for (int i = 0; i < buf.length; i++) {
+      buf[i] = (byte) (i * 7);
+    }
+    assertRoundTrip(buf);
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class IntMapTest {
+  private final IntMap<String> map = new IntMap<>();
+
+  @Test public void putGetRemove() {
+    assertNull(map.put(3, "a"));
+    assertNull(map.put(5, "b"));
+    assertEquals("a", map.get(3));
+    assertEquals("b", map.get(5));
+    assertNull(map.get(7));
+    assertEquals(2, map.size());
+
+    assertEquals("a", map.remove(3));
+    assertNull(map.remove(3));
+    assertNull(map.get(3));
+    assertEquals("b", map.get(5));
+    assertEquals(1, map.size());
+  }
+
+  @Test public void putReplaces() {
+    map.put(3, "a");
+    assertEquals("a", map.put(3, "b"));
+    assertEquals("b", map.get(3));
+    assertEquals(1, map.size());
+  }
+
+  @Test public void idMustBePositive() {
+    try {
+      map.put(0, "a");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void removeInvalidIdDoesNothing() {
+    map.put(3, "a");
+    assertNull(map.remove(0));
+    assertNull(map.remove(-1));
+    assertEquals(1, map.size());
+    assertEquals("a", map.get(3));
+  }
+
+  @Test public void valuesAndClear() {
+    map.put(3, "a");
+    map.put(5, "b");
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")),
+        new HashSet<>(Arrays.asList(map.values(new String[map.size()]))));
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertNull(map.get(3));
+    assertEquals(0, map.values(new String[0]).length);
+  }
+
+  /** Grows through many resizes and removes in random order, checking against a hash map. */
+  @Test public void matchesHashMap() {
+    Random random = new Random(0);
+    Map<Integer, String> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      int id = 1 + 2 * random.nextInt(2000);
+      if (random.nextBoolean()) {
+        String value = Integer.toString(i);
+        assertEquals(expected.put(id, value), map.put(id, value));
+      } else {
+        assertEquals(expected.remove(id), map.remove(id));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (int id = 1; id < 4000; id += 2) {
+      assertEquals(expected.get(id), map.get(id));
+    }
+  }
+}
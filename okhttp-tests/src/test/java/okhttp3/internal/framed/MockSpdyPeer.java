@@ -188,6 +188,10 @@ public final class MockSpdyPeer implements Closeable {
     }
   }
 
+  public int getPort() {
+    return port;
+  }
+
   public Socket openSocket() throws IOException {
     return new Socket("localhost", port);
   }
@@ -232,6 +236,9 @@ public final class MockSpdyPeer implements Closeable {
     public boolean ack;
     public int payload1;
     public int payload2;
+    public int streamDependency;
+    public int weight;
+    public boolean exclusive;
 
     public InFrame(int sequence, FrameReader reader) {
       this.sequence = sequence;
@@ -304,7 +311,10 @@ public final class MockSpdyPeer implements Closeable {
 
     @Override public void priority(int streamId, int streamDependency, int weight,
         boolean exclusive) {
-      throw new UnsupportedOperationException();
+      // Only HEADERS frames carry priorities. They're followed by a call to headers().
+      this.streamDependency = streamDependency;
+      this.weight = weight;
+      this.exclusive = exclusive;
     }
 
     @Override
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ReaderPoolTest {
+  @Test public void blockingReadersAreNotCapped() throws Exception {
+    int readerCount = 1100;
+    final CountDownLatch started = new CountDownLatch(readerCount);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < readerCount; i++) {
+        ReaderPool.get(true).execute(new Runnable() {
+          @Override public void run() {
+            started.countDown();
+            awaitQuietly(release);
+          }
+        });
+      }
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test public void readyReadersShareBoundedThreads() throws Exception {
+    int taskCount = ReaderPool.MAX_READY_READERS * 4;
+    final CountDownLatch finished = new CountDownLatch(taskCount);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    for (int i = 0; i < taskCount; i++) {
+      ReaderPool.get(true).executeReady(new Runnable() {
+        @Override public void run() {
+          int nowRunning = running.incrementAndGet();
+          while (true) {
+            int max = maxRunning.get();
+            if (nowRunning <= max || maxRunning.compareAndSet(max, nowRunning)) break;
+          }
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+          finished.countDown();
+        }
+      });
+    }
+    assertTrue(finished.await(10, TimeUnit.SECONDS));
+    assertTrue(maxRunning.get() <= ReaderPool.MAX_READY_READERS);
+  }
+
+  @Test public void daemonPoolsRunDaemonThreads() throws Exception {
+    assertTrue(runsOnDaemonThread(ReaderPool.get(true), false));
+    assertTrue(runsOnDaemonThread(ReaderPool.get(true), true));
+    assertFalse(runsOnDaemonThread(ReaderPool.get(false), false));
+    assertFalse(runsOnDaemonThread(ReaderPool.get(false), true));
+  }
+
+  private static boolean runsOnDaemonThread(ReaderPool pool, boolean ready) throws Exception {
+    final AtomicBoolean daemon = new AtomicBoolean();
+    final CountDownLatch ran = new CountDownLatch(1);
+    Runnable task = new Runnable() {
+      @Override public void run() {
+        daemon.set(Thread.currentThread().isDaemon());
+        ran.countDown();
+      }
+    };
+    if (ready) {
+      pool.executeReady(task);
+    } else {
+      pool.execute(task);
+    }
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    return daemon.get();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
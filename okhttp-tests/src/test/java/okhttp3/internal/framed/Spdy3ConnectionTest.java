@@ -17,6 +17,7 @@ package okhttp3.internal.framed;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,6 +27,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import okhttp3.internal.Util;
+import okhttp3.internal.io.NioEventLoop;
+import okhttp3.internal.io.NioSocket;
 import okio.AsyncTimeout;
 import okio.Buffer;
 import okio.BufferedSink;
@@ -1199,6 +1202,32 @@ public final class Spdy3ConnectionTest {
     assertEquals(3, peer.frameCount());
   }
 
+  @Test public void nonBlockingReaderWaitsForWholeFrames() throws Exception {
+    Buffer frames = new Buffer();
+    new Spdy3.Writer(frames, false).synReply(false, 1, headerEntries("a", "android"));
+    byte[] bytes = frames.readByteArray();
+    int split = bytes.length / 2;
+
+    // write the mocking script
+    peer.acceptFrame(); // SYN_STREAM
+    peer.sendFrame(Arrays.copyOfRange(bytes, 0, split));
+    peer.acceptFrame(); // PING
+    peer.sendFrame(Arrays.copyOfRange(bytes, split, bytes.length));
+    peer.sendFrame().data(true, 1, new Buffer().writeUtf8("robot"), 5);
+    peer.play();
+
+    // play it back
+    FramedConnection connection = nonBlockingConnection(peer);
+    FramedStream stream = connection.newStream(headerEntries("b", "banana"), false, true);
+    assertEquals(TYPE_HEADERS, peer.takeFrame().type);
+    connection.ping();
+    assertEquals(headerEntries("a", "android"), stream.getResponseHeaders());
+    assertStreamData("robot", stream.getSource());
+
+    // verify the peer received what was expected
+    assertEquals(TYPE_PING, peer.takeFrame().type);
+  }
+
   @Test public void testTruncatedDataFrame() throws Exception {
     // write the mocking script
     peer.acceptFrame(); // SYN_STREAM
@@ -1370,6 +1399,16 @@ public final class Spdy3ConnectionTest {
         .protocol(variant.getProtocol());
   }
 
+  private FramedConnection nonBlockingConnection(MockSpdyPeer peer) throws IOException {
+    NioSocket socket = new NioSocket(new NioEventLoop());
+    socket.connect(new InetSocketAddress("localhost", peer.getPort()));
+    return new FramedConnection.Builder(true)
+        .socket(socket, "localhost", Okio.buffer(socket.source()), Okio.buffer(socket.sink()))
+        .nonBlockingSource(socket.source())
+        .protocol(SPDY3.getProtocol())
+        .build();
+  }
+
   private void assertStreamData(String expected, Source source) throws IOException {
     String actual = Okio.buffer(source).readUtf8();
     assertEquals(expected, actual);
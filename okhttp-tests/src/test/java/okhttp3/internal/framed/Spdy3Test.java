@@ -22,6 +22,8 @@ import okio.ByteString;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class Spdy3Test {
@@ -83,6 +85,21 @@ public class Spdy3Test {
     });
   }
 
+  @Test public void frameIsCompleteOnceItsLengthArrived() throws IOException {
+    Buffer frame = sendGoAway(expectedStreamId, ErrorCode.PROTOCOL_ERROR, Util.EMPTY_BYTE_ARRAY);
+    Variant spdy3 = new Spdy3();
+
+    assertFalse(spdy3.isFrameComplete(prefix(frame, 7)));
+    assertFalse(spdy3.isFrameComplete(prefix(frame, frame.size() - 1)));
+    assertTrue(spdy3.isFrameComplete(frame));
+  }
+
+  private static Buffer prefix(Buffer buffer, long byteCount) {
+    Buffer result = new Buffer();
+    buffer.copyTo(result, 0, byteCount);
+    return result;
+  }
+
   private void sendDataFrame(Buffer source) throws IOException {
     Spdy3.Writer writer = new Spdy3.Writer(new Buffer(), true);
     writer.sendDataFrame(expectedStreamId, 0, source, (int) source.size());
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class WriteSchedulerTest {
+  private final WriteScheduler scheduler = new WriteScheduler();
+  private final BlockingQueue<String> turns = new LinkedBlockingQueue<>();
+
+  @Test public void heavierStreamGoesFirst() throws Exception {
+    WriteScheduler.Node holder = new WriteScheduler.Node();
+    WriteScheduler.Node light = new WriteScheduler.Node();
+    WriteScheduler.Node heavy = new WriteScheduler.Node();
+    scheduler.setWeight(light, 1);
+    scheduler.setWeight(heavy, 256);
+
+    scheduler.acquire(holder, 16384);
+    takeTurnLater(light, "light");
+    awaitWaiting(1);
+    takeTurnLater(heavy, "heavy");
+    awaitWaiting(2);
+    scheduler.release(holder, 16384);
+
+    assertEquals("heavy", turns.poll(5, TimeUnit.SECONDS));
+    assertEquals("light", turns.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test public void streamThatWroteLessGoesFirst() throws Exception {
+    WriteScheduler.Node holder = new WriteScheduler.Node();
+    WriteScheduler.Node a = new WriteScheduler.Node();
+    WriteScheduler.Node b = new WriteScheduler.Node();
+
+    // Uncontended turns don't wait.
+    scheduler.acquire(a, 65536);
+    scheduler.release(a, 65536);
+
+    scheduler.acquire(holder, 16384);
+    takeTurnLater(a, "a");
+    awaitWaiting(1);
+    takeTurnLater(b, "b");
+    awaitWaiting(2);
+    scheduler.release(holder, 16384);
+
+    assertEquals("b", turns.poll(5, TimeUnit.SECONDS));
+    assertEquals("a", turns.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test public void weightOutOfRange() throws Exception {
+    try {
+      scheduler.setWeight(new WriteScheduler.Node(), 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      scheduler.setWeight(new WriteScheduler.Node(), 257);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private void takeTurnLater(final WriteScheduler.Node node, final String name) {
+    new Thread() {
+      @Override public void run() {
+        try {
+          scheduler.acquire(node, 16384);
+          turns.add(name);
+          scheduler.release(node, 16384);
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    }.start();
+  }
+
+  private void awaitWaiting(int count) throws InterruptedException {
+    for (int i = 0; scheduler.waitingCount() != count; i++) {
+      if (i == 500) fail("waiting count: " + scheduler.waitingCount());
+      Thread.sleep(10);
+    }
+  }
+}
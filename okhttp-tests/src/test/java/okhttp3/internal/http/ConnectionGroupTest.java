@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ConnectionGroupTest {
+  private final ConnectionGroup group = new ConnectionGroup(1, 2);
+
+  @Test public void awaitTimesOut() throws Exception {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    assertFalse(group.await(group.generation(), deadlineNanos));
+    assertTrue(System.nanoTime() - deadlineNanos >= 0);
+  }
+
+  @Test public void signalBeforeAwaitIsNotLost() throws Exception {
+    long generation = group.generation();
+    group.signal();
+    assertTrue(group.await(generation, 0L));
+  }
+
+  @Test public void signalWakesAwait() throws Exception {
+    final long generation = group.generation();
+    final CountDownLatch woken = new CountDownLatch(1);
+    Thread waiter = new Thread() {
+      @Override public void run() {
+        try {
+          if (group.await(generation, 0L)) woken.countDown();
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    waiter.start();
+    Thread.sleep(50);
+    group.signal();
+    assertTrue(woken.await(5, TimeUnit.SECONDS));
+  }
+}
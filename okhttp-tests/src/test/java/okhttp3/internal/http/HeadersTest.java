@@ -334,4 +334,51 @@ public final class HeadersTest {
     } catch (IndexOutOfBoundsException expected) {
     }
   }
+
+  @Test public void largeHeadersAreLookedUpIgnoringCase() {
+    Headers.Builder builder = new Headers.Builder();
+    for (int i = 0; i < 100; i++) {
+      builder.add("X-Header-" + i, "value" + i);
+    }
+    builder.add("set-cookie", "a=1");
+    builder.add("Set-Cookie", "b=2");
+    builder.add("SET-COOKIE", "c=3");
+    Headers headers = builder.build();
+
+    assertEquals("value42", headers.get("x-header-42"));
+    assertEquals("value42", headers.get("X-HEADER-42"));
+    assertEquals("c=3", headers.get("Set-Cookie"));
+    assertEquals(Arrays.asList("a=1", "b=2", "c=3"), headers.values("set-cookie"));
+    assertEquals(Arrays.asList("value0"), headers.values("X-Header-0"));
+    assertNull(headers.get("X-Header-100"));
+    assertEquals(Collections.<String>emptyList(), headers.values("X-Header-100"));
+  }
+
+  @Test public void largeHeadersFoldCaseLikeEqualsIgnoreCase() {
+    String[] namesAndValues = new String[202];
+    for (int i = 0; i < 100; i++) {
+      namesAndValues[i * 2] = "X-Header-" + i;
+      namesAndValues[i * 2 + 1] = "value" + i;
+    }
+    namesAndValues[200] = "\u212Aey"; // KELVIN SIGN folds to 'k'.
+    namesAndValues[201] = "kelvin";
+    Headers headers = Headers.of(namesAndValues);
+    assertEquals("kelvin", headers.get("key"));
+    assertEquals("kelvin", headers.get("KEY"));
+  }
+
+  @Test public void toMultimapReturnsMutableCopy() {
+    Headers headers = Headers.of(
+        "cache-control", "no-cache",
+        "cache-control", "no-store",
+        "user-agent", "OkHttp");
+    Map<String, List<String>> headerMap = headers.toMultimap();
+    headerMap.remove("user-agent");
+    headerMap.get("cache-control").add("private");
+    assertEquals(Arrays.asList("no-cache", "no-store", "private"), headerMap.get("cache-control"));
+
+    Map<String, List<String>> otherMap = headers.toMultimap();
+    assertEquals(Arrays.asList("OkHttp"), otherMap.get("user-agent"));
+    assertEquals(Arrays.asList("no-cache", "no-store"), otherMap.get("cache-control"));
+  }
 }
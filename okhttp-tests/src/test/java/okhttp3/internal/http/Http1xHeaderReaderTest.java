@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Arrays;
+import okhttp3.Headers;
+import okhttp3.internal.Internal;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public final class Http1xHeaderReaderTest {
+  static {
+    Internal.initializeInstanceForTests();
+  }
+
+  @Test public void statusLines() throws IOException {
+    assertStatusLine("HTTP/1.1 200 OK");
+    assertStatusLine("HTTP/1.0 404 Not Found");
+    assertStatusLine("HTTP/1.1 503 ");
+    assertStatusLine("HTTP/1.1 503");
+    assertStatusLine("HTTP/1.1 200 Temporary Redirect");
+    assertStatusLine("HTTP/1.1 200 Café");
+    assertStatusLine("HTTP/1.1 200 OK\r");
+    assertStatusLine("ICY 200 OK");
+  }
+
+  @Test public void invalidStatusLines() throws IOException {
+    assertStatusLine("");
+    assertStatusLine("200 OK");
+    assertStatusLine("HTTP/2.0 200 OK");
+    assertStatusLine("HTTP/1.2 200 OK");
+    assertStatusLine("HTTP/1.1  200 OK");
+    assertStatusLine("HTTP/1.1 2 OK");
+    assertStatusLine("HTTP/1.1 -00 OK");
+    assertStatusLine("HTTP/1.1 abc OK");
+    assertStatusLine("HTTP/1.1 200x OK");
+  }
+
+  @Test public void reasonPhraseIsWellKnown() throws IOException {
+    StatusLine statusLine = Http1xHeaderReader.readStatusLine(new Buffer().writeUtf8(
+        "HTTP/1.1 200 OK\r\n"));
+    assertSame("OK", statusLine.message);
+  }
+
+  @Test public void headers() throws IOException {
+    assertHeaders("Content-Type: text/plain\r\nContent-Length: 3\r\n\r\n");
+    assertHeaders("Content-Type: text/plain\nContent-Length: 3\n\n");
+    assertHeaders("\r\n");
+    assertHeaders("X-Custom:   padded value  \r\n\r\n");
+    assertHeaders("X-Empty:\r\nX-Blank:   \r\n\r\n");
+    assertHeaders("X-Name : value\r\n\r\n");
+    assertHeaders("X-Unicode: Café ☃\r\n\r\n");
+    assertHeaders("X-Colons: a:b:c\r\n\r\n");
+  }
+
+  @Test public void lenientHeaders() throws IOException {
+    assertHeaders(":status: 200\r\n\r\n");
+    assertHeaders(": empty name\r\n\r\n");
+    assertHeaders("no colon\r\n\r\n");
+    assertHeaders(":\r\n\r\n");
+    assertHeaders("   \r\n\r\n");
+    assertHeaders("a\rb: c\r\n\r\n");
+  }
+
+  @Test public void headerSpanningSegments() throws IOException {
+    char[] value = new char[20000];
+    Arrays.fill(value, 'v');
+    assertHeaders("Content-Type: text/plain\r\nX-Large: " + new String(value)
+        + "\r\nX-Next: n\r\n\r\n");
+  }
+
+  @Test public void wellKnownNamesAndValuesAreShared() throws IOException {
+    Headers headers = Http1xHeaderReader.readHeaders(new Buffer().writeUtf8(
+        "Content-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n"));
+    assertSame("Content-Type", headers.name(0));
+    assertSame("text/plain", headers.value(0));
+    assertSame("Transfer-Encoding", headers.name(1));
+    assertSame("chunked", headers.value(1));
+  }
+
+  @Test public void bodyIsNotConsumed() throws IOException {
+    Buffer buffer = new Buffer().writeUtf8("HTTP/1.1 200 OK\r\nA: b\r\n\r\nbody");
+    Http1xHeaderReader.readStatusLine(buffer);
+    Http1xHeaderReader.readHeaders(buffer);
+    assertEquals("body", buffer.readUtf8());
+  }
+
+  @Test public void truncatedHeaders() throws IOException {
+    String truncated = "A: b\r\nC: d";
+    try {
+      readHeadersReference(new Buffer().writeUtf8(truncated));
+      fail();
+    } catch (EOFException expected) {
+      try {
+        Http1xHeaderReader.readHeaders(new Buffer().writeUtf8(truncated));
+        fail();
+      } catch (EOFException actual) {
+        assertEquals(expected.getMessage(), actual.getMessage());
+      }
+    }
+  }
+
+  private void assertStatusLine(String line) throws IOException {
+    String expected;
+    try {
+      expected = StatusLine.parse(new Buffer().writeUtf8(line + "\n").readUtf8LineStrict())
+          .toString();
+    } catch (ProtocolException e) {
+      expected = e.getMessage();
+    }
+    String actual;
+    try {
+      actual = Http1xHeaderReader.readStatusLine(new Buffer().writeUtf8(line + "\n")).toString();
+    } catch (ProtocolException e) {
+      actual = e.getMessage();
+    }
+    assertEquals(expected, actual);
+  }
+
+  private void assertHeaders(String headerBlock) throws IOException {
+    Headers expected = readHeadersReference(new Buffer().writeUtf8(headerBlock));
+    Headers actual = Http1xHeaderReader.readHeaders(new Buffer().writeUtf8(headerBlock));
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.name(i), actual.name(i));
+      assertEquals(expected.value(i), actual.value(i));
+    }
+  }
+
+  /** Reads headers line by line, as Http1xStream did before it used Http1xHeaderReader. */
+  private Headers readHeadersReference(Buffer source) throws IOException {
+    Headers.Builder headers = new Headers.Builder();
+    for (String line; (line = source.readUtf8LineStrict()).length() != 0; ) {
+      Internal.instance.addLenient(headers, line);
+    }
+    return headers.build();
+  }
+}
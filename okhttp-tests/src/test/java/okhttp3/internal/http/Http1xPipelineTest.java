@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class Http1xPipelineTest {
+  private final Http1xPipeline pipeline = new Http1xPipeline();
+  private final Http1xStream first = new Http1xStream(null, null, null, pipeline);
+  private final Http1xStream second = new Http1xStream(null, null, null, pipeline);
+  private final Http1xStream third = new Http1xStream(null, null, null, pipeline);
+
+  @Test public void finishedStreamPromotesTheNextStream() throws Exception {
+    pipeline.enqueue(first);
+    pipeline.enqueue(second);
+    pipeline.awaitTurn(first, 0);
+
+    pipeline.finished(first, true);
+    pipeline.awaitTurn(second, 0);
+    pipeline.enqueue(third);
+  }
+
+  @Test public void abandonedStreamFailsEveryStreamBehindIt() throws Exception {
+    pipeline.enqueue(first);
+    pipeline.enqueue(second);
+    pipeline.enqueue(third);
+
+    // The unread rest of the first response would otherwise be read as the second's status line.
+    pipeline.finished(first, false);
+    assertAwaitTurnFails(second);
+    assertAwaitTurnFails(third);
+    try {
+      pipeline.enqueue(new Http1xStream(null, null, null, pipeline));
+      fail();
+    } catch (IOException expected) {
+      assertEquals("pipelined connection shut down", expected.getMessage());
+    }
+  }
+
+  @Test public void shutdownKeepsTheStreamThatIsReading() throws Exception {
+    pipeline.enqueue(first);
+    pipeline.enqueue(second);
+
+    pipeline.shutdown();
+    pipeline.awaitTurn(first, 0);
+    assertAwaitTurnFails(second);
+
+    // Once it's done the connection is released, and nothing is promoted.
+    pipeline.finished(first, true);
+    assertAwaitTurnFails(second);
+  }
+
+  private void assertAwaitTurnFails(Http1xStream stream) throws Exception {
+    try {
+      pipeline.awaitTurn(stream, 0);
+      fail();
+    } catch (IOException expected) {
+      assertEquals("pipelined request failed before its response", expected.getMessage());
+    }
+  }
+}
@@ -25,8 +25,10 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 import javax.net.SocketFactory;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -35,8 +37,11 @@ import javax.net.ssl.SSLSocketFactory;
 import okhttp3.Address;
 import okhttp3.Authenticator;
 import okhttp3.ConnectionSpec;
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
 import okhttp3.Protocol;
 import okhttp3.Route;
+import okhttp3.internal.InternalConnectionHints;
 import okhttp3.internal.RouteDatabase;
 import okhttp3.internal.SslContextBuilder;
 import okhttp3.internal.Util;
@@ -324,6 +329,39 @@ public final class RouteSelectorTest {
     assertEquals(regularRoutes.size(), routesWithFailedRoute.size());
   }
 
+  @Test public void fasterRoutesAreFirst() throws Exception {
+    Address address = httpAddress();
+    dns.addresses(makeFakeAddresses(255, 3));
+
+    RouteSelector routeSelector = new RouteSelector(address, routeDatabase);
+    Route route0 = routeSelector.next();
+    Route route1 = routeSelector.next();
+    Route route2 = routeSelector.next();
+    routeDatabase.connected(route0, TimeUnit.MILLISECONDS.toNanos(300));
+    routeDatabase.connected(route1, TimeUnit.MILLISECONDS.toNanos(200));
+    routeDatabase.connected(route2, TimeUnit.MILLISECONDS.toNanos(100));
+
+    routeSelector = new RouteSelector(address, routeDatabase);
+    assertEquals(route2, routeSelector.next());
+    assertEquals(route1, routeSelector.next());
+    assertEquals(route0, routeSelector.next());
+    assertFalse(routeSelector.hasNext());
+  }
+
+  @Test public void routesWithoutHistoryAreExploredFirst() throws Exception {
+    Address address = httpAddress();
+    dns.addresses(makeFakeAddresses(255, 2));
+
+    RouteSelector routeSelector = new RouteSelector(address, routeDatabase);
+    Route route0 = routeSelector.next();
+    Route route1 = routeSelector.next();
+    routeDatabase.connected(route0, TimeUnit.MILLISECONDS.toNanos(100));
+
+    routeSelector = new RouteSelector(address, routeDatabase);
+    assertEquals(route1, routeSelector.next());
+    assertEquals(route0, routeSelector.next());
+  }
+
   @Test public void getHostString() throws Exception {
     // Name proxy specification.
     InetSocketAddress socketAddress = InetSocketAddress.createUnresolved("host", 1234);
@@ -342,6 +380,99 @@ public final class RouteSelectorTest {
     assertEquals("127.0.0.1", RouteSelector.getHostString(socketAddress));
   }
 
+  @Test public void nextAlternatingFamilyInterleavesIpv6AndIpv4() throws Exception {
+    Address address = httpAddress();
+    RouteSelector routeSelector = new RouteSelector(address, routeDatabase);
+
+    InetAddress ipv6a = InetAddress.getByName("2001:db8::1");
+    InetAddress ipv6b = InetAddress.getByName("2001:db8::2");
+    InetAddress ipv4a = InetAddress.getByName("192.0.2.1");
+    InetAddress ipv4b = InetAddress.getByName("192.0.2.2");
+    dns.addresses(Arrays.asList(ipv6a, ipv6b, ipv4a, ipv4b));
+
+    Route route0 = routeSelector.next();
+    assertRoute(route0, address, NO_PROXY, ipv6a, uriPort);
+    Route route1 = routeSelector.nextAlternatingFamily(route0);
+    assertRoute(route1, address, NO_PROXY, ipv4a, uriPort);
+    Route route2 = routeSelector.nextAlternatingFamily(route1);
+    assertRoute(route2, address, NO_PROXY, ipv6b, uriPort);
+    Route route3 = routeSelector.nextAlternatingFamily(route2);
+    assertRoute(route3, address, NO_PROXY, ipv4b, uriPort);
+    assertFalse(routeSelector.hasNext());
+  }
+
+  @Test public void nextAlternatingFamilyWithSingleFamilyKeepsDnsOrder() throws Exception {
+    Address address = httpAddress();
+    RouteSelector routeSelector = new RouteSelector(address, routeDatabase);
+
+    dns.addresses(makeFakeAddresses(255, 3));
+    Route route0 = routeSelector.next();
+    Route route1 = routeSelector.nextAlternatingFamily(route0);
+    Route route2 = routeSelector.nextAlternatingFamily(route1);
+    assertRoute(route0, address, NO_PROXY, dns.address(0), uriPort);
+    assertRoute(route1, address, NO_PROXY, dns.address(1), uriPort);
+    assertRoute(route2, address, NO_PROXY, dns.address(2), uriPort);
+  }
+
+  @Test public void hintedAddressesAreAttemptedBeforeResolving() throws Exception {
+    InetAddress hinted = makeFakeAddresses(254, 1).get(0);
+    List<String> resolvedHosts = new ArrayList<>();
+    Address address = httpAddress();
+    RouteSelector routeSelector = new RouteSelector(
+        address, routeDatabase, hints(dns, hinted, resolvedHosts));
+    assertRoute(routeSelector.next(), address, NO_PROXY, hinted, uriPort);
+    dns.assertRequests();
+
+    // Once the hints are exhausted, DNS is consulted for addresses that weren't hinted.
+    dns.addresses(Arrays.asList(hinted, makeFakeAddresses(255, 1).get(0)));
+    assertTrue(routeSelector.hasNext());
+    assertRoute(routeSelector.next(), address, NO_PROXY, dns.address(1), uriPort);
+    dns.assertRequests(uriHost);
+    assertEquals(Arrays.asList(uriHost), resolvedHosts);
+    assertFalse(routeSelector.hasNext());
+  }
+
+  @Test public void hintsOfAnotherDnsAreIgnored() throws Exception {
+    InetAddress hinted = makeFakeAddresses(254, 1).get(0);
+    List<String> resolvedHosts = new ArrayList<>();
+    Address address = httpAddress();
+    RouteSelector routeSelector = new RouteSelector(
+        address, routeDatabase, hints(Dns.SYSTEM, hinted, resolvedHosts));
+
+    dns.addresses(makeFakeAddresses(255, 1));
+    assertRoute(routeSelector.next(), address, NO_PROXY, dns.address(0), uriPort);
+    dns.assertRequests(uriHost);
+    assertEquals(Collections.<String>emptyList(), resolvedHosts);
+  }
+
+  /** Returns hints of {@code dns} that hint {@code hinted} and record resolved hosts. */
+  private static InternalConnectionHints hints(
+      final Dns dns, final InetAddress hinted, final List<String> resolvedHosts) {
+    return new InternalConnectionHints() {
+      @Override public Dns dns() {
+        return dns;
+      }
+
+      @Override public List<InetAddress> hintedAddresses(String hostname) {
+        return Arrays.asList(hinted);
+      }
+
+      @Override public void dnsResolved(String hostname, List<InetAddress> addresses) {
+        resolvedHosts.add(hostname);
+      }
+
+      @Override public Protocol protocol(HttpUrl url) {
+        return null;
+      }
+
+      @Override public void connectFailed(Route route) {
+      }
+
+      @Override public void connected(Route route, Protocol protocol) {
+      }
+    };
+  }
+
   private void assertRoute(Route route, Address address, Proxy proxy, InetAddress socketAddress,
       int socketPort) {
     assertEquals(address, route.address());
@@ -23,6 +23,7 @@ import java.security.cert.X509Certificate;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSession;
 import javax.security.auth.x500.X500Principal;
+import okhttp3.internal.SslContextBuilder;
 import okhttp3.internal.Util;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -541,6 +542,48 @@ public final class HostnameVerifierTest {
     assertFalse(Util.verifyAsIpAddress("www.nintendo.co.jp"));
   }
 
+  @Test public void cachedVerificationIsReused() throws Exception {
+    OkHostnameVerifier verifier = new OkHostnameVerifier();
+    byte[] encoded = selfSignedCertificate("foo.com").getEncoded();
+    assertTrue(verifier.verify("foo.com", decodeCertificate(encoded)));
+    assertEquals(1, verifier.cachedResultCount());
+
+    // An equal certificate for the same host hits the cached result.
+    assertTrue(verifier.verify("foo.com", decodeCertificate(encoded)));
+    assertEquals(1, verifier.cachedResultCount());
+  }
+
+  @Test public void differentCertificateOrHostIsNotServedFromCache() throws Exception {
+    OkHostnameVerifier verifier = new OkHostnameVerifier();
+    X509Certificate fooCertificate = selfSignedCertificate("foo.com");
+    X509Certificate barCertificate = selfSignedCertificate("bar.com");
+    assertTrue(verifier.verify("foo.com", fooCertificate));
+    assertFalse(verifier.verify("foo.com", barCertificate));
+    assertFalse(verifier.verify("bar.com", fooCertificate));
+    assertTrue(verifier.verify("bar.com", barCertificate));
+    assertEquals(4, verifier.cachedResultCount());
+  }
+
+  @Test public void verificationCacheIsBounded() throws Exception {
+    OkHostnameVerifier verifier = new OkHostnameVerifier();
+    X509Certificate certificate = selfSignedCertificate("foo.com");
+    for (int i = 0; i <= OkHostnameVerifier.MAX_CACHED_RESULTS; i++) {
+      assertFalse(verifier.verify("host" + i + ".com", certificate));
+    }
+    assertEquals(OkHostnameVerifier.MAX_CACHED_RESULTS, verifier.cachedResultCount());
+    assertTrue(verifier.verify("foo.com", certificate));
+  }
+
+  private X509Certificate selfSignedCertificate(String hostName) throws Exception {
+    SslContextBuilder sslContextBuilder = new SslContextBuilder(hostName);
+    return sslContextBuilder.selfSignedCertificate(sslContextBuilder.generateKeyPair(), "1");
+  }
+
+  private X509Certificate decodeCertificate(byte[] encoded) throws Exception {
+    return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+        new ByteArrayInputStream(encoded));
+  }
+
   private X509Certificate certificate(String certificate) throws Exception {
     return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
         new ByteArrayInputStream(certificate.getBytes(Util.UTF_8)));
@@ -38,6 +38,7 @@ public final class Address {
   final HttpUrl url;
   final Dns dns;
   final SocketFactory socketFactory;
+  final SocketOptions socketOptions;
   final Authenticator proxyAuthenticator;
   final List<Protocol> protocols;
   final List<ConnectionSpec> connectionSpecs;
@@ -51,6 +52,16 @@ public final class Address {
       SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier,
       CertificatePinner certificatePinner, Authenticator proxyAuthenticator, Proxy proxy,
       List<Protocol> protocols, List<ConnectionSpec> connectionSpecs, ProxySelector proxySelector) {
+    this(uriHost, uriPort, dns, socketFactory, SocketOptions.DEFAULT, sslSocketFactory,
+        hostnameVerifier, certificatePinner, proxyAuthenticator, proxy, protocols, connectionSpecs,
+        proxySelector);
+  }
+
+  public Address(String uriHost, int uriPort, Dns dns, SocketFactory socketFactory,
+      SocketOptions socketOptions, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, CertificatePinner certificatePinner,
+      Authenticator proxyAuthenticator, Proxy proxy, List<Protocol> protocols,
+      List<ConnectionSpec> connectionSpecs, ProxySelector proxySelector) {
     this.url = new HttpUrl.Builder()
         .scheme(sslSocketFactory != null ? "https" : "http")
         .host(uriHost)
@@ -63,6 +74,9 @@ public final class Address {
     if (socketFactory == null) throw new IllegalArgumentException("socketFactory == null");
     this.socketFactory = socketFactory;
 
+    if (socketOptions == null) throw new IllegalArgumentException("socketOptions == null");
+    this.socketOptions = socketOptions;
+
     if (proxyAuthenticator == null) {
       throw new IllegalArgumentException("proxyAuthenticator == null");
     }
@@ -101,6 +115,11 @@ public final class Address {
     return socketFactory;
   }
 
+  /** Returns the options applied to sockets before they connect. */
+  public SocketOptions socketOptions() {
+    return socketOptions;
+  }
+
   /** Returns the client's proxy authenticator. */
   public Authenticator proxyAuthenticator() {
     return proxyAuthenticator;
@@ -154,6 +173,7 @@ public final class Address {
       Address that = (Address) other;
       return this.url.equals(that.url)
           && this.dns.equals(that.dns)
+          && this.socketOptions.equals(that.socketOptions)
           && this.proxyAuthenticator.equals(that.proxyAuthenticator)
           && this.protocols.equals(that.protocols)
           && this.connectionSpecs.equals(that.connectionSpecs)
@@ -170,6 +190,7 @@ public final class Address {
     int result = 17;
     result = 31 * result + url.hashCode();
     result = 31 * result + dns.hashCode();
+    result = 31 * result + socketOptions.hashCode();
     result = 31 * result + proxyAuthenticator.hashCode();
     result = 31 * result + protocols.hashCode();
     result = 31 * result + connectionSpecs.hashCode();
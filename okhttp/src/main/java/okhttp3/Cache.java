@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import okhttp3.internal.DiskLruCache;
 import okhttp3.internal.InternalCache;
+import okhttp3.internal.SegmentedLruCache;
 import okhttp3.internal.Util;
 import okhttp3.internal.http.CacheRequest;
 import okhttp3.internal.http.CacheStrategy;
@@ -74,6 +75,15 @@ import okio.Source;
  * href="http://tools.ietf.org/html/rfc7234">HTTP/1.1 (RFC 7234)</a> cache headers, it doesn't cache
  * partial responses.
  *
+ * <h3>Memory Cache</h3>
+ *
+ * <p>A cache may also hold recently used responses in memory, up to a {@linkplain
+ * #Cache(File, long, long) maximum memory size}. Responses with bodies of up to 64 KiB are kept
+ * with their headers already parsed, so reading them again doesn't touch the filesystem. The
+ * filesystem remains the authority: a response that has been replaced or evicted there is never
+ * served from memory. {@link #memoryHitCount()} and {@link #diskHitCount()} count the cached
+ * responses read from each.
+ *
  * <h3>Force a Network Response</h3>
  *
  * <p>In some situations, such as after a user clicks a 'refresh' button, it may be necessary to
@@ -138,6 +148,7 @@ public final class Cache implements Closeable, Flushable {
   private static final int ENTRY_METADATA = 0;
   private static final int ENTRY_BODY = 1;
   private static final int ENTRY_COUNT = 2;
+  private static final long MAX_MEMORY_BODY_SIZE = 64 * 1024;
 
   final InternalCache internalCache = new InternalCache() {
     @Override public Response get(Request request) throws IOException {
@@ -167,19 +178,42 @@ public final class Cache implements Closeable, Flushable {
 
   private final DiskLruCache cache;
 
+  /** Recently used responses with small bodies, or null if this cache doesn't use memory. */
+  private final SegmentedLruCache<String, MemoryEntry> memoryCache;
+
   /* read and write statistics, all guarded by 'this' */
   private int writeSuccessCount;
   private int writeAbortCount;
   private int networkCount;
   private int hitCount;
   private int requestCount;
+  private int memoryHitCount;
+  private int diskHitCount;
 
   public Cache(File directory, long maxSize) {
-    this(directory, maxSize, FileSystem.SYSTEM);
+    this(directory, maxSize, 0L, FileSystem.SYSTEM);
+  }
+
+  /**
+   * Creates a cache that stores up to {@code maxSize} bytes in {@code directory}, and also holds up
+   * to {@code maxMemorySize} bytes of recently used responses in memory. Use 0 for no memory cache.
+   */
+  public Cache(File directory, long maxSize, long maxMemorySize) {
+    this(directory, maxSize, maxMemorySize, FileSystem.SYSTEM);
   }
 
   Cache(File directory, long maxSize, FileSystem fileSystem) {
+    this(directory, maxSize, 0L, fileSystem);
+  }
+
+  Cache(File directory, long maxSize, long maxMemorySize, FileSystem fileSystem) {
+    if (maxMemorySize < 0) {
+      throw new IllegalArgumentException("maxMemorySize < 0: " + maxMemorySize);
+    }
     this.cache = DiskLruCache.create(fileSystem, directory, VERSION, ENTRY_COUNT, maxSize);
+    this.memoryCache = maxMemorySize > 0
+        ? new SegmentedLruCache<String, MemoryEntry>(maxMemorySize)
+        : null;
   }
 
   private static String urlToKey(Request request) {
@@ -188,6 +222,21 @@ public final class Cache implements Closeable, Flushable {
 
   Response get(Request request) {
     String key = urlToKey(request);
+    MemoryEntry memoryEntry = memoryCache != null ? memoryCache.get(key) : null;
+    if (memoryEntry != null) {
+      if (cache.isCurrent(key, memoryEntry.sequenceNumber)) {
+        Response response = memoryEntry.response(key);
+        if (!memoryEntry.entry.matches(request, response)) {
+          return null;
+        }
+        synchronized (this) {
+          memoryHitCount++;
+        }
+        return response;
+      }
+      memoryCache.remove(key); // The response on disk has changed since this was read.
+    }
+
     DiskLruCache.Snapshot snapshot;
     Entry entry;
     try {
@@ -207,16 +256,39 @@ public final class Cache implements Closeable, Flushable {
       return null;
     }
 
-    Response response = entry.response(snapshot);
+    Response response;
+    if (memoryCache != null && snapshot.getLength(ENTRY_BODY) <= MAX_MEMORY_BODY_SIZE) {
+      // Read the body now so that the next read of this response doesn't need the filesystem.
+      try {
+        ByteString body = Okio.buffer(snapshot.getSource(ENTRY_BODY)).readByteString();
+        memoryEntry = new MemoryEntry(entry, body, snapshot.sequenceNumber());
+      } catch (IOException e) {
+        return null;
+      } finally {
+        Util.closeQuietly(snapshot);
+      }
+      putInMemory(key, memoryEntry, snapshot.getLength(ENTRY_METADATA));
+      response = memoryEntry.response(key);
+    } else {
+      response = entry.response(snapshot);
+    }
 
     if (!entry.matches(request, response)) {
       Util.closeQuietly(response.body());
       return null;
     }
 
+    synchronized (this) {
+      diskHitCount++;
+    }
     return response;
   }
 
+  private void putInMemory(String key, MemoryEntry memoryEntry, long metadataSize) {
+    if (memoryEntry.sequenceNumber == -1L) return; // The edit wasn't committed.
+    memoryCache.put(key, memoryEntry, metadataSize + memoryEntry.body.size());
+  }
+
   private CacheRequest put(Response response) throws IOException {
     String requestMethod = response.request().method();
 
@@ -240,14 +312,16 @@ public final class Cache implements Closeable, Flushable {
     }
 
     Entry entry = new Entry(response);
+    String key = urlToKey(response.request());
     DiskLruCache.Editor editor = null;
     try {
-      editor = cache.edit(urlToKey(response.request()));
+      editor = cache.edit(key);
       if (editor == null) {
         return null;
       }
-      entry.writeTo(editor);
-      return new CacheRequestImpl(editor);
+      if (memoryCache != null) memoryCache.remove(key);
+      long metadataSize = entry.writeTo(editor);
+      return new CacheRequestImpl(editor, key, entry, metadataSize);
     } catch (IOException e) {
       abortQuietly(editor);
       return null;
@@ -255,18 +329,25 @@ public final class Cache implements Closeable, Flushable {
   }
 
   private void remove(Request request) throws IOException {
-    cache.remove(urlToKey(request));
+    String key = urlToKey(request);
+    if (memoryCache != null) memoryCache.remove(key);
+    cache.remove(key);
   }
 
   private void update(Response cached, Response network) {
     Entry entry = new Entry(network);
-    DiskLruCache.Snapshot snapshot = ((CacheResponseBody) cached.body()).snapshot;
+    CacheResponseBody body = (CacheResponseBody) cached.body();
     DiskLruCache.Editor editor = null;
     try {
-      editor = snapshot.edit(); // Returns null if snapshot is not current.
+      // Returns null if the cached response is not current.
+      editor = cache.edit(body.key, body.sequenceNumber);
       if (editor != null) {
-        entry.writeTo(editor);
+        long metadataSize = entry.writeTo(editor);
         editor.commit();
+        if (body.bytes != null) {
+          putInMemory(body.key, new MemoryEntry(entry, body.bytes, editor.sequenceNumber()),
+              metadataSize);
+        }
       }
     } catch (IOException e) {
       abortQuietly(editor);
@@ -303,6 +384,7 @@ public final class Cache implements Closeable, Flushable {
    * directory including files that weren't created by the cache.
    */
   public void delete() throws IOException {
+    if (memoryCache != null) memoryCache.evictAll();
     cache.delete();
   }
 
@@ -311,6 +393,7 @@ public final class Cache implements Closeable, Flushable {
    * but the corresponding responses will not be stored.
    */
   public void evictAll() throws IOException {
+    if (memoryCache != null) memoryCache.evictAll();
     cache.evictAll();
   }
 
@@ -382,11 +465,22 @@ public final class Cache implements Closeable, Flushable {
     return cache.getMaxSize();
   }
 
+  /** Returns the number of bytes of responses held in memory. */
+  public long memorySize() {
+    return memoryCache != null ? memoryCache.size() : 0L;
+  }
+
+  /** Returns the maximum number of bytes of responses held in memory, or 0 if none are. */
+  public long maxMemorySize() {
+    return memoryCache != null ? memoryCache.maxSize() : 0L;
+  }
+
   @Override public void flush() throws IOException {
     cache.flush();
   }
 
   @Override public void close() throws IOException {
+    if (memoryCache != null) memoryCache.evictAll();
     cache.close();
   }
 
@@ -426,16 +520,41 @@ public final class Cache implements Closeable, Flushable {
     return requestCount;
   }
 
+  /** Returns the number of cached responses that were read from memory. */
+  public synchronized int memoryHitCount() {
+    return memoryHitCount;
+  }
+
+  /** Returns the number of cached responses that were read from the filesystem. */
+  public synchronized int diskHitCount() {
+    return diskHitCount;
+  }
+
   private final class CacheRequestImpl implements CacheRequest {
     private final DiskLruCache.Editor editor;
     private Sink cacheOut;
     private boolean done;
     private Sink body;
+    /** A copy of the body to hold in memory, or null if it won't be. */
+    private Buffer memoryBody;
 
-    public CacheRequestImpl(final DiskLruCache.Editor editor) throws IOException {
+    public CacheRequestImpl(final DiskLruCache.Editor editor, final String key, final Entry entry,
+        final long metadataSize) throws IOException {
       this.editor = editor;
       this.cacheOut = editor.newSink(ENTRY_BODY);
+      this.memoryBody = memoryCache != null ? new Buffer() : null;
       this.body = new ForwardingSink(cacheOut) {
+        @Override public void write(Buffer source, long byteCount) throws IOException {
+          if (memoryBody != null) {
+            if (memoryBody.size() + byteCount <= MAX_MEMORY_BODY_SIZE) {
+              source.copyTo(memoryBody, 0, byteCount);
+            } else {
+              memoryBody = null; // Too large to hold in memory.
+            }
+          }
+          super.write(source, byteCount);
+        }
+
         @Override public void close() throws IOException {
           synchronized (Cache.this) {
             if (done) {
@@ -446,6 +565,10 @@ public final class Cache implements Closeable, Flushable {
           }
           super.close();
           editor.commit();
+          if (memoryBody != null) {
+            putInMemory(key, new MemoryEntry(entry, memoryBody.readByteString(),
+                editor.sequenceNumber()), metadataSize);
+          }
         }
       };
     }
@@ -583,8 +706,9 @@ public final class Cache implements Closeable, Flushable {
       this.handshake = response.handshake();
     }
 
-    public void writeTo(DiskLruCache.Editor editor) throws IOException {
-      BufferedSink sink = Okio.buffer(editor.newSink(ENTRY_METADATA));
+    /** Writes this entry's metadata to {@code editor} and returns its size in bytes. */
+    public long writeTo(DiskLruCache.Editor editor) throws IOException {
+      Buffer sink = new Buffer();
 
       sink.writeUtf8(url);
       sink.writeByte('\n');
@@ -622,7 +746,12 @@ public final class Cache implements Closeable, Flushable {
           sink.writeByte('\n');
         }
       }
-      sink.close();
+
+      long size = sink.size();
+      BufferedSink out = Okio.buffer(editor.newSink(ENTRY_METADATA));
+      out.writeAll(sink);
+      out.close();
+      return size;
     }
 
     private boolean isHttps() {
@@ -673,6 +802,17 @@ public final class Cache implements Closeable, Flushable {
     public Response response(DiskLruCache.Snapshot snapshot) {
       String contentType = responseHeaders.get("Content-Type");
       String contentLength = responseHeaders.get("Content-Length");
+      return response(new CacheResponseBody(snapshot, contentType, contentLength));
+    }
+
+    public Response response(String key, long sequenceNumber, ByteString body) {
+      String contentType = responseHeaders.get("Content-Type");
+      String contentLength = responseHeaders.get("Content-Length");
+      return response(
+          new CacheResponseBody(key, sequenceNumber, body, contentType, contentLength));
+    }
+
+    private Response response(CacheResponseBody body) {
       Request cacheRequest = new Request.Builder()
           .url(url)
           .method(requestMethod, null)
@@ -684,7 +824,7 @@ public final class Cache implements Closeable, Flushable {
           .code(code)
           .message(message)
           .headers(responseHeaders)
-          .body(new CacheResponseBody(snapshot, contentType, contentLength))
+          .body(body)
           .handshake(handshake)
           .build();
     }
@@ -703,15 +843,38 @@ public final class Cache implements Closeable, Flushable {
     }
   }
 
+  /** A response with its parsed metadata and body, held in memory. */
+  private static final class MemoryEntry {
+    final Entry entry;
+    final ByteString body;
+    /** The sequence number of the response on disk that this is a copy of. */
+    final long sequenceNumber;
+
+    MemoryEntry(Entry entry, ByteString body, long sequenceNumber) {
+      this.entry = entry;
+      this.body = body;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    Response response(String key) {
+      return entry.response(key, sequenceNumber, body);
+    }
+  }
+
   private static class CacheResponseBody extends ResponseBody {
-    private final DiskLruCache.Snapshot snapshot;
+    private final String key;
+    private final long sequenceNumber;
+    /** The body's bytes if they're held in memory, or null if the body is read from disk. */
+    private final ByteString bytes;
     private final BufferedSource bodySource;
     private final String contentType;
     private final String contentLength;
 
     public CacheResponseBody(final DiskLruCache.Snapshot snapshot,
         String contentType, String contentLength) {
-      this.snapshot = snapshot;
+      this.key = snapshot.key();
+      this.sequenceNumber = snapshot.sequenceNumber();
+      this.bytes = null;
       this.contentType = contentType;
       this.contentLength = contentLength;
 
@@ -724,6 +887,16 @@ public final class Cache implements Closeable, Flushable {
       });
     }
 
+    public CacheResponseBody(String key, long sequenceNumber, ByteString bytes,
+        String contentType, String contentLength) {
+      this.key = key;
+      this.sequenceNumber = sequenceNumber;
+      this.bytes = bytes;
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+      this.bodySource = new Buffer().write(bytes);
+    }
+
     @Override public MediaType contentType() {
       return contentType != null ? MediaType.parse(contentType) : null;
     }
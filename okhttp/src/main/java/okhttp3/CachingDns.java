@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.Util;
+
+/**
+ * A {@link Dns} that remembers the results of an upstream DNS for a bounded amount of time.
+ * Resolving a hostname with {@link Dns#SYSTEM} can take over a second on some networks; this cache
+ * keeps that cost off of the connection setup path for hosts that are looked up repeatedly.
+ *
+ * <p>Each successful lookup is fresh for its {@linkplain Builder#ttl TTL}. Once that expires the
+ * result is stale: for the {@linkplain Builder#staleTtl stale TTL} that follows, lookups return the
+ * stale addresses immediately and refresh them on a background thread. Failed lookups are cached
+ * for the shorter {@linkplain Builder#negativeTtl negative TTL}. Concurrent lookups of the same
+ * hostname are coalesced into a single upstream lookup.
+ *
+ * <p>To measure cache effectiveness, this class tracks four statistics:
+ * <ul>
+ *     <li><strong>{@linkplain #requestCount() Request Count:}</strong> the number of lookups
+ *         issued since this cache was created.
+ *     <li><strong>{@linkplain #hitCount() Hit Count:}</strong> the number of those lookups that
+ *         were served by a fresh cached result.
+ *     <li><strong>{@linkplain #staleHitCount() Stale Hit Count:}</strong> the number of those
+ *         lookups that were served by a stale cached result while it was refreshed.
+ *     <li><strong>{@linkplain #upstreamCount() Upstream Count:}</strong> the number of lookups
+ *         made to the upstream DNS, including background refreshes.
+ * </ul>
+ *
+ * <p>Use this like any other DNS: <pre>   {@code
+ *
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .dns(new CachingDns.Builder().build())
+ *       .build();
+ * }</pre>
+ */
+public final class CachingDns implements Dns {
+  /**
+   * Background threads are used to refresh stale entries. The thread pool executor permits the
+   * cache itself to be garbage collected.
+   */
+  private static final Executor refreshExecutor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp CachingDns", true));
+
+  private final Dns upstream;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final long staleTtlNanos;
+  private final long negativeTtlNanos;
+
+  /** Cached results in least-recently-used order. Guarded by 'this'. */
+  private final Map<String, Entry> entries;
+
+  /** Upstream lookups that are currently in progress. Guarded by 'this'. */
+  private final Map<String, FutureTask<Entry>> inFlight = new LinkedHashMap<>();
+
+  /** Runs background refreshes. Tests replace this to make refreshes synchronous. */
+  Executor executor = refreshExecutor;
+
+  /* read statistics, all guarded by 'this' */
+  private int requestCount;
+  private int hitCount;
+  private int staleHitCount;
+  private int upstreamCount;
+
+  private CachingDns(Builder builder) {
+    this.upstream = builder.upstream;
+    this.maxEntries = builder.maxEntries;
+    this.ttlNanos = builder.ttlNanos;
+    this.staleTtlNanos = builder.staleTtlNanos;
+    this.negativeTtlNanos = builder.negativeTtlNanos;
+    this.entries = new LinkedHashMap<String, Entry>(0, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(
+          Map.Entry<String, CachingDns.Entry> eldest) {
+        return size() > CachingDns.this.maxEntries;
+      }
+    };
+  }
+
+  @Override public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+    return lookup(hostname, System.nanoTime());
+  }
+
+  List<InetAddress> lookup(String hostname, long now) throws UnknownHostException {
+    if (hostname == null) throw new UnknownHostException("hostname == null");
+
+    FutureTask<Entry> lookup;
+    boolean runLookup = false;
+    synchronized (this) {
+      requestCount++;
+
+      Entry entry = entries.get(hostname);
+      if (entry != null && now < entry.expiresAtNanos) {
+        hitCount++;
+        return entry.get();
+      }
+      if (entry != null && now < entry.staleUntilNanos) {
+        // Serve the stale result; the next lookup will likely see the refreshed one.
+        staleHitCount++;
+        if (!inFlight.containsKey(hostname) && now >= entry.retryAfterNanos) {
+          executor.execute(newLookup(hostname, now, entry));
+        }
+        return entry.get();
+      }
+
+      lookup = inFlight.get(hostname);
+      if (lookup == null) {
+        lookup = newLookup(hostname, now, null);
+        runLookup = true;
+      }
+    }
+
+    if (runLookup) lookup.run();
+    return await(lookup).get();
+  }
+
+  /**
+   * Returns a task that queries the upstream DNS for {@code hostname} and caches its result. If
+   * {@code staleEntry} is non-null it is retained when the upstream DNS fails, and isn't refreshed
+   * again until the negative TTL has elapsed.
+   */
+  private FutureTask<Entry> newLookup(
+      final String hostname, final long now, final Entry staleEntry) {
+    assert (Thread.holdsLock(this));
+    upstreamCount++;
+    FutureTask<Entry> result = new FutureTask<>(new Callable<Entry>() {
+      @Override public Entry call() throws Exception {
+        Entry entry = null;
+        try {
+          entry = lookupUpstream(hostname, now);
+          return entry;
+        } finally {
+          synchronized (CachingDns.this) {
+            // Prefer a stale result over a failure, but don't ask the failing upstream again until
+            // a fresh failure would have expired.
+            if (entry != null && (entry.failure == null || staleEntry == null)) {
+              entries.put(hostname, entry);
+            } else if (entry != null) {
+              staleEntry.retryAfterNanos = now + negativeTtlNanos;
+            }
+            inFlight.remove(hostname);
+          }
+        }
+      }
+    });
+    inFlight.put(hostname, result);
+    return result;
+  }
+
+  private Entry lookupUpstream(String hostname, long now) {
+    try {
+      List<InetAddress> addresses = upstream.lookup(hostname);
+      if (addresses == null || addresses.isEmpty()) {
+        throw new UnknownHostException(upstream + " returned no addresses for " + hostname);
+      }
+      return new Entry(Util.immutableList(addresses), null,
+          now + ttlNanos, now + ttlNanos + staleTtlNanos);
+    } catch (UnknownHostException e) {
+      return new Entry(null, e, now + negativeTtlNanos, now + negativeTtlNanos);
+    }
+  }
+
+  private Entry await(FutureTask<Entry> lookup) throws UnknownHostException {
+    try {
+      return lookup.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      UnknownHostException unknownHost = new UnknownHostException("interrupted");
+      unknownHost.initCause(e);
+      throw unknownHost;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new AssertionError(cause);
+    }
+  }
+
+  /** Removes the cached result for {@code hostname}, if any. */
+  public synchronized void evict(String hostname) {
+    entries.remove(hostname);
+  }
+
+  /** Removes all cached results. */
+  public synchronized void evictAll() {
+    entries.clear();
+  }
+
+  /** Returns the number of hostnames whose results are cached, including negative results. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized int requestCount() {
+    return requestCount;
+  }
+
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  public synchronized int staleHitCount() {
+    return staleHitCount;
+  }
+
+  public synchronized int upstreamCount() {
+    return upstreamCount;
+  }
+
+  private static final class Entry {
+    final List<InetAddress> addresses;
+    final UnknownHostException failure;
+    final long expiresAtNanos;
+    final long staleUntilNanos;
+    /** Time before which a stale entry isn't refreshed. Guarded by the CachingDns. */
+    long retryAfterNanos;
+
+    Entry(List<InetAddress> addresses, UnknownHostException failure, long expiresAtNanos,
+        long staleUntilNanos) {
+      this.addresses = addresses;
+      this.failure = failure;
+      this.expiresAtNanos = expiresAtNanos;
+      this.staleUntilNanos = staleUntilNanos;
+    }
+
+    /** Returns the cached addresses, or throws a copy of the cached failure. */
+    List<InetAddress> get() throws UnknownHostException {
+      if (failure != null) {
+        UnknownHostException copy = new UnknownHostException(failure.getMessage());
+        copy.initCause(failure);
+        throw copy;
+      }
+      return addresses;
+    }
+  }
+
+  public static final class Builder {
+    Dns upstream = Dns.SYSTEM;
+    int maxEntries = 256;
+    long ttlNanos = TimeUnit.MINUTES.toNanos(1);
+    long staleTtlNanos = TimeUnit.MINUTES.toNanos(5);
+    long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Sets the DNS that is queried when a result isn't cached. If unset, the {@link Dns#SYSTEM
+     * system-wide default} DNS will be used.
+     */
+    public Builder upstream(Dns upstream) {
+      if (upstream == null) throw new NullPointerException("upstream == null");
+      this.upstream = upstream;
+      return this;
+    }
+
+    /** Sets the maximum number of hostnames to cache. Defaults to 256. */
+    public Builder maxEntries(int maxEntries) {
+      if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0: " + maxEntries);
+      this.maxEntries = maxEntries;
+      return this;
+    }
+
+    /** Sets how long a successful lookup is fresh. Defaults to 1 minute. */
+    public Builder ttl(long ttl, TimeUnit unit) {
+      this.ttlNanos = toNanos("ttl", ttl, unit);
+      return this;
+    }
+
+    /**
+     * Sets how long after its TTL a successful lookup may still be returned while it is refreshed
+     * in the background. Use 0 to always wait for the upstream DNS once a result has expired.
+     * Defaults to 5 minutes.
+     */
+    public Builder staleTtl(long staleTtl, TimeUnit unit) {
+      this.staleTtlNanos = toNanos("staleTtl", staleTtl, unit);
+      return this;
+    }
+
+    /**
+     * Sets how long a failed lookup is remembered. Use 0 to not cache failures. Defaults to 10
+     * seconds.
+     */
+    public Builder negativeTtl(long negativeTtl, TimeUnit unit) {
+      this.negativeTtlNanos = toNanos("negativeTtl", negativeTtl, unit);
+      return this;
+    }
+
+    private static long toNanos(String name, long duration, TimeUnit unit) {
+      if (duration < 0) throw new IllegalArgumentException(name + " < 0");
+      if (unit == null) throw new IllegalArgumentException("unit == null");
+      return unit.toNanos(duration);
+    }
+
+    public CachingDns build() {
+      return new CachingDns(this);
+    }
+  }
+}
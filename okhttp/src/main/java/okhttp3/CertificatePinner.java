@@ -127,6 +127,21 @@ import static java.util.Collections.unmodifiableSet;
 public final class CertificatePinner {
   public static final CertificatePinner DEFAULT = new Builder().build();
 
+  /** The maximum number of certificates whose public key hashes are remembered. */
+  static final int MAX_CACHED_HASHES = 256;
+
+  /**
+   * Public key hashes of recently-checked certificates. Servers present the same certificates on
+   * every connection, so this saves re-encoding and hashing their keys each time. Certificates are
+   * compared by their encoded form, so a different certificate never shares a hash.
+   */
+  private static final Map<Certificate, ByteString> sha1Cache =
+      new LinkedHashMap<Certificate, ByteString>(0, 0.75f, true /* accessOrder */) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Certificate, ByteString> eldest) {
+          return size() > MAX_CACHED_HASHES;
+        }
+      };
+
   private final Map<String, Set<ByteString>> hostnameToPins;
 
   private CertificatePinner(Builder builder) {
@@ -220,8 +235,22 @@ public final class CertificatePinner {
     return "sha1/" + sha1((X509Certificate) certificate).base64();
   }
 
-  private static ByteString sha1(X509Certificate x509Certificate) {
-    return Util.sha1(ByteString.of(x509Certificate.getPublicKey().getEncoded()));
+  static ByteString sha1(X509Certificate x509Certificate) {
+    synchronized (sha1Cache) {
+      ByteString cached = sha1Cache.get(x509Certificate);
+      if (cached != null) return cached;
+    }
+    ByteString result = Util.sha1(ByteString.of(x509Certificate.getPublicKey().getEncoded()));
+    synchronized (sha1Cache) {
+      sha1Cache.put(x509Certificate, result);
+    }
+    return result;
+  }
+
+  static int cachedHashCount() {
+    synchronized (sha1Cache) {
+      return sha1Cache.size();
+    }
   }
 
   /** Builds a configured certificate pinner. */
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import javax.net.SocketFactory;
+
+/**
+ * Creates sockets that are opened with {@link SocketChannel}, and so have {@linkplain
+ * Socket#getChannel() channels}. Set it as the {@linkplain OkHttpClient.Builder#socketFactory
+ * client's socket factory} to move file bodies of cleartext HTTP/1.1 calls between files and
+ * sockets without copying them through the Java heap:
+ *
+ * <ul>
+ *   <li>{@linkplain RequestBody#create(MediaType, File) File request bodies} are sent with {@link
+ *       java.nio.channels.FileChannel#transferTo}.
+ *   <li>{@link ResponseBody#writeTo(File)} reads the socket straight into a direct buffer that is
+ *       written to the file.
+ * </ul>
+ *
+ * <p>Calls over TLS, HTTP/2 and SPDY, and calls through proxies that tunnel, copy file bodies
+ * through Okio buffers as usual.
+ */
+public final class ChannelSocketFactory extends SocketFactory {
+  @Override public Socket createSocket() throws IOException {
+    return SocketChannel.open().socket();
+  }
+
+  @Override public Socket createSocket(String host, int port) throws IOException {
+    Socket socket = createSocket();
+    connect(socket, new InetSocketAddress(host, port));
+    return socket;
+  }
+
+  @Override public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+      throws IOException {
+    Socket socket = createSocket();
+    bind(socket, new InetSocketAddress(localHost, localPort));
+    connect(socket, new InetSocketAddress(host, port));
+    return socket;
+  }
+
+  @Override public Socket createSocket(InetAddress host, int port) throws IOException {
+    Socket socket = createSocket();
+    connect(socket, new InetSocketAddress(host, port));
+    return socket;
+  }
+
+  @Override public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+      int localPort) throws IOException {
+    Socket socket = createSocket();
+    bind(socket, new InetSocketAddress(localAddress, localPort));
+    connect(socket, new InetSocketAddress(address, port));
+    return socket;
+  }
+
+  private static void bind(Socket socket, InetSocketAddress address) throws IOException {
+    try {
+      socket.bind(address);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static void connect(Socket socket, InetSocketAddress address) throws IOException {
+    try {
+      socket.connect(address);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.InternalConnectionHints;
+import okhttp3.internal.Platform;
+import okhttp3.internal.RouteDatabase;
+import okhttp3.internal.Util;
+import okhttp3.internal.io.FileSystem;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Persists what a client has learned about the network so that a new process doesn't start cold.
+ * This remembers three things:
+ * <ul>
+ *     <li><strong>DNS results.</strong> A restored result is used instead of a DNS lookup until it
+ *         is {@linkplain #DNS_TTL_MILLIS an hour old}. If none of its addresses can be connected
+ *         to the hostname is resolved again.
+ *     <li><strong>Route history.</strong> Connect times and failures of each IP address, used to
+ *         attempt the fastest and most reliable addresses first.
+ *     <li><strong>Protocols.</strong> Whether each origin server last negotiated HTTP/2 or
+ *         HTTP/1.1. While a connection to an HTTP/2 origin is being made, other calls to it wait to
+ *         share that connection instead of each making their own.
+ * </ul>
+ *
+ * <p>Hints are loaded lazily: a client begins reading its hints file on a background thread when
+ * it is built, and the first connection waits for that read to complete. Changes are saved in the
+ * background shortly after they're made. Call {@link #save} before the process exits to save any
+ * that are pending.
+ *
+ * <p>Install hints on a client like a cache: <pre>   {@code
+ *
+ *   OkHttpClient client = new OkHttpClient.Builder()
+ *       .connectionHints(new ConnectionHints(new File(cacheDirectory, "connection-hints")))
+ *       .build();
+ * }</pre>
+ *
+ * <p>Hints are used only by the clients they're installed on. Route history is shared by every
+ * client of a connection pool, so clients that share a connection pool should share their hints. A
+ * client whose {@link Dns} differs from that of the first client the hints were installed on
+ * doesn't use or record DNS results.
+ */
+public final class ConnectionHints {
+  static final String MAGIC = "okhttp3.ConnectionHints";
+  static final String VERSION_1 = "1";
+
+  /** How long a DNS result may be used by a later process. */
+  static final long DNS_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /** How long to wait after a change before saving, so that bursts of changes are saved once. */
+  static final long SAVE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  /** The maximum number of hostnames and origins to remember. */
+  static final int MAX_HOSTS = 256;
+
+  /**
+   * Background threads are used to load and save hints. The thread pool executor permits the hints
+   * to be garbage collected.
+   */
+  private static final Executor backgroundExecutor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp ConnectionHints", true));
+
+  final InternalConnectionHints internalHints = new InternalConnectionHints() {
+    @Override public Dns dns() {
+      synchronized (ConnectionHints.this) {
+        return dns;
+      }
+    }
+
+    @Override public List<InetAddress> hintedAddresses(String hostname) {
+      return ConnectionHints.this.hintedAddresses(hostname, System.currentTimeMillis());
+    }
+
+    @Override public void dnsResolved(String hostname, List<InetAddress> addresses) {
+      ConnectionHints.this.dnsResolved(hostname, addresses, System.currentTimeMillis());
+    }
+
+    @Override public Protocol protocol(HttpUrl url) {
+      return ConnectionHints.this.protocol(url);
+    }
+
+    @Override public void connectFailed(Route route) {
+      ConnectionHints.this.connectFailed(route);
+    }
+
+    @Override public void connected(Route route, Protocol protocol) {
+      ConnectionHints.this.connected(route, protocol);
+    }
+  };
+
+  private final Runnable loadRunnable = new Runnable() {
+    @Override public void run() {
+      initialize();
+    }
+  };
+
+  private final Runnable saveRunnable = new Runnable() {
+    @Override public void run() {
+      try {
+        Thread.sleep(SAVE_DELAY_MILLIS);
+      } catch (InterruptedException ignored) {
+      }
+      try {
+        save();
+      } catch (IOException e) {
+        Platform.get().logW("ConnectionHints " + file + " could not be saved: " + e.getMessage());
+      }
+    }
+  };
+
+  private final File file;
+  private final FileSystem fileSystem;
+
+  /** Loads and saves hints. Tests replace this to make them synchronous. */
+  Executor executor = backgroundExecutor;
+
+  /* State guarded by 'this'. */
+  private final Map<String, DnsHint> dnsHints = newLruMap();
+  private final Map<String, Protocol> protocols = newLruMap();
+  private RouteDatabase routeDatabase;
+  /** The DNS of the first client these hints were attached to. */
+  private Dns dns;
+  /** Route history that was read before a route database was attached. */
+  private Buffer pendingRouteHistory;
+  private boolean initialized;
+  private boolean savePending;
+  private int hitCount;
+
+  /** Serializes writes to the hints file. */
+  private final Object saveLock = new Object();
+
+  public ConnectionHints(File file) {
+    this(file, FileSystem.SYSTEM);
+  }
+
+  ConnectionHints(File file, FileSystem fileSystem) {
+    if (file == null) throw new NullPointerException("file == null");
+    this.file = file;
+    this.fileSystem = fileSystem;
+  }
+
+  /** Returns the file that stores these hints. */
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Attaches these hints to {@code routeDatabase} and begins loading them in the background. Only
+   * the most recently attached route database's history is saved. DNS results are only hinted to
+   * and recorded from the first {@code dns} these hints are attached with.
+   */
+  void attach(RouteDatabase routeDatabase, Dns dns) {
+    synchronized (this) {
+      if (this.dns == null) this.dns = dns;
+      if (this.routeDatabase == routeDatabase) return;
+      this.routeDatabase = routeDatabase;
+      if (pendingRouteHistory != null) {
+        try {
+          routeDatabase.readHistory(pendingRouteHistory);
+        } catch (IOException e) {
+          Platform.get().logW("ConnectionHints " + file + " is corrupt: " + e.getMessage());
+        }
+        pendingRouteHistory = null;
+      }
+      if (initialized) return;
+    }
+    executor.execute(loadRunnable);
+  }
+
+  /** Reads the hints file if it hasn't been read already. */
+  synchronized void initialize() {
+    if (initialized) return;
+    initialized = true;
+
+    try {
+      if (!fileSystem.exists(file)) return;
+      readHints();
+    } catch (IOException e) {
+      Platform.get().logW("ConnectionHints " + file + " is corrupt: " + e.getMessage()
+          + ", removing");
+      dnsHints.clear();
+      protocols.clear();
+      pendingRouteHistory = null;
+      try {
+        fileSystem.delete(file);
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private void readHints() throws IOException {
+    assert (Thread.holdsLock(this));
+    BufferedSource source = Okio.buffer(fileSystem.source(file));
+    try {
+      String magic = source.readUtf8LineStrict();
+      String version = source.readUtf8LineStrict();
+      if (!MAGIC.equals(magic) || !VERSION_1.equals(version)) {
+        throw new IOException("unexpected header: [" + magic + ", " + version + "]");
+      }
+
+      int dnsCount = readInt(source);
+      for (int i = 0; i < dnsCount; i++) {
+        String line = source.readUtf8LineStrict();
+        String[] parts = line.split(" ");
+        if (parts.length < 3) throw new IOException("unexpected DNS hint: " + line);
+        List<InetAddress> addresses = new ArrayList<>();
+        for (int p = 2; p < parts.length; p++) {
+          addresses.add(InetAddress.getByName(parts[p])); // Literal addresses don't use DNS.
+        }
+        dnsHints.put(parts[0], new DnsHint(
+            Util.immutableList(addresses), parseLong(parts[1]), true));
+      }
+
+      int protocolCount = readInt(source);
+      for (int i = 0; i < protocolCount; i++) {
+        String line = source.readUtf8LineStrict();
+        int space = line.lastIndexOf(' ');
+        if (space == -1) throw new IOException("unexpected protocol hint: " + line);
+        protocols.put(line.substring(0, space), Protocol.get(line.substring(space + 1)));
+      }
+
+      if (routeDatabase != null) {
+        routeDatabase.readHistory(source);
+      } else {
+        pendingRouteHistory = new Buffer();
+        source.readAll(pendingRouteHistory);
+      }
+    } finally {
+      closeQuietly(source);
+    }
+  }
+
+  /**
+   * Writes these hints to their file, replacing its previous contents. Changes are saved
+   * automatically in the background; call this to save them immediately.
+   */
+  public void save() throws IOException {
+    Buffer buffer = new Buffer();
+    RouteDatabase routeDatabase;
+    Buffer routeHistory;
+    synchronized (this) {
+      initialize(); // Don't clobber hints that haven't been read yet.
+      savePending = false;
+      routeDatabase = this.routeDatabase;
+      routeHistory = pendingRouteHistory != null ? pendingRouteHistory.clone() : null;
+
+      buffer.writeUtf8(MAGIC).writeByte('\n');
+      buffer.writeUtf8(VERSION_1).writeByte('\n');
+      buffer.writeDecimalLong(dnsHints.size()).writeByte('\n');
+      for (Map.Entry<String, DnsHint> entry : dnsHints.entrySet()) {
+        DnsHint dnsHint = entry.getValue();
+        buffer.writeUtf8(entry.getKey());
+        buffer.writeByte(' ').writeDecimalLong(dnsHint.expiresAtMillis);
+        for (InetAddress address : dnsHint.addresses) {
+          buffer.writeByte(' ').writeUtf8(address.getHostAddress());
+        }
+        buffer.writeByte('\n');
+      }
+      buffer.writeDecimalLong(protocols.size()).writeByte('\n');
+      for (Map.Entry<String, Protocol> entry : protocols.entrySet()) {
+        buffer.writeUtf8(entry.getKey()).writeByte(' ');
+        buffer.writeUtf8(entry.getValue().toString()).writeByte('\n');
+      }
+    }
+    if (routeDatabase != null) {
+      routeDatabase.writeHistory(buffer);
+    } else if (routeHistory != null) {
+      buffer.writeAll(routeHistory);
+    } else {
+      buffer.writeUtf8("0\n");
+    }
+
+    synchronized (saveLock) {
+      File tmp = new File(file.getPath() + ".tmp");
+      BufferedSink sink = Okio.buffer(fileSystem.sink(tmp));
+      try {
+        sink.writeAll(buffer);
+      } finally {
+        sink.close();
+      }
+      if (fileSystem.exists(file)) fileSystem.delete(file);
+      fileSystem.rename(tmp, file);
+    }
+  }
+
+  /** Forgets all hints and deletes the hints file. Route history in this process is retained. */
+  public void evictAll() throws IOException {
+    synchronized (this) {
+      initialized = true;
+      dnsHints.clear();
+      protocols.clear();
+      pendingRouteHistory = null;
+    }
+    synchronized (saveLock) {
+      fileSystem.delete(file);
+    }
+  }
+
+  /**
+   * Returns the protocol most recently negotiated with the origin server of {@code url}, or null if
+   * no connection to it has been recorded.
+   */
+  public synchronized Protocol protocol(HttpUrl url) {
+    initialize();
+    return protocols.get(origin(url));
+  }
+
+  /** Returns the number of DNS lookups that were avoided by using a hint. */
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  synchronized List<InetAddress> hintedAddresses(String hostname, long nowMillis) {
+    initialize();
+    DnsHint dnsHint = dnsHints.get(hostname);
+    if (dnsHint == null || !dnsHint.restored) return null;
+    if (nowMillis >= dnsHint.expiresAtMillis) {
+      dnsHints.remove(hostname);
+      return null;
+    }
+    hitCount++;
+    return dnsHint.addresses;
+  }
+
+  synchronized void dnsResolved(String hostname, List<InetAddress> addresses, long nowMillis) {
+    initialize();
+    dnsHints.put(hostname, new DnsHint(
+        Util.immutableList(addresses), nowMillis + DNS_TTL_MILLIS, false));
+    scheduleSave();
+  }
+
+  synchronized void connectFailed(Route route) {
+    initialize();
+    if (route.proxy().type() == Proxy.Type.DIRECT) {
+      // Don't recommend an address that doesn't work. It'll be resolved again on the next attempt.
+      String hostname = route.address().url().host();
+      DnsHint dnsHint = dnsHints.get(hostname);
+      if (dnsHint != null && dnsHint.restored
+          && dnsHint.addresses.contains(route.socketAddress().getAddress())) {
+        dnsHints.remove(hostname);
+      }
+    }
+    scheduleSave();
+  }
+
+  synchronized void connected(Route route, Protocol protocol) {
+    initialize();
+    protocols.put(origin(route.address().url()), protocol);
+    scheduleSave();
+  }
+
+  private void scheduleSave() {
+    assert (Thread.holdsLock(this));
+    if (savePending) return;
+    savePending = true;
+    executor.execute(saveRunnable);
+  }
+
+  private static String origin(HttpUrl url) {
+    return url.scheme() + "://" + url.host() + ":" + url.port();
+  }
+
+  private static int readInt(BufferedSource source) throws IOException {
+    long result = parseLong(source.readUtf8LineStrict());
+    if (result < 0 || result > Integer.MAX_VALUE) {
+      throw new IOException("expected an int but was \"" + result + "\"");
+    }
+    return (int) result;
+  }
+
+  private static long parseLong(String s) throws IOException {
+    try {
+      return Long.parseLong(s);
+    } catch (NumberFormatException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static <V> Map<String, V> newLruMap() {
+    return new LinkedHashMap<String, V>(0, 0.75f, true /* accessOrder */) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > MAX_HOSTS;
+      }
+    };
+  }
+
+  private static final class DnsHint {
+    final List<InetAddress> addresses;
+    final long expiresAtMillis;
+
+    /** True if this hint was read from the file; only those are used in place of DNS. */
+    final boolean restored;
+
+    DnsHint(List<InetAddress> addresses, long expiresAtMillis, boolean restored) {
+      this.addresses = addresses;
+      this.expiresAtMillis = expiresAtMillis;
+      this.restored = restored;
+    }
+  }
+}
@@ -29,6 +29,7 @@ import java.util.concurrent.TimeUnit;
 import okhttp3.internal.Internal;
 import okhttp3.internal.RouteDatabase;
 import okhttp3.internal.Util;
+import okhttp3.internal.http.ConnectionGroup;
 import okhttp3.internal.http.StreamAllocation;
 import okhttp3.internal.io.RealConnection;
 
@@ -113,13 +114,19 @@ public final class ConnectionPool {
     return connections.size();
   }
 
-  /** Returns a recycled connection to {@code address}, or null if no such connection exists. */
+  /**
+   * Returns a recycled connection to {@code address}, or null if no such connection exists. If the
+   * allocation has a connection group this returns the connection with the fewest streams, or null
+   * if the group should grow instead.
+   */
   RealConnection get(Address address, StreamAllocation streamAllocation) {
     assert (Thread.holdsLock(this));
+    ConnectionGroup group = streamAllocation.connectionGroup();
+    if (group != null) return getLeastLoaded(address, streamAllocation, group);
     for (RealConnection connection : connections) {
       // TODO(jwilson): this is awkward. We're already holding a lock on 'this', and
       //     connection.allocationLimit() may also lock the FramedConnection.
-      if (connection.allocations.size() < connection.allocationLimit()
+      if (connection.allocations.size() < connection.allocationLimit(streamAllocation)
           && address.equals(connection.route().address)
           && !connection.noNewStreams) {
         streamAllocation.acquire(connection);
@@ -129,6 +136,60 @@ public final class ConnectionPool {
     return null;
   }
 
+  private RealConnection getLeastLoaded(
+      Address address, StreamAllocation streamAllocation, ConnectionGroup group) {
+    RealConnection result = null;
+    for (RealConnection connection : connections) {
+      int allocationCount = connection.allocations.size();
+      if (address.equals(connection.route().address)
+          && !connection.noNewStreams
+          && allocationCount < connection.allocationLimit(streamAllocation)
+          && (result == null || allocationCount < result.allocations.size())) {
+        result = connection;
+      }
+    }
+    if (result == null) return null;
+
+    // Rather than share a busy connection, grow the group to its minimum size.
+    if (!result.allocations.isEmpty() && connectionGroupSize(address) < group.minConnections) {
+      return null;
+    }
+
+    streamAllocation.acquire(result);
+    return result;
+  }
+
+  /**
+   * Returns the number of connections to {@code address} that count towards its connection group:
+   * multiplexed connections that accept new streams, and connections that are still connecting.
+   */
+  int connectionGroupSize(Address address) {
+    assert (Thread.holdsLock(this));
+    int result = 0;
+    for (RealConnection connection : connections) {
+      if (address.equals(connection.route().address)
+          && !connection.noNewStreams
+          && (connection.isMultiplexed()
+          || (connection.socket() == null && !connection.allocations.isEmpty()))) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /** Returns a connection to {@code address} that hasn't finished connecting, or null. */
+  RealConnection connecting(Address address) {
+    assert (Thread.holdsLock(this));
+    for (RealConnection connection : connections) {
+      if (address.equals(connection.route().address)
+          && !connection.noNewStreams
+          && !connection.isConnectFinished()) {
+        return connection;
+      }
+    }
+    return null;
+  }
+
   void put(RealConnection connection) {
     assert (Thread.holdsLock(this));
     if (!cleanupRunning) {
@@ -251,6 +312,7 @@ public final class ConnectionPool {
           + " was leaked. Did you forget to close a response body?");
       references.remove(i);
       connection.noNewStreams = true;
+      if (connection.pipeline != null) connection.pipeline.shutdown();
 
       // If this was the last allocation, the connection is eligible for immediate eviction.
       if (references.isEmpty()) {
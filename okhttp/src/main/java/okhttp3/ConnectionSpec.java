@@ -17,6 +17,7 @@ package okhttp3;
 
 import java.util.Arrays;
 import java.util.List;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 
 import static okhttp3.internal.Util.concat;
@@ -127,7 +128,8 @@ public final class ConnectionSpec {
 
   /** Applies this spec to {@code sslSocket}. */
   void apply(SSLSocket sslSocket, boolean isFallback) {
-    ConnectionSpec specToApply = supportedSpec(sslSocket, isFallback);
+    ConnectionSpec specToApply = supportedSpec(sslSocket.getEnabledCipherSuites(),
+        sslSocket.getEnabledProtocols(), sslSocket.getSupportedCipherSuites(), isFallback);
 
     if (specToApply.tlsVersions != null) {
       sslSocket.setEnabledProtocols(specToApply.tlsVersions);
@@ -137,21 +139,35 @@ public final class ConnectionSpec {
     }
   }
 
+  /** Applies this spec to {@code sslEngine}. */
+  void apply(SSLEngine sslEngine, boolean isFallback) {
+    ConnectionSpec specToApply = supportedSpec(sslEngine.getEnabledCipherSuites(),
+        sslEngine.getEnabledProtocols(), sslEngine.getSupportedCipherSuites(), isFallback);
+
+    if (specToApply.tlsVersions != null) {
+      sslEngine.setEnabledProtocols(specToApply.tlsVersions);
+    }
+    if (specToApply.cipherSuites != null) {
+      sslEngine.setEnabledCipherSuites(specToApply.cipherSuites);
+    }
+  }
+
   /**
-   * Returns a copy of this that omits cipher suites and TLS versions not enabled by {@code
-   * sslSocket}.
+   * Returns a copy of this that omits cipher suites and TLS versions not enabled by a socket or
+   * engine.
    */
-  private ConnectionSpec supportedSpec(SSLSocket sslSocket, boolean isFallback) {
+  private ConnectionSpec supportedSpec(String[] enabledCipherSuites, String[] enabledProtocols,
+      String[] supportedCipherSuites, boolean isFallback) {
     String[] cipherSuitesIntersection = cipherSuites != null
-        ? intersect(String.class, cipherSuites, sslSocket.getEnabledCipherSuites())
-        : sslSocket.getEnabledCipherSuites();
+        ? intersect(String.class, cipherSuites, enabledCipherSuites)
+        : enabledCipherSuites;
     String[] tlsVersionsIntersection = tlsVersions != null
-        ? intersect(String.class, tlsVersions, sslSocket.getEnabledProtocols())
-        : sslSocket.getEnabledProtocols();
+        ? intersect(String.class, tlsVersions, enabledProtocols)
+        : enabledProtocols;
 
     // In accordance with https://tools.ietf.org/html/draft-ietf-tls-downgrade-scsv-00
     // the SCSV cipher is added to signal that a protocol fallback has taken place.
-    if (isFallback && contains(sslSocket.getSupportedCipherSuites(), "TLS_FALLBACK_SCSV")) {
+    if (isFallback && contains(supportedCipherSuites, "TLS_FALLBACK_SCSV")) {
       cipherSuitesIntersection = concat(cipherSuitesIntersection, "TLS_FALLBACK_SCSV");
     }
 
@@ -173,17 +189,30 @@ public final class ConnectionSpec {
    * socket's enabled protocols.
    */
   public boolean isCompatible(SSLSocket socket) {
+    return isCompatible(socket.getEnabledProtocols(), socket.getEnabledCipherSuites());
+  }
+
+  /**
+   * Returns {@code true} if the engine, as currently configured, supports this connection spec.
+   * Like {@link #isCompatible(SSLSocket) sockets}, its enabled cipher suites and protocols must
+   * intersect this spec's.
+   */
+  public boolean isCompatible(SSLEngine engine) {
+    return isCompatible(engine.getEnabledProtocols(), engine.getEnabledCipherSuites());
+  }
+
+  private boolean isCompatible(String[] enabledProtocols, String[] enabledCipherSuites) {
     if (!tls) {
       return false;
     }
 
     if (tlsVersions != null
-        && !nonEmptyIntersection(tlsVersions, socket.getEnabledProtocols())) {
+        && !nonEmptyIntersection(tlsVersions, enabledProtocols)) {
       return false;
     }
 
     if (cipherSuites != null
-        && !nonEmptyIntersection(cipherSuites, socket.getEnabledCipherSuites())) {
+        && !nonEmptyIntersection(cipherSuites, enabledCipherSuites)) {
       return false;
     }
 
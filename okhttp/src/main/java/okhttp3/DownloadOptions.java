@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Options for saving a response body to a file with {@link ResponseBody#writeTo(java.io.File,
+ * DownloadOptions)}.
+ */
+public final class DownloadOptions {
+  /** Preallocates files and doesn't sync them. */
+  public static final DownloadOptions DEFAULT = new Builder().build();
+
+  final boolean preallocate;
+  final boolean sync;
+  final int bufferSize;
+  final AtomicLong progress;
+
+  private DownloadOptions(Builder builder) {
+    this.preallocate = builder.preallocate;
+    this.sync = builder.sync;
+    this.bufferSize = builder.bufferSize;
+    this.progress = builder.progress;
+  }
+
+  /** Returns true if the file is extended to the body's length before it is written. */
+  public boolean preallocate() {
+    return preallocate;
+  }
+
+  /** Returns true if the file is synced to the storage device before the download completes. */
+  public boolean sync() {
+    return sync;
+  }
+
+  /** Returns the number of bytes written to the file at once. */
+  public int bufferSize() {
+    return bufferSize;
+  }
+
+  /** Returns the counter that is advanced as bytes are written, or null for none. */
+  public AtomicLong progress() {
+    return progress;
+  }
+
+  public Builder newBuilder() {
+    return new Builder(this);
+  }
+
+  public static final class Builder {
+    boolean preallocate = true;
+    boolean sync;
+    int bufferSize = 256 * 1024;
+    AtomicLong progress;
+
+    public Builder() {
+    }
+
+    Builder(DownloadOptions options) {
+      this.preallocate = options.preallocate;
+      this.sync = options.sync;
+      this.bufferSize = options.bufferSize;
+      this.progress = options.progress;
+    }
+
+    /**
+     * Extends the file to the body's {@code Content-Length}, if it is known, before writing it.
+     * This lets the file system allocate the file contiguously. Many file systems create sparse
+     * files, so this doesn't reserve space on the storage device.
+     */
+    public Builder preallocate(boolean preallocate) {
+      this.preallocate = preallocate;
+      return this;
+    }
+
+    /**
+     * Syncs the file's content to the storage device before the download completes, so that it
+     * survives a crash of the operating system.
+     */
+    public Builder sync(boolean sync) {
+      this.sync = sync;
+      return this;
+    }
+
+    /** Sets the number of bytes written to the file at once. */
+    public Builder bufferSize(int bufferSize) {
+      if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize <= 0: " + bufferSize);
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    /**
+     * Advances {@code progress} by the number of bytes written as they are written. Other threads
+     * may read it at any time to track the download without intercepting its stream.
+     */
+    public Builder progress(AtomicLong progress) {
+      if (progress == null) throw new NullPointerException("progress == null");
+      this.progress = progress;
+      return this;
+    }
+
+    public DownloadOptions build() {
+      return new DownloadOptions(this);
+    }
+  }
+}
@@ -37,16 +37,26 @@ public final class Handshake {
   private final CipherSuite cipherSuite;
   private final List<Certificate> peerCertificates;
   private final List<Certificate> localCertificates;
+  private final boolean resumed;
 
   private Handshake(TlsVersion tlsVersion, CipherSuite cipherSuite,
-      List<Certificate> peerCertificates, List<Certificate> localCertificates) {
+      List<Certificate> peerCertificates, List<Certificate> localCertificates, boolean resumed) {
     this.tlsVersion = tlsVersion;
     this.cipherSuite = cipherSuite;
     this.peerCertificates = peerCertificates;
     this.localCertificates = localCertificates;
+    this.resumed = resumed;
   }
 
   public static Handshake get(SSLSession session) {
+    return get(session, false);
+  }
+
+  /**
+   * Returns the handshake that established {@code session}. Use {@code resumed} to tag whether the
+   * handshake resumed a previous session.
+   */
+  public static Handshake get(SSLSession session, boolean resumed) {
     String cipherSuiteString = session.getCipherSuite();
     if (cipherSuiteString == null) throw new IllegalStateException("cipherSuite == null");
     CipherSuite cipherSuite = CipherSuite.forJavaName(cipherSuiteString);
@@ -70,14 +80,15 @@ public final class Handshake {
         ? Util.immutableList(localCertificates)
         : Collections.<Certificate>emptyList();
 
-    return new Handshake(tlsVersion, cipherSuite, peerCertificatesList, localCertificatesList);
+    return new Handshake(
+        tlsVersion, cipherSuite, peerCertificatesList, localCertificatesList, resumed);
   }
 
   public static Handshake get(TlsVersion tlsVersion, CipherSuite cipherSuite,
       List<Certificate> peerCertificates, List<Certificate> localCertificates) {
     if (cipherSuite == null) throw new IllegalArgumentException("cipherSuite == null");
     return new Handshake(tlsVersion, cipherSuite, Util.immutableList(peerCertificates),
-        Util.immutableList(localCertificates));
+        Util.immutableList(localCertificates), false);
   }
 
   /**
@@ -88,6 +99,14 @@ public final class Handshake {
     return tlsVersion;
   }
 
+  /**
+   * Returns true if this handshake resumed a previously-negotiated TLS session, or false if it was
+   * a full handshake. Handshakes of cached responses are never resumed.
+   */
+  public boolean resumed() {
+    return resumed;
+  }
+
   /** Returns the cipher suite used for the connection. */
   public CipherSuite cipherSuite() {
     return cipherSuite;
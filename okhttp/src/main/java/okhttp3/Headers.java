@@ -18,6 +18,7 @@
 package okhttp3;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
@@ -44,19 +45,30 @@ import okhttp3.internal.http.HttpDate;
  * <p>Instances of this class are immutable. Use {@link Builder} to create instances.
  */
 public final class Headers {
+  /**
+   * Headers with more fields than this are looked up with an index, built when first needed.
+   * Smaller headers are scanned, which is faster than hashing the name.
+   */
+  static final int INDEX_THRESHOLD = 16;
+
   private final String[] namesAndValues;
+  /** Lazily-built name index. Racing threads may each build one; any of them is correct. */
+  private Index index;
 
   private Headers(Builder builder) {
     this.namesAndValues = builder.namesAndValues.toArray(new String[builder.namesAndValues.size()]);
   }
 
-  private Headers(String[] namesAndValues) {
+  Headers(String[] namesAndValues) {
     this.namesAndValues = namesAndValues;
   }
 
   /** Returns the last value corresponding to the specified field, or null. */
   public String get(String name) {
-    return get(namesAndValues, name);
+    if (size() <= INDEX_THRESHOLD) return get(namesAndValues, name);
+    Index index = index();
+    int slot = index.slot(this, name);
+    return slot != -1 ? value(index.last[slot]) : null;
   }
 
   /**
@@ -95,10 +107,21 @@ public final class Headers {
   /** Returns an immutable list of the header values for {@code name}. */
   public List<String> values(String name) {
     List<String> result = null;
-    for (int i = 0, size = size(); i < size; i++) {
-      if (name.equalsIgnoreCase(name(i))) {
-        if (result == null) result = new ArrayList<>(2);
-        result.add(value(i));
+    if (size() <= INDEX_THRESHOLD) {
+      for (int i = 0, size = size(); i < size; i++) {
+        if (name.equalsIgnoreCase(name(i))) {
+          if (result == null) result = new ArrayList<>(2);
+          result.add(value(i));
+        }
+      }
+    } else {
+      Index index = index();
+      int slot = index.slot(this, name);
+      if (slot != -1) {
+        result = new ArrayList<>(2);
+        for (int i = index.first[slot]; i != -1; i = index.next[i]) {
+          result.add(value(i));
+        }
       }
     }
     return result != null
@@ -134,6 +157,80 @@ public final class Headers {
     return result;
   }
 
+  private Index index() {
+    Index result = index;
+    return result != null ? result : (index = new Index(this));
+  }
+
+  /**
+   * Returns a hash of {@code name} that is equal for names that are {@link
+   * String#equalsIgnoreCase equal ignoring case}. Like that method, it folds each character to
+   * upper case and then to lower case.
+   */
+  static int caseInsensitiveHash(String name) {
+    int result = 0;
+    for (int i = 0, length = name.length(); i < length; i++) {
+      char c = name.charAt(i);
+      if (c < 0x80) {
+        if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+      } else {
+        c = Character.toLowerCase(Character.toUpperCase(c));
+      }
+      result = 31 * result + c;
+    }
+    return result;
+  }
+
+  /**
+   * An open-addressed hash table from each distinct name, ignoring case, to the positions of its
+   * fields. Each slot holds the name's hash and its first and last positions. Positions with the
+   * same name are linked in order through {@link #next}.
+   */
+  private static final class Index {
+    final int[] hashes;
+    final int[] first;
+    final int[] last;
+    final int[] next;
+
+    Index(Headers headers) {
+      int size = headers.size();
+      int capacity = Integer.highestOneBit(size * 2 - 1) << 1; // At most half full.
+      hashes = new int[capacity];
+      first = new int[capacity];
+      last = new int[capacity];
+      next = new int[size];
+      Arrays.fill(first, -1);
+
+      for (int i = 0; i < size; i++) {
+        String name = headers.name(i);
+        int hash = caseInsensitiveHash(name);
+        int slot = hash & (capacity - 1);
+        while (first[slot] != -1
+            && (hashes[slot] != hash || !name.equalsIgnoreCase(headers.name(first[slot])))) {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        if (first[slot] == -1) {
+          hashes[slot] = hash;
+          first[slot] = i;
+        } else {
+          next[last[slot]] = i;
+        }
+        last[slot] = i;
+        next[i] = -1;
+      }
+    }
+
+    /** Returns the slot of {@code name}, or -1 if no field has that name. */
+    int slot(Headers headers, String name) {
+      int hash = caseInsensitiveHash(name);
+      int mask = first.length - 1;
+      for (int slot = hash & mask; first[slot] != -1; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && name.equalsIgnoreCase(headers.name(first[slot]))) return slot;
+      }
+      return -1;
+    }
+  }
+
   private static String get(String[] namesAndValues, String name) {
     for (int i = namesAndValues.length - 2; i >= 0; i -= 2) {
       if (name.equalsIgnoreCase(namesAndValues[i])) {
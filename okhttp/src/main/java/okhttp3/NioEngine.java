@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.internal.io.NioEventLoop;
+
+/**
+ * A transport that connects with non-blocking {@link java.nio.channels.SocketChannel socket
+ * channels} whose I/O is performed by a few shared event loop threads. New connections are
+ * assigned to this engine's event loops in turn.
+ *
+ * <p>Each event loop reads its connections as bytes arrive and writes them as their channels
+ * accept more, running TLS with an {@link javax.net.ssl.SSLEngine}. Calls exchange bytes with the
+ * loops through buffers, so a connection waits for its peer without a thread of its own.
+ * Synchronous calls still hold their caller's thread until the response is read. HTTP/2 and SPDY
+ * connections read their frames on a few shared threads only once frames arrive, so idle
+ * multiplexed connections hold no threads either.
+ *
+ * <p>The engine is used for connections that are direct or through an HTTP proxy. Connections
+ * through SOCKS proxies, and HTTPS connections of clients whose {@linkplain
+ * OkHttpClient.Builder#sslSocketFactory SSL socket factory} wasn't created from an {@linkplain
+ * OkHttpClient.Builder#sslContext SSL context}, use blocking sockets. Sockets for this engine are
+ * not created by the client's {@linkplain OkHttpClient#socketFactory() socket factory}, though its
+ * {@linkplain OkHttpClient#socketOptions() socket options} still apply. They don't have channels
+ * of their own, so file bodies are copied through Okio buffers.
+ *
+ * <p>Clients derived from the same base with {@link OkHttpClient#newBuilder()} share an engine.
+ * Event loop threads are daemons that exit when their last connection closes.
+ */
+public final class NioEngine {
+  private final NioEventLoop[] eventLoops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** Create an engine with one event loop for every two processors, and at most four. */
+  public NioEngine() {
+    this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+  }
+
+  public NioEngine(int eventLoopCount) {
+    if (eventLoopCount <= 0) {
+      throw new IllegalArgumentException("eventLoopCount <= 0: " + eventLoopCount);
+    }
+    this.eventLoops = new NioEventLoop[eventLoopCount];
+    for (int i = 0; i < eventLoopCount; i++) {
+      eventLoops[i] = new NioEventLoop();
+    }
+  }
+
+  public int eventLoopCount() {
+    return eventLoops.length;
+  }
+
+  /** Returns the event loop for a new connection. */
+  NioEventLoop nextEventLoop() {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length;
+    return eventLoops[index];
+  }
+}
@@ -18,24 +18,33 @@ package okhttp3;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import okhttp3.internal.Internal;
 import okhttp3.internal.InternalCache;
+import okhttp3.internal.InternalConnectionHints;
 import okhttp3.internal.RouteDatabase;
 import okhttp3.internal.Util;
+import okhttp3.internal.http.ConnectionGroup;
 import okhttp3.internal.http.StreamAllocation;
+import okhttp3.internal.io.NioEventLoop;
 import okhttp3.internal.io.RealConnection;
 import okhttp3.internal.tls.OkHostnameVerifier;
 
@@ -77,6 +86,10 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
         builder.addLenient(name, value);
       }
 
+      @Override public Headers newHeaders(String[] namesAndValues) {
+        return new Headers(namesAndValues);
+      }
+
       @Override public void setCache(OkHttpClient.Builder builder, InternalCache internalCache) {
         builder.setInternalCache(internalCache);
       }
@@ -85,6 +98,14 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
         return client.internalCache();
       }
 
+      @Override public InternalConnectionHints connectionHints(OkHttpClient client) {
+        return client.connectionHints != null ? client.connectionHints.internalHints : null;
+      }
+
+      @Override public ConnectionGroup connectionGroup(OkHttpClient client, String host) {
+        return client.hostConnectionGroups.get(host);
+      }
+
       @Override public boolean connectionBecameIdle(
           ConnectionPool pool, RealConnection connection) {
         return pool.connectionBecameIdle(connection);
@@ -99,6 +120,14 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
         pool.put(connection);
       }
 
+      @Override public int connectionGroupSize(ConnectionPool pool, Address address) {
+        return pool.connectionGroupSize(address);
+      }
+
+      @Override public RealConnection connecting(ConnectionPool pool, Address address) {
+        return pool.connecting(address);
+      }
+
       @Override public RouteDatabase routeDatabase(ConnectionPool connectionPool) {
         return connectionPool.routeDatabase;
       }
@@ -117,6 +146,30 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
         tlsConfiguration.apply(sslSocket, isFallback);
       }
 
+      @Override
+      public void apply(ConnectionSpec tlsConfiguration, SSLEngine sslEngine, boolean isFallback) {
+        tlsConfiguration.apply(sslEngine, isFallback);
+      }
+
+      @Override public void apply(SocketOptions socketOptions, Socket socket)
+          throws SocketException {
+        socketOptions.apply(socket);
+      }
+
+      @Override public NioEventLoop nextEventLoop(NioEngine nioEngine) {
+        return nioEngine.nextEventLoop();
+      }
+
+      @Override public boolean handshakeCompleted(TlsSessionCache tlsSessionCache, String host,
+          int port, SSLSession session, long handshakeStartMillis) {
+        return tlsSessionCache.handshakeCompleted(host, port, session, handshakeStartMillis);
+      }
+
+      @Override public void invalidate(
+          TlsSessionCache tlsSessionCache, String host, int port, SSLSession session) {
+        tlsSessionCache.invalidate(host, port, session);
+      }
+
       @Override public HttpUrl getHttpUrlChecked(String url)
           throws MalformedURLException, UnknownHostException {
         return HttpUrl.getChecked(url);
@@ -134,13 +187,21 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
   final CookieJar cookieJar;
   final Cache cache;
   final InternalCache internalCache;
+  final ConnectionHints connectionHints;
   final SocketFactory socketFactory;
+  final SocketOptions socketOptions;
+  final Map<String, SocketOptions> hostSocketOptions;
+  final Map<String, Integer> hostMaxPipelinedCalls;
+  final Map<String, ConnectionGroup> hostConnectionGroups;
   final SSLSocketFactory sslSocketFactory;
+  final SSLContext sslContext;
   final HostnameVerifier hostnameVerifier;
   final CertificatePinner certificatePinner;
   final Authenticator proxyAuthenticator;
   final Authenticator authenticator;
   final ConnectionPool connectionPool;
+  final TlsSessionCache tlsSessionCache;
+  final NioEngine nioEngine;
   final Dns dns;
   final boolean followSslRedirects;
   final boolean followRedirects;
@@ -148,6 +209,7 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
   final int connectTimeout;
   final int readTimeout;
   final int writeTimeout;
+  final int connectionAttemptDelay;
 
   public OkHttpClient() {
     this(new Builder());
@@ -164,14 +226,21 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     this.cookieJar = builder.cookieJar;
     this.cache = builder.cache;
     this.internalCache = builder.internalCache;
+    this.connectionHints = builder.connectionHints;
     this.socketFactory = builder.socketFactory;
+    this.socketOptions = builder.socketOptions;
+    this.hostSocketOptions = Util.immutableMap(builder.hostSocketOptions);
+    this.hostMaxPipelinedCalls = Util.immutableMap(builder.hostMaxPipelinedCalls);
+    this.hostConnectionGroups = Util.immutableMap(builder.hostConnectionGroups);
     if (builder.sslSocketFactory != null) {
       this.sslSocketFactory = builder.sslSocketFactory;
+      this.sslContext = builder.sslContext;
     } else {
       try {
         SSLContext sslContext = SSLContext.getInstance("TLS");
         sslContext.init(null, null, null);
         this.sslSocketFactory = sslContext.getSocketFactory();
+        this.sslContext = sslContext;
       } catch (GeneralSecurityException e) {
         throw new AssertionError(); // The system has no TLS. Just give up.
       }
@@ -181,6 +250,8 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     this.proxyAuthenticator = builder.proxyAuthenticator;
     this.authenticator = builder.authenticator;
     this.connectionPool = builder.connectionPool;
+    this.tlsSessionCache = builder.tlsSessionCache;
+    this.nioEngine = builder.nioEngine;
     this.dns = builder.dns;
     this.followSslRedirects = builder.followSslRedirects;
     this.followRedirects = builder.followRedirects;
@@ -188,6 +259,9 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     this.connectTimeout = builder.connectTimeout;
     this.readTimeout = builder.readTimeout;
     this.writeTimeout = builder.writeTimeout;
+    this.connectionAttemptDelay = builder.connectionAttemptDelay;
+
+    if (connectionHints != null) connectionHints.attach(connectionPool.routeDatabase, dns);
   }
 
   /** Default connect timeout (in milliseconds). */
@@ -205,6 +279,14 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     return writeTimeout;
   }
 
+  /**
+   * Delay (in milliseconds) before racing a connection to the next route, or 0 if routes are
+   * attempted one at a time.
+   */
+  public int connectionAttemptDelayMillis() {
+    return connectionAttemptDelay;
+  }
+
   public Proxy proxy() {
     return proxy;
   }
@@ -225,6 +307,10 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     return cache != null ? cache.internalCache : internalCache;
   }
 
+  public ConnectionHints connectionHints() {
+    return connectionHints;
+  }
+
   public Dns dns() {
     return dns;
   }
@@ -233,10 +319,29 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     return socketFactory;
   }
 
+  /** Returns the socket options applied to connections to hosts without their own options. */
+  public SocketOptions socketOptions() {
+    return socketOptions;
+  }
+
+  /** Returns the socket options applied to connections to {@code host}. */
+  public SocketOptions socketOptions(String host) {
+    SocketOptions result = hostSocketOptions.get(host);
+    return result != null ? result : socketOptions;
+  }
+
   public SSLSocketFactory sslSocketFactory() {
     return sslSocketFactory;
   }
 
+  /**
+   * Returns the SSL context that created the {@linkplain #sslSocketFactory SSL socket factory}, or
+   * null if that factory was set directly.
+   */
+  public SSLContext sslContext() {
+    return sslContext;
+  }
+
   public HostnameVerifier hostnameVerifier() {
     return hostnameVerifier;
   }
@@ -257,6 +362,24 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     return connectionPool;
   }
 
+  /**
+   * Returns how many GET calls to {@code host} may be pipelined on one HTTP/1.1
+   * connection. This is 1 for hosts that don't pipeline.
+   */
+  public int maxPipelinedCalls(String host) {
+    Integer result = hostMaxPipelinedCalls.get(host);
+    return result != null ? result : 1;
+  }
+
+  public TlsSessionCache tlsSessionCache() {
+    return tlsSessionCache;
+  }
+
+  /** Returns the non-blocking transport for new connections, or null to use blocking sockets. */
+  public NioEngine nioEngine() {
+    return nioEngine;
+  }
+
   public boolean followSslRedirects() {
     return followSslRedirects;
   }
@@ -326,13 +449,21 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     CookieJar cookieJar;
     Cache cache;
     InternalCache internalCache;
+    ConnectionHints connectionHints;
     SocketFactory socketFactory;
+    SocketOptions socketOptions;
+    final Map<String, SocketOptions> hostSocketOptions = new LinkedHashMap<>();
+    final Map<String, Integer> hostMaxPipelinedCalls = new LinkedHashMap<>();
+    final Map<String, ConnectionGroup> hostConnectionGroups = new LinkedHashMap<>();
     SSLSocketFactory sslSocketFactory;
+    SSLContext sslContext;
     HostnameVerifier hostnameVerifier;
     CertificatePinner certificatePinner;
     Authenticator proxyAuthenticator;
     Authenticator authenticator;
     ConnectionPool connectionPool;
+    TlsSessionCache tlsSessionCache;
+    NioEngine nioEngine;
     Dns dns;
     boolean followSslRedirects;
     boolean followRedirects;
@@ -340,6 +471,7 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     int connectTimeout;
     int readTimeout;
     int writeTimeout;
+    int connectionAttemptDelay;
 
     public Builder() {
       dispatcher = new Dispatcher();
@@ -348,11 +480,13 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       proxySelector = ProxySelector.getDefault();
       cookieJar = CookieJar.NO_COOKIES;
       socketFactory = SocketFactory.getDefault();
+      socketOptions = SocketOptions.DEFAULT;
       hostnameVerifier = OkHostnameVerifier.INSTANCE;
       certificatePinner = CertificatePinner.DEFAULT;
       proxyAuthenticator = Authenticator.NONE;
       authenticator = Authenticator.NONE;
       connectionPool = new ConnectionPool();
+      tlsSessionCache = new TlsSessionCache(256);
       dns = Dns.SYSTEM;
       followSslRedirects = true;
       followRedirects = true;
@@ -373,13 +507,21 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       this.cookieJar = okHttpClient.cookieJar;
       this.internalCache = okHttpClient.internalCache;
       this.cache = okHttpClient.cache;
+      this.connectionHints = okHttpClient.connectionHints;
       this.socketFactory = okHttpClient.socketFactory;
+      this.socketOptions = okHttpClient.socketOptions;
+      this.hostSocketOptions.putAll(okHttpClient.hostSocketOptions);
+      this.hostMaxPipelinedCalls.putAll(okHttpClient.hostMaxPipelinedCalls);
+      this.hostConnectionGroups.putAll(okHttpClient.hostConnectionGroups);
       this.sslSocketFactory = okHttpClient.sslSocketFactory;
+      this.sslContext = okHttpClient.sslContext;
       this.hostnameVerifier = okHttpClient.hostnameVerifier;
       this.certificatePinner = okHttpClient.certificatePinner;
       this.proxyAuthenticator = okHttpClient.proxyAuthenticator;
       this.authenticator = okHttpClient.authenticator;
       this.connectionPool = okHttpClient.connectionPool;
+      this.tlsSessionCache = okHttpClient.tlsSessionCache;
+      this.nioEngine = okHttpClient.nioEngine;
       this.dns = okHttpClient.dns;
       this.followSslRedirects = okHttpClient.followSslRedirects;
       this.followRedirects = okHttpClient.followRedirects;
@@ -387,6 +529,7 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       this.connectTimeout = okHttpClient.connectTimeout;
       this.readTimeout = okHttpClient.readTimeout;
       this.writeTimeout = okHttpClient.writeTimeout;
+      this.connectionAttemptDelay = okHttpClient.connectionAttemptDelay;
     }
 
     /**
@@ -432,6 +575,27 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       return this;
     }
 
+    /**
+     * Sets the delay before racing a connection to the next route of an address. When a host has
+     * multiple IP addresses, the first is attempted immediately; if it hasn't connected after this
+     * delay, the next address is attempted concurrently, preferring the other address family (IPv4
+     * or IPv6). The first connection to succeed is used and the others are canceled. This bounds
+     * the cost of an unreachable address to the delay rather than the full connect timeout. 250
+     * milliseconds is a good value.
+     *
+     * <p>A value of 0 disables racing so routes are attempted one at a time, each with the full
+     * {@linkplain #connectTimeout connect timeout}. This is the default.
+     */
+    public Builder connectionAttemptDelay(long delay, TimeUnit unit) {
+      if (delay < 0) throw new IllegalArgumentException("delay < 0");
+      if (unit == null) throw new IllegalArgumentException("unit == null");
+      long millis = unit.toMillis(delay);
+      if (millis > Integer.MAX_VALUE) throw new IllegalArgumentException("Delay too large.");
+      if (millis == 0 && delay > 0) throw new IllegalArgumentException("Delay too small.");
+      connectionAttemptDelay = (int) millis;
+      return this;
+    }
+
     /**
      * Sets the HTTP proxy that will be used by connections created by this client. This takes
      * precedence over {@link #proxySelector}, which is only honored when this proxy is null (which
@@ -479,6 +643,16 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       return this;
     }
 
+    /**
+     * Sets the hints used to warm up connections with what previous processes learned about the
+     * network. The hints are used by this client's calls only, and loaded in the background when
+     * the client is built. Route history is restored into this client's connection pool.
+     */
+    public Builder connectionHints(ConnectionHints connectionHints) {
+      this.connectionHints = connectionHints;
+      return this;
+    }
+
     /**
      * Sets the DNS service used to lookup IP addresses for hostnames.
      *
@@ -496,7 +670,9 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
      * this method, e. g., allows the socket to be bound to a specific local address.
      *
      * <p>If unset, the {@link SocketFactory#getDefault() system-wide default} socket factory will
-     * be used.
+     * be used. Its sockets don't have channels, so file bodies are copied through Okio buffers.
+     * Use {@link ChannelSocketFactory} to send and receive file bodies of cleartext HTTP/1.1 calls
+     * without copying them through the Java heap.
      */
     public Builder socketFactory(SocketFactory socketFactory) {
       if (socketFactory == null) throw new NullPointerException("socketFactory == null");
@@ -504,6 +680,30 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       return this;
     }
 
+    /**
+     * Sets the options applied to sockets before they connect. Use {@link SocketOptions#LATENCY}
+     * for small interactive calls and {@link SocketOptions#THROUGHPUT} for large transfers.
+     *
+     * <p>If unset, sockets keep the options of the {@linkplain #socketFactory socket factory}.
+     */
+    public Builder socketOptions(SocketOptions socketOptions) {
+      if (socketOptions == null) throw new NullPointerException("socketOptions == null");
+      this.socketOptions = socketOptions;
+      return this;
+    }
+
+    /**
+     * Sets the options applied to sockets that connect to {@code host}, overriding the options set
+     * for all hosts. The host is canonicalized like a URL's host, so {@code "Example.COM"} applies
+     * to requests for {@code "example.com"}.
+     */
+    public Builder socketOptions(String host, SocketOptions socketOptions) {
+      if (host == null) throw new NullPointerException("host == null");
+      if (socketOptions == null) throw new NullPointerException("socketOptions == null");
+      this.hostSocketOptions.put(canonicalizeHost(host), socketOptions);
+      return this;
+    }
+
     /**
      * Sets the socket factory used to secure HTTPS connections.
      *
@@ -512,6 +712,19 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
     public Builder sslSocketFactory(SSLSocketFactory sslSocketFactory) {
       if (sslSocketFactory == null) throw new NullPointerException("sslSocketFactory == null");
       this.sslSocketFactory = sslSocketFactory;
+      this.sslContext = null;
+      return this;
+    }
+
+    /**
+     * Sets the SSL context whose socket factory secures HTTPS connections. Unlike {@link
+     * #sslSocketFactory}, this also lets the {@linkplain #nioEngine non-blocking transport} secure
+     * its connections with the context's {@linkplain SSLContext#createSSLEngine engines}.
+     */
+    public Builder sslContext(SSLContext sslContext) {
+      if (sslContext == null) throw new NullPointerException("sslContext == null");
+      this.sslSocketFactory = sslContext.getSocketFactory();
+      this.sslContext = sslContext;
       return this;
     }
 
@@ -573,6 +786,72 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       return this;
     }
 
+    /**
+     * Pipelines up to {@code maxPipelinedCalls} concurrent GET calls to {@code host} on each
+     * HTTP/1.1 connection. Their requests are written back to back and the responses are read in
+     * order, saving the sockets and handshakes that separate connections would need.
+     *
+     * <p>Each response body must be consumed promptly: calls pipelined behind it can't read their
+     * responses until it is. If the connection fails, calls that haven't received a response are
+     * retried on another connection. Only enable this for servers known to support pipelining.
+     *
+     * <p>The host is canonicalized like a URL's host. If unset, calls to {@code host} are not
+     * pipelined. Set to 1 to disable pipelining.
+     */
+    public Builder pipelining(String host, int maxPipelinedCalls) {
+      if (host == null) throw new NullPointerException("host == null");
+      if (maxPipelinedCalls < 1) {
+        throw new IllegalArgumentException("maxPipelinedCalls < 1: " + maxPipelinedCalls);
+      }
+      this.hostMaxPipelinedCalls.put(canonicalizeHost(host), maxPipelinedCalls);
+      return this;
+    }
+
+    /**
+     * Spreads concurrent calls to {@code host} over between {@code minConnections} and {@code
+     * maxConnections} HTTP/2 connections. Each call goes to the connection with the fewest open
+     * streams. Until {@code minConnections} are open, calls open a new connection rather than
+     * share a busy one. Once {@code maxConnections} are open and all are at the server's concurrent
+     * stream limit, calls wait up to the connect timeout for a stream to finish before connecting
+     * again.
+     *
+     * <p>Use this for hosts that move enough data that one connection's congestion window or the
+     * server's per-connection stream limit is the bottleneck.
+     *
+     * <p>The host is canonicalized like a URL's host. If unset, calls to {@code host} use the first
+     * pooled connection with room for a stream.
+     */
+    public Builder connectionGroup(String host, int minConnections, int maxConnections) {
+      if (host == null) throw new NullPointerException("host == null");
+      ConnectionGroup connectionGroup = new ConnectionGroup(minConnections, maxConnections);
+      this.hostConnectionGroups.put(canonicalizeHost(host), connectionGroup);
+      return this;
+    }
+
+    /**
+     * Sets the cache of TLS sessions used to resume handshakes with servers this client has
+     * connected to before.
+     *
+     * <p>If unset, a new session cache holding up to 256 sessions will be used.
+     */
+    public Builder tlsSessionCache(TlsSessionCache tlsSessionCache) {
+      if (tlsSessionCache == null) throw new NullPointerException("tlsSessionCache == null");
+      this.tlsSessionCache = tlsSessionCache;
+      return this;
+    }
+
+    /**
+     * Sets the non-blocking transport used for new connections. Connections of this engine don't
+     * hold threads while they wait for their peers; their I/O is performed by the engine's shared
+     * event loop threads. Calls still hold their own threads while they run.
+     *
+     * <p>If unset, connections use blocking sockets.
+     */
+    public Builder nioEngine(NioEngine nioEngine) {
+      this.nioEngine = nioEngine;
+      return this;
+    }
+
     /**
      * Configure this client to follow redirects from HTTPS to HTTP and from HTTP to HTTPS.
      *
@@ -699,6 +978,14 @@ public final class OkHttpClient implements Cloneable, Call.Factory {
       return this;
     }
 
+    /**
+     * Returns {@code host} in the form {@link HttpUrl#host} uses, so that it matches the hosts of
+     * request URLs.
+     */
+    private static String canonicalizeHost(String host) {
+      return new HttpUrl.Builder().host(host).host;
+    }
+
     public OkHttpClient build() {
       return new OkHttpClient(this);
     }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+/**
+ * A request's share of a multiplexed connection relative to the other requests on it. The priority
+ * is sent to HTTP/2 servers with the request's headers, and OkHttp uses it to schedule request
+ * bodies: when several requests are uploading on the same SPDY or HTTP/2 connection, each gets a
+ * share of the connection proportional to its weight.
+ *
+ * <p>Priorities may form a tree. A request whose priority {@linkplain #create(Priority, int,
+ * boolean) depends on} a parent priority asks the server to serve it after the most recent request
+ * with the parent priority that is still in flight on the same connection. Use the same {@code
+ * Priority} instance for the parent request and as the parent of its dependents. Dependencies are
+ * only hints for the server; they don't affect how OkHttp schedules request bodies.
+ *
+ * <p>Priorities have no effect on HTTP/1.1 connections.
+ */
+public final class Priority {
+  public static final int MIN_WEIGHT = 1;
+  public static final int MAX_WEIGHT = 256;
+  public static final int DEFAULT_WEIGHT = 16;
+
+  private final Priority parent;
+  private final int weight;
+  private final boolean exclusive;
+
+  private Priority(Priority parent, int weight, boolean exclusive) {
+    this.parent = parent;
+    this.weight = weight;
+    this.exclusive = exclusive;
+  }
+
+  /** Returns a priority with {@code weight} that doesn't depend on another request. */
+  public static Priority create(int weight) {
+    return create(null, weight, false);
+  }
+
+  /**
+   * Returns a priority with {@code weight} that depends on requests with priority {@code parent}.
+   * If {@code exclusive} is true, requests that already depend on the parent request are made to
+   * depend on this request instead.
+   */
+  public static Priority create(Priority parent, int weight, boolean exclusive) {
+    if (weight < MIN_WEIGHT || weight > MAX_WEIGHT) {
+      throw new IllegalArgumentException("weight < 1 || weight > 256: " + weight);
+    }
+    if (parent == null && exclusive) {
+      throw new IllegalArgumentException("exclusive priorities must have a parent");
+    }
+    return new Priority(parent, weight, exclusive);
+  }
+
+  /** Returns the priority this depends on, or null if this doesn't depend on another request. */
+  public Priority parent() {
+    return parent;
+  }
+
+  /** Returns the relative weight of this priority, between 1 and 256 inclusive. */
+  public int weight() {
+    return weight;
+  }
+
+  public boolean exclusive() {
+    return exclusive;
+  }
+
+  @Override public String toString() {
+    return "Priority{weight=" + weight + (parent != null ? ", parent=" + parent : "")
+        + (exclusive ? ", exclusive" : "") + '}';
+  }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.internal.Util;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * Downloads a large object to a file by fetching byte ranges of it concurrently. On long fat
+ * networks this uses bandwidth that a single TCP connection's congestion window leaves idle.
+ *
+ * <p>The first request asks for the object's first range. If the server responds with {@code 206
+ * Partial Content}, its {@code Content-Range} header gives the object's length and the rest of the
+ * object is split into ranges that are fetched by up to {@linkplain Builder#parallelism
+ * parallelism} calls at once. Each call uses its own pooled connection, or its own stream of a
+ * shared HTTP/2 connection. Each range is written directly to its position in the file. If the
+ * server ignores the range and returns the entire object, that is written instead.
+ *
+ * <p>Every range must have the same {@code ETag} and {@code Last-Modified} headers as the first.
+ * Range requests also send {@code If-Range}, so a server whose object has changed returns the
+ * entire new object, which fails the download rather than mixing two versions in one file.
+ *
+ * <p>A range that fails is retried from the first byte that wasn't written, up to {@linkplain
+ * Builder#maxRetries maxRetries} times, without restarting the other ranges.
+ *
+ * <p>The {@linkplain DownloadOptions#progress() progress} counter advances as bytes are written,
+ * by all ranges combined.
+ */
+public final class RangedDownload {
+  final OkHttpClient client;
+  final int parallelism;
+  final long rangeSize;
+  final int maxRetries;
+
+  private RangedDownload(Builder builder) {
+    this.client = builder.client;
+    this.parallelism = builder.parallelism;
+    this.rangeSize = builder.rangeSize;
+    this.maxRetries = builder.maxRetries;
+  }
+
+  public OkHttpClient client() {
+    return client;
+  }
+
+  /** Returns the maximum number of ranges that are fetched at once. */
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /** Returns the number of bytes fetched by each range request. */
+  public long rangeSize() {
+    return rangeSize;
+  }
+
+  /** Returns the number of times a failed range is retried before the download fails. */
+  public int maxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Downloads the object returned by the GET {@code request} to {@code file}, replacing its
+   * contents. Returns the object's length.
+   */
+  public long download(Request request, File file) throws IOException {
+    return download(request, file, DownloadOptions.DEFAULT);
+  }
+
+  /**
+   * Downloads the object returned by the GET {@code request} to {@code file}, replacing its
+   * contents. Returns the object's length.
+   */
+  public long download(Request request, File file, DownloadOptions options) throws IOException {
+    if (request == null) throw new NullPointerException("request == null");
+    if (file == null) throw new NullPointerException("file == null");
+    if (options == null) throw new NullPointerException("options == null");
+    if (!request.method().equals("GET")) {
+      throw new IllegalArgumentException("method != GET: " + request.method());
+    }
+
+    // Ranges are offsets in the object, so it must not be compressed in transit.
+    request = request.newBuilder()
+        .header("Accept-Encoding", "identity")
+        .build();
+    Call call = client.newCall(request.newBuilder()
+        .header("Range", "bytes=0-" + (rangeSize - 1))
+        .build());
+    Response response = call.execute();
+    if (response.code() != HTTP_PARTIAL) {
+      if (response.code() == 416) {
+        // Empty objects have no satisfiable ranges.
+        response.body().close();
+        response = client.newCall(request).execute();
+      }
+      if (response.code() != HTTP_OK) {
+        response.body().close();
+        throw new IOException("Unexpected response: " + response);
+      }
+      return response.body().writeTo(file, options);
+    }
+
+    Download download;
+    try {
+      download = new Download(request, call, response, options);
+    } catch (IOException e) {
+      response.body().close();
+      throw e;
+    }
+    return download.run(file);
+  }
+
+  /** The state of a single download, shared by the threads that fetch its ranges. */
+  private final class Download {
+    final Request request;
+    final DownloadOptions options;
+    final long length;
+    final String etag;
+    final String lastModified;
+    final Queue<Range> ranges = new ConcurrentLinkedQueue<>();
+    final List<Call> calls = new ArrayList<>();
+    FileChannel file;
+    IOException failure;
+
+    Download(Request request, Call firstCall, Response first, DownloadOptions options)
+        throws IOException {
+      this.options = options;
+      this.etag = first.header("ETag");
+      this.lastModified = first.header("Last-Modified");
+
+      long[] contentRange = contentRange(first);
+      if (contentRange == null || contentRange[0] != 0) {
+        throw new ProtocolException(
+            "Unexpected Content-Range: " + first.header("Content-Range"));
+      }
+      this.length = contentRange[2];
+
+      // A strong ETag or a date identifies the version of the object the ranges must come from.
+      String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+      this.request = validator != null
+          ? request.newBuilder().header("If-Range", validator).build()
+          : request;
+
+      Range range = new Range(0, contentRange[1]);
+      range.call = firstCall;
+      range.response = first;
+      ranges.add(range);
+      for (long start = contentRange[1] + 1; start < length; start += rangeSize) {
+        ranges.add(new Range(start, Math.min(start + rangeSize, length) - 1));
+      }
+    }
+
+    long run(File target) throws IOException {
+      RandomAccessFile out = null;
+      List<Future<?>> futures = new ArrayList<>();
+      try {
+        out = new RandomAccessFile(target, "rw");
+        out.setLength(options.preallocate() ? length : 0);
+        file = out.getChannel();
+
+        // This thread fetches ranges too, so it takes one fewer thread from the dispatcher.
+        int workers = Math.min(parallelism - 1, ranges.size() - 1);
+        for (int i = 0; i < workers; i++) {
+          futures.add(client.dispatcher().executorService().submit(new Runnable() {
+            @Override public void run() {
+              fetchRanges();
+            }
+          }));
+        }
+        fetchRanges();
+        awaitWorkers(futures);
+
+        synchronized (this) {
+          if (failure != null) throw failure;
+        }
+        out.setLength(length);
+        if (options.sync()) out.getFD().sync();
+        return length;
+      } finally {
+        for (Range range : ranges) {
+          if (range.response != null) Util.closeQuietly(range.response.body());
+        }
+        Util.closeQuietly(out);
+      }
+    }
+
+    /** Fetches ranges until none remain or the download fails. */
+    void fetchRanges() {
+      for (Range range; (range = ranges.poll()) != null; ) {
+        try {
+          fetch(range);
+        } catch (IOException e) {
+          fail(e);
+        } catch (RuntimeException e) {
+          fail(new IOException(e));
+        }
+        synchronized (this) {
+          if (failure != null) return;
+        }
+      }
+    }
+
+    /** Fetches {@code range}, retrying from its first unwritten byte if a call fails. */
+    void fetch(Range range) throws IOException {
+      for (int attempt = 0; true; attempt++) {
+        Call call = range.call != null
+            ? range.call
+            : client.newCall(request.newBuilder()
+                .header("Range", "bytes=" + range.start + "-" + range.end)
+                .build());
+        Response response = range.response;
+        range.call = null;
+        range.response = null;
+        if (!register(call)) {
+          if (response != null) Util.closeQuietly(response.body());
+          return;
+        }
+        try {
+          if (response == null) response = call.execute();
+          checkResponse(response, range);
+          ResponseBody body = response.body();
+          AtomicLong written = new AtomicLong();
+          try {
+            body.writeTo(file, range.start, options.bufferSize(), written, options.progress());
+          } finally {
+            range.start += written.get();
+            body.close();
+          }
+          if (range.start != range.end + 1) throw new ProtocolException("unexpected end of stream");
+          return;
+        } catch (ChangedException e) {
+          Util.closeQuietly(response.body());
+          throw e;
+        } catch (IOException e) {
+          if (response != null) Util.closeQuietly(response.body());
+          synchronized (this) {
+            if (failure != null) return;
+          }
+          if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            // Okio cleared this thread's interrupt to report it. Restore it and don't retry.
+            Thread.currentThread().interrupt();
+            throw e;
+          }
+          if (attempt == maxRetries) throw e;
+        } finally {
+          synchronized (this) {
+            calls.remove(call);
+          }
+        }
+      }
+    }
+
+    /**
+     * Tracks {@code call} until its body is written, so that {@link #fail} can cancel it. Returns
+     * false if the download has already failed.
+     */
+    private synchronized boolean register(Call call) {
+      if (failure != null) return false;
+      calls.add(call);
+      return true;
+    }
+
+    private void checkResponse(Response response, Range range) throws IOException {
+      if (response.code() == HTTP_OK
+          || !equal(etag, response.header("ETag"))
+          || !equal(lastModified, response.header("Last-Modified"))) {
+        throw new ChangedException(response.request().url());
+      }
+      if (response.code() != HTTP_PARTIAL) {
+        throw new IOException("Unexpected response: " + response);
+      }
+      long[] contentRange = contentRange(response);
+      if (contentRange == null
+          || contentRange[0] != range.start
+          || contentRange[1] != range.end
+          || contentRange[2] != length) {
+        throw new ProtocolException(
+            "Unexpected Content-Range: " + response.header("Content-Range"));
+      }
+    }
+
+    /** Records the first failure, and cancels every call so the other threads stop promptly. */
+    synchronized void fail(IOException e) {
+      if (failure == null) failure = e;
+      for (Call call : calls) {
+        call.cancel();
+      }
+    }
+
+    /**
+     * Waits for every worker to finish. If this thread is interrupted the download fails and its
+     * calls are canceled, but this keeps waiting so that no worker writes to the file after it is
+     * closed.
+     */
+    private void awaitWorkers(List<Future<?>> futures) {
+      boolean interrupted = false;
+      for (Future<?> future : futures) {
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (InterruptedException e) {
+            if (!interrupted) fail(new InterruptedIOException());
+            interrupted = true;
+          } catch (ExecutionException e) {
+            throw new AssertionError(e); // fetchRanges() catches everything.
+          }
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  /** A byte range of the object. Both offsets are inclusive. */
+  private static final class Range {
+    long start;
+    final long end;
+    Call call;
+    Response response;
+
+    Range(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /** Thrown when a range comes from a different version of the object than the first range. */
+  private static final class ChangedException extends IOException {
+    ChangedException(HttpUrl url) {
+      super("Object changed during download: " + url);
+    }
+  }
+
+  /**
+   * Returns the first byte, last byte and length of a header like {@code Content-Range: bytes
+   * 0-499/1234}, or null if it is absent or the length is unknown.
+   */
+  static long[] contentRange(Response response) {
+    String contentRange = response.header("Content-Range");
+    if (contentRange == null || !contentRange.startsWith("bytes ")) return null;
+    int dash = contentRange.indexOf('-');
+    int slash = contentRange.indexOf('/');
+    if (dash == -1 || slash < dash) return null;
+    try {
+      long[] result = {
+          Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()),
+          Long.parseLong(contentRange.substring(dash + 1, slash).trim()),
+          Long.parseLong(contentRange.substring(slash + 1).trim()),
+      };
+      if (result[0] < 0 || result[1] < result[0] || result[2] <= result[1]) return null;
+      return result;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  public static final class Builder {
+    final OkHttpClient client;
+    int parallelism = 4;
+    long rangeSize = 8 * 1024 * 1024;
+    int maxRetries = 3;
+
+    public Builder(OkHttpClient client) {
+      if (client == null) throw new NullPointerException("client == null");
+      this.client = client;
+    }
+
+    /**
+     * Sets the maximum number of ranges that are fetched at once. Each range uses its own HTTP/1.1
+     * connection, or its own HTTP/2 stream.
+     */
+    public Builder parallelism(int parallelism) {
+      if (parallelism <= 0) throw new IllegalArgumentException("parallelism <= 0: " + parallelism);
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes fetched by each range request. Smaller ranges spread the object
+     * more evenly over the parallel calls and make retries cheaper, at the cost of more requests.
+     */
+    public Builder rangeSize(long rangeSize) {
+      if (rangeSize <= 0) throw new IllegalArgumentException("rangeSize <= 0: " + rangeSize);
+      this.rangeSize = rangeSize;
+      return this;
+    }
+
+    /** Sets the number of times a failed range is retried before the download fails. */
+    public Builder maxRetries(int maxRetries) {
+      if (maxRetries < 0) throw new IllegalArgumentException("maxRetries < 0: " + maxRetries);
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    public RangedDownload build() {
+      return new RangedDownload(this);
+    }
+  }
+}
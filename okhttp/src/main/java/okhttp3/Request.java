@@ -32,6 +32,7 @@ public final class Request {
 	private final Headers headers;
 	private final RequestBody body;
 	private final Object tag;
+	private final Priority priority;
 
 	/* NetProphet field */
 	private RequestTimingANP requestTimingANP;
@@ -46,8 +47,11 @@ public final class Request {
 		private long dnsStartTimeANP;
 		private long dnsEndTimeANP;
 		private long connSetupStartTimeANP;
-		private long tlsConnSetupStartTimeANP; // Not used for now
-		private long tlsConnSetupEndTimeANP; // Not used for now
+		private long tlsConnSetupStartTimeANP;
+		private long tlsConnSetupEndTimeANP;
+		private boolean tlsResumedANP;
+		private int resumedHandshakeCountANP; // of the client's TLS session cache
+		private int fullHandshakeCountANP; // of the client's TLS session cache
 		private long connSetupEndTimeANP;
 		private long reqWriteStartTimeANP;
 		private long reqWriteEndTimeANP;
@@ -69,6 +73,9 @@ public final class Request {
 			this.connSetupStartTimeANP = 0;
 			this.tlsConnSetupEndTimeANP = 0;
 			this.tlsConnSetupStartTimeANP = 0;
+			this.tlsResumedANP = false;
+			this.resumedHandshakeCountANP = 0;
+			this.fullHandshakeCountANP = 0;
 			this.connSetupStartTimeANP = 0;
 			this.reqWriteEndTimeANP = 0;
 			this.reqWriteStartTimeANP = 0;
@@ -184,6 +191,30 @@ public final class Request {
 			this.tlsConnSetupEndTimeANP = tlsConnSetupEndTimeANP;
 		}
 
+		public boolean isTlsResumedANP() {
+			return tlsResumedANP;
+		}
+
+		public void setTlsResumedANP(boolean tlsResumedANP) {
+			this.tlsResumedANP = tlsResumedANP;
+		}
+
+		public int getResumedHandshakeCountANP() {
+			return resumedHandshakeCountANP;
+		}
+
+		public void setResumedHandshakeCountANP(int resumedHandshakeCountANP) {
+			this.resumedHandshakeCountANP = resumedHandshakeCountANP;
+		}
+
+		public int getFullHandshakeCountANP() {
+			return fullHandshakeCountANP;
+		}
+
+		public void setFullHandshakeCountANP(int fullHandshakeCountANP) {
+			this.fullHandshakeCountANP = fullHandshakeCountANP;
+		}
+
 		public long getConnSetupEndTimeANP() {
 			return connSetupEndTimeANP;
 		}
@@ -240,6 +271,7 @@ public final class Request {
 		this.headers = builder.headers.build();
 		this.body = builder.body;
 		this.tag = builder.tag != null ? builder.tag : this;
+		this.priority = builder.priority;
 
 		/* NetProphet Initialization */
 		requestTimingANP = new RequestTimingANP();
@@ -282,6 +314,14 @@ public final class Request {
 		return tag;
 	}
 
+	/**
+	 * Returns this request's priority on multiplexed connections, or null
+	 * if it has none and gets the default weight.
+	 */
+	public Priority priority() {
+		return priority;
+	}
+
 	public Builder newBuilder() {
 		return new Builder(this);
 	}
@@ -312,6 +352,7 @@ public final class Request {
 		private Headers.Builder headers;
 		private RequestBody body;
 		private Object tag;
+		private Priority priority;
 
 		public Builder() {
 			this.method = "GET";
@@ -323,6 +364,7 @@ public final class Request {
 			this.method = request.method;
 			this.body = request.body;
 			this.tag = request.tag;
+			this.priority = request.priority;
 			this.headers = request.headers.newBuilder();
 		}
 
@@ -477,6 +519,15 @@ public final class Request {
 			return this;
 		}
 
+		/**
+		 * Sets this request's priority relative to other requests on the same
+		 * SPDY or HTTP/2 connection. Null gives it the default weight.
+		 */
+		public Builder priority(Priority priority) {
+			this.priority = priority;
+			return this;
+		}
+
 		public Request build() {
 			if (url == null)
 				throw new IllegalStateException("url == null");
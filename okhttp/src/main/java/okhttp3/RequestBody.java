@@ -19,10 +19,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import okhttp3.internal.Util;
+import okhttp3.internal.http.FileRequestBody;
 import okio.BufferedSink;
 import okio.ByteString;
-import okio.Okio;
-import okio.Source;
 
 public abstract class RequestBody {
   /** Returns the Content-Type header for this body. */
@@ -98,28 +97,13 @@ public abstract class RequestBody {
     };
   }
 
-  /** Returns a new request body that transmits the content of {@code file}. */
-  public static RequestBody create(final MediaType contentType, final File file) {
-    if (file == null) throw new NullPointerException("content == null");
-
-    return new RequestBody() {
-      @Override public MediaType contentType() {
-        return contentType;
-      }
-
-      @Override public long contentLength() {
-        return file.length();
-      }
-
-      @Override public void writeTo(BufferedSink sink) throws IOException {
-        Source source = null;
-        try {
-          source = Okio.source(file);
-          sink.writeAll(source);
-        } finally {
-          Util.closeQuietly(source);
-        }
-      }
-    };
+  /**
+   * Returns a new request body that transmits the content of {@code file}. On cleartext HTTP/1.1
+   * connections whose sockets have channels, such as sockets from a {@link ChannelSocketFactory},
+   * the file is sent with {@link java.nio.channels.FileChannel#transferTo} without copying it
+   * through user space.
+   */
+  public static RequestBody create(MediaType contentType, File file) {
+    return new FileRequestBody(contentType, file);
   }
 }
@@ -16,12 +16,19 @@
 package okhttp3;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
 import okhttp3.internal.Util;
+import okhttp3.internal.http.RealResponseBody;
+import okhttp3.internal.io.FileChannelOutputStream;
 import okio.Buffer;
 import okio.BufferedSource;
 
@@ -53,13 +60,14 @@ import static okhttp3.internal.Internal.logger;
  * <p>Because this class does not buffer the full response in memory, the application may not
  * re-read the bytes of the response. Use this one shot to read the entire response into memory with
  * {@link #bytes()} or {@link #string()}. Or stream the response with either {@link #source()},
- * {@link #byteStream()}, or {@link #charStream()}.
+ * {@link #byteStream()}, or {@link #charStream()}. Save large responses with {@link
+ * #writeTo(File)}.
  *
  * Timing:
  *  1. text: string()
  *  2. image: bitmap()
  *  3. binary: TODO
- *  4. large contents: TODO
+ *  4. large contents: writeTo()
  */
 public abstract class ResponseBody implements Closeable {
   /** Multiple calls to {@link #charStream()} must return the same instance. */
@@ -134,6 +142,84 @@ public abstract MediaType contentType();
     return rs;
   }
 
+  /**
+   * Writes the entire response body to {@code file}, replacing its contents, and closes this body.
+   * Returns the number of bytes written.
+   */
+  public final long writeTo(File file) throws IOException {
+    return writeTo(file, DownloadOptions.DEFAULT);
+  }
+
+  /**
+   * Writes the entire response body to {@code file}, replacing its contents, and closes this body.
+   * Returns the number of bytes written.
+   *
+   * <p>Cleartext HTTP/1.1 bodies with a known length on connections whose sockets have channels,
+   * such as sockets from a {@link ChannelSocketFactory}, are read from the socket channel straight
+   * into a direct buffer that is written to the file, so the content is never copied onto the Java
+   * heap. Other bodies are copied from the source's buffers into that direct buffer, once per byte.
+   */
+  public final long writeTo(File file, DownloadOptions options) throws IOException {
+    if (file == null) throw new NullPointerException("file == null");
+    if (options == null) throw new NullPointerException("options == null");
+
+    long contentLength = contentLength();
+    RandomAccessFile out = null;
+    long written;
+    try {
+      out = new RandomAccessFile(file, "rw");
+      if (options.preallocate() && contentLength > 0) out.setLength(contentLength);
+      written = writeTo(out.getChannel(), 0, options.bufferSize(), null, options.progress());
+      if (contentLength != -1 && contentLength != written) {
+        throw new IOException("Content-Length and stream length disagree");
+      }
+      out.setLength(written);
+      if (options.sync()) out.getFD().sync();
+    } finally {
+      Util.closeQuietly(out);
+      Util.closeQuietly(source());
+    }
+
+    if (userRequest != null) {
+      userRequest.getRequestTimingANP().setRespEndTimeANP(System.currentTimeMillis());
+      userRequest.getRequestTimingANP().setAccurateEndTimeANP(true);
+      logger.log(Level.INFO, "store resp end time at writeTo()");
+    }
+    return written;
+  }
+
+  /**
+   * Writes the rest of this body to {@code file} at {@code position}, advancing {@code written}
+   * and {@code progress} as bytes are written. Either counter may be null. Unlike the returned
+   * number of bytes written, {@code written} is accurate even if this fails partway through. This
+   * doesn't close the body.
+   */
+  final long writeTo(FileChannel file, long position, int bufferSize, AtomicLong written,
+      AtomicLong progress) throws IOException {
+    BufferedSource source = source();
+    FileChannelOutputStream out = new FileChannelOutputStream(
+        file, position, ByteBuffer.allocateDirect(bufferSize), written, progress);
+
+    // Bytes already buffered by the source precede those that can be transferred directly.
+    out.write(source.buffer());
+    out.flush();
+
+    long transferred = this instanceof RealResponseBody
+        ? ((RealResponseBody) this).transferTo(
+            file, out.position(), out.buffer(), written, progress)
+        : -1;
+    if (transferred != -1) return out.position() + transferred - position;
+
+    try {
+      while (!source.exhausted()) {
+        out.write(source.buffer());
+      }
+    } finally {
+      out.flush(); // Even if the source fails, keep what it delivered so it can be resumed.
+    }
+    return out.position() - position;
+  }
+
   private Charset charset() {
     MediaType contentType = contentType();
     return contentType != null ? contentType.charset(UTF_8) : UTF_8;
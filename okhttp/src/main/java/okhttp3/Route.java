@@ -40,6 +40,8 @@ public final class Route {
   
   /*NetProphet field*/
   private long handshakeTimeANP;
+  private long tlsConnSetupStartTimeANP;
+  private long tlsConnSetupEndTimeANP;
 
   public Route(Address address, Proxy proxy, InetSocketAddress inetSocketAddress) {
     if (address == null) {
@@ -57,6 +59,8 @@ public final class Route {
     
     /*NetProphet Init*/
     this.handshakeTimeANP = 0;
+    this.tlsConnSetupStartTimeANP = 0;
+    this.tlsConnSetupEndTimeANP = 0;
   }
   
   /*NetProphet Getter and Setter*/
@@ -67,6 +71,22 @@ public final class Route {
   public void setHandshakeTimeANP(long handshakeTimeANP) {
 	this.handshakeTimeANP = handshakeTimeANP;
   }
+
+  public long getTlsConnSetupStartTimeANP() {
+	return tlsConnSetupStartTimeANP;
+  }
+
+  public void setTlsConnSetupStartTimeANP(long tlsConnSetupStartTimeANP) {
+	this.tlsConnSetupStartTimeANP = tlsConnSetupStartTimeANP;
+  }
+
+  public long getTlsConnSetupEndTimeANP() {
+	return tlsConnSetupEndTimeANP;
+  }
+
+  public void setTlsConnSetupEndTimeANP(long tlsConnSetupEndTimeANP) {
+	this.tlsConnSetupEndTimeANP = tlsConnSetupEndTimeANP;
+  }
   
   public Address address() {
     return address;
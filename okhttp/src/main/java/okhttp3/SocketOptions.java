@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Options applied to each socket before it connects. Options that aren't set keep the defaults of
+ * the {@linkplain OkHttpClient#socketFactory() socket factory} and the platform.
+ *
+ * <p>The options are applied before connecting because some of them only take effect then: a
+ * receive buffer larger than 64 KiB requires TCP window scaling, which is negotiated in the
+ * handshake. TLS sockets are layered on the configured socket and share its options.
+ *
+ * <p>Use {@link #LATENCY} for small, interactive calls and {@link #THROUGHPUT} for large
+ * downloads. Configure options for all hosts with {@link OkHttpClient.Builder#socketOptions} or
+ * for a single host with {@link OkHttpClient.Builder#socketOptions(String, SocketOptions)}.
+ */
+public final class SocketOptions {
+  /** Options that leave every socket as its socket factory created it. */
+  public static final SocketOptions DEFAULT = new Builder().build();
+
+  /**
+   * Options for request-response calls with small bodies. Disables Nagle's algorithm so that
+   * small writes, like request headers, are sent without waiting for the previous write's ACK.
+   */
+  public static final SocketOptions LATENCY = new Builder()
+      .tcpNoDelay(true)
+      .build();
+
+  /**
+   * Options for transferring large bodies. Requests 1 MiB buffers so that a single connection can
+   * keep a high bandwidth-delay product link busy.
+   */
+  public static final SocketOptions THROUGHPUT = new Builder()
+      .sendBufferSize(1024 * 1024)
+      .receiveBufferSize(1024 * 1024)
+      .build();
+
+  final Boolean tcpNoDelay;
+  final Boolean keepAlive;
+  final int sendBufferSize;
+  final int receiveBufferSize;
+  final int trafficClass;
+
+  private SocketOptions(Builder builder) {
+    this.tcpNoDelay = builder.tcpNoDelay;
+    this.keepAlive = builder.keepAlive;
+    this.sendBufferSize = builder.sendBufferSize;
+    this.receiveBufferSize = builder.receiveBufferSize;
+    this.trafficClass = builder.trafficClass;
+  }
+
+  /** Returns whether {@code TCP_NODELAY} is set, or null if the default is used. */
+  public Boolean tcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /** Returns whether {@code SO_KEEPALIVE} is set, or null if the default is used. */
+  public Boolean keepAlive() {
+    return keepAlive;
+  }
+
+  /** Returns the requested {@code SO_SNDBUF} in bytes, or 0 if the default is used. */
+  public int sendBufferSize() {
+    return sendBufferSize;
+  }
+
+  /** Returns the requested {@code SO_RCVBUF} in bytes, or 0 if the default is used. */
+  public int receiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  /** Returns the requested IP traffic class, or -1 if the default is used. */
+  public int trafficClass() {
+    return trafficClass;
+  }
+
+  /** Applies these options to {@code socket}, which should not be connected yet. */
+  void apply(Socket socket) throws SocketException {
+    if (tcpNoDelay != null) socket.setTcpNoDelay(tcpNoDelay);
+    if (keepAlive != null) socket.setKeepAlive(keepAlive);
+    if (sendBufferSize != 0) socket.setSendBufferSize(sendBufferSize);
+    if (receiveBufferSize != 0) socket.setReceiveBufferSize(receiveBufferSize);
+    if (trafficClass != -1) socket.setTrafficClass(trafficClass);
+  }
+
+  public Builder newBuilder() {
+    return new Builder(this);
+  }
+
+  @Override public boolean equals(Object other) {
+    if (!(other instanceof SocketOptions)) return false;
+    SocketOptions that = (SocketOptions) other;
+    return (tcpNoDelay != null ? tcpNoDelay.equals(that.tcpNoDelay) : that.tcpNoDelay == null)
+        && (keepAlive != null ? keepAlive.equals(that.keepAlive) : that.keepAlive == null)
+        && sendBufferSize == that.sendBufferSize
+        && receiveBufferSize == that.receiveBufferSize
+        && trafficClass == that.trafficClass;
+  }
+
+  @Override public int hashCode() {
+    int result = 17;
+    result = 31 * result + (tcpNoDelay != null ? tcpNoDelay.hashCode() : 0);
+    result = 31 * result + (keepAlive != null ? keepAlive.hashCode() : 0);
+    result = 31 * result + sendBufferSize;
+    result = 31 * result + receiveBufferSize;
+    result = 31 * result + trafficClass;
+    return result;
+  }
+
+  @Override public String toString() {
+    return "SocketOptions(tcpNoDelay=" + tcpNoDelay
+        + ", keepAlive=" + keepAlive
+        + ", sendBufferSize=" + sendBufferSize
+        + ", receiveBufferSize=" + receiveBufferSize
+        + ", trafficClass=" + trafficClass
+        + ")";
+  }
+
+  public static final class Builder {
+    Boolean tcpNoDelay;
+    Boolean keepAlive;
+    int sendBufferSize;
+    int receiveBufferSize;
+    int trafficClass = -1;
+
+    public Builder() {
+    }
+
+    Builder(SocketOptions socketOptions) {
+      this.tcpNoDelay = socketOptions.tcpNoDelay;
+      this.keepAlive = socketOptions.keepAlive;
+      this.sendBufferSize = socketOptions.sendBufferSize;
+      this.receiveBufferSize = socketOptions.receiveBufferSize;
+      this.trafficClass = socketOptions.trafficClass;
+    }
+
+    /** Enables or disables Nagle's algorithm with {@code TCP_NODELAY}. */
+    public Builder tcpNoDelay(boolean tcpNoDelay) {
+      this.tcpNoDelay = tcpNoDelay;
+      return this;
+    }
+
+    /** Enables or disables TCP keep-alive probes with {@code SO_KEEPALIVE}. */
+    public Builder keepAlive(boolean keepAlive) {
+      this.keepAlive = keepAlive;
+      return this;
+    }
+
+    /**
+     * Requests a send buffer of {@code size} bytes with {@code SO_SNDBUF}. The platform may adjust
+     * the size.
+     */
+    public Builder sendBufferSize(int size) {
+      if (size <= 0) throw new IllegalArgumentException("size <= 0: " + size);
+      this.sendBufferSize = size;
+      return this;
+    }
+
+    /**
+     * Requests a receive buffer of {@code size} bytes with {@code SO_RCVBUF}. The platform may
+     * adjust the size.
+     */
+    public Builder receiveBufferSize(int size) {
+      if (size <= 0) throw new IllegalArgumentException("size <= 0: " + size);
+      this.receiveBufferSize = size;
+      return this;
+    }
+
+    /**
+     * Sets the IP traffic class, or type-of-service octet, of outgoing packets. The network may
+     * ignore it.
+     */
+    public Builder trafficClass(int trafficClass) {
+      if (trafficClass < 0 || trafficClass > 255) {
+        throw new IllegalArgumentException("trafficClass < 0 || trafficClass > 255: "
+            + trafficClass);
+      }
+      this.trafficClass = trafficClass;
+      return this;
+    }
+
+    public SocketOptions build() {
+      return new SocketOptions(this);
+    }
+  }
+}
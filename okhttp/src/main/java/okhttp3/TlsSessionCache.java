@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Remembers the most recent TLS session of each host and port so that subsequent connections can
+ * resume it. A resumed handshake skips certificate exchange and key agreement, saving a round trip
+ * and significant CPU on both ends.
+ *
+ * <p>The TLS provider performs the actual resumption: it offers a cached session when a socket is
+ * created for a host and port it has connected to before. The provider typically holds its sessions
+ * with soft references; this cache holds strong references to a bounded number of recent sessions
+ * so that they survive memory pressure. Sessions that fail hostname verification or certificate
+ * pinning are invalidated so they are never resumed.
+ *
+ * <p>Clients derived from the same base with {@link OkHttpClient#newBuilder()} share a session
+ * cache. Sessions can only be resumed by sockets from the {@link javax.net.ssl.SSLSocketFactory}
+ * that created them, so clients with different socket factories don't benefit from sharing one.
+ *
+ * <p>To measure resumption, this class tracks two statistics:
+ * <ul>
+ *     <li><strong>{@linkplain #resumedHandshakeCount() Resumed Handshake Count:}</strong> the
+ *         number of handshakes that resumed a previous session.
+ *     <li><strong>{@linkplain #fullHandshakeCount() Full Handshake Count:}</strong> the number of
+ *         handshakes that negotiated a new session.
+ * </ul>
+ */
+public final class TlsSessionCache {
+  private final int maxSize;
+
+  /** Sessions in least-recently-used order, keyed by host and port. Guarded by 'this'. */
+  private final Map<String, SSLSession> sessions;
+
+  /* handshake statistics, all guarded by 'this' */
+  private int resumedHandshakeCount;
+  private int fullHandshakeCount;
+
+  /** Create a new session cache that holds at most {@code maxSize} sessions. */
+  public TlsSessionCache(int maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+    this.maxSize = maxSize;
+    this.sessions = new LinkedHashMap<String, SSLSession>(0, 0.75f, true /* accessOrder */) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, SSLSession> eldest) {
+        return size() > TlsSessionCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Records a completed handshake with {@code host} on {@code port} and returns true if it resumed
+   * a previous session. A handshake resumed if it yielded the session cached for this host and
+   * port, or any session that was created before the handshake started.
+   */
+  synchronized boolean handshakeCompleted(
+      String host, int port, SSLSession session, long handshakeStartMillis) {
+    SSLSession previous = sessions.put(key(host, port), session);
+    byte[] id = session.getId();
+    boolean resumed = (previous != null && id != null && id.length > 0
+        && Arrays.equals(id, previous.getId()))
+        || session.getCreationTime() < handshakeStartMillis;
+    if (resumed) {
+      resumedHandshakeCount++;
+    } else {
+      fullHandshakeCount++;
+    }
+    return resumed;
+  }
+
+  /**
+   * Forgets the session for {@code host} on {@code port} and invalidates {@code session} so that
+   * the TLS provider won't resume it either.
+   */
+  synchronized void invalidate(String host, int port, SSLSession session) {
+    session.invalidate();
+    if (sessions.get(key(host, port)) == session) sessions.remove(key(host, port));
+  }
+
+  private static String key(String host, int port) {
+    return host + ":" + port;
+  }
+
+  /** Returns the maximum number of sessions this cache holds. */
+  public int maxSize() {
+    return maxSize;
+  }
+
+  /** Returns the number of sessions in this cache. */
+  public synchronized int size() {
+    return sessions.size();
+  }
+
+  /** Invalidates and removes all sessions. Subsequent handshakes will be full handshakes. */
+  public synchronized void evictAll() {
+    for (SSLSession session : sessions.values()) {
+      session.invalidate();
+    }
+    sessions.clear();
+  }
+
+  public synchronized int resumedHandshakeCount() {
+    return resumedHandshakeCount;
+  }
+
+  public synchronized int fullHandshakeCount() {
+    return fullHandshakeCount;
+  }
+}
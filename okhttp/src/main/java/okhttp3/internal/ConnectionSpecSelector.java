@@ -23,6 +23,7 @@ import java.net.UnknownServiceException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
 import java.util.List;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLProtocolException;
@@ -80,6 +81,37 @@ public final class ConnectionSpecSelector {
     return tlsConfiguration;
   }
 
+  /**
+   * Configures the supplied {@link SSLEngine} like {@link #configureSecureSocket} configures
+   * sockets. Returns the chosen {@link ConnectionSpec}, never {@code null}.
+   *
+   * @throws IOException if the engine does not support any of the TLS modes available
+   */
+  public ConnectionSpec configureSecureEngine(SSLEngine sslEngine) throws IOException {
+    ConnectionSpec tlsConfiguration = null;
+    for (int i = nextModeIndex, size = connectionSpecs.size(); i < size; i++) {
+      ConnectionSpec connectionSpec = connectionSpecs.get(i);
+      if (connectionSpec.isCompatible(sslEngine)) {
+        tlsConfiguration = connectionSpec;
+        nextModeIndex = i + 1;
+        break;
+      }
+    }
+
+    if (tlsConfiguration == null) {
+      throw new UnknownServiceException(
+          "Unable to find acceptable protocols. isFallback=" + isFallback
+              + ", modes=" + connectionSpecs
+              + ", supported protocols=" + Arrays.toString(sslEngine.getEnabledProtocols()));
+    }
+
+    isFallbackPossible = isFallbackPossible(sslEngine);
+
+    Internal.instance.apply(tlsConfiguration, sslEngine, isFallback);
+
+    return tlsConfiguration;
+  }
+
   /**
    * Reports a failure to complete a connection. Determines the next {@link ConnectionSpec} to try,
    * if any.
@@ -139,4 +171,13 @@ public final class ConnectionSpecSelector {
     }
     return false;
   }
+
+  private boolean isFallbackPossible(SSLEngine engine) {
+    for (int i = nextModeIndex; i < connectionSpecs.size(); i++) {
+      if (connectionSpecs.get(i).isCompatible(engine)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -158,7 +158,8 @@ public final class DiskLruCache implements Closeable, Flushable {
    * time an edit is committed. A snapshot is stale if its sequence number is not equal to its
    * entry's sequence number.
    */
-  private long nextSequenceNumber = 0;
+  /** Entries read from the journal have sequence number 0, so edits start at 1. */
+  private long nextSequenceNumber = 1;
 
   /** Used to run 'cleanupRunnable' for journal rebuilds. */
   private final Executor executor;
@@ -441,7 +442,11 @@ public final class DiskLruCache implements Closeable, Flushable {
     return edit(key, ANY_SEQUENCE_NUMBER);
   }
 
-  private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+  /**
+   * Returns an editor for the entry named {@code key}, or null if either the entry's sequence
+   * number isn't {@code expectedSequenceNumber} or if another edit is in progress.
+   */
+  public synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
     initialize();
 
     checkNotClosed();
@@ -472,6 +477,17 @@ public final class DiskLruCache implements Closeable, Flushable {
     return editor;
   }
 
+  /**
+   * Returns true if the entry named {@code key} is readable and its sequence number is {@code
+   * sequenceNumber}. If it is, it is moved to the head of the LRU queue. Unlike {@link #get} this
+   * doesn't open the entry's files or write to the journal.
+   */
+  public synchronized boolean isCurrent(String key, long sequenceNumber) {
+    if (closed) return false;
+    Entry entry = lruEntries.get(key);
+    return entry != null && entry.readable && entry.sequenceNumber == sequenceNumber;
+  }
+
   /** Returns the directory where this cache stores its data. */
   public File getDirectory() {
     return directory;
@@ -550,6 +566,7 @@ public final class DiskLruCache implements Closeable, Flushable {
       journalWriter.writeByte('\n');
       if (success) {
         entry.sequenceNumber = nextSequenceNumber++;
+        editor.sequenceNumber = entry.sequenceNumber;
       }
     } else {
       lruEntries.remove(entry.key);
@@ -771,6 +788,11 @@ public final class DiskLruCache implements Closeable, Flushable {
       return key;
     }
 
+    /** Returns the sequence number of the entry's values when this snapshot was created. */
+    public long sequenceNumber() {
+      return sequenceNumber;
+    }
+
     /**
      * Returns an editor for this snapshot's entry, or null if either the entry has changed since
      * this snapshot was created or if another edit is in progress.
@@ -818,6 +840,7 @@ public final class DiskLruCache implements Closeable, Flushable {
     private final boolean[] written;
     private boolean hasErrors;
     private boolean committed;
+    private long sequenceNumber = ANY_SEQUENCE_NUMBER;
 
     private Editor(Entry entry) {
       this.entry = entry;
@@ -890,6 +913,16 @@ public final class DiskLruCache implements Closeable, Flushable {
       }
     }
 
+    /**
+     * Returns the sequence number of the values this editor committed, or -1 if it hasn't
+     * successfully committed.
+     */
+    public long sequenceNumber() {
+      synchronized (DiskLruCache.this) {
+        return sequenceNumber;
+      }
+    }
+
     /**
      * Aborts this edit. This releases the edit lock so another edit may be started on the same
      * key.
@@ -20,6 +20,8 @@ import static okhttp3.internal.Internal.logger;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
@@ -28,6 +30,8 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 
 import okhttp3.Address;
@@ -37,8 +41,13 @@ import okhttp3.ConnectionPool;
 import okhttp3.ConnectionSpec;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.NioEngine;
 import okhttp3.OkHttpClient;
+import okhttp3.SocketOptions;
+import okhttp3.TlsSessionCache;
+import okhttp3.internal.http.ConnectionGroup;
 import okhttp3.internal.http.StreamAllocation;
+import okhttp3.internal.io.NioEventLoop;
 import okhttp3.internal.io.RealConnection;
 
 /**
@@ -76,15 +85,28 @@ public abstract class Internal {
 
   public abstract void addLenient(Headers.Builder builder, String name, String value);
 
+  /** Returns headers that use {@code namesAndValues} as-is, without copying or validation. */
+  public abstract Headers newHeaders(String[] namesAndValues);
+
   public abstract void setCache(OkHttpClient.Builder builder, InternalCache internalCache);
 
   public abstract InternalCache internalCache(OkHttpClient client);
 
+  /** Returns the connection hints of {@code client}, or null if it has none. */
+  public abstract InternalConnectionHints connectionHints(OkHttpClient client);
+
+  /** Returns the connection group for calls to {@code host}, or null if it has none. */
+  public abstract ConnectionGroup connectionGroup(OkHttpClient client, String host);
+
   public abstract RealConnection get(
       ConnectionPool pool, Address address, StreamAllocation streamAllocation);
 
   public abstract void put(ConnectionPool pool, RealConnection connection);
 
+  public abstract int connectionGroupSize(ConnectionPool pool, Address address);
+
+  public abstract RealConnection connecting(ConnectionPool pool, Address address);
+
   public abstract boolean connectionBecameIdle(ConnectionPool pool, RealConnection connection);
 
   public abstract RouteDatabase routeDatabase(ConnectionPool connectionPool);
@@ -92,6 +114,19 @@ public abstract class Internal {
   public abstract void apply(ConnectionSpec tlsConfiguration, SSLSocket sslSocket,
       boolean isFallback);
 
+  public abstract void apply(ConnectionSpec tlsConfiguration, SSLEngine sslEngine,
+      boolean isFallback);
+
+  public abstract void apply(SocketOptions socketOptions, Socket socket) throws SocketException;
+
+  public abstract NioEventLoop nextEventLoop(NioEngine nioEngine);
+
+  public abstract boolean handshakeCompleted(TlsSessionCache tlsSessionCache, String host,
+      int port, SSLSession session, long handshakeStartMillis);
+
+  public abstract void invalidate(
+      TlsSessionCache tlsSessionCache, String host, int port, SSLSession session);
+
   public abstract HttpUrl getHttpUrlChecked(String url)
       throws MalformedURLException, UnknownHostException;
 
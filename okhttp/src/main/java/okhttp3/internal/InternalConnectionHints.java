@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal;
+
+import java.net.InetAddress;
+import java.util.List;
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Route;
+
+/**
+ * OkHttp's internal interface to connection hints persisted by a previous process. Applications
+ * shouldn't implement this: instead use {@link okhttp3.ConnectionHints}.
+ */
+public interface InternalConnectionHints {
+  /** Returns the DNS whose results these hints remember. Other DNS shouldn't use them. */
+  Dns dns();
+
+  /**
+   * Returns the addresses of {@code hostname} remembered from a previous process, or null if there
+   * are no unexpired addresses for it. The returned addresses may be out of date.
+   */
+  List<InetAddress> hintedAddresses(String hostname);
+
+  /** Remembers that DNS resolved {@code hostname} to {@code addresses}. */
+  void dnsResolved(String hostname, List<InetAddress> addresses);
+
+  /**
+   * Returns the protocol most recently negotiated with the origin server of {@code url}, or null if
+   * no connection to it has been recorded.
+   */
+  Protocol protocol(HttpUrl url);
+
+  /** Records a failure connecting to {@code route}, invalidating hints that may have caused it. */
+  void connectFailed(Route route);
+
+  /** Records a successful connection to {@code route} that negotiated {@code protocol}. */
+  void connected(Route route, Protocol protocol);
+}
@@ -28,6 +28,7 @@ import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSocket;
 import okhttp3.Protocol;
 import okio.Buffer;
@@ -99,6 +100,23 @@ public class Platform {
     return null;
   }
 
+  /** Configure TLS extensions on {@code sslEngine} like those of sockets. */
+  public void configureTlsExtensions(SSLEngine sslEngine, String hostname,
+      List<Protocol> protocols) {
+  }
+
+  /**
+   * Called after the TLS handshake to release resources allocated by {@link
+   * #configureTlsExtensions(SSLEngine, String, List)}.
+   */
+  public void afterHandshake(SSLEngine sslEngine) {
+  }
+
+  /** Returns the protocol that {@code sslEngine} negotiated, or null if none was negotiated. */
+  public String getSelectedProtocol(SSLEngine sslEngine) {
+    return null;
+  }
+
   public void connectSocket(Socket socket, InetSocketAddress address,
       int connectTimeout) throws IOException {
     socket.connect(address, connectTimeout);
@@ -160,8 +178,18 @@ public class Platform {
       Method putMethod = negoClass.getMethod("put", SSLSocket.class, providerClass);
       Method getMethod = negoClass.getMethod("get", SSLSocket.class);
       Method removeMethod = negoClass.getMethod("remove", SSLSocket.class);
-      return new JdkWithJettyBootPlatform(
-          putMethod, getMethod, removeMethod, clientProviderClass, serverProviderClass);
+      Method enginePutMethod = null;
+      Method engineGetMethod = null;
+      Method engineRemoveMethod = null;
+      try {
+        enginePutMethod = negoClass.getMethod("put", SSLEngine.class, providerClass);
+        engineGetMethod = negoClass.getMethod("get", SSLEngine.class);
+        engineRemoveMethod = negoClass.getMethod("remove", SSLEngine.class);
+      } catch (NoSuchMethodException ignored) {
+        // This version of ALPN doesn't support engines.
+      }
+      return new JdkWithJettyBootPlatform(putMethod, getMethod, removeMethod, enginePutMethod,
+          engineGetMethod, engineRemoveMethod, clientProviderClass, serverProviderClass);
     } catch (ClassNotFoundException | NoSuchMethodException ignored) {
     }
 
@@ -182,6 +210,8 @@ public class Platform {
     // Non-null on Android 5.0+.
     private final OptionalMethod<Socket> getAlpnSelectedProtocol;
     private final OptionalMethod<Socket> setAlpnProtocols;
+    private final OptionalMethod<SSLEngine> getEngineAlpnSelectedProtocol;
+    private final OptionalMethod<SSLEngine> setEngineAlpnProtocols;
 
     public Android(OptionalMethod<Socket> setUseSessionTickets, OptionalMethod<Socket> setHostname,
         Method trafficStatsTagSocket, Method trafficStatsUntagSocket,
@@ -192,6 +222,12 @@ public class Platform {
       this.trafficStatsUntagSocket = trafficStatsUntagSocket;
       this.getAlpnSelectedProtocol = getAlpnSelectedProtocol;
       this.setAlpnProtocols = setAlpnProtocols;
+      this.getEngineAlpnSelectedProtocol = getAlpnSelectedProtocol != null
+          ? new OptionalMethod<SSLEngine>(byte[].class, "getAlpnSelectedProtocol")
+          : null;
+      this.setEngineAlpnProtocols = setAlpnProtocols != null
+          ? new OptionalMethod<SSLEngine>(null, "setAlpnProtocols", byte[].class)
+          : null;
     }
 
     @Override public void connectSocket(Socket socket, InetSocketAddress address,
@@ -233,6 +269,24 @@ public class Platform {
       return alpnResult != null ? new String(alpnResult, Util.UTF_8) : null;
     }
 
+    @Override public void configureTlsExtensions(
+        SSLEngine sslEngine, String hostname, List<Protocol> protocols) {
+      // The engine was created with the hostname, which enables SNI.
+      if (setEngineAlpnProtocols != null && setEngineAlpnProtocols.isSupported(sslEngine)) {
+        Object[] parameters = {concatLengthPrefixed(protocols)};
+        setEngineAlpnProtocols.invokeWithoutCheckedException(sslEngine, parameters);
+      }
+    }
+
+    @Override public String getSelectedProtocol(SSLEngine sslEngine) {
+      if (getEngineAlpnSelectedProtocol == null) return null;
+      if (!getEngineAlpnSelectedProtocol.isSupported(sslEngine)) return null;
+
+      byte[] alpnResult =
+          (byte[]) getEngineAlpnSelectedProtocol.invokeWithoutCheckedException(sslEngine);
+      return alpnResult != null ? new String(alpnResult, Util.UTF_8) : null;
+    }
+
     @Override public void tagSocket(Socket socket) throws SocketException {
       if (trafficStatsTagSocket == null) return;
 
@@ -278,33 +332,54 @@ public class Platform {
     private final Method putMethod;
     private final Method getMethod;
     private final Method removeMethod;
+    // Null if this version of ALPN doesn't support engines.
+    private final Method enginePutMethod;
+    private final Method engineGetMethod;
+    private final Method engineRemoveMethod;
     private final Class<?> clientProviderClass;
     private final Class<?> serverProviderClass;
 
     public JdkWithJettyBootPlatform(Method putMethod, Method getMethod, Method removeMethod,
+        Method enginePutMethod, Method engineGetMethod, Method engineRemoveMethod,
         Class<?> clientProviderClass, Class<?> serverProviderClass) {
       this.putMethod = putMethod;
       this.getMethod = getMethod;
       this.removeMethod = removeMethod;
+      this.enginePutMethod = enginePutMethod;
+      this.engineGetMethod = engineGetMethod;
+      this.engineRemoveMethod = engineRemoveMethod;
       this.clientProviderClass = clientProviderClass;
       this.serverProviderClass = serverProviderClass;
     }
 
     @Override public void configureTlsExtensions(
         SSLSocket sslSocket, String hostname, List<Protocol> protocols) {
+      try {
+        putMethod.invoke(null, sslSocket, newProvider(protocols));
+      } catch (InvocationTargetException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override public void configureTlsExtensions(
+        SSLEngine sslEngine, String hostname, List<Protocol> protocols) {
+      if (enginePutMethod == null) return;
+      try {
+        enginePutMethod.invoke(null, sslEngine, newProvider(protocols));
+      } catch (InvocationTargetException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private Object newProvider(List<Protocol> protocols) {
       List<String> names = new ArrayList<>(protocols.size());
       for (int i = 0, size = protocols.size(); i < size; i++) {
         Protocol protocol = protocols.get(i);
         if (protocol == Protocol.HTTP_1_0) continue; // No HTTP/1.0 for ALPN.
         names.add(protocol.toString());
       }
-      try {
-        Object provider = Proxy.newProxyInstance(Platform.class.getClassLoader(),
-            new Class[] {clientProviderClass, serverProviderClass}, new JettyNegoProvider(names));
-        putMethod.invoke(null, sslSocket, provider);
-      } catch (InvocationTargetException | IllegalAccessException e) {
-        throw new AssertionError(e);
-      }
+      return Proxy.newProxyInstance(Platform.class.getClassLoader(),
+          new Class[] {clientProviderClass, serverProviderClass}, new JettyNegoProvider(names));
     }
 
     @Override public void afterHandshake(SSLSocket sslSocket) {
@@ -315,20 +390,41 @@ public class Platform {
       }
     }
 
+    @Override public void afterHandshake(SSLEngine sslEngine) {
+      if (engineRemoveMethod == null) return;
+      try {
+        engineRemoveMethod.invoke(null, sslEngine);
+      } catch (IllegalAccessException | InvocationTargetException ignored) {
+        throw new AssertionError();
+      }
+    }
+
     @Override public String getSelectedProtocol(SSLSocket socket) {
       try {
-        JettyNegoProvider provider =
-            (JettyNegoProvider) Proxy.getInvocationHandler(getMethod.invoke(null, socket));
-        if (!provider.unsupported && provider.selected == null) {
-          logger.log(Level.INFO, "ALPN callback dropped: SPDY and HTTP/2 are disabled. "
-              + "Is alpn-boot on the boot class path?");
-          return null;
-        }
-        return provider.unsupported ? null : provider.selected;
+        return selectedProtocol(getMethod.invoke(null, socket));
+      } catch (InvocationTargetException | IllegalAccessException e) {
+        throw new AssertionError();
+      }
+    }
+
+    @Override public String getSelectedProtocol(SSLEngine sslEngine) {
+      if (engineGetMethod == null) return null;
+      try {
+        return selectedProtocol(engineGetMethod.invoke(null, sslEngine));
       } catch (InvocationTargetException | IllegalAccessException e) {
         throw new AssertionError();
       }
     }
+
+    private String selectedProtocol(Object providerProxy) {
+      JettyNegoProvider provider = (JettyNegoProvider) Proxy.getInvocationHandler(providerProxy);
+      if (!provider.unsupported && provider.selected == null) {
+        logger.log(Level.INFO, "ALPN callback dropped: SPDY and HTTP/2 are disabled. "
+            + "Is alpn-boot on the boot class path?");
+        return null;
+      }
+      return provider.unsupported ? null : provider.selected;
+    }
   }
 
   /**
@@ -15,35 +15,292 @@
  */
 package okhttp3.internal;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import okhttp3.Route;
+import okio.BufferedSink;
+import okio.BufferedSource;
 
 /**
- * A blacklist of failed routes to avoid when creating a new connection to a target address. This is
- * used so that OkHttp can learn from its mistakes: if there was a failure attempting to connect to
- * a specific IP address or proxy server, that failure is remembered and alternate routes are
- * preferred.
+ * A history of connection attempts, used to pick the best route when creating a new connection to
+ * a target address. This is used so that OkHttp can learn from its mistakes: if there was a failure
+ * attempting to connect to a specific IP address or proxy server, that failure is remembered and
+ * alternate routes are preferred. Similarly, routes that connect quickly are preferred over routes
+ * that connect slowly.
+ *
+ * <p>History fades: connect times and failure counts decay exponentially with a half-life of
+ * {@link #HALF_LIFE_NANOS}. A failed route is postponed for a backoff that doubles with each
+ * consecutive failure, after which it is eligible again.
+ *
+ * <p>The history of direct routes can be {@linkplain #writeHistory saved} and {@linkplain
+ * #readHistory restored} so that a new process doesn't have to relearn it. Restored history is
+ * keyed by socket address and adopted by the first route to that address.
  */
 public final class RouteDatabase {
-  private final Set<Route> failedRoutes = new LinkedHashSet<>();
+  static final long HALF_LIFE_NANOS = TimeUnit.MINUTES.toNanos(5);
+  static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+  static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /** The connect time charged for each (decayed) failure when ranking routes. */
+  static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The maximum number of routes to remember. */
+  static final int MAX_ROUTES = 1024;
+
+  private final Map<Route, RouteStats> stats = new LinkedHashMap<Route, RouteStats>(
+      0, 0.75f, true /* accessOrder */) {
+    @Override protected boolean removeEldestEntry(Map.Entry<Route, RouteStats> eldest) {
+      return size() > MAX_ROUTES;
+    }
+  };
+
+  /** History restored from a previous process that no route has adopted yet. */
+  private final Map<InetSocketAddress, RouteStats> restored = new LinkedHashMap<>();
 
   /** Records a failure connecting to {@code failedRoute}. */
-  public synchronized void failed(Route failedRoute) {
-    failedRoutes.add(failedRoute);
+  public void failed(Route failedRoute) {
+    failed(failedRoute, System.nanoTime());
+  }
+
+  synchronized void failed(Route failedRoute, long now) {
+    RouteStats routeStats = stats(failedRoute, now, true);
+    routeStats.decay(now);
+    routeStats.failureScore += 1.0;
+    routeStats.consecutiveFailures++;
+    routeStats.lastFailureAtNanos = now;
+  }
+
+  /**
+   * Records success connecting to {@code route}, which took {@code connectNanos} to establish a
+   * socket connection.
+   */
+  public void connected(Route route, long connectNanos) {
+    connected(route, connectNanos, System.nanoTime());
+  }
+
+  synchronized void connected(Route route, long connectNanos, long now) {
+    RouteStats routeStats = stats(route, now, true);
+    routeStats.decay(now);
+    routeStats.connectNanosSum += connectNanos;
+    routeStats.connectWeight += 1.0;
+    routeStats.consecutiveFailures = 0;
+  }
+
+  /**
+   * Records that an attempt to connect to {@code route} was abandoned after {@code elapsedNanos}
+   * because another route connected first. This isn't a failure: the elapsed time is recorded as a
+   * connect time, which is a lower bound on how long the attempt would have taken.
+   */
+  public void outpaced(Route route, long elapsedNanos) {
+    outpaced(route, elapsedNanos, System.nanoTime());
   }
 
-  /** Records success connecting to {@code failedRoute}. */
-  public synchronized void connected(Route route) {
-    failedRoutes.remove(route);
+  synchronized void outpaced(Route route, long elapsedNanos, long now) {
+    RouteStats routeStats = stats(route, now, true);
+    routeStats.decay(now);
+    routeStats.connectNanosSum += elapsedNanos;
+    routeStats.connectWeight += 1.0;
   }
 
   /** Returns true if {@code route} has failed recently and should be avoided. */
-  public synchronized boolean shouldPostpone(Route route) {
-    return failedRoutes.contains(route);
+  public boolean shouldPostpone(Route route) {
+    return shouldPostpone(route, System.nanoTime());
   }
 
+  synchronized boolean shouldPostpone(Route route, long now) {
+    RouteStats routeStats = stats(route, now, false);
+    return routeStats != null && routeStats.isPostponed(now);
+  }
+
+  /**
+   * Returns how long a connection to {@code route} is expected to take, based on its recent connect
+   * times plus a penalty for its recent failures. Routes without any history are expected to
+   * connect immediately so that they are explored before routes that are known to be slow.
+   */
+  public long expectedConnectNanos(Route route) {
+    return expectedConnectNanos(route, System.nanoTime());
+  }
+
+  synchronized long expectedConnectNanos(Route route, long now) {
+    RouteStats routeStats = stats(route, now, false);
+    if (routeStats == null) return 0L;
+    routeStats.decay(now);
+    double connectNanos = routeStats.connectWeight > 0.0
+        ? routeStats.connectNanosSum / routeStats.connectWeight
+        : 0.0;
+    return (long) (connectNanos + routeStats.failureScore * FAILURE_PENALTY_NANOS);
+  }
+
+  /** Returns the number of routes that are currently postponed. */
   public synchronized int failedRoutesCount() {
-    return failedRoutes.size();
+    long now = System.nanoTime();
+    int result = 0;
+    for (RouteStats routeStats : stats.values()) {
+      if (routeStats.isPostponed(now)) result++;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the history of {@code route}, adopting restored history for its socket address if it
+   * has none of its own. If there is no history this returns null, or empty history if {@code
+   * create} is true.
+   */
+  private RouteStats stats(Route route, long now, boolean create) {
+    RouteStats routeStats = stats.get(route);
+    if (routeStats == null && route.proxy().type() == Proxy.Type.DIRECT && !restored.isEmpty()) {
+      routeStats = restored.remove(route.socketAddress());
+      if (routeStats != null) stats.put(route, routeStats);
+    }
+    if (routeStats == null && create) {
+      routeStats = new RouteStats(now);
+      stats.put(route, routeStats);
+    }
+    return routeStats;
+  }
+
+  /**
+   * Writes the history of direct routes to {@code sink}, one route per line. Times are written
+   * relative to the wall clock so they remain meaningful in another process.
+   */
+  public void writeHistory(BufferedSink sink) throws IOException {
+    writeHistory(sink, System.nanoTime(), System.currentTimeMillis());
+  }
+
+  void writeHistory(BufferedSink sink, long now, long nowMillis) throws IOException {
+    List<String> lines = new ArrayList<>();
+    synchronized (this) {
+      for (Map.Entry<InetSocketAddress, RouteStats> entry : restored.entrySet()) {
+        lines.add(historyLine(entry.getKey(), entry.getValue(), now, nowMillis));
+      }
+      for (Map.Entry<Route, RouteStats> entry : stats.entrySet()) {
+        Route route = entry.getKey();
+        if (route.proxy().type() != Proxy.Type.DIRECT) continue;
+        lines.add(historyLine(route.socketAddress(), entry.getValue(), now, nowMillis));
+      }
+    }
+
+    int start = Math.max(0, lines.size() - MAX_ROUTES); // Drop the least recently used.
+    sink.writeDecimalLong(lines.size() - start);
+    sink.writeByte('\n');
+    for (int i = start, size = lines.size(); i < size; i++) {
+      sink.writeUtf8(lines.get(i));
+      sink.writeByte('\n');
+    }
+  }
+
+  private static String historyLine(
+      InetSocketAddress socketAddress, RouteStats routeStats, long now, long nowMillis) {
+    long decayedAtMillis =
+        nowMillis - TimeUnit.NANOSECONDS.toMillis(now - routeStats.decayedAtNanos);
+    long lastFailureAtMillis = routeStats.consecutiveFailures > 0
+        ? nowMillis - TimeUnit.NANOSECONDS.toMillis(now - routeStats.lastFailureAtNanos)
+        : 0L;
+    return socketAddress.getAddress().getHostAddress()
+        + " " + socketAddress.getPort()
+        + " " + routeStats.connectNanosSum
+        + " " + routeStats.connectWeight
+        + " " + routeStats.failureScore
+        + " " + routeStats.consecutiveFailures
+        + " " + decayedAtMillis
+        + " " + lastFailureAtMillis;
+  }
+
+  /**
+   * Reads history written by {@link #writeHistory}. Routes that already have history in this
+   * process keep it.
+   */
+  public void readHistory(BufferedSource source) throws IOException {
+    readHistory(source, System.nanoTime(), System.currentTimeMillis());
+  }
+
+  void readHistory(BufferedSource source, long now, long nowMillis) throws IOException {
+    try {
+      int count = Integer.parseInt(source.readUtf8LineStrict());
+      Map<InetSocketAddress, RouteStats> result = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        String line = source.readUtf8LineStrict();
+        String[] parts = line.split(" ");
+        if (parts.length != 8) throw new IOException("unexpected route history: " + line);
+
+        // Parsing a literal IP address doesn't use DNS.
+        InetAddress inetAddress = InetAddress.getByName(parts[0]);
+        InetSocketAddress socketAddress =
+            new InetSocketAddress(inetAddress, Integer.parseInt(parts[1]));
+        RouteStats routeStats = new RouteStats(now - millisAgoToNanos(nowMillis, parts[6]));
+        routeStats.connectNanosSum = Double.parseDouble(parts[2]);
+        routeStats.connectWeight = Double.parseDouble(parts[3]);
+        routeStats.failureScore = Double.parseDouble(parts[4]);
+        routeStats.consecutiveFailures = Integer.parseInt(parts[5]);
+        routeStats.lastFailureAtNanos = routeStats.consecutiveFailures > 0
+            ? now - millisAgoToNanos(nowMillis, parts[7])
+            : now;
+        result.put(socketAddress, routeStats);
+      }
+
+      synchronized (this) {
+        for (Map.Entry<InetSocketAddress, RouteStats> entry : result.entrySet()) {
+          if (restored.size() >= MAX_ROUTES) break;
+          if (!restored.containsKey(entry.getKey())) restored.put(entry.getKey(), entry.getValue());
+        }
+        // Routes seen by this process already have more recent history.
+        for (Route route : stats.keySet()) {
+          if (route.proxy().type() == Proxy.Type.DIRECT) restored.remove(route.socketAddress());
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  /** Returns how long ago {@code millis} was. Clock changes can't make it negative. */
+  private static long millisAgoToNanos(long nowMillis, String millis) {
+    return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, nowMillis - Long.parseLong(millis)));
+  }
+
+  /** Returns how long to postpone a route after {@code consecutiveFailures} failures. */
+  static long backoffNanos(int consecutiveFailures) {
+    long result = INITIAL_BACKOFF_NANOS;
+    for (int i = 1; i < consecutiveFailures && result < MAX_BACKOFF_NANOS; i++) {
+      result *= 2;
+    }
+    return Math.min(result, MAX_BACKOFF_NANOS);
+  }
+
+  /** Decaying connection statistics for a single route. */
+  private static final class RouteStats {
+    long decayedAtNanos;
+    double connectNanosSum;
+    double connectWeight;
+    double failureScore;
+    int consecutiveFailures;
+    long lastFailureAtNanos;
+
+    RouteStats(long now) {
+      this.decayedAtNanos = now;
+    }
+
+    boolean isPostponed(long now) {
+      return consecutiveFailures > 0
+          && now - lastFailureAtNanos < backoffNanos(consecutiveFailures);
+    }
+
+    /** Fades this route's history as if it had been observed {@code now}. */
+    void decay(long now) {
+      long elapsedNanos = now - decayedAtNanos;
+      if (elapsedNanos <= 0L) return;
+      double factor = Math.pow(0.5, (double) elapsedNanos / HALF_LIFE_NANOS);
+      connectNanosSum *= factor;
+      connectWeight *= factor;
+      failureScore *= factor;
+      decayedAtNanos = now;
+    }
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache bounded by the total size of its values, with segmented LRU eviction. Values
+ * start in a probationary segment and move to a protected segment when they're read. Evictions
+ * take the least recently used probationary value first, so values that are read only once can't
+ * push out values that are read repeatedly.
+ *
+ * <p>The protected segment holds up to 80% of the maximum size. When it's full its least recently
+ * used value goes back to the probationary segment.
+ */
+public final class SegmentedLruCache<K, V> {
+  private final long maxSize;
+  private final long maxProtectedSize;
+
+  // These fields are guarded by this. Each map's eldest entry is its least recently used.
+  private final LinkedHashMap<K, Node<V>> probationary = new LinkedHashMap<>();
+  private final LinkedHashMap<K, Node<V>> protectedNodes = new LinkedHashMap<>();
+  private long size;
+  private long protectedSize;
+
+  public SegmentedLruCache(long maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+    this.maxSize = maxSize;
+    this.maxProtectedSize = maxSize / 5 * 4;
+  }
+
+  /** Returns the value for {@code key}, or null if there is none. */
+  public synchronized V get(K key) {
+    Node<V> node = protectedNodes.remove(key);
+    if (node == null) {
+      node = probationary.remove(key);
+      if (node == null) return null;
+      protectedSize += node.size;
+    }
+    protectedNodes.put(key, node);
+    trimProtected();
+    return node.value;
+  }
+
+  /**
+   * Stores {@code value} of {@code valueSize} bytes for {@code key}, replacing any current value.
+   * Values larger than this cache's maximum size are not stored.
+   */
+  public synchronized void put(K key, V value, long valueSize) {
+    if (valueSize < 0) throw new IllegalArgumentException("valueSize < 0: " + valueSize);
+    boolean wasProtected = protectedNodes.containsKey(key);
+    remove(key);
+    if (valueSize > maxSize) return;
+
+    Node<V> node = new Node<>(value, valueSize);
+    size += valueSize;
+    if (wasProtected) {
+      // Replacing a value doesn't lose its protection.
+      protectedNodes.put(key, node);
+      protectedSize += valueSize;
+      trimProtected();
+    } else {
+      probationary.put(key, node);
+    }
+    trimToSize();
+  }
+
+  /** Removes and returns the value for {@code key}, or null if there is none. */
+  public synchronized V remove(K key) {
+    Node<V> node = probationary.remove(key);
+    if (node == null) {
+      node = protectedNodes.remove(key);
+      if (node == null) return null;
+      protectedSize -= node.size;
+    }
+    size -= node.size;
+    return node.value;
+  }
+
+  /** Removes all values. */
+  public synchronized void evictAll() {
+    probationary.clear();
+    protectedNodes.clear();
+    size = 0;
+    protectedSize = 0;
+  }
+
+  /** Returns the total size of the values in this cache. */
+  public synchronized long size() {
+    return size;
+  }
+
+  public long maxSize() {
+    return maxSize;
+  }
+
+  /** Moves the least recently used protected values to the probationary segment. */
+  private void trimProtected() {
+    while (protectedSize > maxProtectedSize) {
+      Iterator<Map.Entry<K, Node<V>>> i = protectedNodes.entrySet().iterator();
+      Map.Entry<K, Node<V>> eldest = i.next();
+      i.remove();
+      protectedSize -= eldest.getValue().size;
+      probationary.put(eldest.getKey(), eldest.getValue());
+    }
+  }
+
+  private void trimToSize() {
+    while (size > maxSize) {
+      boolean fromProbationary = !probationary.isEmpty();
+      Iterator<Map.Entry<K, Node<V>>> i = fromProbationary
+          ? probationary.entrySet().iterator()
+          : protectedNodes.entrySet().iterator();
+      Node<V> eldest = i.next().getValue();
+      i.remove();
+      size -= eldest.size;
+      if (!fromProbationary) protectedSize -= eldest.size;
+    }
+  }
+
+  private static final class Node<V> {
+    final V value;
+    final long size;
+
+    Node(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
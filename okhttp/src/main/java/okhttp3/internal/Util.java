@@ -36,6 +36,7 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import okhttp3.HttpUrl;
 import okio.Buffer;
@@ -319,6 +320,12 @@ public final class Util {
     return result;
   }
 
+  /** Adds {@code byteCount} to each counter that isn't null. */
+  public static void advance(AtomicLong written, AtomicLong progress, long byteCount) {
+    if (written != null) written.addAndGet(byteCount);
+    if (progress != null) progress.addAndGet(byteCount);
+  }
+
   /**
    * Increments {@code pos} until {@code input[pos]} is not ASCII whitespace. Stops at {@code
    * limit}.
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+/**
+ * Sizes a connection's receive window to its bandwidth-delay product.
+ *
+ * <p>While data is arriving, the connection sends a ping and counts the bytes received until the
+ * ping is acknowledged. That count is the bytes delivered in one round trip. If it is close to the
+ * window, the peer was probably blocked on flow control and the window is doubled past it. If it
+ * stays well under the window, the window is halved to save memory, but never below its initial
+ * size. Round trips measured by pings don't include the time to process window updates, so smaller
+ * windows would starve fast links with short round trips.
+ *
+ * <p>Every byte of the window is reserved from a {@link Budget} that is shared by all connections,
+ * so the budget limits the total of bytes that peers may send and that wait unread. A connection
+ * starts with as much of {@link #INITIAL_WINDOW} as the budget has left, and grows only by what the
+ * budget can spare. The one exception is the {@linkplain #HTTP2_DEFAULT_WINDOW window} that HTTP/2
+ * grants every connection before it can be told otherwise, which is reserved even if the budget is
+ * spent.
+ *
+ * <p>Credit that was granted to the peer can't be taken back. When the window shrinks the
+ * connection withholds window updates instead, and keeps the reservation until the bytes it won't
+ * acknowledge have arrived and been read. The connection reports that with {@link #creditOwed}.
+ */
+final class BdpEstimator {
+  static final int INITIAL_WINDOW = 1024 * 1024;
+  static final int MAX_WINDOW = 64 * 1024 * 1024;
+
+  /** The window HTTP/2 grants every connection before its settings are received. */
+  static final int HTTP2_DEFAULT_WINDOW = 65535;
+
+  /** Bytes to receive before taking a sample. Small responses aren't worth a ping. */
+  static final int PROBE_THRESHOLD = 16 * 1024;
+
+  /** Consecutive small samples before the window shrinks. */
+  static final int SHRINK_SAMPLES = 3;
+
+  private final Budget budget;
+
+  /** The window this connection started with. It never shrinks below this. */
+  private final int initialWindow;
+
+  // These fields are guarded by this.
+  private int window;
+  /** Bytes held from the budget: the window, plus credit owed from a larger one. */
+  private long reserved;
+  private long bytesSinceProbe;
+  private boolean probing;
+  private long sampleBytes;
+  private double maxBandwidth;
+  private int smallSamples;
+  private boolean released;
+
+  BdpEstimator(Budget budget) {
+    this.budget = budget;
+    this.reserved = budget.reserve(INITIAL_WINDOW, HTTP2_DEFAULT_WINDOW);
+    this.initialWindow = (int) reserved;
+    this.window = initialWindow;
+  }
+
+  /**
+   * Records {@code byteCount} bytes of received data. Returns true if the caller should send a ping
+   * and call {@link #pingAcknowledged} with its round trip time.
+   */
+  synchronized boolean dataReceived(long byteCount) {
+    if (probing) {
+      sampleBytes += byteCount;
+      return false;
+    }
+    bytesSinceProbe += byteCount;
+    if (bytesSinceProbe < PROBE_THRESHOLD) return false;
+    bytesSinceProbe = 0;
+    sampleBytes = 0;
+    probing = true;
+    return true;
+  }
+
+  /**
+   * Completes a sample that took {@code roundTripTimeNs}, or -1 if the ping failed. Returns the new
+   * window size, which may be unchanged.
+   */
+  synchronized int pingAcknowledged(long roundTripTimeNs) {
+    if (!probing) throw new IllegalStateException();
+    probing = false;
+    if (roundTripTimeNs <= 0 || released) return window;
+
+    double bandwidth = sampleBytes * 1e9 / roundTripTimeNs;
+    if (sampleBytes >= window * 2L / 3 && bandwidth >= maxBandwidth) {
+      resize(Math.min(2 * sampleBytes, MAX_WINDOW));
+      smallSamples = 0;
+    } else if (sampleBytes < window / 4) {
+      if (++smallSamples >= SHRINK_SAMPLES) {
+        resize(Math.max(Math.max(2 * sampleBytes, window / 2), initialWindow));
+        smallSamples = 0;
+      }
+    } else {
+      smallSamples = 0;
+    }
+    maxBandwidth = Math.max(maxBandwidth, bandwidth);
+    return window;
+  }
+
+  synchronized int window() {
+    return window;
+  }
+
+  /**
+   * Records that the connection owes {@code byteCount} bytes of credit from a larger window: the
+   * peer may still send them, but they won't be acknowledged. The reservation beyond the window and
+   * that debt is returned to the budget.
+   */
+  synchronized void creditOwed(long byteCount) {
+    long excess = reserved - window - byteCount;
+    if (released || excess <= 0) return;
+    reserved -= excess;
+    budget.release(excess);
+  }
+
+  /** Returns this estimator's reservation to the budget. Call this when the connection closes. */
+  synchronized void release() {
+    if (released) return;
+    released = true;
+    budget.release(reserved);
+    reserved = 0;
+  }
+
+  /**
+   * Changes the window to {@code target}, or to as much of it as the budget allows. Shrinking keeps
+   * the reservation until the connection reports what it owes.
+   */
+  private void resize(long target) {
+    if (target > reserved) {
+      reserved += budget.reserve(target - reserved, 0);
+      target = Math.min(target, reserved);
+    }
+    window = (int) target;
+  }
+
+  /** Bytes that connections may hold in their receive windows. */
+  static final class Budget {
+    static final Budget SHARED = new Budget(64 * 1024 * 1024);
+
+    private final long capacity;
+    private long reserved; // Guarded by this.
+
+    Budget(long capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Reserves up to {@code byteCount} bytes, but at least {@code minimum} even if that exceeds the
+     * capacity. Returns the number reserved.
+     */
+    synchronized long reserve(long byteCount, long minimum) {
+      long result = Math.max(minimum, Math.min(byteCount, capacity - reserved));
+      reserved += result;
+      return result;
+    }
+
+    synchronized void release(long byteCount) {
+      reserved -= byteCount;
+    }
+
+    // Visible for testing
+    synchronized long reserved() {
+      return reserved;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+/**
+ * Combines the flushes of threads that write frames at the same time. Each writer calls {@link
+ * #beginWrite} before it waits for the frame writer and {@link #endWrite} when it's done. Only the
+ * last writer to finish flushes, so frames from a burst of streams go to the socket together.
+ *
+ * <p>A writer that is alone on the connection flushes immediately, so this doesn't delay lone
+ * requests.
+ */
+final class FlushCoalescer {
+  // These fields are guarded by this.
+  private int writers;
+  private boolean flushNeeded;
+
+  synchronized void beginWrite() {
+    writers++;
+  }
+
+  /**
+   * Ends a write that needs a flush if {@code flush} is true. Returns true if the caller must flush
+   * the frame writer for itself and for other writers that finished before it.
+   */
+  synchronized boolean endWrite(boolean flush) {
+    if (writers <= 0) throw new IllegalStateException();
+    writers--;
+    if (flush) flushNeeded = true;
+    if (writers > 0 || !flushNeeded) return false;
+    flushNeeded = false;
+    return true;
+  }
+}
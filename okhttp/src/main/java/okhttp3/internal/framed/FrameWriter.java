@@ -45,12 +45,27 @@ public interface FrameWriter extends Closeable {
   void pushPromise(int streamId, int promisedStreamId, List<Header> requestHeaders)
       throws IOException;
 
-  /** SPDY/3 only. */
+  /**
+   * Writes buffered frames to the peer. HTTP/2 writers don't flush any frames until this is called,
+   * so that frames written at the same time can share a socket write.
+   */
   void flush() throws IOException;
 
   void synStream(boolean outFinished, boolean inFinished, int streamId, int associatedStreamId,
       List<Header> headerBlock) throws IOException;
 
+  /**
+   * Like {@link #synStream}, but also tells the peer to give the new stream a share of the
+   * connection proportional to {@code weight}, after {@code streamDependency}. SPDY/3 writers
+   * ignore the priority.
+   *
+   * @param streamDependency the stream the new stream depends on, or 0 for none.
+   * @param weight between 1 and 256 inclusive.
+   */
+  void synStream(boolean outFinished, boolean inFinished, int streamId, int associatedStreamId,
+      int streamDependency, int weight, boolean exclusive, List<Header> headerBlock)
+      throws IOException;
+
   void synReply(boolean outFinished, int streamId, List<Header> headerBlock)
       throws IOException;
 
@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -31,9 +33,11 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import okhttp3.Priority;
 import okhttp3.Protocol;
 import okhttp3.internal.NamedRunnable;
 import okhttp3.internal.Util;
+import okhttp3.internal.io.NonBlockingSource;
 import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
@@ -57,14 +61,18 @@ public final class FramedConnection implements Closeable {
   // Internal state of this connection is guarded by 'this'. No blocking
   // operations may be performed while holding this lock!
   //
+  // The stream table is guarded by 'streams', so that the reader can find the stream of each frame
+  // without contending with other work on the connection. The connection's flow control windows
+  // are guarded by 'windowLock', which writers wait on for window updates.
+  //
   // Socket writes are guarded by frameWriter.
   //
   // Socket reads are unguarded but are only made by the reader thread.
   //
-  // Certain operations (like SYN_STREAM) need to synchronize on both the
-  // frameWriter (to do blocking I/O) and this (to create streams). Such
-  // operations must synchronize on 'this' last. This ensures that we never
-  // wait for a blocking operation while holding 'this'.
+  // Operations that need several locks must acquire them in this order: frameWriter, windowLock,
+  // this, streams. For example, SYN_STREAM holds frameWriter (to do blocking I/O) and then this
+  // (to create streams). This ensures that we never wait for a blocking operation while holding
+  // any of the other locks.
 
   private static final ExecutorService executor = new ThreadPoolExecutor(0,
       Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
@@ -81,13 +89,18 @@ public final class FramedConnection implements Closeable {
    * on {@link #executor}.
    */
   private final Listener listener;
-  private final Map<Integer, FramedStream> streams = new HashMap<>();
+  /** Open streams by ID. Guarded by itself. */
+  private final IntMap<FramedStream> streams = new IntMap<>();
   private final String hostName;
   private int lastGoodStreamId;
   private int nextStreamId;
   private boolean shutdown;
   private long idleStartTimeNs = System.nanoTime();
 
+  /** Frames to write on {@link #executor}, like resets and pings. Guarded by itself. */
+  private final Deque<Runnable> writesLater = new ArrayDeque<>();
+  private boolean writingLater; // Guarded by writesLater.
+
   /** Ensures push promise callbacks events are sent in order per stream. */
   private final ExecutorService pushExecutor;
 
@@ -97,23 +110,38 @@ public final class FramedConnection implements Closeable {
   private final PushObserver pushObserver;
   private int nextPingId;
 
+  /** Guards {@link #unacknowledgedBytesRead} and {@link #bytesLeftInWriteWindow}. */
+  final Object windowLock = new Object();
+
   /**
    * The total number of bytes consumed by the application, but not yet acknowledged by sending a
-   * {@code WINDOW_UPDATE} frame on this connection.
+   * {@code WINDOW_UPDATE} frame on this connection. This is reduced when the receive window
+   * shrinks, and may be negative while the application reads the bytes that no longer fit.
    */
   // Visible for testing
   long unacknowledgedBytesRead = 0;
 
   /**
-   * Count of bytes that can be written on the connection before receiving a window update.
+   * Count of bytes that can be written on the connection before receiving a window update. Writers
+   * wait on {@link #windowLock} until this is positive.
    */
   // Visible for testing
   long bytesLeftInWriteWindow;
 
+  /** Takes turns writing DATA frames among streams. */
+  final WriteScheduler writeScheduler = new WriteScheduler();
+
+  /** Combines the flushes of frames that streams write at the same time. */
+  private final FlushCoalescer flushCoalescer = new FlushCoalescer();
+
   /** Settings we communicate to the peer. */
   Settings okHttpSettings = new Settings();
 
-  private static final int OKHTTP_CLIENT_WINDOW_SIZE = 16 * 1024 * 1024;
+  /** Resizes the receive windows of HTTP/2 client connections. Null for other connections. */
+  final BdpEstimator bdpEstimator;
+
+  /** The ping that is taking a sample for {@link #bdpEstimator}, or null. Guarded by this. */
+  private Ping bdpPing;
 
   /** Settings we receive from the peer. */
   // TODO: MWS will need to guard on this setting before attempting to push.
@@ -141,11 +169,17 @@ public final class FramedConnection implements Closeable {
     nextPingId = builder.client ? 1 : 2;
 
     // Flow control was designed more for servers, or proxies than edge clients.
-    // If we are a client, set the flow control window to 16MiB.  This avoids
+    // If we are a client, start with a flow control window of 1MiB. This avoids
     // thrashing window updates every 64KiB, yet small enough to avoid blowing
-    // up the heap.
-    if (builder.client) {
-      okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, 0, OKHTTP_CLIENT_WINDOW_SIZE);
+    // up the heap. HTTP/2 clients take their window from a shared budget and
+    // resize it to the bandwidth-delay product.
+    bdpEstimator = builder.client && protocol == Protocol.HTTP_2
+        ? new BdpEstimator(builder.budget)
+        : null;
+    if (bdpEstimator != null) {
+      okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, 0, bdpEstimator.window());
+    } else if (builder.client) {
+      okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, 0, BdpEstimator.INITIAL_WINDOW);
     }
 
     hostName = builder.hostName;
@@ -169,8 +203,14 @@ public final class FramedConnection implements Closeable {
     socket = builder.socket;
     frameWriter = variant.newWriter(builder.sink, client);
 
-    readerRunnable = new Reader(variant.newReader(builder.source, client));
-    new Thread(readerRunnable).start(); // Not a daemon thread.
+    ReaderPool readerPool = ReaderPool.get(builder.daemon);
+    readerRunnable = new Reader(variant.newReader(builder.source, client), builder.source,
+        builder.nonBlockingSource, readerPool);
+    if (builder.nonBlockingSource != null) {
+      readerPool.executeReady(readerRunnable);
+    } else {
+      readerPool.execute(readerRunnable);
+    }
   }
 
   /** The protocol as selected using ALPN. */
@@ -181,23 +221,44 @@ public final class FramedConnection implements Closeable {
   /**
    * Returns the number of {@link FramedStream#isOpen() open streams} on this connection.
    */
-  public synchronized int openStreamCount() {
-    return streams.size();
+  public int openStreamCount() {
+    synchronized (streams) {
+      return streams.size();
+    }
   }
 
-  synchronized FramedStream getStream(int id) {
-    return streams.get(id);
+  FramedStream getStream(int id) {
+    synchronized (streams) {
+      return streams.get(id);
+    }
   }
 
-  synchronized FramedStream removeStream(int streamId) {
-    FramedStream stream = streams.remove(streamId);
-    if (stream != null && streams.isEmpty()) {
-      setIdle(true);
+  FramedStream removeStream(int streamId) {
+    FramedStream stream;
+    synchronized (this) {
+      boolean idle;
+      synchronized (streams) {
+        stream = streams.remove(streamId);
+        idle = stream != null && streams.isEmpty();
+      }
+      if (idle) {
+        setIdle(true);
+      }
+    }
+    // The removed stream may be blocked on a connection-wide window update.
+    synchronized (windowLock) {
+      windowLock.notifyAll();
     }
-    notifyAll(); // The removed stream may be blocked on a connection-wide window update.
     return stream;
   }
 
+  /** Returns a snapshot of this connection's streams. */
+  private FramedStream[] streamsSnapshot() {
+    synchronized (streams) {
+      return streams.values(new FramedStream[streams.size()]);
+    }
+  }
+
   private synchronized void setIdle(boolean value) {
     idleStartTimeNs = value ? System.nanoTime() : Long.MAX_VALUE;
   }
@@ -230,7 +291,7 @@ public final class FramedConnection implements Closeable {
       throws IOException {
     if (client) throw new IllegalStateException("Client cannot push requests.");
     if (protocol != Protocol.HTTP_2) throw new IllegalStateException("protocol != HTTP_2");
-    return newStream(associatedStreamId, requestHeaders, out, false);
+    return newStream(associatedStreamId, requestHeaders, out, false, null);
   }
 
   /**
@@ -243,49 +304,97 @@ public final class FramedConnection implements Closeable {
    */
   public FramedStream newStream(List<Header> requestHeaders, boolean out, boolean in)
       throws IOException {
-    return newStream(0, requestHeaders, out, in);
+    return newStream(0, requestHeaders, out, in, null);
+  }
+
+  /**
+   * Returns a new locally-initiated stream with {@code priority}. If the priority has a parent,
+   * the new stream depends on the most recent open stream with the parent priority. If there is no
+   * such stream, the new stream depends on the root, and never exclusively.
+   */
+  public FramedStream newStream(List<Header> requestHeaders, boolean out, boolean in,
+      Priority priority) throws IOException {
+    return newStream(0, requestHeaders, out, in, priority);
   }
 
   private FramedStream newStream(int associatedStreamId, List<Header> requestHeaders, boolean out,
-      boolean in) throws IOException {
+      boolean in, Priority priority) throws IOException {
     boolean outFinished = !out;
     boolean inFinished = !in;
     FramedStream stream;
     int streamId;
 
-    synchronized (frameWriter) {
-      synchronized (this) {
-        if (shutdown) {
-          throw new IOException("shutdown");
+    boolean flush;
+    flushCoalescer.beginWrite(); // Other streams may be waiting to write their headers too.
+    try {
+      synchronized (frameWriter) {
+        synchronized (this) {
+          if (shutdown) {
+            throw new IOException("shutdown");
+          }
+          streamId = nextStreamId;
+          nextStreamId += 2;
+          stream = new FramedStream(
+              streamId, this, outFinished, inFinished, requestHeaders, priority);
+          if (priority != null) {
+            // If the parent isn't open here, depend on the root. Doing so exclusively would make
+            // every other stream on this connection depend on this one.
+            int streamDependency = streamDependency(priority.parent());
+            stream.setPriority(streamDependency, priority.weight(),
+                priority.exclusive() && streamDependency != 0);
+          }
+          if (stream.isOpen()) {
+            synchronized (streams) {
+              streams.put(streamId, stream);
+            }
+            setIdle(false);
+          }
         }
-        streamId = nextStreamId;
-        nextStreamId += 2;
-        stream = new FramedStream(streamId, this, outFinished, inFinished, requestHeaders);
-        if (stream.isOpen()) {
-          streams.put(streamId, stream);
-          setIdle(false);
+        if (associatedStreamId == 0 && priority != null) {
+          frameWriter.synStream(outFinished, inFinished, streamId, associatedStreamId,
+              stream.getStreamDependency(), stream.getWeight(), stream.isExclusive(),
+              requestHeaders);
+        } else if (associatedStreamId == 0) {
+          frameWriter.synStream(outFinished, inFinished, streamId, associatedStreamId,
+              requestHeaders);
+        } else if (client) {
+          throw new IllegalArgumentException("client streams shouldn't have associated stream IDs");
+        } else { // HTTP/2 has a PUSH_PROMISE frame.
+          frameWriter.pushPromise(associatedStreamId, streamId, requestHeaders);
         }
       }
-      if (associatedStreamId == 0) {
-        frameWriter.synStream(outFinished, inFinished, streamId, associatedStreamId,
-            requestHeaders);
-      } else if (client) {
-        throw new IllegalArgumentException("client streams shouldn't have associated stream IDs");
-      } else { // HTTP/2 has a PUSH_PROMISE frame.
-        frameWriter.pushPromise(associatedStreamId, streamId, requestHeaders);
-      }
+    } finally {
+      flush = flushCoalescer.endWrite(!out);
     }
 
-    if (!out) {
+    if (flush) {
       frameWriter.flush();
     }
 
     return stream;
   }
 
+  /** Returns the ID of the most recent open stream with {@code priority}, or 0 if there is none. */
+  private int streamDependency(Priority priority) {
+    assert (Thread.holdsLock(this));
+    if (priority == null) return 0;
+    int result = 0;
+    for (FramedStream stream : streamsSnapshot()) {
+      if (stream.priority == priority && stream.getId() > result) result = stream.getId();
+    }
+    return result;
+  }
+
   void writeSynReply(int streamId, boolean outFinished, List<Header> alternating)
       throws IOException {
-    frameWriter.synReply(outFinished, streamId, alternating);
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      frameWriter.synReply(outFinished, streamId, alternating);
+    } finally {
+      flush = flushCoalescer.endWrite(false);
+    }
+    if (flush) frameWriter.flush();
   }
 
   /**
@@ -303,46 +412,72 @@ public final class FramedConnection implements Closeable {
   public void writeData(int streamId, boolean outFinished, Buffer buffer, long byteCount)
       throws IOException {
     if (byteCount == 0) { // Empty data frames are not flow-controlled.
-      frameWriter.data(outFinished, streamId, buffer, 0);
+      writeDataFrame(outFinished, streamId, buffer, 0);
       return;
     }
 
+    FramedStream stream = getStream(streamId);
+    WriteScheduler.Node writeNode = stream != null ? stream.writeNode : new WriteScheduler.Node();
+
     while (byteCount > 0) {
-      int toWrite;
-      synchronized (FramedConnection.this) {
-        try {
-          while (bytesLeftInWriteWindow <= 0) {
-            // Before blocking, confirm that the stream we're writing is still open. It's possible
-            // that the stream has since been closed (such as if this write timed out.)
-            if (!streams.containsKey(streamId)) {
-              throw new IOException("stream closed");
+      int toWrite = 0;
+      writeScheduler.acquire(writeNode, Math.min(byteCount, frameWriter.maxDataLength()));
+      try {
+        synchronized (windowLock) {
+          try {
+            while (bytesLeftInWriteWindow <= 0) {
+              // Before blocking, confirm that the stream we're writing is still open. It's possible
+              // that the stream has since been closed (such as if this write timed out.)
+              if (getStream(streamId) == null) {
+                throw new IOException("stream closed");
+              }
+              windowLock.wait(); // Wait until we receive a WINDOW_UPDATE.
             }
-            FramedConnection.this.wait(); // Wait until we receive a WINDOW_UPDATE.
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
           }
-        } catch (InterruptedException e) {
-          throw new InterruptedIOException();
+
+          toWrite = (int) Math.min(byteCount, bytesLeftInWriteWindow);
+          toWrite = Math.min(toWrite, frameWriter.maxDataLength());
+          bytesLeftInWriteWindow -= toWrite;
         }
 
-        toWrite = (int) Math.min(byteCount, bytesLeftInWriteWindow);
-        toWrite = Math.min(toWrite, frameWriter.maxDataLength());
-        bytesLeftInWriteWindow -= toWrite;
+        byteCount -= toWrite;
+        writeDataFrame(outFinished && byteCount == 0, streamId, buffer, toWrite);
+      } finally {
+        writeScheduler.release(writeNode, toWrite);
       }
+    }
+  }
 
-      byteCount -= toWrite;
-      frameWriter.data(outFinished && byteCount == 0, streamId, buffer, toWrite);
+  /**
+   * Writes a DATA frame without flushing it. Don't call this while waiting for a window: writers
+   * that finish first leave their flushes to this one.
+   */
+  private void writeDataFrame(boolean outFinished, int streamId, Buffer buffer, int byteCount)
+      throws IOException {
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      frameWriter.data(outFinished, streamId, buffer, byteCount);
+    } finally {
+      flush = flushCoalescer.endWrite(false);
     }
+    if (flush) frameWriter.flush();
   }
 
   /**
    * {@code delta} will be negative if a settings frame initial window is smaller than the last.
    */
   void addBytesToWriteWindow(long delta) {
-    bytesLeftInWriteWindow += delta;
-    if (delta > 0) FramedConnection.this.notifyAll();
+    synchronized (windowLock) {
+      bytesLeftInWriteWindow += delta;
+      if (delta > 0) windowLock.notifyAll();
+    }
   }
 
   void writeSynResetLater(final int streamId, final ErrorCode errorCode) {
-    executor.submit(new NamedRunnable("OkHttp %s stream %d", hostName, streamId) {
+    writeLater(new NamedRunnable("OkHttp %s stream %d", hostName, streamId) {
       @Override public void execute() {
         try {
           writeSynReset(streamId, errorCode);
@@ -353,11 +488,18 @@ public final class FramedConnection implements Closeable {
   }
 
   void writeSynReset(int streamId, ErrorCode statusCode) throws IOException {
-    frameWriter.rstStream(streamId, statusCode);
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      frameWriter.rstStream(streamId, statusCode);
+    } finally {
+      flush = flushCoalescer.endWrite(true);
+    }
+    if (flush) frameWriter.flush();
   }
 
   void writeWindowUpdateLater(final int streamId, final long unacknowledgedBytesRead) {
-    executor.execute(new NamedRunnable("OkHttp Window Update %s stream %d", hostName, streamId) {
+    writeLater(new NamedRunnable("OkHttp Window Update %s stream %d", hostName, streamId) {
       @Override public void execute() {
         try {
           frameWriter.windowUpdate(streamId, unacknowledgedBytesRead);
@@ -387,9 +529,81 @@ public final class FramedConnection implements Closeable {
     return ping;
   }
 
+  /**
+   * Sends a ping to measure how much data arrives in a round trip. The ping is registered while
+   * holding the writer's lock so that {@link #close} can't cancel it before it is sent.
+   */
+  private void writeBdpPingLater() {
+    writeLater(new NamedRunnable("OkHttp %s BDP ping", hostName) {
+      @Override public void execute() {
+        try {
+          synchronized (frameWriter) {
+            Ping ping = new Ping();
+            int pingId;
+            synchronized (FramedConnection.this) {
+              if (shutdown) return;
+              pingId = nextPingId;
+              nextPingId += 2;
+              if (pings == null) pings = new HashMap<>();
+              pings.put(pingId, ping);
+              bdpPing = ping;
+            }
+            writePing(false, pingId, 0x4f4b6264 /* ASCII "OKbd" */, ping);
+          }
+        } catch (IOException ignored) {
+        }
+      }
+    });
+  }
+
+  /**
+   * Completes a sample of the bandwidth-delay product that took {@code roundTripTimeNs}. If that
+   * resizes the receive window, this changes the initial window of this connection's streams to
+   * the new size, and grows or shrinks the connection's window by the same amount.
+   */
+  private void updateReceiveWindow(long roundTripTimeNs) {
+    FramedStream[] streamsToUpdate;
+    long windowUpdate = 0;
+    int windowSize;
+    synchronized (windowLock) {
+      // Resize under the window lock so that readers report credit owed against the new window.
+      windowSize = bdpEstimator.pingAcknowledged(roundTripTimeNs);
+      int delta;
+      synchronized (this) {
+        if (shutdown) return;
+        delta = windowSize - okHttpSettings.getInitialWindowSize(DEFAULT_INITIAL_WINDOW_SIZE);
+        if (delta == 0) return;
+        okHttpSettings.set(Settings.INITIAL_WINDOW_SIZE, 0, windowSize);
+        streamsToUpdate = streamsSnapshot();
+      }
+      unacknowledgedBytesRead += delta;
+      if (unacknowledgedBytesRead >= windowSize / 2) {
+        windowUpdate = unacknowledgedBytesRead;
+        unacknowledgedBytesRead = 0;
+      }
+      bdpEstimator.creditOwed(Math.max(0, -unacknowledgedBytesRead));
+    }
+
+    // Streams accept bytes sent under their new window as soon as the peer may send them.
+    for (FramedStream stream : streamsToUpdate) {
+      stream.receiveWindowSizeChanged(windowSize);
+    }
+
+    final Settings settings = new Settings().set(Settings.INITIAL_WINDOW_SIZE, 0, windowSize);
+    writeLater(new NamedRunnable("OkHttp %s Settings", hostName) {
+      @Override public void execute() {
+        try {
+          frameWriter.settings(settings);
+        } catch (IOException ignored) {
+        }
+      }
+    });
+    if (windowUpdate > 0) writeWindowUpdateLater(0, windowUpdate);
+  }
+
   private void writePingLater(
       final boolean reply, final int payload1, final int payload2, final Ping ping) {
-    executor.execute(new NamedRunnable("OkHttp %s ping %08x%08x",
+    writeLater(new NamedRunnable("OkHttp %s ping %08x%08x",
         hostName, payload1, payload2) {
       @Override public void execute() {
         try {
@@ -401,19 +615,69 @@ public final class FramedConnection implements Closeable {
   }
 
   private void writePing(boolean reply, int payload1, int payload2, Ping ping) throws IOException {
-    synchronized (frameWriter) {
-      // Observe the sent time immediately before performing I/O.
-      if (ping != null) ping.send();
-      frameWriter.ping(reply, payload1, payload2);
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      synchronized (frameWriter) {
+        // Observe the sent time immediately before performing I/O.
+        if (ping != null) ping.send();
+        frameWriter.ping(reply, payload1, payload2);
+      }
+    } finally {
+      flush = flushCoalescer.endWrite(true);
+    }
+    if (flush) frameWriter.flush();
+  }
+
+  /**
+   * Runs {@code write} on {@link #executor}. Writes that are enqueued while others are pending are
+   * run in the same batch, in order, so that a burst of them doesn't take a thread each. Frames
+   * written by a batch are flushed together when it completes.
+   */
+  private void writeLater(Runnable write) {
+    synchronized (writesLater) {
+      writesLater.add(write);
+      if (writingLater) return;
+      writingLater = true;
     }
+    executor.execute(new NamedRunnable("OkHttp %s Writer", hostName) {
+      @Override protected void execute() {
+        flushCoalescer.beginWrite();
+        try {
+          while (true) {
+            Runnable write;
+            synchronized (writesLater) {
+              write = writesLater.poll();
+              if (write == null) {
+                writingLater = false;
+                return;
+              }
+            }
+            write.run();
+          }
+        } finally {
+          if (flushCoalescer.endWrite(true)) {
+            try {
+              frameWriter.flush();
+            } catch (IOException ignored) {
+            }
+          }
+        }
+      }
+    });
   }
 
   private synchronized Ping removePing(int id) {
     return pings != null ? pings.remove(id) : null;
   }
 
+  /**
+   * Flushes the frames written to this connection. If other threads are writing frames, this leaves
+   * the flush to the last of them.
+   */
   public void flush() throws IOException {
-    frameWriter.flush();
+    flushCoalescer.beginWrite();
+    if (flushCoalescer.endWrite(true)) frameWriter.flush();
   }
 
   /**
@@ -422,18 +686,25 @@ public final class FramedConnection implements Closeable {
    * to gracefully stop accepting new requests without harming previously established streams.
    */
   public void shutdown(ErrorCode statusCode) throws IOException {
-    synchronized (frameWriter) {
-      int lastGoodStreamId;
-      synchronized (this) {
-        if (shutdown) {
-          return;
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      synchronized (frameWriter) {
+        int lastGoodStreamId;
+        synchronized (this) {
+          if (shutdown) {
+            return;
+          }
+          shutdown = true;
+          lastGoodStreamId = this.lastGoodStreamId;
         }
-        shutdown = true;
-        lastGoodStreamId = this.lastGoodStreamId;
+        // TODO: propagate exception message into debugData
+        frameWriter.goAway(lastGoodStreamId, statusCode, Util.EMPTY_BYTE_ARRAY);
       }
-      // TODO: propagate exception message into debugData
-      frameWriter.goAway(lastGoodStreamId, statusCode, Util.EMPTY_BYTE_ARRAY);
+    } finally {
+      flush = flushCoalescer.endWrite(true);
     }
+    if (flush) frameWriter.flush();
   }
 
   /**
@@ -456,9 +727,13 @@ public final class FramedConnection implements Closeable {
     FramedStream[] streamsToClose = null;
     Ping[] pingsToCancel = null;
     synchronized (this) {
-      if (!streams.isEmpty()) {
-        streamsToClose = streams.values().toArray(new FramedStream[streams.size()]);
-        streams.clear();
+      synchronized (streams) {
+        if (!streams.isEmpty()) {
+          streamsToClose = streams.values(new FramedStream[streams.size()]);
+          streams.clear();
+        }
+      }
+      if (streamsToClose != null) {
         setIdle(false);
       }
       if (pings != null) {
@@ -467,6 +742,10 @@ public final class FramedConnection implements Closeable {
       }
     }
 
+    if (bdpEstimator != null) {
+      bdpEstimator.release();
+    }
+
     if (streamsToClose != null) {
       for (FramedStream stream : streamsToClose) {
         try {
@@ -505,25 +784,39 @@ public final class FramedConnection implements Closeable {
    * {@link Builder#build} for all new connections.
    */
   public void sendConnectionPreface() throws IOException {
-    frameWriter.connectionPreface();
-    frameWriter.settings(okHttpSettings);
-    int windowSize = okHttpSettings.getInitialWindowSize(Settings.DEFAULT_INITIAL_WINDOW_SIZE);
-    if (windowSize != Settings.DEFAULT_INITIAL_WINDOW_SIZE) {
-      frameWriter.windowUpdate(0, windowSize - Settings.DEFAULT_INITIAL_WINDOW_SIZE);
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      frameWriter.connectionPreface();
+      frameWriter.settings(okHttpSettings);
+      int windowSize = okHttpSettings.getInitialWindowSize(Settings.DEFAULT_INITIAL_WINDOW_SIZE);
+      if (windowSize != Settings.DEFAULT_INITIAL_WINDOW_SIZE) {
+        frameWriter.windowUpdate(0, windowSize - Settings.DEFAULT_INITIAL_WINDOW_SIZE);
+      }
+    } finally {
+      flush = flushCoalescer.endWrite(true);
     }
+    if (flush) frameWriter.flush();
   }
 
   /** Merges {@code settings} into this peer's settings and sends them to the remote peer. */
   public void setSettings(Settings settings) throws IOException {
-    synchronized (frameWriter) {
-      synchronized (this) {
-        if (shutdown) {
-          throw new IOException("shutdown");
+    flushCoalescer.beginWrite();
+    boolean flush;
+    try {
+      synchronized (frameWriter) {
+        synchronized (this) {
+          if (shutdown) {
+            throw new IOException("shutdown");
+          }
+          okHttpSettings.merge(settings);
+          frameWriter.settings(settings);
         }
-        okHttpSettings.merge(settings);
-        frameWriter.settings(settings);
       }
+    } finally {
+      flush = flushCoalescer.endWrite(true);
     }
+    if (flush) frameWriter.flush();
   }
 
   public static class Builder {
@@ -535,6 +828,9 @@ public final class FramedConnection implements Closeable {
     private Protocol protocol = Protocol.SPDY_3;
     private PushObserver pushObserver = PushObserver.CANCEL;
     private boolean client;
+    private boolean daemon;
+    private NonBlockingSource nonBlockingSource;
+    private BdpEstimator.Budget budget = BdpEstimator.Budget.SHARED;
 
     /**
      * @param client true if this peer initiated the connection; false if this peer accepted the
@@ -573,7 +869,34 @@ public final class FramedConnection implements Closeable {
       return this;
     }
 
+    /**
+     * Sets whether this connection's reader runs on daemon threads, which don't prevent the JVM
+     * from exiting. By default it doesn't.
+     */
+    public Builder daemon(boolean daemon) {
+      this.daemon = daemon;
+      return this;
+    }
+
+    /**
+     * Reads this connection's frames as they arrive rather than blocking a thread on the socket.
+     * {@code nonBlockingSource} must be the source that the connection's buffered source reads.
+     * Only client connections can read this way.
+     */
+    public Builder nonBlockingSource(NonBlockingSource nonBlockingSource) {
+      this.nonBlockingSource = nonBlockingSource;
+      return this;
+    }
+
+    Builder budget(BdpEstimator.Budget budget) {
+      this.budget = budget;
+      return this;
+    }
+
     public FramedConnection build() throws IOException {
+      if (nonBlockingSource != null && !client) {
+        throw new IllegalStateException("only client connections read non-blocking sources");
+      }
       return new FramedConnection(this);
     }
   }
@@ -584,13 +907,37 @@ public final class FramedConnection implements Closeable {
    */
   class Reader extends NamedRunnable implements FrameReader.Handler {
     final FrameReader frameReader;
+    private final BufferedSource source;
+    /** The source that {@link #source} reads, if it can be read without waiting. */
+    private final NonBlockingSource nonBlockingSource;
+    private final ReaderPool readerPool;
+    private final Runnable readLater = new Runnable() {
+      @Override public void run() {
+        readerPool.executeReady(Reader.this);
+      }
+    };
 
-    private Reader(FrameReader frameReader) {
+    /** The last priority received for a stream that didn't exist yet. */
+    private int priorityStreamId;
+    private int priorityStreamDependency;
+    private int priorityWeight;
+    private boolean priorityExclusive;
+
+    private Reader(FrameReader frameReader, BufferedSource source,
+        NonBlockingSource nonBlockingSource, ReaderPool readerPool) {
       super("OkHttp %s", hostName);
       this.frameReader = frameReader;
+      this.source = source;
+      this.nonBlockingSource = nonBlockingSource;
+      this.readerPool = readerPool;
     }
 
     @Override protected void execute() {
+      if (nonBlockingSource != null) {
+        readArrivedFrames();
+        return;
+      }
+
       ErrorCode connectionErrorCode = ErrorCode.INTERNAL_ERROR;
       ErrorCode streamErrorCode = ErrorCode.INTERNAL_ERROR;
       try {
@@ -605,14 +952,47 @@ public final class FramedConnection implements Closeable {
         connectionErrorCode = ErrorCode.PROTOCOL_ERROR;
         streamErrorCode = ErrorCode.PROTOCOL_ERROR;
       } finally {
-        try {
-          close(connectionErrorCode, streamErrorCode);
-        } catch (IOException ignored) {
+        finish(connectionErrorCode, streamErrorCode);
+      }
+    }
+
+    /**
+     * Handles the frames that have arrived in a batch, then returns until more arrive. Frames are
+     * only read once they are whole, so reading never waits for the peer and a connection that is
+     * idle holds no thread.
+     */
+    private void readArrivedFrames() {
+      ErrorCode connectionErrorCode = ErrorCode.INTERNAL_ERROR;
+      ErrorCode streamErrorCode = ErrorCode.INTERNAL_ERROR;
+      boolean finished = true;
+      try {
+        Buffer buffer = source.buffer();
+        boolean exhausted = nonBlockingSource.readAvailable(buffer) == -1;
+        while (exhausted || variant.isFrameComplete(buffer)) {
+          if (!frameReader.nextFrame(this)) {
+            connectionErrorCode = ErrorCode.NO_ERROR;
+            streamErrorCode = ErrorCode.CANCEL;
+            return;
+          }
         }
-        Util.closeQuietly(frameReader);
+        finished = false;
+        nonBlockingSource.whenReadable(readLater);
+      } catch (IOException e) {
+        connectionErrorCode = ErrorCode.PROTOCOL_ERROR;
+        streamErrorCode = ErrorCode.PROTOCOL_ERROR;
+      } finally {
+        if (finished) finish(connectionErrorCode, streamErrorCode);
       }
     }
 
+    private void finish(ErrorCode connectionErrorCode, ErrorCode streamErrorCode) {
+      try {
+        close(connectionErrorCode, streamErrorCode);
+      } catch (IOException ignored) {
+      }
+      Util.closeQuietly(frameReader);
+    }
+
     @Override public void data(boolean inFinished, int streamId, BufferedSource source, int length)
         throws IOException {
       if (pushedStream(streamId)) {
@@ -626,6 +1006,9 @@ public final class FramedConnection implements Closeable {
         return;
       }
       dataStream.receiveData(source, length);
+      if (bdpEstimator != null && bdpEstimator.dataReceived(length)) {
+        writeBdpPingLater();
+      }
       if (inFinished) {
         dataStream.receiveFin();
       }
@@ -661,8 +1044,13 @@ public final class FramedConnection implements Closeable {
           final FramedStream
               newStream = new FramedStream(streamId, FramedConnection.this, outFinished,
               inFinished, headerBlock);
+          if (streamId == priorityStreamId) {
+            newStream.setPriority(priorityStreamDependency, priorityWeight, priorityExclusive);
+          }
           lastGoodStreamId = streamId;
-          streams.put(streamId, newStream);
+          synchronized (streams) {
+            streams.put(streamId, newStream);
+          }
           executor.execute(new NamedRunnable("OkHttp %s stream %d", hostName, streamId) {
             @Override public void execute() {
               try {
@@ -705,6 +1093,7 @@ public final class FramedConnection implements Closeable {
 
     @Override public void settings(boolean clearPrevious, Settings newSettings) {
       long delta = 0;
+      long connectionDelta = 0;
       FramedStream[] streamsToNotify = null;
       synchronized (FramedConnection.this) {
         int priorWriteWindowSize = peerSettings.getInitialWindowSize(DEFAULT_INITIAL_WINDOW_SIZE);
@@ -717,12 +1106,10 @@ public final class FramedConnection implements Closeable {
         if (peerInitialWindowSize != -1 && peerInitialWindowSize != priorWriteWindowSize) {
           delta = peerInitialWindowSize - priorWriteWindowSize;
           if (!receivedInitialPeerSettings) {
-            addBytesToWriteWindow(delta);
+            connectionDelta = delta;
             receivedInitialPeerSettings = true;
           }
-          if (!streams.isEmpty()) {
-            streamsToNotify = streams.values().toArray(new FramedStream[streams.size()]);
-          }
+          streamsToNotify = streamsSnapshot();
         }
         executor.execute(new NamedRunnable("OkHttp %s settings", hostName) {
           @Override public void execute() {
@@ -730,6 +1117,9 @@ public final class FramedConnection implements Closeable {
           }
         });
       }
+      if (connectionDelta != 0) {
+        addBytesToWriteWindow(connectionDelta);
+      }
       if (streamsToNotify != null && delta != 0) {
         for (FramedStream stream : streamsToNotify) {
           synchronized (stream) {
@@ -740,7 +1130,7 @@ public final class FramedConnection implements Closeable {
     }
 
     private void ackSettingsLater(final Settings peerSettings) {
-      executor.execute(new NamedRunnable("OkHttp %s ACK Settings", hostName) {
+      writeLater(new NamedRunnable("OkHttp %s ACK Settings", hostName) {
         @Override public void execute() {
           try {
             frameWriter.ackSettings(peerSettings);
@@ -759,6 +1149,9 @@ public final class FramedConnection implements Closeable {
         Ping ping = removePing(payload1);
         if (ping != null) {
           ping.receive();
+          if (takeBdpPing(ping)) {
+            updateReceiveWindow(roundTripTime(ping));
+          }
         }
       } else {
         // Send a reply to a client ping if this is a server and vice versa.
@@ -766,6 +1159,23 @@ public final class FramedConnection implements Closeable {
       }
     }
 
+    private boolean takeBdpPing(Ping ping) {
+      synchronized (FramedConnection.this) {
+        if (ping != bdpPing) return false;
+        bdpPing = null;
+        return true;
+      }
+    }
+
+    private long roundTripTime(Ping ping) {
+      try {
+        return ping.roundTripTime(0, TimeUnit.NANOSECONDS); // The ping is complete.
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+    }
+
     @Override public void goAway(int lastGoodStreamId, ErrorCode errorCode, ByteString debugData) {
       if (debugData.size() > 0) { // TODO: log the debugData
       }
@@ -773,7 +1183,7 @@ public final class FramedConnection implements Closeable {
       // Copy the streams first. We don't want to hold a lock when we call receiveRstStream().
       FramedStream[] streamsCopy;
       synchronized (FramedConnection.this) {
-        streamsCopy = streams.values().toArray(new FramedStream[streams.size()]);
+        streamsCopy = streamsSnapshot();
         shutdown = true;
       }
 
@@ -788,10 +1198,7 @@ public final class FramedConnection implements Closeable {
 
     @Override public void windowUpdate(int streamId, long windowSizeIncrement) {
       if (streamId == 0) {
-        synchronized (FramedConnection.this) {
-          bytesLeftInWriteWindow += windowSizeIncrement;
-          FramedConnection.this.notifyAll();
-        }
+        addBytesToWriteWindow(windowSizeIncrement);
       } else {
         FramedStream stream = getStream(streamId);
         if (stream != null) {
@@ -804,7 +1211,17 @@ public final class FramedConnection implements Closeable {
 
     @Override public void priority(int streamId, int streamDependency, int weight,
         boolean exclusive) {
-      // TODO: honor priority.
+      if (streamDependency == streamId) return; // A stream can't depend on itself.
+      FramedStream stream = getStream(streamId);
+      if (stream != null) {
+        stream.setPriority(streamDependency, weight, exclusive);
+      } else {
+        // This may be the priority of a HEADERS frame that will create the stream.
+        priorityStreamId = streamId;
+        priorityStreamDependency = streamDependency;
+        priorityWeight = weight;
+        priorityExclusive = exclusive;
+      }
     }
 
     @Override
@@ -839,7 +1256,7 @@ public final class FramedConnection implements Closeable {
         boolean cancel = pushObserver.onRequest(streamId, requestHeaders);
         try {
           if (cancel) {
-            frameWriter.rstStream(streamId, ErrorCode.CANCEL);
+            writeSynReset(streamId, ErrorCode.CANCEL);
             synchronized (FramedConnection.this) {
               currentPushRequests.remove(streamId);
             }
@@ -856,7 +1273,7 @@ public final class FramedConnection implements Closeable {
       @Override public void execute() {
         boolean cancel = pushObserver.onHeaders(streamId, requestHeaders, inFinished);
         try {
-          if (cancel) frameWriter.rstStream(streamId, ErrorCode.CANCEL);
+          if (cancel) writeSynReset(streamId, ErrorCode.CANCEL);
           if (cancel || inFinished) {
             synchronized (FramedConnection.this) {
               currentPushRequests.remove(streamId);
@@ -882,7 +1299,7 @@ public final class FramedConnection implements Closeable {
       @Override public void execute() {
         try {
           boolean cancel = pushObserver.onData(streamId, buffer, byteCount, inFinished);
-          if (cancel) frameWriter.rstStream(streamId, ErrorCode.CANCEL);
+          if (cancel) writeSynReset(streamId, ErrorCode.CANCEL);
           if (cancel || inFinished) {
             synchronized (FramedConnection.this) {
               currentPushRequests.remove(streamId);
@@ -16,12 +16,12 @@
 
 package okhttp3.internal.framed;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
+import okhttp3.Priority;
 import okio.AsyncTimeout;
 import okio.Buffer;
 import okio.BufferedSource;
@@ -54,6 +54,17 @@ public final class FramedStream {
   private final int id;
   private final FramedConnection connection;
 
+  /** This stream's place in the connection's schedule for writing DATA frames. */
+  final WriteScheduler.Node writeNode = new WriteScheduler.Node();
+
+  /** The priority requested when this peer created the stream, or null. */
+  final Priority priority;
+
+  // The stream's HTTP/2 priority, either as sent or as received from the peer. Guarded by this.
+  private int streamDependency;
+  private int weight = Priority.DEFAULT_WEIGHT;
+  private boolean exclusive;
+
   /** Headers sent by the stream initiator. Immutable and non null. */
   private final List<Header> requestHeaders;
 
@@ -74,6 +85,11 @@ public final class FramedStream {
 
   FramedStream(int id, FramedConnection connection, boolean outFinished, boolean inFinished,
       List<Header> requestHeaders) {
+    this(id, connection, outFinished, inFinished, requestHeaders, null);
+  }
+
+  FramedStream(int id, FramedConnection connection, boolean outFinished, boolean inFinished,
+      List<Header> requestHeaders, Priority priority) {
     if (connection == null) throw new NullPointerException("connection == null");
     if (requestHeaders == null) throw new NullPointerException("requestHeaders == null");
     this.id = id;
@@ -86,6 +102,7 @@ public final class FramedStream {
     this.source.finished = inFinished;
     this.sink.finished = outFinished;
     this.requestHeaders = requestHeaders;
+    this.priority = priority;
   }
 
   public int getId() {
@@ -125,6 +142,28 @@ public final class FramedStream {
     return connection;
   }
 
+  /** Returns the ID of the stream this depends on, or 0 if it doesn't depend on another stream. */
+  public synchronized int getStreamDependency() {
+    return streamDependency;
+  }
+
+  /** Returns this stream's weight, between 1 and 256 inclusive. */
+  public synchronized int getWeight() {
+    return weight;
+  }
+
+  public synchronized boolean isExclusive() {
+    return exclusive;
+  }
+
+  /** Updates this stream's priority, as requested by either peer. */
+  synchronized void setPriority(int streamDependency, int weight, boolean exclusive) {
+    connection.writeScheduler.setWeight(writeNode, weight);
+    this.streamDependency = streamDependency;
+    this.weight = weight;
+    this.exclusive = exclusive;
+  }
+
   public List<Header> getRequestHeaders() {
     return requestHeaders;
   }
@@ -312,14 +351,14 @@ public final class FramedStream {
    * readers.
    */
   private final class FramedDataSource implements Source {
-    /** Buffer to receive data from the network into. Only accessed by the reader thread. */
-    private final Buffer receiveBuffer = new Buffer();
-
     /** Buffer with readable data. Guarded by FramedStream.this. */
     private final Buffer readBuffer = new Buffer();
 
-    /** Maximum number of bytes to buffer before reporting a flow control error. */
-    private final long maxByteCount;
+    /**
+     * Maximum number of bytes to buffer before reporting a flow control error. Guarded by
+     * FramedStream.this.
+     */
+    private long maxByteCount;
 
     /** True if the caller has closed this stream. */
     private boolean closed;
@@ -357,8 +396,13 @@ public final class FramedStream {
       }
 
       // Update connection.unacknowledgedBytesRead outside the stream lock.
-      synchronized (connection) { // Multiple application threads may hit this section.
+      // Multiple application threads may hit this section.
+      synchronized (connection.windowLock) {
+        boolean owed = connection.unacknowledgedBytesRead < 0; // The window shrank.
         connection.unacknowledgedBytesRead += read;
+        if (owed && connection.bdpEstimator != null) {
+          connection.bdpEstimator.creditOwed(Math.max(0, -connection.unacknowledgedBytesRead));
+        }
         if (connection.unacknowledgedBytesRead
             >= connection.okHttpSettings.getInitialWindowSize(DEFAULT_INITIAL_WINDOW_SIZE) / 2) {
           connection.writeWindowUpdateLater(0, connection.unacknowledgedBytesRead);
@@ -381,42 +425,44 @@ public final class FramedStream {
       }
     }
 
+    /**
+     * Receives a DATA frame's payload. The payload's segments are moved, not copied, from {@code
+     * in} to the read buffer, and the stream's lock is held only to check the stream's state and
+     * to append the whole frame.
+     */
     void receive(BufferedSource in, long byteCount) throws IOException {
       assert (!Thread.holdsLock(FramedStream.this));
 
-      while (byteCount > 0) {
-        boolean finished;
-        boolean flowControlError;
-        synchronized (FramedStream.this) {
-          finished = this.finished;
-          flowControlError = byteCount + readBuffer.size() > maxByteCount;
-        }
+      boolean finished;
+      boolean flowControlError;
+      synchronized (FramedStream.this) {
+        finished = this.finished;
+        flowControlError = byteCount + readBuffer.size() > maxByteCount;
+      }
 
-        // If the peer sends more data than we can handle, discard it and close the connection.
-        if (flowControlError) {
-          in.skip(byteCount);
-          closeLater(ErrorCode.FLOW_CONTROL_ERROR);
-          return;
-        }
+      // If the peer sends more data than we can handle, discard it and close the connection.
+      if (flowControlError) {
+        in.skip(byteCount);
+        closeLater(ErrorCode.FLOW_CONTROL_ERROR);
+        return;
+      }
 
-        // Discard data received after the stream is finished. It's probably a benign race.
-        if (finished) {
-          in.skip(byteCount);
-          return;
-        }
+      // Discard data received after the stream is finished. It's probably a benign race.
+      if (finished) {
+        in.skip(byteCount);
+        return;
+      }
 
-        // Fill the receive buffer without holding any locks.
-        long read = in.read(receiveBuffer, byteCount);
-        if (read == -1) throw new EOFException();
-        byteCount -= read;
-
-        // Move the received data to the read buffer to the reader can read it.
-        synchronized (FramedStream.this) {
-          boolean wasEmpty = readBuffer.size() == 0;
-          readBuffer.writeAll(receiveBuffer);
-          if (wasEmpty) {
-            FramedStream.this.notifyAll();
-          }
+      // Take the frame's segments from the connection without holding any locks.
+      Buffer frame = new Buffer();
+      in.readFully(frame, byteCount);
+
+      // Move the frame to the read buffer so the reader can read it.
+      synchronized (FramedStream.this) {
+        boolean wasEmpty = readBuffer.size() == 0;
+        readBuffer.write(frame, byteCount);
+        if (wasEmpty) {
+          FramedStream.this.notifyAll();
         }
       }
     }
@@ -566,6 +612,21 @@ public final class FramedStream {
     if (delta > 0) FramedStream.this.notifyAll();
   }
 
+  /**
+   * Accepts up to {@code windowSize} buffered bytes. This never shrinks the limit because the peer
+   * may have sent data under the old window before it learned of the new one.
+   *
+   * <p>If the window shrank, the bytes already read may exceed the threshold for acknowledging
+   * them. Acknowledge them now; there may be no further reads to do it.
+   */
+  synchronized void receiveWindowSizeChanged(long windowSize) {
+    if (windowSize > source.maxByteCount) source.maxByteCount = windowSize;
+    if (unacknowledgedBytesRead > 0 && unacknowledgedBytesRead >= windowSize / 2) {
+      connection.writeWindowUpdateLater(id, unacknowledgedBytesRead);
+      unacknowledgedBytesRead = 0;
+    }
+  }
+
   private void checkOutNotClosed() throws IOException {
     if (sink.closed) {
       throw new IOException("stream closed");
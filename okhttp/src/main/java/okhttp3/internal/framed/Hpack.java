@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,9 +34,9 @@ import okio.Source;
  *
  * http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12
  *
- * This implementation uses an array for the dynamic table and a list for indexed entries.  Dynamic
+ * The reader uses an array for the dynamic table and a list for indexed entries.  Dynamic
  * entries are added to the array, starting in the last position moving forward.  When the array
- * fills, it is doubled.
+ * fills, it is doubled.  The writer keeps its own dynamic table, described on {@link Writer}.
  */
 final class Hpack {
   private static final int PREFIX_4_BITS = 0x0f;
@@ -115,6 +116,8 @@ final class Hpack {
 
     private final List<Header> headerList = new ArrayList<>();
     private final BufferedSource source;
+    /** Holds each Huffman-decoded string until it is read as a byte string. */
+    private final Buffer huffmanBuffer = new Buffer();
 
     private int headerTableSizeSetting;
     private int maxDynamicTableByteCount;
@@ -347,7 +350,9 @@ final class Hpack {
       int length = readInt(firstByte, PREFIX_7_BITS);
 
       if (huffmanDecode) {
-        return ByteString.of(Huffman.get().decode(source.readByteArray(length)));
+        source.require(length);
+        Huffman.get().decode(source.buffer(), length, huffmanBuffer);
+        return huffmanBuffer.readByteString();
       } else {
         return source.readByteString(length);
       }
@@ -366,28 +371,198 @@ final class Hpack {
     return Collections.unmodifiableMap(result);
   }
 
+  private static final Map<Header, Integer> HEADER_TO_FIRST_INDEX = headerToFirstIndex();
+
+  private static Map<Header, Integer> headerToFirstIndex() {
+    Map<Header, Integer> result = new LinkedHashMap<>(STATIC_HEADER_TABLE.length);
+    for (int i = 0; i < STATIC_HEADER_TABLE.length; i++) {
+      if (!result.containsKey(STATIC_HEADER_TABLE[i])) {
+        result.put(STATIC_HEADER_TABLE[i], i);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private static final ByteString AUTHORITY = ByteString.encodeUtf8(":authority");
+  private static final ByteString AUTHORIZATION = ByteString.encodeUtf8("authorization");
+  private static final ByteString PROXY_AUTHORIZATION =
+      ByteString.encodeUtf8("proxy-authorization");
+  private static final ByteString COOKIE = ByteString.encodeUtf8("cookie");
+
+  /**
+   * Writes header blocks, indexing repeated fields in a dynamic table that mirrors the peer's.
+   *
+   * <p>Entries are numbered in the order they are inserted and stored in a ring buffer at their
+   * insertion number. Maps from each name and each field to its most recent insertion number find
+   * indexed entries without scanning the table.
+   */
+  // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-2.3.2
   static final class Writer {
+    /** The table size this writer uses at most, even if the peer permits a larger one. */
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 4096;
+
     private final Buffer out;
+    private final boolean useCompression;
+
+    private int maxDynamicTableByteCount = SETTINGS_HEADER_TABLE_SIZE;
+    /** The smallest table size since the last header block, which must be signaled first. */
+    private int smallestMaxDynamicTableByteCount = Integer.MAX_VALUE;
+    private boolean emitDynamicTableSizeUpdate;
+
+    // Visible for testing.
+    Header[] dynamicTable = new Header[8];
+    /** The insertion number of the next entry. The newest entry has dynamic index 1. */
+    int insertCount = 0;
+    int headerCount = 0;
+    int dynamicTableByteCount = 0;
+    private final Map<ByteString, Integer> nameToLastInsertion = new HashMap<>();
+    private final Map<Header, Integer> headerToLastInsertion = new HashMap<>();
 
     Writer(Buffer out) {
+      this(true, out);
+    }
+
+    /** Set {@code useCompression} to false to write strings as raw octets, not Huffman codes. */
+    Writer(boolean useCompression, Buffer out) {
+      this.useCompression = useCompression;
       this.out = out;
     }
 
-    /** This does not use "never indexed" semantics for sensitive headers. */
+    /**
+     * Called when the peer's {@link Settings#HEADER_TABLE_SIZE} is acknowledged. Evicts entries as
+     * needed, and signals the new table size at the start of the next header block.
+     */
+    void headerTableSizeSetting(int headerTableSizeSetting) {
+      int effectiveByteCount = Math.min(headerTableSizeSetting, SETTINGS_HEADER_TABLE_SIZE);
+      if (effectiveByteCount == maxDynamicTableByteCount) return;
+
+      if (effectiveByteCount < maxDynamicTableByteCount) {
+        smallestMaxDynamicTableByteCount =
+            Math.min(smallestMaxDynamicTableByteCount, effectiveByteCount);
+      }
+      emitDynamicTableSizeUpdate = true;
+      maxDynamicTableByteCount = effectiveByteCount;
+      evictToRecoverBytes(dynamicTableByteCount - maxDynamicTableByteCount);
+    }
+
     // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-6.2.3
     void writeHeaders(List<Header> headerBlock) throws IOException {
-      // TODO: implement index tracking
+      if (emitDynamicTableSizeUpdate) {
+        if (smallestMaxDynamicTableByteCount < maxDynamicTableByteCount) {
+          // The peer must evict down to the smallest size before growing back to the final one.
+          writeInt(smallestMaxDynamicTableByteCount, PREFIX_5_BITS, 0x20);
+        }
+        writeInt(maxDynamicTableByteCount, PREFIX_5_BITS, 0x20);
+        emitDynamicTableSizeUpdate = false;
+        smallestMaxDynamicTableByteCount = Integer.MAX_VALUE;
+      }
+
       for (int i = 0, size = headerBlock.size(); i < size; i++) {
         ByteString name = headerBlock.get(i).name.toAsciiLowercase();
-        Integer staticIndex = NAME_TO_FIRST_INDEX.get(name);
-        if (staticIndex != null) {
-          // Literal Header Field without Indexing - Indexed Name.
-          writeInt(staticIndex + 1, PREFIX_4_BITS, 0);
-          writeByteString(headerBlock.get(i).value);
+        ByteString value = headerBlock.get(i).value;
+        Header header = new Header(name, value);
+
+        int headerIndex = headerIndex(header);
+        if (headerIndex != -1) {
+          writeInt(headerIndex, PREFIX_7_BITS, 0x80); // Indexed Header Field.
+          continue;
+        }
+
+        int nameIndex = nameIndex(name);
+        if (isSensitive(name, value)) {
+          writeLiteral(nameIndex, name, value, PREFIX_4_BITS, 0x10); // Never Indexed.
+        } else if ((name.size() > 0 && name.getByte(0) == ':' && !name.equals(AUTHORITY))
+            || header.hpackSize > maxDynamicTableByteCount) {
+          // Pseudo-headers like :path vary from request to request, and would only evict fields
+          // that repeat. Fields too large for the table would empty it.
+          writeLiteral(nameIndex, name, value, PREFIX_4_BITS, 0x00); // Without Indexing.
         } else {
-          out.writeByte(0x00); // Literal Header without Indexing - New Name.
-          writeByteString(name);
-          writeByteString(headerBlock.get(i).value);
+          writeLiteral(nameIndex, name, value, PREFIX_6_BITS, 0x40); // With Incremental Indexing.
+          insertIntoDynamicTable(header);
+        }
+      }
+    }
+
+    private void writeLiteral(int nameIndex, ByteString name, ByteString value, int prefixMask,
+        int bits) throws IOException {
+      if (nameIndex != -1) {
+        writeInt(nameIndex, prefixMask, bits); // Indexed Name.
+      } else {
+        out.writeByte(bits); // New Name.
+        writeByteString(name);
+      }
+      writeByteString(value);
+    }
+
+    /** Returns the 1-based index of an entry equal to {@code header}, or -1 if there is none. */
+    private int headerIndex(Header header) {
+      Integer staticIndex = HEADER_TO_FIRST_INDEX.get(header);
+      if (staticIndex != null) return staticIndex + 1;
+      Integer insertion = headerToLastInsertion.get(header);
+      return insertion != null ? dynamicIndex(insertion) : -1;
+    }
+
+    /** Returns the 1-based index of an entry named {@code name}, or -1 if there is none. */
+    private int nameIndex(ByteString name) {
+      Integer staticIndex = NAME_TO_FIRST_INDEX.get(name);
+      if (staticIndex != null) return staticIndex + 1;
+      Integer insertion = nameToLastInsertion.get(name);
+      return insertion != null ? dynamicIndex(insertion) : -1;
+    }
+
+    private int dynamicIndex(int insertion) {
+      return STATIC_HEADER_TABLE.length + insertCount - insertion;
+    }
+
+    /**
+     * Returns true if {@code value} shouldn't be indexed here or by intermediaries, because a
+     * compression ratio attack could recover it. Short cookies are easy to guess.
+     */
+    // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-7.1.3
+    private boolean isSensitive(ByteString name, ByteString value) {
+      return name.equals(AUTHORIZATION)
+          || name.equals(PROXY_AUTHORIZATION)
+          || (name.equals(COOKIE) && value.size() < 20);
+    }
+
+    private void insertIntoDynamicTable(Header entry) {
+      evictToRecoverBytes(dynamicTableByteCount + entry.hpackSize - maxDynamicTableByteCount);
+
+      if (headerCount == dynamicTable.length) { // Need to grow the dynamic table.
+        Header[] doubled = new Header[dynamicTable.length * 2];
+        for (int i = insertCount - headerCount; i != insertCount; i++) {
+          doubled[i & (doubled.length - 1)] = dynamicTable[i & (dynamicTable.length - 1)];
+        }
+        dynamicTable = doubled;
+      }
+
+      int insertion = insertCount++;
+      dynamicTable[insertion & (dynamicTable.length - 1)] = entry;
+      headerCount++;
+      dynamicTableByteCount += entry.hpackSize;
+      nameToLastInsertion.put(entry.name, insertion);
+      headerToLastInsertion.put(entry, insertion);
+    }
+
+    /** Evicts the oldest entries until at least {@code bytesToRecover} bytes are free. */
+    private void evictToRecoverBytes(int bytesToRecover) {
+      while (bytesToRecover > 0 && headerCount > 0) {
+        int insertion = insertCount - headerCount;
+        int slot = insertion & (dynamicTable.length - 1);
+        Header evicted = dynamicTable[slot];
+        dynamicTable[slot] = null;
+        headerCount--;
+        dynamicTableByteCount -= evicted.hpackSize;
+        bytesToRecover -= evicted.hpackSize;
+
+        // Forget the entry unless the same name or field was inserted again more recently.
+        Integer lastNameInsertion = nameToLastInsertion.get(evicted.name);
+        if (lastNameInsertion != null && lastNameInsertion == insertion) {
+          nameToLastInsertion.remove(evicted.name);
+        }
+        Integer lastHeaderInsertion = headerToLastInsertion.get(evicted);
+        if (lastHeaderInsertion != null && lastHeaderInsertion == insertion) {
+          headerToLastInsertion.remove(evicted);
         }
       }
     }
@@ -413,9 +588,16 @@ final class Hpack {
       out.writeByte(value);
     }
 
+    /** Writes {@code data} Huffman encoded if that is shorter, or as raw octets otherwise. */
     void writeByteString(ByteString data) throws IOException {
-      writeInt(data.size(), PREFIX_7_BITS, 0);
-      out.write(data);
+      int huffmanLength = useCompression ? Huffman.get().encodedLength(data) : Integer.MAX_VALUE;
+      if (huffmanLength < data.size()) {
+        writeInt(huffmanLength, PREFIX_7_BITS, 0x80);
+        Huffman.get().encode(data, out);
+      } else {
+        writeInt(data.size(), PREFIX_7_BITS, 0);
+        out.write(data);
+      }
     }
   }
 
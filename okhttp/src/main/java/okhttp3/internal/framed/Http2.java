@@ -82,6 +82,25 @@ public final class Http2 implements Variant {
     return new Writer(sink, client);
   }
 
+  @Override public boolean isFrameComplete(Buffer buffer) {
+    long offset = 0;
+    while (true) {
+      if (buffer.size() < offset + 9) return false;
+      int length = (buffer.getByte(offset) & 0xff) << 16
+          | (buffer.getByte(offset + 1) & 0xff) << 8
+          | (buffer.getByte(offset + 2) & 0xff);
+      if (length > INITIAL_MAX_FRAME_SIZE) return true; // The reader fails without waiting.
+      byte type = buffer.getByte(offset + 3);
+      byte flags = buffer.getByte(offset + 4);
+      offset += 9 + length;
+      if (buffer.size() < offset) return false;
+
+      boolean headerBlock = type == TYPE_HEADERS || type == TYPE_PUSH_PROMISE
+          || type == TYPE_CONTINUATION;
+      if (!headerBlock || (flags & FLAG_END_HEADERS) != 0) return true;
+    }
+  }
+
   static final class Reader implements FrameReader {
     private final BufferedSource source;
     private final ContinuationSource continuation;
@@ -382,12 +401,14 @@ public final class Http2 implements Variant {
     @Override public synchronized void ackSettings(Settings peerSettings) throws IOException {
       if (closed) throw new IOException("closed");
       this.maxFrameSize = peerSettings.getMaxFrameSize(maxFrameSize);
+      if (peerSettings.getHeaderTableSize() != -1) {
+        hpackWriter.headerTableSizeSetting(peerSettings.getHeaderTableSize());
+      }
       int length = 0;
       byte type = TYPE_SETTINGS;
       byte flags = FLAG_ACK;
       int streamId = 0;
       frameHeader(streamId, length, type, flags);
-      sink.flush();
     }
 
     @Override public synchronized void connectionPreface() throws IOException {
@@ -397,7 +418,6 @@ public final class Http2 implements Variant {
         logger.fine(format(">> CONNECTION %s", CONNECTION_PREFACE.hex()));
       }
       sink.write(CONNECTION_PREFACE.toByteArray());
-      sink.flush();
     }
 
     @Override public synchronized void synStream(boolean outFinished, boolean inFinished,
@@ -408,6 +428,30 @@ public final class Http2 implements Variant {
       headers(outFinished, streamId, headerBlock);
     }
 
+    @Override public synchronized void synStream(boolean outFinished, boolean inFinished,
+        int streamId, int associatedStreamId, int streamDependency, int weight, boolean exclusive,
+        List<Header> headerBlock) throws IOException {
+      if (inFinished) throw new UnsupportedOperationException();
+      if (closed) throw new IOException("closed");
+      if (weight < 1 || weight > 256) {
+        throw illegalArgument("weight < 1 || weight > 256: %s", weight);
+      }
+      hpackWriter.writeHeaders(headerBlock);
+
+      long byteCount = hpackBuffer.size();
+      int length = (int) Math.min(maxFrameSize - 5, byteCount);
+      byte type = TYPE_HEADERS;
+      byte flags = byteCount == length ? FLAG_END_HEADERS : 0;
+      if (outFinished) flags |= FLAG_END_STREAM;
+      flags |= FLAG_PRIORITY;
+      frameHeader(streamId, length + 5, type, flags);
+      sink.writeInt((exclusive ? 0x80000000 : 0) | (streamDependency & 0x7fffffff));
+      sink.writeByte(weight - 1);
+      sink.write(hpackBuffer, length);
+
+      if (byteCount > length) writeContinuationFrames(streamId, byteCount - length);
+    }
+
     @Override public synchronized void synReply(boolean outFinished, int streamId,
         List<Header> headerBlock) throws IOException {
       if (closed) throw new IOException("closed");
@@ -470,7 +514,6 @@ public final class Http2 implements Variant {
       byte flags = FLAG_NONE;
       frameHeader(streamId, length, type, flags);
       sink.writeInt(errorCode.httpCode);
-      sink.flush();
     }
 
     @Override public int maxDataLength() {
@@ -511,7 +554,6 @@ public final class Http2 implements Variant {
         sink.writeShort(id);
         sink.writeInt(settings.get(i));
       }
-      sink.flush();
     }
 
     @Override public synchronized void ping(boolean ack, int payload1, int payload2)
@@ -524,7 +566,6 @@ public final class Http2 implements Variant {
       frameHeader(streamId, length, type, flags);
       sink.writeInt(payload1);
       sink.writeInt(payload2);
-      sink.flush();
     }
 
     @Override public synchronized void goAway(int lastGoodStreamId, ErrorCode errorCode,
@@ -541,7 +582,6 @@ public final class Http2 implements Variant {
       if (debugData.length > 0) {
         sink.write(debugData);
       }
-      sink.flush();
     }
 
     @Override public synchronized void windowUpdate(int streamId, long windowSizeIncrement)
@@ -556,7 +596,6 @@ public final class Http2 implements Variant {
       byte flags = FLAG_NONE;
       frameHeader(streamId, length, type, flags);
       sink.writeInt((int) windowSizeIncrement);
-      sink.flush();
     }
 
     @Override public synchronized void close() throws IOException {
@@ -15,9 +15,10 @@
  */
 package okhttp3.internal.framed;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
 
 /**
  * This class was originally composed from the following classes in <a
@@ -81,146 +82,130 @@ class Huffman {
     return INSTANCE;
   }
 
-  private final Node root = new Node();
+  /** Set in a transition that completes a symbol. */
+  private static final int EMIT = 1 << 16;
+  /** Set in a transition that completes EOS, which must not appear in an encoded string. */
+  private static final int FAIL = 1 << 17;
+
+  /**
+   * The decoder's state machine. States are the internal nodes of the code tree, with the root
+   * as state 0, and each transition consumes 4 bits. The transition for {@code state} and {@code
+   * nibble} is at {@code (state << 4) | nibble}. It packs the next state in bits 0-7, the symbol it
+   * completes in bits 8-15, and flags. Codes are at least 5 bits long, so a transition completes at
+   * most one symbol.
+   *
+   * <p>The code tree has 256 internal nodes, so this table is 16 KiB. Consuming a byte at a time
+   * would halve the lookups but take 256 KiB.
+   */
+  private final int[] transitions = new int[256 * 16];
 
   private Huffman() {
-    buildTree();
+    buildTransitions();
   }
 
-  void encode(byte[] data, OutputStream out) throws IOException {
+  /**
+   * Encodes {@code data} to {@code sink}. Codes are packed into a 64-bit accumulator that is
+   * drained 32 bits at a time; codes are at most 30 bits, so it never overflows.
+   */
+  void encode(ByteString data, BufferedSink sink) throws IOException {
     long current = 0;
     int n = 0;
 
-    for (int i = 0; i < data.length; i++) {
-      int b = data[i] & 0xFF;
-      int code = CODES[b];
-      int nbits = CODE_LENGTHS[b];
+    for (int i = 0, size = data.size(); i < size; i++) {
+      int b = data.getByte(i) & 0xFF;
+      current = (current << CODE_LENGTHS[b]) | CODES[b];
+      n += CODE_LENGTHS[b];
 
-      current <<= nbits;
-      current |= code;
-      n += nbits;
-
-      while (n >= 8) {
-        n -= 8;
-        out.write(((int) (current >> n)));
+      if (n >= 32) {
+        n -= 32;
+        sink.writeInt((int) (current >>> n));
       }
     }
 
+    while (n >= 8) {
+      n -= 8;
+      sink.writeByte((int) (current >>> n));
+    }
+
     if (n > 0) {
       current <<= (8 - n);
       current |= (0xFF >>> n);
-      out.write((int) current);
+      sink.writeByte((int) current);
     }
   }
 
-  int encodedLength(byte[] bytes) {
+  int encodedLength(ByteString bytes) {
     long len = 0;
 
-    for (int i = 0; i < bytes.length; i++) {
-      int b = bytes[i] & 0xFF;
+    for (int i = 0, size = bytes.size(); i < size; i++) {
+      int b = bytes.getByte(i) & 0xFF;
       len += CODE_LENGTHS[b];
     }
 
     return (int) ((len + 7) >> 3);
   }
 
-  byte[] decode(byte[] buf) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    Node node = root;
-    int current = 0;
-    int nbits = 0;
-    for (int i = 0; i < buf.length; i++) {
-      int b = buf[i] & 0xFF;
-      current = (current << 8) | b;
-      nbits += 8;
-      while (nbits >= 8) {
-        int c = (current >>> (nbits - 8)) & 0xFF;
-        node = node.children[c];
-        if (node.children == null) {
-          // terminal node
-          baos.write(node.symbol);
-          nbits -= node.terminalBits;
-          node = root;
-        } else {
-          // non-terminal node
-          nbits -= 8;
-        }
-      }
-    }
-
-    while (nbits > 0) {
-      int c = (current << (8 - nbits)) & 0xFF;
-      node = node.children[c];
-      if (node.children != null || node.terminalBits > nbits) {
-        break;
-      }
-      baos.write(node.symbol);
-      nbits -= node.terminalBits;
-      node = root;
+  /**
+   * Decodes {@code byteCount} bytes of {@code source} to {@code sink}. Like the encoder's padding,
+   * bits that don't complete a symbol at the end of the input are ignored. Bytes are decoded one at
+   * a time without scratch arrays, so callers should pass buffers that already hold the input.
+   */
+  void decode(BufferedSource source, long byteCount, BufferedSink sink) throws IOException {
+    int state = 0;
+    for (long i = 0; i < byteCount; i++) {
+      int b = source.readByte() & 0xFF;
+      int t = transitions[(state << 4) | (b >>> 4)];
+      if ((t & (EMIT | FAIL)) != 0) emit(t, sink);
+      t = transitions[((t & 0xFF) << 4) | (b & 0xF)];
+      if ((t & (EMIT | FAIL)) != 0) emit(t, sink);
+      state = t & 0xFF;
     }
-
-    return baos.toByteArray();
   }
 
-  private void buildTree() {
-    for (int i = 0; i < CODE_LENGTHS.length; i++) {
-      addCode(i, CODES[i], CODE_LENGTHS[i]);
-    }
+  private static void emit(int transition, BufferedSink sink) throws IOException {
+    if ((transition & FAIL) != 0) throw new IOException("PROTOCOL_ERROR Huffman EOS");
+    sink.writeByte(transition >>> 8);
   }
 
-  private void addCode(int sym, int code, byte len) {
-    Node terminal = new Node(sym, len);
-
-    Node current = root;
-    while (len > 8) {
-      len -= 8;
-      int i = ((code >>> len) & 0xFF);
-      if (current.children == null) {
-        throw new IllegalStateException("invalid dictionary: prefix not unique");
-      }
-      if (current.children[i] == null) {
-        current.children[i] = new Node();
+  private void buildTransitions() {
+    // Build a binary tree of the codes. Internal nodes are numbered from the root, 0. The children
+    // of node n are at 2n and 2n + 1: another internal node, ~symbol for a leaf, or 0 if not yet
+    // set.
+    int[] children = new int[256 * 2];
+    int nodeCount = 1;
+    for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+      int code = CODES[symbol];
+      int node = 0;
+      for (int bit = CODE_LENGTHS[symbol] - 1; bit > 0; bit--) {
+        int index = 2 * node + ((code >>> bit) & 1);
+        if (children[index] < 0) {
+          throw new IllegalStateException("invalid dictionary: prefix not unique");
+        }
+        if (children[index] == 0) children[index] = nodeCount++;
+        node = children[index];
       }
-      current = current.children[i];
-    }
-
-    int shift = 8 - len;
-    int start = (code << shift) & 0xFF;
-    int end = 1 << shift;
-    for (int i = start; i < start + end; i++) {
-      current.children[i] = terminal;
-    }
-  }
-
-  private static final class Node {
-
-    // Null if terminal.
-    private final Node[] children;
-
-    // Terminal nodes have a symbol.
-    private final int symbol;
-
-    // Number of bits represented in the terminal node.
-    private final int terminalBits;
-
-    /** Construct an internal node. */
-    Node() {
-      this.children = new Node[256];
-      this.symbol = 0; // Not read.
-      this.terminalBits = 0; // Not read.
+      children[2 * node + (code & 1)] = ~symbol;
     }
 
-    /**
-     * Construct a terminal node.
-     *
-     * @param symbol symbol the node represents
-     * @param bits length of Huffman code in bits
-     */
-    Node(int symbol, int bits) {
-      this.children = null;
-      this.symbol = symbol;
-      int b = bits & 0x07;
-      this.terminalBits = b == 0 ? 8 : b;
+    // Follow each 4-bit sequence from each internal node.
+    for (int state = 0; state < nodeCount; state++) {
+      for (int nibble = 0; nibble < 16; nibble++) {
+        int node = state;
+        int transition = 0;
+        for (int bit = 3; bit >= 0; bit--) {
+          int child = children[2 * node + ((nibble >>> bit) & 1)];
+          if (child == 0) {
+            transition |= FAIL; // The only path without a symbol is EOS, 30 ones.
+            node = 0;
+          } else if (child < 0) {
+            transition |= EMIT | (~child << 8);
+            node = 0;
+          } else {
+            node = child;
+          }
+        }
+        transitions[(state << 4) | nibble] = transition | node;
+      }
     }
   }
 }
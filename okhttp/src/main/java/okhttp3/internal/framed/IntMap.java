@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+/**
+ * A map from stream IDs to values. Connections look up a stream for every frame they read, so this
+ * uses open addressing on a primitive key array instead of boxing IDs into a hash map.
+ *
+ * <p>Stream IDs are positive, so 0 marks an empty slot. This class is not thread safe.
+ */
+final class IntMap<V> {
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] ids = new int[MIN_CAPACITY];
+  private Object[] values = new Object[MIN_CAPACITY];
+  private int size;
+
+  V get(int id) {
+    int mask = ids.length - 1;
+    for (int i = slot(id, mask); ids[i] != 0; i = (i + 1) & mask) {
+      if (ids[i] == id) return valueAt(i);
+    }
+    return null;
+  }
+
+  /** Maps {@code id} to {@code value} and returns the value it replaced, or null. */
+  V put(int id, V value) {
+    if (id <= 0) throw new IllegalArgumentException("id <= 0: " + id);
+    if (value == null) throw new NullPointerException("value == null");
+    int mask = ids.length - 1;
+    int i = slot(id, mask);
+    for (; ids[i] != 0; i = (i + 1) & mask) {
+      if (ids[i] == id) {
+        V result = valueAt(i);
+        values[i] = value;
+        return result;
+      }
+    }
+    ids[i] = id;
+    values[i] = value;
+    if (++size > ids.length / 2) resize(ids.length * 2);
+    return null;
+  }
+
+  V remove(int id) {
+    if (id <= 0) return null; // Never mapped. Also, 0 would match the first empty slot.
+    int mask = ids.length - 1;
+    int i = slot(id, mask);
+    for (; ids[i] != id; i = (i + 1) & mask) {
+      if (ids[i] == 0) return null;
+    }
+    V result = valueAt(i);
+
+    // Shift later entries of the probe sequence back so that lookups don't stop at the hole.
+    for (int j = (i + 1) & mask; ids[j] != 0; j = (j + 1) & mask) {
+      int home = slot(ids[j], mask);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        ids[i] = ids[j];
+        values[i] = values[j];
+        i = j;
+      }
+    }
+    ids[i] = 0;
+    values[i] = null;
+
+    if (--size == 0 && ids.length > MIN_CAPACITY) {
+      ids = new int[MIN_CAPACITY]; // Release the memory of a connection that had many streams.
+      values = new Object[MIN_CAPACITY];
+    }
+    return result;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Copies the values of this map into {@code result}, which must have room for them all. */
+  V[] values(V[] result) {
+    for (int i = 0, j = 0; j < size; i++) {
+      if (values[i] != null) result[j++] = valueAt(i);
+    }
+    return result;
+  }
+
+  void clear() {
+    ids = new int[MIN_CAPACITY];
+    values = new Object[MIN_CAPACITY];
+    size = 0;
+  }
+
+  @SuppressWarnings("unchecked") // Only put() writes values.
+  private V valueAt(int i) {
+    return (V) values[i];
+  }
+
+  private void resize(int capacity) {
+    int[] oldIds = ids;
+    Object[] oldValues = values;
+    ids = new int[capacity];
+    values = new Object[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIds[i] == 0) continue;
+      int j = slot(oldIds[i], mask);
+      while (ids[j] != 0) j = (j + 1) & mask;
+      ids[j] = oldIds[i];
+      values[j] = oldValues[i];
+    }
+  }
+
+  /**
+   * Returns the first slot to probe for {@code id}. Peers allocate IDs in steps of 2, so this mixes
+   * the bits to spread them over the table.
+   */
+  private static int slot(int id, int mask) {
+    int h = id * 0x9e3779b9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.internal.Util;
+
+/**
+ * Runs the readers of framed connections on shared threads rather than starting a thread per
+ * connection.
+ *
+ * <p>A reader of a blocking socket blocks on it for its connection's lifetime, so it holds one of
+ * the pool's threads until the connection closes. Those threads are reused by later connections,
+ * and there is no limit on how many run at once.
+ *
+ * <p>A reader of a {@linkplain okhttp3.internal.io.NonBlockingSource non-blocking source} only runs
+ * when frames have arrived, and returns once it has handled them. Those readers share a few
+ * threads, so idle connections cost none.
+ */
+final class ReaderPool {
+  /** The most readers of non-blocking sources that run at once in each pool. */
+  static final int MAX_READY_READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private static final ReaderPool DAEMON = new ReaderPool(true);
+  private static final ReaderPool NON_DAEMON = new ReaderPool(false);
+
+  private final Executor blockingExecutor;
+  private final Executor readyExecutor;
+
+  private ReaderPool(boolean daemon) {
+    this.blockingExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp FramedConnection Reader",
+        daemon));
+    ThreadPoolExecutor readyExecutor = new ThreadPoolExecutor(MAX_READY_READERS,
+        MAX_READY_READERS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        Util.threadFactory("OkHttp FramedConnection Ready Reader", daemon));
+    readyExecutor.allowCoreThreadTimeOut(true);
+    this.readyExecutor = readyExecutor;
+  }
+
+  /** Returns the pool whose threads are {@code daemon} threads or not. */
+  static ReaderPool get(boolean daemon) {
+    return daemon ? DAEMON : NON_DAEMON;
+  }
+
+  /** Runs {@code reader}, which blocks until its connection closes, on a thread of its own. */
+  void execute(Runnable reader) {
+    blockingExecutor.execute(reader);
+  }
+
+  /** Runs {@code reader}, which handles the frames that have arrived, on a shared thread. */
+  void executeReady(Runnable reader) {
+    readyExecutor.execute(reader);
+  }
+}
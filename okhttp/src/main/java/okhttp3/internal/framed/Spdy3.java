@@ -103,6 +103,14 @@ public final class Spdy3 implements Variant {
     return new Writer(sink, client);
   }
 
+  @Override public boolean isFrameComplete(Buffer buffer) {
+    if (buffer.size() < 8) return false;
+    int length = (buffer.getByte(5) & 0xff) << 16
+        | (buffer.getByte(6) & 0xff) << 8
+        | (buffer.getByte(7) & 0xff);
+    return buffer.size() >= 8 + length;
+  }
+
   /** Read spdy/3 frames. */
   static final class Reader implements FrameReader {
     private final BufferedSource source;
@@ -339,6 +347,12 @@ public final class Spdy3 implements Variant {
       sink.flush();
     }
 
+    @Override public void synStream(boolean outFinished, boolean inFinished, int streamId,
+        int associatedStreamId, int streamDependency, int weight, boolean exclusive,
+        List<Header> headerBlock) throws IOException {
+      synStream(outFinished, inFinished, streamId, associatedStreamId, headerBlock);
+    }
+
     @Override public synchronized void synReply(boolean outFinished, int streamId,
         List<Header> headerBlock) throws IOException {
       if (closed) throw new IOException("closed");
@@ -16,6 +16,7 @@
 package okhttp3.internal.framed;
 
 import okhttp3.Protocol;
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.BufferedSource;
 
@@ -34,4 +35,10 @@ public interface Variant {
    * @param client true if this is the HTTP client's writer, writing frames to a server.
    */
   FrameWriter newWriter(BufferedSink sink, boolean client);
+
+  /**
+   * Returns true if {@code buffer} starts with a whole frame, so that reading it won't wait for the
+   * peer. A header block is whole once its last continuation frame is.
+   */
+  boolean isFrameComplete(Buffer buffer);
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.framed;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.Priority;
+
+/**
+ * Decides which of a connection's streams writes the next DATA frame, so that streams waiting to
+ * write share the connection in proportion to their weights.
+ *
+ * <p>This is weighted fair queueing. Each stream has a virtual time that advances by the bytes it
+ * writes divided by its weight. Of the streams that are waiting, the one whose next write would
+ * finish at the earliest virtual time goes next. A stream that starts writing after being idle
+ * begins at the current virtual time, so it can't make up for the turns it didn't need.
+ *
+ * <p>Only one stream holds the turn at a time. It keeps it while waiting for the connection's flow
+ * control window, so that window updates also go to streams in order of their virtual times.
+ */
+final class WriteScheduler {
+  /** Streams waiting for a turn, in the order they arrived. Guarded by this. */
+  private final List<Node> waiting = new ArrayList<>();
+  private boolean busy;
+  private long virtualTime;
+
+  /** Blocks until it is {@code node}'s turn to write about {@code byteCount} bytes. */
+  synchronized void acquire(Node node, long byteCount) throws InterruptedIOException {
+    if (node.virtualTime < virtualTime) node.virtualTime = virtualTime;
+    node.virtualFinish = node.virtualTime + cost(node, byteCount);
+    waiting.add(node);
+    try {
+      while (busy || next() != node) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      waiting.remove(node);
+      notifyAll(); // Another stream may be next now.
+      throw new InterruptedIOException();
+    }
+    waiting.remove(node);
+    busy = true;
+    virtualTime = node.virtualTime;
+  }
+
+  /** Ends {@code node}'s turn, charging it for writing {@code byteCount} bytes. */
+  synchronized void release(Node node, long byteCount) {
+    node.virtualTime += cost(node, byteCount);
+    busy = false;
+    notifyAll();
+  }
+
+  synchronized void setWeight(Node node, int weight) {
+    if (weight < Priority.MIN_WEIGHT || weight > Priority.MAX_WEIGHT) {
+      throw new IllegalArgumentException("weight < 1 || weight > 256: " + weight);
+    }
+    node.weight = weight;
+  }
+
+  // Visible for testing
+  synchronized int waitingCount() {
+    return waiting.size();
+  }
+
+  /** Returns the waiting node whose write would finish first. */
+  private Node next() {
+    Node result = null;
+    for (int i = 0, size = waiting.size(); i < size; i++) {
+      Node node = waiting.get(i);
+      if (result == null || node.virtualFinish < result.virtualFinish) result = node;
+    }
+    return result;
+  }
+
+  private static long cost(Node node, long byteCount) {
+    return byteCount * Priority.MAX_WEIGHT / node.weight;
+  }
+
+  /** A stream's place in the schedule. */
+  static final class Node {
+    /** These fields are guarded by the scheduler. */
+    private int weight = Priority.DEFAULT_WEIGHT;
+    private long virtualTime;
+    private long virtualFinish;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.InterruptedIOException;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Bounds how many multiplexed connections carry the calls to one host. Calls are placed on the
+ * connection with the fewest open streams. While the host has fewer than {@link #minConnections},
+ * a call that would share a busy connection opens a new one instead. Once it has {@link
+ * #maxConnections} and all of them are at the server's concurrent stream limit, calls wait for a
+ * stream to finish rather than connect again.
+ */
+public final class ConnectionGroup {
+  public final int minConnections;
+  public final int maxConnections;
+
+  /**
+   * Counts the times a stream finished or a connection was added. Calls waiting for room wait on
+   * this group rather than the connection pool so they don't wake its cleanup thread. Guarded by
+   * this.
+   */
+  private long generation;
+
+  public ConnectionGroup(int minConnections, int maxConnections) {
+    if (minConnections < 1) {
+      throw new IllegalArgumentException("minConnections < 1: " + minConnections);
+    }
+    if (maxConnections < minConnections) {
+      throw new IllegalArgumentException(
+          "maxConnections < minConnections: " + maxConnections + " < " + minConnections);
+    }
+    this.minConnections = minConnections;
+    this.maxConnections = maxConnections;
+  }
+
+  synchronized long generation() {
+    return generation;
+  }
+
+  /** Wakes calls waiting for room in this group. */
+  synchronized void signal() {
+    generation++;
+    notifyAll();
+  }
+
+  /**
+   * Waits until this group is signaled after {@code generation} was read, or until {@code
+   * deadlineNanos}. A deadline of 0 waits indefinitely. Returns false if the deadline passed.
+   */
+  synchronized boolean await(long generation, long deadlineNanos) throws InterruptedIOException {
+    try {
+      while (this.generation == generation) {
+        if (deadlineNanos == 0) {
+          wait();
+        } else {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) return false;
+          NANOSECONDS.timedWait(this, remainingNanos);
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionSpec;
+import okhttp3.OkHttpClient;
+import okhttp3.Route;
+import okhttp3.internal.NamedRunnable;
+import okhttp3.internal.RouteDatabase;
+import okhttp3.internal.Util;
+import okhttp3.internal.io.RealConnection;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static okhttp3.internal.Util.closeQuietly;
+
+/**
+ * Connects to one of several routes by racing them, as described by <a
+ * href="https://tools.ietf.org/html/rfc6555">Happy Eyeballs</a>. The first route is attempted
+ * immediately. Each time the attempt delay elapses without a connection, another route is attempted
+ * concurrently, alternating between IPv6 and IPv4 addresses. When an attempt fails the next route
+ * is attempted without waiting.
+ *
+ * <p>The first connection to succeed wins. The others are canceled. They didn't fail, so their
+ * routes aren't postponed; instead the time they had spent connecting is recorded as a lower bound
+ * on their connect times, so that subsequent connections prefer the winner.
+ */
+final class ConnectionRace {
+  /**
+   * Background threads are used to make each connection attempt. The thread pool executor permits
+   * threads to be reclaimed when no races are running.
+   */
+  private static final Executor executor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp ConnectionRace", true));
+
+  private final RouteSelector routeSelector;
+  private final RouteDatabase routeDatabase;
+  private final List<ConnectionSpec> connectionSpecs;
+  private final OkHttpClient client;
+
+  /** Attempts that have completed, successfully or not, and not yet been examined. */
+  private final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+
+  /* State guarded by 'this'. */
+  private final List<Attempt> attempts = new ArrayList<>();
+  private boolean finished;
+  private boolean canceled;
+
+  /** Creates a race whose attempts use the timeouts and TLS session cache of {@code client}. */
+  ConnectionRace(RouteSelector routeSelector, RouteDatabase routeDatabase,
+      List<ConnectionSpec> connectionSpecs, OkHttpClient client) {
+    this.routeSelector = routeSelector;
+    this.routeDatabase = routeDatabase;
+    this.connectionSpecs = connectionSpecs;
+    this.client = client;
+  }
+
+  /**
+   * Races connections starting with {@code firstRoute} and returns the winner. Throws if every
+   * route fails or if the race is canceled.
+   */
+  RealConnection connect(Route firstRoute) throws RouteException, IOException {
+    RealConnection winner = null;
+    RouteException failure = null;
+    Route lastRoute = firstRoute;
+    boolean moreRoutes = true;
+    int running = 0;
+
+    try {
+      launch(firstRoute);
+      running++;
+
+      while (true) {
+        moreRoutes = moreRoutes && routeSelector.hasNext() && !isCanceled();
+
+        Attempt attempt;
+        if (moreRoutes) {
+          attempt = completed.poll(client.connectionAttemptDelayMillis(), MILLISECONDS);
+        } else if (running > 0) {
+          attempt = completed.take();
+        } else {
+          if (isCanceled()) throw new IOException("Canceled");
+          throw failure;
+        }
+
+        if (attempt != null) {
+          running--;
+          if (attempt.failure == null) {
+            winner = attempt.connection;
+            return winner;
+          }
+
+          routeSelector.connectFailed(attempt.route, attempt.failure.getLastConnectException());
+          if (failure == null) {
+            failure = attempt.failure;
+          } else {
+            failure.addConnectException(attempt.failure.getLastConnectException());
+          }
+          // Don't wait for the attempt delay; try the next route immediately.
+        }
+
+        if (moreRoutes) {
+          try {
+            lastRoute = routeSelector.nextAlternatingFamily(lastRoute);
+          } catch (IOException e) {
+            // We couldn't select another route. Let the attempts in flight finish.
+            if (failure == null) {
+              failure = new RouteException(e);
+            } else {
+              failure.addConnectException(e);
+            }
+            moreRoutes = false;
+            continue;
+          }
+          launch(lastRoute);
+          running++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      finish(winner);
+    }
+  }
+
+  private void launch(Route route) {
+    Attempt attempt = new Attempt(route);
+    synchronized (this) {
+      attempts.add(attempt);
+    }
+    executor.execute(attempt);
+  }
+
+  /** Cancels all attempts in progress. The race will fail once they have all completed. */
+  void cancel() {
+    List<Attempt> toCancel;
+    synchronized (this) {
+      canceled = true;
+      toCancel = new ArrayList<>(attempts);
+    }
+    for (Attempt attempt : toCancel) {
+      attempt.connection.cancel();
+    }
+  }
+
+  private synchronized boolean isCanceled() {
+    return canceled;
+  }
+
+  /**
+   * Ends the race, canceling every attempt but {@code winner}. Losing routes are charged the time
+   * they had spent connecting so that subsequent connections prefer the winner.
+   */
+  private void finish(RealConnection winner) {
+    long now = System.nanoTime();
+    List<Attempt> losers = new ArrayList<>();
+    synchronized (this) {
+      finished = true;
+      for (Attempt attempt : attempts) {
+        if (attempt.connection != winner && attempt.failure == null) losers.add(attempt);
+      }
+    }
+
+    for (Attempt loser : losers) {
+      loser.connection.cancel();
+      closeQuietly(loser.connection.socket());
+      if (winner != null) routeDatabase.outpaced(loser.route, now - loser.launchedAtNanos);
+    }
+  }
+
+  private final class Attempt extends NamedRunnable {
+    final Route route;
+    final RealConnection connection;
+    final long launchedAtNanos = System.nanoTime();
+    RouteException failure;
+
+    Attempt(Route route) {
+      super("OkHttp Connect %s", route.socketAddress());
+      this.route = route;
+      this.connection = new RealConnection(route);
+    }
+
+    @Override protected void execute() {
+      try {
+        connection.connect(client.connectTimeoutMillis(), client.readTimeoutMillis(),
+            client.writeTimeoutMillis(), connectionSpecs, client.retryOnConnectionFailure(),
+            client.tlsSessionCache(), client.nioEngine(), client.sslContext());
+      } catch (RouteException e) {
+        failure = e;
+      }
+
+      boolean discard;
+      synchronized (ConnectionRace.this) {
+        discard = finished;
+      }
+      if (discard) {
+        // The race is over. Nobody else will close this connection.
+        closeQuietly(connection.socket());
+      } else {
+        completed.add(this);
+      }
+    }
+  }
+}
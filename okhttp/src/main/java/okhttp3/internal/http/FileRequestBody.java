@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.File;
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.internal.Util;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * A request body that transmits the content of a file. On cleartext HTTP/1.1 connections that
+ * support it, the file is sent by the kernel without being copied through user space. Otherwise,
+ * as on TLS and HTTP/2 connections, it is copied through buffers like any other body.
+ */
+public final class FileRequestBody extends RequestBody {
+  private final MediaType contentType;
+  private final File file;
+
+  public FileRequestBody(MediaType contentType, File file) {
+    if (file == null) throw new NullPointerException("content == null");
+    this.contentType = contentType;
+    this.file = file;
+  }
+
+  @Override public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override public long contentLength() {
+    return file.length();
+  }
+
+  @Override public void writeTo(BufferedSink sink) throws IOException {
+    Source source = null;
+    try {
+      source = Okio.source(file);
+      sink.writeAll(source);
+    } finally {
+      Util.closeQuietly(source);
+    }
+  }
+
+  /** Writes this body to {@code requestBodyOut} and closes it, avoiding copies if possible. */
+  public void transferTo(Sink requestBodyOut) throws IOException {
+    if (requestBodyOut instanceof Http1xStream.FixedLengthSink
+        && ((Http1xStream.FixedLengthSink) requestBodyOut).transferFrom(file)) {
+      requestBodyOut.close();
+      return;
+    }
+    BufferedSink bufferedRequestBody = Okio.buffer(requestBodyOut);
+    writeTo(bufferedRequestBody);
+    bufferedRequestBody.close();
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.IOException;
+import okhttp3.Headers;
+import okhttp3.Protocol;
+import okhttp3.internal.Internal;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Reads HTTP/1.1 status lines and header blocks by scanning the source's buffer directly, rather
+ * than reading each line as a string and then splitting it.
+ *
+ * <p>Common header names, values and reason phrases are matched against a table of constant
+ * strings without allocating. Headers are built into an array sized by counting the lines of the
+ * header block before parsing them.
+ *
+ * <p>The results, leniency and exceptions are the same as reading lines with {@link
+ * BufferedSource#readUtf8LineStrict()} and parsing them with {@link StatusLine#parse} and {@code
+ * Headers.Builder.addLenient()}.
+ */
+final class Http1xHeaderReader {
+  private static final String[] WELL_KNOWN = {
+      // Header names, canonical and lowercase.
+      "Accept-Ranges", "Access-Control-Allow-Credentials", "Access-Control-Allow-Headers",
+      "Access-Control-Allow-Methods", "Access-Control-Allow-Origin",
+      "Access-Control-Expose-Headers", "Age", "Allow", "Alt-Svc", "Cache-Control", "Connection",
+      "Content-Disposition", "Content-Encoding", "Content-Language", "Content-Length",
+      "Content-Location", "Content-Range", "Content-Security-Policy", "Content-Type", "Date",
+      "ETag", "Expires", "Keep-Alive", "Last-Modified", "Link", "Location", "P3P", "Pragma",
+      "Proxy-Authenticate", "Retry-After", "Server", "Set-Cookie", "Strict-Transport-Security",
+      "Transfer-Encoding", "Vary", "Via", "WWW-Authenticate", "Warning", "X-Content-Type-Options",
+      "X-Frame-Options", "X-Powered-By", "X-XSS-Protection",
+      "accept-ranges", "access-control-allow-origin", "age", "alt-svc", "cache-control",
+      "connection", "content-encoding", "content-length", "content-type", "date", "etag",
+      "expires", "last-modified", "location", "server", "set-cookie", "strict-transport-security",
+      "transfer-encoding", "vary", "via", "x-content-type-options", "x-frame-options",
+      // Header values.
+      "*", "0", "1; mode=block", "Accept-Encoding", "DENY", "SAMEORIGIN", "bytes", "chunked",
+      "close", "deflate", "gzip", "keep-alive", "max-age=0", "must-revalidate", "no-cache",
+      "no-store", "nosniff", "private", "public", "application/json", "text/html",
+      "text/plain", "application/json; charset=utf-8", "text/html; charset=utf-8",
+      "text/html; charset=UTF-8", "text/plain; charset=utf-8", "image/jpeg", "image/png",
+      // Reason phrases.
+      "OK", "Created", "Accepted", "No Content", "Partial Content", "Moved Permanently", "Found",
+      "See Other", "Not Modified", "Temporary Redirect", "Bad Request", "Unauthorized",
+      "Forbidden", "Not Found", "Internal Server Error", "Service Unavailable",
+  };
+
+  /** An open-addressed hash table of {@link #WELL_KNOWN}, keyed by {@link String#hashCode}. */
+  private static final String[] TABLE = new String[256];
+
+  /** The length of the longest well-known string. Longer byte ranges are never looked up. */
+  private static final int MAX_WELL_KNOWN_LENGTH;
+
+  static {
+    int maxLength = 0;
+    for (String s : WELL_KNOWN) {
+      int i = s.hashCode() & (TABLE.length - 1);
+      while (TABLE[i] != null) {
+        i = (i + 1) & (TABLE.length - 1);
+      }
+      TABLE[i] = s;
+      maxLength = Math.max(maxLength, s.length());
+    }
+    MAX_WELL_KNOWN_LENGTH = maxLength;
+  }
+
+  private Http1xHeaderReader() {
+  }
+
+  /** Reads and parses a status line like {@code HTTP/1.1 200 OK}. */
+  static StatusLine readStatusLine(BufferedSource source) throws IOException {
+    long newline = newline(source, 0);
+    Buffer buffer = source.buffer();
+    long lineLength = lineLength(buffer, 0, newline);
+
+    // The common case is "HTTP/1.x ddd" with an optional space-separated message. Anything else
+    // takes the string parser, which also reports errors.
+    if (lineLength < 12
+        || !startsWith(buffer, "HTTP/1.")
+        || buffer.getByte(8) != ' '
+        || (lineLength > 12 && buffer.getByte(12) != ' ')) {
+      return StatusLine.parse(readLine(buffer, newline));
+    }
+    byte minorVersion = buffer.getByte(7);
+    int d0 = buffer.getByte(9) - '0';
+    int d1 = buffer.getByte(10) - '0';
+    int d2 = buffer.getByte(11) - '0';
+    if ((minorVersion != '0' && minorVersion != '1')
+        || d0 < 0 || d0 > 9 || d1 < 0 || d1 > 9 || d2 < 0 || d2 > 9) {
+      return StatusLine.parse(readLine(buffer, newline));
+    }
+
+    Protocol protocol = minorVersion == '0' ? Protocol.HTTP_1_0 : Protocol.HTTP_1_1;
+    int code = d0 * 100 + d1 * 10 + d2;
+    String message = "";
+    if (lineLength > 13) {
+      buffer.skip(13);
+      message = readString(buffer, lineLength - 13);
+      buffer.skip(newline + 1 - lineLength);
+    } else {
+      buffer.skip(newline + 1);
+    }
+    return new StatusLine(protocol, code, message);
+  }
+
+  /** Reads header lines until the blank line that ends them. */
+  static Headers readHeaders(BufferedSource source) throws IOException {
+    // Find every line of the header block so the headers can be built into an exact-size array.
+    int lineCount = 0;
+    long newline;
+    for (long lineStart = 0; true; lineStart = newline + 1, lineCount++) {
+      newline = newline(source, lineStart);
+      if (lineLength(source.buffer(), lineStart, newline) == 0) break;
+    }
+
+    Buffer buffer = source.buffer();
+    String[] namesAndValues = new String[lineCount * 2];
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      readHeaderLine(buffer, namesAndValues, i);
+    }
+    buffer.skip(buffer.indexOf((byte) '\n') + 1); // The blank line.
+    return Internal.instance.newHeaders(namesAndValues);
+  }
+
+  /**
+   * Reads a line like {@code Content-Type: text/plain} into {@code namesAndValues} at {@code
+   * index}. Like {@code Headers.Builder.addLenient()}, the name is everything before the first
+   * colon after the first character, and lines without such a colon have an empty name.
+   */
+  private static void readHeaderLine(Buffer buffer, String[] namesAndValues, int index)
+      throws IOException {
+    long newline = buffer.indexOf((byte) '\n');
+    long lineLength = lineLength(buffer, 0, newline);
+
+    long colon = -1;
+    for (long i = 1; i < lineLength; i++) {
+      if (buffer.getByte(i) == ':') {
+        colon = i;
+        break;
+      }
+    }
+
+    String name = "";
+    long consumed = 0;
+    if (colon != -1) {
+      name = readString(buffer, colon);
+      buffer.skip(1);
+      consumed = colon + 1;
+    } else if (lineLength > 0 && buffer.getByte(0) == ':') {
+      // Work around empty header names and header names that start with a colon.
+      buffer.skip(1);
+      consumed = 1;
+    }
+
+    // Trim the value like String.trim(), which removes every character up to and including space.
+    long valueStart = 0;
+    long valueEnd = lineLength - consumed;
+    while (valueStart < valueEnd && (buffer.getByte(valueStart) & 0xff) <= ' ') valueStart++;
+    while (valueEnd > valueStart && (buffer.getByte(valueEnd - 1) & 0xff) <= ' ') valueEnd--;
+    buffer.skip(valueStart);
+    String value = readString(buffer, valueEnd - valueStart);
+    buffer.skip(newline + 1 - consumed - valueEnd);
+
+    namesAndValues[index] = name;
+    namesAndValues[index + 1] = value;
+  }
+
+  /**
+   * Returns the offset of the first newline at or after {@code fromIndex}, buffering more of
+   * {@code source} as necessary.
+   */
+  private static long newline(BufferedSource source, long fromIndex) throws IOException {
+    long newline = source.indexOf((byte) '\n', fromIndex);
+    if (newline == -1) {
+      // Complete lines precede the truncated one. Consume them and let Okio report the failure.
+      source.skip(fromIndex);
+      source.readUtf8LineStrict(); // Throws EOFException.
+      throw new AssertionError();
+    }
+    return newline;
+  }
+
+  /** Returns the length of the line ending at {@code newline}, excluding a carriage return. */
+  private static long lineLength(Buffer buffer, long lineStart, long newline) {
+    return newline > lineStart && buffer.getByte(newline - 1) == '\r'
+        ? newline - 1 - lineStart
+        : newline - lineStart;
+  }
+
+  /** Reads the line ending at {@code newline} like {@link BufferedSource#readUtf8LineStrict()}. */
+  private static String readLine(Buffer buffer, long newline) throws IOException {
+    long lineLength = lineLength(buffer, 0, newline);
+    String result = buffer.readUtf8(lineLength);
+    buffer.skip(newline + 1 - lineLength);
+    return result;
+  }
+
+  /** Reads {@code byteCount} bytes as a well-known string if possible, or as a new string. */
+  private static String readString(Buffer buffer, long byteCount) throws IOException {
+    if (byteCount == 0) return "";
+    if (byteCount <= MAX_WELL_KNOWN_LENGTH) {
+      int hash = 0;
+      for (long i = 0; i < byteCount; i++) {
+        hash = 31 * hash + buffer.getByte(i);
+      }
+      for (int i = hash & (TABLE.length - 1); TABLE[i] != null; i = (i + 1) & (TABLE.length - 1)) {
+        if (TABLE[i].hashCode() == hash && matches(buffer, TABLE[i], byteCount)) {
+          buffer.skip(byteCount);
+          return TABLE[i];
+        }
+      }
+    }
+    return buffer.readUtf8(byteCount);
+  }
+
+  private static boolean matches(Buffer buffer, String s, long byteCount) {
+    if (s.length() != byteCount) return false;
+    for (int i = 0; i < byteCount; i++) {
+      if (buffer.getByte(i) != s.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private static boolean startsWith(Buffer buffer, String prefix) {
+    return matches(buffer, prefix, prefix.length());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Orders the streams that share an HTTP/1.1 connection. Requests are written back to back, and
+ * because the server answers them in the same order, each stream waits for the streams ahead of it
+ * to finish reading their responses before it reads its own.
+ *
+ * <p>Only requests without a body are pipelined, so each request is written, flushed and queued in
+ * one step while holding the lock on the connection's sink. Writes don't hold this pipeline's lock,
+ * so a stalled socket never blocks callers that only need to inspect or shut down the queue.
+ *
+ * <p>When the connection can't carry new streams, as after a failure or a {@code Connection:
+ * close} response, the stream currently reading keeps its response and every stream queued behind
+ * it fails. Those streams' calls recover by retrying on another connection.
+ */
+public final class Http1xPipeline {
+  /** Streams whose requests have been written, in the order their responses will arrive. */
+  private final Deque<Http1xStream> streams = new ArrayDeque<>();
+  private boolean shutdown;
+
+  /** Queues {@code stream}, whose request the caller is about to write. */
+  synchronized void enqueue(Http1xStream stream) throws IOException {
+    if (shutdown) throw new IOException("pipelined connection shut down");
+    streams.addLast(stream);
+  }
+
+  /**
+   * Blocks until the responses before {@code stream}'s have been read. Throws if that doesn't
+   * happen within {@code timeoutNanos}, or if the connection fails first.
+   */
+  synchronized void awaitTurn(Http1xStream stream, long timeoutNanos) throws IOException {
+    long deadlineNanos = timeoutNanos != 0 ? System.nanoTime() + timeoutNanos : 0;
+    while (streams.peekFirst() != stream) {
+      if (!streams.contains(stream)) {
+        throw new IOException("pipelined request failed before its response");
+      }
+      try {
+        if (deadlineNanos == 0) {
+          wait();
+        } else {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) throw new SocketTimeoutException("timeout");
+          long remainingMillis = remainingNanos / 1000000L;
+          wait(remainingMillis, (int) (remainingNanos - remainingMillis * 1000000L));
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  /**
+   * Removes {@code stream} after it has read its response, letting the next stream read. If the
+   * connection can't be reused because {@code stream} abandoned its response part way, the unread
+   * bytes belong to no other stream, so every stream queued behind it fails instead.
+   */
+  synchronized void finished(Http1xStream stream, boolean reuseConnection) {
+    if (!reuseConnection) {
+      shutdown = true;
+      streams.clear();
+      notifyAll();
+    } else if (streams.remove(stream)) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Fails every stream waiting behind the stream that is currently reading, and refuses new
+   * streams. Call this when the connection won't carry any more exchanges.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    Http1xStream current = streams.pollFirst();
+    streams.clear();
+    if (current != null) streams.addFirst(current);
+    notifyAll();
+  }
+}
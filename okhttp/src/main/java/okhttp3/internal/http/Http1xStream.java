@@ -17,16 +17,21 @@
 package okhttp3.internal.http;
 
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import okhttp3.Headers;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import okhttp3.internal.Internal;
 import okhttp3.internal.Util;
+import okhttp3.internal.io.FileChannelOutputStream;
 import okhttp3.internal.io.RealConnection;
 import okio.Buffer;
 import okio.BufferedSink;
@@ -74,15 +79,21 @@ public final class Http1xStream implements HttpStream {
   private final StreamAllocation streamAllocation;
   private final BufferedSource source;
   private final BufferedSink sink;
+  /** Orders this stream among others sharing its connection, or null if it isn't pipelined. */
+  private final Http1xPipeline pipeline;
   private HttpEngine httpEngine;
   private int state = STATE_IDLE;
 
-  
-  
   public Http1xStream(StreamAllocation streamAllocation, BufferedSource source, BufferedSink sink) {
+    this(streamAllocation, source, sink, null);
+  }
+
+  public Http1xStream(StreamAllocation streamAllocation, BufferedSource source, BufferedSink sink,
+      Http1xPipeline pipeline) {
     this.streamAllocation = streamAllocation;
     this.source = source;
     this.sink = sink;
+    this.pipeline = pipeline;
   }
 
   @Override public void setHttpEngine(HttpEngine httpEngine) {
@@ -123,16 +134,29 @@ public final class Http1xStream implements HttpStream {
     httpEngine.writingRequestHeaders();
     String requestLine = RequestLine.get(
         request, httpEngine.getConnection().route().proxy().type());
-    writeRequest(request.headers(), requestLine);
+    if (pipeline != null) {
+      // Pipelined requests have no body. Write each one completely before the next.
+      synchronized (sink) {
+        pipeline.enqueue(this);
+        writeRequest(request.headers(), requestLine);
+        sink.flush();
+      }
+    } else {
+      writeRequest(request.headers(), requestLine);
+    }
   }
 
   @Override public Response.Builder readResponseHeaders() throws IOException {
+    if (pipeline != null) pipeline.awaitTurn(this, source.timeout().timeoutNanos());
     return readResponse();
   }
 
   @Override public ResponseBody openResponseBody(Response response) throws IOException {
     Source source = getTransferStream(response);
-    return new RealResponseBody(response.headers(), Okio.buffer(source));
+    FixedLengthSource fileSource = source instanceof FixedLengthSource
+        ? (FixedLengthSource) source
+        : null;
+    return new RealResponseBody(response.headers(), Okio.buffer(source), fileSource);
   }
 
   private Source getTransferStream(Response response) throws IOException {
@@ -161,6 +185,7 @@ public final class Http1xStream implements HttpStream {
   }
 
   @Override public void finishRequest() throws IOException {
+    if (pipeline != null) return; // Already flushed by writeRequestHeaders().
     sink.flush();
   }
 
@@ -186,7 +211,7 @@ public final class Http1xStream implements HttpStream {
     long t1 = System.currentTimeMillis();
     try {
       while (true) {
-        StatusLine statusLine = StatusLine.parse(source.readUtf8LineStrict());
+        StatusLine statusLine = Http1xHeaderReader.readStatusLine(source);
         //logger.log(Level.INFO,"statusLine: "+statusLine.toString());
         Response.Builder responseBuilder = new Response.Builder()
             .protocol(statusLine.protocol)
@@ -212,12 +237,7 @@ public final class Http1xStream implements HttpStream {
 
   /** Reads headers or trailers. */
   public Headers readHeaders() throws IOException {
-    Headers.Builder headers = new Headers.Builder();
-    // parse the result headers until the first blank line
-    for (String line; (line = source.readUtf8LineStrict()).length() != 0; ) {
-      Internal.instance.addLenient(headers, line);
-    }
-    return headers.build();
+    return Http1xHeaderReader.readHeaders(source);
   }
 
   public Sink newChunkedSink() {
@@ -271,7 +291,7 @@ public final class Http1xStream implements HttpStream {
   }
 
   /** An HTTP body with a fixed length known in advance. */
-  private final class FixedLengthSink implements Sink {
+  final class FixedLengthSink implements Sink {
     private final ForwardingTimeout timeout = new ForwardingTimeout(sink.timeout());
     private boolean closed;
     private long bytesRemaining;
@@ -295,6 +315,27 @@ public final class Http1xStream implements HttpStream {
       bytesRemaining -= byteCount;
     }
 
+    /**
+     * Writes the rest of this body from the start of {@code file} directly to the socket, without
+     * copying it through user space buffers. Returns false, writing nothing, if the connection
+     * doesn't permit that.
+     */
+    boolean transferFrom(File file) throws IOException {
+      if (closed) throw new IllegalStateException("closed");
+      RealConnection connection = streamAllocation != null ? streamAllocation.connection() : null;
+      if (connection == null || !connection.supportsFileTransfer()) return false;
+
+      sink.flush(); // The request headers precede the file.
+      FileInputStream in = new FileInputStream(file);
+      try {
+        connection.transferFrom(in.getChannel(), 0, bytesRemaining);
+      } finally {
+        in.close();
+      }
+      bytesRemaining = 0;
+      return true;
+    }
+
     @Override public void flush() throws IOException {
       if (closed) return; // Don't throw; this stream might have been closed on the caller's behalf.
       sink.flush();
@@ -364,6 +405,7 @@ public final class Http1xStream implements HttpStream {
       detachTimeout(timeout);
 
       state = STATE_CLOSED;
+      if (pipeline != null) pipeline.finished(Http1xStream.this, reuseConnection);
       if (streamAllocation != null) {
         streamAllocation.streamFinished(!reuseConnection, Http1xStream.this);
       }
@@ -371,7 +413,7 @@ public final class Http1xStream implements HttpStream {
   }
 
   /** An HTTP body with a fixed length specified in advance. */
-  private class FixedLengthSource extends AbstractSource {
+  class FixedLengthSource extends AbstractSource {
     private long bytesRemaining;
 
     public FixedLengthSource(long length) throws IOException {
@@ -399,6 +441,38 @@ public final class Http1xStream implements HttpStream {
       return read;
     }
 
+    /**
+     * Writes the rest of this body to {@code file}, starting at {@code position}, by reading the
+     * connection's socket channel into {@code buffer}, a direct buffer. Returns the number of bytes
+     * written, or -1 if the connection has no channel to read.
+     */
+    long transferTo(FileChannel file, long position, ByteBuffer buffer, AtomicLong written,
+        AtomicLong progress) throws IOException {
+      if (closed) throw new IllegalStateException("closed");
+      RealConnection connection = streamAllocation != null ? streamAllocation.connection() : null;
+      if (connection == null || !connection.supportsFileTransfer()) return -1;
+
+      // Bytes that were read along with the response headers precede those still in the socket.
+      FileChannelOutputStream out =
+          new FileChannelOutputStream(file, position, buffer, written, progress);
+      bytesRemaining -= out.write(source.buffer(), bytesRemaining);
+      out.flush();
+      long result = out.position() - position;
+
+      if (bytesRemaining > 0) {
+        long transferred = connection.transferTo(
+            file, position + result, bytesRemaining, buffer, written, progress);
+        result += transferred;
+        bytesRemaining -= transferred;
+        if (bytesRemaining > 0) {
+          endOfInput(false); // The server didn't supply the promised content length.
+          throw new ProtocolException("unexpected end of stream");
+        }
+      }
+      endOfInput(true);
+      return result;
+    }
+
     @Override public void close() throws IOException {
       if (closed) return;
 
@@ -194,7 +194,9 @@ public final class HttpEngine {
 		this.forWebSocket = forWebSocket;
 		this.streamAllocation = streamAllocation != null ? streamAllocation
 				: new StreamAllocation(client.connectionPool(), createAddress(
-						client, request));
+						client, request), Internal.instance.connectionGroup(
+						client, request.url().host()),
+						Internal.instance.connectionHints(client));
 		this.requestBodyOut = requestBodyOut;
 		this.priorResponse = priorResponse;
 	}
@@ -319,10 +321,15 @@ public final class HttpEngine {
 			IOException {
 		boolean doExtensiveHealthChecks = !networkRequest.method()
 				.equals("GET");
-		return streamAllocation.newStream(client.connectTimeoutMillis(),
-				client.readTimeoutMillis(), client.writeTimeoutMillis(),
-				client.retryOnConnectionFailure(), doExtensiveHealthChecks,
-				userRequest);
+		// Only pipeline GET requests: they are safe to retry, have no body,
+		// and skip the extensive health check, which would read a socket that
+		// other pipelined calls are reading their responses from.
+		int maxPipelinedCalls = !forWebSocket
+				&& networkRequest.method().equals("GET")
+				? client.maxPipelinedCalls(networkRequest.url().host())
+				: 1;
+		return streamAllocation.newStream(client, maxPipelinedCalls,
+				doExtensiveHealthChecks, userRequest);
 	}
 
 	private static Response stripBody(Response response) {
@@ -791,9 +798,15 @@ public final class HttpEngine {
 			if (permitsRequestBody(request) && request.body() != null) {
 				Sink requestBodyOut = httpStream.createRequestBody(request,
 						request.body().contentLength());
-				BufferedSink bufferedRequestBody = Okio.buffer(requestBodyOut);
-				request.body().writeTo(bufferedRequestBody);
-				bufferedRequestBody.close();
+				if (request.body() instanceof FileRequestBody) {
+					FileRequestBody fileBody = (FileRequestBody) request.body();
+					fileBody.transferTo(requestBodyOut);
+				} else {
+					BufferedSink bufferedRequestBody =
+							Okio.buffer(requestBodyOut);
+					request.body().writeTo(bufferedRequestBody);
+					bufferedRequestBody.close();
+				}
 			}
 			long t1 = System.currentTimeMillis();
 			Response response = readNetworkResponse();
@@ -1103,7 +1116,8 @@ public final class HttpEngine {
 		}
 
 		return new Address(request.url().host(), request.url().port(),
-				client.dns(), client.socketFactory(), sslSocketFactory,
+				client.dns(), client.socketFactory(),
+				client.socketOptions(request.url().host()), sslSocketFactory,
 				hostnameVerifier, certificatePinner,
 				client.proxyAuthenticator(), client.proxy(),
 				client.protocols(), client.connectionSpecs(),
@@ -15,6 +15,10 @@
  */
 package okhttp3.internal.http;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.ResponseBody;
@@ -23,10 +27,17 @@ import okio.BufferedSource;
 public final class RealResponseBody extends ResponseBody {
   private final Headers headers;
   private final BufferedSource source;
+  private final Http1xStream.FixedLengthSource fileSource;
 
   public RealResponseBody(Headers headers, BufferedSource source) {
+    this(headers, source, null);
+  }
+
+  RealResponseBody(Headers headers, BufferedSource source,
+      Http1xStream.FixedLengthSource fileSource) {
     this.headers = headers;
     this.source = source;
+    this.fileSource = fileSource;
   }
 
   @Override public MediaType contentType() {
@@ -41,4 +52,16 @@ public final class RealResponseBody extends ResponseBody {
   @Override public BufferedSource source() {
     return source;
   }
+
+  /**
+   * Writes the rest of this body to {@code file} at {@code position} straight from the socket,
+   * staging it in {@code buffer}, a direct buffer. Callers must first consume the bytes in {@link
+   * #source()}'s buffer. Returns the number of bytes written, or -1 if this body isn't read from a
+   * socket channel.
+   */
+  public long transferTo(FileChannel file, long position, ByteBuffer buffer, AtomicLong written,
+      AtomicLong progress) throws IOException {
+    if (fileSource == null) return -1;
+    return fileSource.transferTo(file, position, buffer, written, progress);
+  }
 }
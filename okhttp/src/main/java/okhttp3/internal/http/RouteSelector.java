@@ -23,23 +23,35 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.NoSuchElementException;
 import java.util.logging.Level;
 
 import okhttp3.Address;
 import okhttp3.HttpUrl;
 import okhttp3.Route;
+import okhttp3.internal.InternalConnectionHints;
 import okhttp3.internal.RouteDatabase;
 import static okhttp3.internal.Internal.logger;
 
 /**
  * Selects routes to connect to an origin server. Each connection requires a choice of proxy server,
  * IP address, and TLS mode. Connections may also be recycled.
+ *
+ * <p>For each proxy, IP addresses are attempted in order of their expected connect time according
+ * to the route database. Addresses without history are attempted first so that they're explored;
+ * ties keep the order returned by DNS.
+ *
+ * <p>If the selector has {@linkplain InternalConnectionHints connection hints}, addresses
+ * remembered by a previous process are used in place of a DNS lookup. If none of those addresses
+ * work the host is resolved again and any new addresses are attempted.
  */
 public final class RouteSelector {
   private final Address address;
   private final RouteDatabase routeDatabase;
+  private final InternalConnectionHints hints;
 
   /* The most recently attempted route. */
   private Proxy lastProxy;
@@ -53,12 +65,26 @@ public final class RouteSelector {
   private List<InetSocketAddress> inetSocketAddresses = Collections.emptyList();
   private int nextInetSocketAddressIndex;
 
+  /* Non-null if the current socket addresses are hints that haven't been confirmed by DNS. */
+  private Proxy hintedProxy;
+
   /* State for negotiating failed routes */
   private final List<Route> postponedRoutes = new ArrayList<>();
 
   public RouteSelector(Address address, RouteDatabase routeDatabase) {
+    this(address, routeDatabase, null);
+  }
+
+  /**
+   * Creates a selector that attempts addresses hinted by {@code hints} before resolving them, and
+   * records what it resolves in them. The hints are ignored unless they remember the results of
+   * {@code address}'s DNS.
+   */
+  public RouteSelector(
+      Address address, RouteDatabase routeDatabase, InternalConnectionHints hints) {
     this.address = address;
     this.routeDatabase = routeDatabase;
+    this.hints = hints != null && hints.dns() == address.dns() ? hints : null;
 
     resetNextProxy(address.url(), address.proxy());
   }
@@ -68,12 +94,25 @@ public final class RouteSelector {
    */
   public boolean hasNext() {
     return hasNextInetSocketAddress()
+        || hintedProxy != null
         || hasNextProxy()
         || hasNextPostponed();
   }
 
   public Route next() throws IOException {
     // Compute the next route to attempt.
+    if (!hasNextInetSocketAddress() && hintedProxy != null) {
+      // Every hinted address was attempted. Ask DNS in case the hints are out of date.
+      Set<InetSocketAddress> attempted = new HashSet<>(inetSocketAddresses);
+      Proxy proxy = hintedProxy;
+      hintedProxy = null;
+      resetNextInetSocketAddress(proxy, false);
+      inetSocketAddresses.removeAll(attempted);
+      if (!hasNext()) {
+        throw new SocketException("No route to " + address.url().host()
+            + "; exhausted hinted addresses: " + attempted);
+      }
+    }
     if (!hasNextInetSocketAddress()) {
       if (!hasNextProxy()) {
         if (!hasNextPostponed()) {
@@ -95,6 +134,26 @@ public final class RouteSelector {
     return route;
   }
 
+  /**
+   * Returns the next route to attempt, preferring one whose IP address family (IPv4 or IPv6)
+   * differs from {@code previous}. This is used when racing routes so that a broken address family
+   * doesn't delay every attempt.
+   */
+  public Route nextAlternatingFamily(Route previous) throws IOException {
+    if (previous != null && previous.proxy().equals(lastProxy)) {
+      InetAddress previousAddress = previous.socketAddress().getAddress();
+      for (int i = nextInetSocketAddressIndex; i < inetSocketAddresses.size(); i++) {
+        InetAddress candidate = inetSocketAddresses.get(i).getAddress();
+        if (previousAddress == null || candidate == null) break;
+        if (candidate.getClass() != previousAddress.getClass()) {
+          inetSocketAddresses.add(nextInetSocketAddressIndex, inetSocketAddresses.remove(i));
+          break;
+        }
+      }
+    }
+    return next();
+  }
+
   /**
    * Clients should invoke this method when they encounter a connectivity failure on a connection
    * returned by this route selector.
@@ -107,6 +166,7 @@ public final class RouteSelector {
     }
 
     routeDatabase.failed(failedRoute);
+    if (hints != null) hints.connectFailed(failedRoute);
   }
 
   /** Prepares the proxy servers to try. */
@@ -140,7 +200,7 @@ public final class RouteSelector {
     }
     Proxy result = proxies.get(nextProxyIndex++);
     long t1 = System.currentTimeMillis();
-    resetNextInetSocketAddress(result);
+    resetNextInetSocketAddress(result, true);
     long t2 = System.currentTimeMillis();
     logger.log(Level.INFO, 
     		String.format("DNS/Proxy lookup/Select delay %d", t2-t1));
@@ -148,9 +208,10 @@ public final class RouteSelector {
   }
 
   /** Prepares the socket addresses to attempt for the current proxy or host. */
-  private void resetNextInetSocketAddress(Proxy proxy) throws IOException {
+  private void resetNextInetSocketAddress(Proxy proxy, boolean useHints) throws IOException {
     // Clear the addresses. Necessary if getAllByName() below throws!
     inetSocketAddresses = new ArrayList<>();
+    hintedProxy = null;
 
     String socketHost;
     int socketPort;
@@ -179,10 +240,27 @@ public final class RouteSelector {
       // Try each address for best behavior in mixed IPv4/IPv6 environments.
     	long t1 = System.currentTimeMillis();
     	//OkHTTP will call inetAddress::getAllByName to get IP resutls
-      List<InetAddress> addresses = address.dns().lookup(socketHost);
+      List<InetAddress> addresses = useHints && hints != null && proxy.type() == Proxy.Type.DIRECT
+          ? hints.hintedAddresses(socketHost)
+          : null;
+      if (addresses != null) {
+        hintedProxy = proxy;
+      } else {
+        addresses = address.dns().lookup(socketHost);
+        if (hints != null && proxy.type() == Proxy.Type.DIRECT) {
+          hints.dnsResolved(socketHost, addresses);
+        }
+      }
+      List<RankedAddress> rankedAddresses = new ArrayList<>(addresses.size());
       for (int i = 0, size = addresses.size(); i < size; i++) {
-        InetAddress inetAddress = addresses.get(i);
-        inetSocketAddresses.add(new InetSocketAddress(inetAddress, socketPort));
+        InetSocketAddress socketAddress = new InetSocketAddress(addresses.get(i), socketPort);
+        long expectedConnectNanos = routeDatabase.expectedConnectNanos(
+            new Route(address, proxy, socketAddress));
+        rankedAddresses.add(new RankedAddress(socketAddress, expectedConnectNanos));
+      }
+      Collections.sort(rankedAddresses); // Stable, so ties keep their DNS order.
+      for (int i = 0, size = rankedAddresses.size(); i < size; i++) {
+        inetSocketAddresses.add(rankedAddresses.get(i).socketAddress);
       }
         long t2 = System.currentTimeMillis();
         logger.log(Level.INFO, 
@@ -233,4 +311,21 @@ public final class RouteSelector {
   private Route nextPostponed() {
     return postponedRoutes.remove(0);
   }
+
+  /** A socket address and how long a connection to it is expected to take. */
+  private static final class RankedAddress implements Comparable<RankedAddress> {
+    final InetSocketAddress socketAddress;
+    final long expectedConnectNanos;
+
+    RankedAddress(InetSocketAddress socketAddress, long expectedConnectNanos) {
+      this.socketAddress = socketAddress;
+      this.expectedConnectNanos = expectedConnectNanos;
+    }
+
+    @Override public int compareTo(RankedAddress other) {
+      return expectedConnectNanos < other.expectedConnectNanos ? -1
+          : expectedConnectNanos > other.expectedConnectNanos ? 1
+          : 0;
+    }
+  }
 }
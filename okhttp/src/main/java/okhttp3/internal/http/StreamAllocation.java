@@ -29,9 +29,13 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 
 import okhttp3.Address;
 import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Route;
+import okhttp3.TlsSessionCache;
 import okhttp3.internal.Internal;
+import okhttp3.internal.InternalConnectionHints;
 import okhttp3.internal.RouteDatabase;
 import okhttp3.internal.Util;
 import okhttp3.internal.io.RealConnection;
@@ -80,6 +84,8 @@ public final class StreamAllocation {
   public final Address address;
   private Route route;
   private final ConnectionPool connectionPool;
+  private final ConnectionGroup connectionGroup;
+  private final InternalConnectionHints hints;
   
   /*NetProphet field*/
   private Request request;
@@ -96,23 +102,54 @@ public final class StreamAllocation {
   private boolean released;
   private boolean canceled;
   private HttpStream stream;
+  private ConnectionRace race;
+  /** How many calls may share an HTTP/1.1 connection with this one's current stream. */
+  private int maxPipelinedCalls = 1;
 
   public StreamAllocation(ConnectionPool connectionPool, Address address) {
+    this(connectionPool, address, null);
+  }
+
+  /**
+   * Creates an allocation whose streams are spread over the connections of {@code
+   * connectionGroup}, or placed on the first connection with room if it is null.
+   */
+  public StreamAllocation(
+      ConnectionPool connectionPool, Address address, ConnectionGroup connectionGroup) {
+    this(connectionPool, address, connectionGroup, null);
+  }
+
+  /**
+   * Creates an allocation that uses {@code hints} to select routes and records the connections it
+   * makes in them. The hints are ignored unless they remember the results of {@code address}'s DNS.
+   */
+  public StreamAllocation(ConnectionPool connectionPool, Address address,
+      ConnectionGroup connectionGroup, InternalConnectionHints hints) {
     this.connectionPool = connectionPool;
     this.address = address;
-    this.routeSelector = new RouteSelector(address, routeDatabase());
+    this.connectionGroup = connectionGroup;
+    this.hints = hints != null && hints.dns() == address.dns() ? hints : null;
+    this.routeSelector = new RouteSelector(address, routeDatabase(), this.hints);
     /*NetProphet Initialization*/
     this.request = null;
   }
 
-  public HttpStream newStream(int connectTimeout, int readTimeout, int writeTimeout,
-      boolean connectionRetryEnabled, boolean doExtensiveHealthChecks, Request req)
-      throws RouteException, IOException {
+  /**
+   * Returns a stream on a connection made with the timeouts, retry policy and TLS session cache of
+   * {@code client}. Up to {@code maxPipelinedCalls} calls may share the stream's HTTP/1.1
+   * connection.
+   */
+  public HttpStream newStream(OkHttpClient client, int maxPipelinedCalls,
+      boolean doExtensiveHealthChecks, Request req) throws RouteException, IOException {
+    int readTimeout = client.readTimeoutMillis();
+    int writeTimeout = client.writeTimeoutMillis();
     try {
     	this.request = req;
-    	
-      RealConnection resultConnection = findHealthyConnection(connectTimeout, readTimeout,
-          writeTimeout, connectionRetryEnabled, doExtensiveHealthChecks);
+      synchronized (connectionPool) {
+        this.maxPipelinedCalls = maxPipelinedCalls;
+      }
+
+      RealConnection resultConnection = findHealthyConnection(client, doExtensiveHealthChecks);
 
       HttpStream resultStream;
       if (resultConnection.framedConnection != null) {
@@ -121,7 +158,15 @@ public final class StreamAllocation {
         resultConnection.socket().setSoTimeout(readTimeout);
         resultConnection.source.timeout().timeout(readTimeout, MILLISECONDS);
         resultConnection.sink.timeout().timeout(writeTimeout, MILLISECONDS);
-        resultStream = new Http1xStream(this, resultConnection.source, resultConnection.sink);
+        Http1xPipeline pipeline = null;
+        if (maxPipelinedCalls > 1) {
+          synchronized (connectionPool) {
+            if (resultConnection.pipeline == null) resultConnection.pipeline = new Http1xPipeline();
+            pipeline = resultConnection.pipeline;
+          }
+        }
+        resultStream = new Http1xStream(
+            this, resultConnection.source, resultConnection.sink, pipeline);
       }
 
       synchronized (connectionPool) {
@@ -137,12 +182,10 @@ public final class StreamAllocation {
    * Finds a connection and returns it if it is healthy. If it is unhealthy the process is repeated
    * until a healthy connection is found.
    */
-  private RealConnection findHealthyConnection(int connectTimeout, int readTimeout,
-      int writeTimeout, boolean connectionRetryEnabled, boolean doExtensiveHealthChecks)
-      throws IOException, RouteException {
+  private RealConnection findHealthyConnection(OkHttpClient client,
+      boolean doExtensiveHealthChecks) throws IOException, RouteException {
     while (true) {
-      RealConnection candidate = findConnection(connectTimeout, readTimeout, writeTimeout,
-          connectionRetryEnabled);
+      RealConnection candidate = findConnection(client);
 
       // If this is a brand new connection, we can skip the extensive health checks.
       synchronized (connectionPool) {
@@ -162,39 +205,73 @@ public final class StreamAllocation {
 
   /**
    * Returns a connection to host a new stream. This prefers the existing connection if it exists,
-   * then the pool, finally building a new connection.
+   * then the pool, finally building a new connection. If {@code client} has a positive connection
+   * attempt delay, new connections race the address's routes. If the hints remember the origin
+   * negotiating HTTP/2 or SPDY, this waits for a connection that's being made to it before building
+   * another.
    */
-  private RealConnection findConnection(int connectTimeout, int readTimeout, int writeTimeout,
-      boolean connectionRetryEnabled) throws IOException, RouteException {
+  private RealConnection findConnection(OkHttpClient client) throws IOException, RouteException {
+    int connectTimeout = client.connectTimeoutMillis();
+    TlsSessionCache tlsSessionCache = client.tlsSessionCache();
     Route selectedRoute;
-    synchronized (connectionPool) {
-      if (released) throw new IllegalStateException("released");
-      if (stream != null) throw new IllegalStateException("stream != null");
-      if (canceled) throw new IOException("Canceled");
-
-      // For the first time, this.connection equals to null!
-      RealConnection allocatedConnection = this.connection;
-      if (allocatedConnection != null && !allocatedConnection.noNewStreams) {
-        return allocatedConnection;
-      }
+    long waitDeadlineNanos = connectTimeout != 0
+        ? System.nanoTime() + MILLISECONDS.toNanos(connectTimeout)
+        : 0L;
+    boolean waitTimedOut = false;
+    boolean multiplexedHint = hints != null && isMultiplexed(hints.protocol(address.url()));
+    while (true) {
+      long groupGeneration = 0L;
+      RealConnection connectingConnection = null;
+      synchronized (connectionPool) {
+        if (released) throw new IllegalStateException("released");
+        if (stream != null) throw new IllegalStateException("stream != null");
+        if (canceled) throw new IOException("Canceled");
+
+        // For the first time, this.connection equals to null!
+        RealConnection allocatedConnection = this.connection;
+        if (allocatedConnection != null && !allocatedConnection.noNewStreams) {
+          if (allocatedConnection.allocations.size() <= allocatedConnection.allocationLimit(this)) {
+            return allocatedConnection;
+          }
+          // Other calls are pipelined on this connection but this stream can't be. Find another.
+          release(allocatedConnection);
+          this.connection = null;
+        }
 
-      // Attempt to get a connection from the pool.
-      long t1 = System.currentTimeMillis();
-      long t2 = 0;
-      RealConnection pooledConnection = Internal.instance.get(connectionPool, address, this);
-      if (pooledConnection != null) {
-        this.connection = pooledConnection;
+        // Attempt to get a connection from the pool.
+        long t1 = System.currentTimeMillis();
+        long t2 = 0;
+        RealConnection pooledConnection = Internal.instance.get(connectionPool, address, this);
+        if (pooledConnection != null) {
+          this.connection = pooledConnection;
+          t2 = System.currentTimeMillis();
+          logger.log(Level.INFO, 
+          		String.format("findConnection:   1. searching pool: %d", t2-t1));
+          request.getRequestTimingANP().setConnSetupEndTimeANP(0);
+          return pooledConnection;
+        }
         t2 = System.currentTimeMillis();
         logger.log(Level.INFO, 
         		String.format("findConnection:   1. searching pool: %d", t2-t1));
-        request.getRequestTimingANP().setConnSetupEndTimeANP(0);
-        return pooledConnection;
-      }
-      t2 = System.currentTimeMillis();
-      logger.log(Level.INFO, 
-      		String.format("findConnection:   1. searching pool: %d", t2-t1));
       
-      selectedRoute = route;
+        // The origin multiplexed its last connection. Rather than connect in parallel, share the
+        // connection another call is making if it negotiates the same protocol again.
+        if (multiplexedHint && !waitTimedOut) {
+          connectingConnection = Internal.instance.connecting(connectionPool, address);
+        }
+        if (connectingConnection == null) {
+          if (waitTimedOut || !connectionGroupIsFull()) {
+            selectedRoute = route;
+            break;
+          }
+          groupGeneration = connectionGroup.generation();
+        }
+      }
+      // Wait for a connection to be made or a stream to finish, then look again. On timeout connect
+      // anyway, exceeding the group's maximum rather than failing the call.
+      waitTimedOut = connectingConnection != null
+          ? !connectingConnection.awaitConnectFinished(waitDeadlineNanos)
+          : !connectionGroup.await(groupGeneration, waitDeadlineNanos);
     }
 
     if (selectedRoute == null) {
@@ -211,21 +288,41 @@ public final class StreamAllocation {
     }
     long t3 = System.currentTimeMillis();
     request.getRequestTimingANP().setConnSetupStartTimeANP(t3);
-    RealConnection newConnection = new RealConnection(selectedRoute);
-    acquire(newConnection);
+    RealConnection newConnection;
+    if (client.connectionAttemptDelayMillis() > 0 && routeSelector.hasNext()) {
+      newConnection = raceConnections(selectedRoute, client);
+    } else {
+      newConnection = new RealConnection(selectedRoute);
+      acquire(newConnection);
 
-    synchronized (connectionPool) {
-      Internal.instance.put(connectionPool, newConnection);
-      this.connection = newConnection;
-      if (canceled) throw new IOException("Canceled");
+      synchronized (connectionPool) {
+        Internal.instance.put(connectionPool, newConnection);
+        this.connection = newConnection;
+        if (canceled) throw new IOException("Canceled");
+      }
+
+      newConnection.connect(connectTimeout, client.readTimeoutMillis(),
+          client.writeTimeoutMillis(), address.connectionSpecs(),
+          client.retryOnConnectionFailure(), tlsSessionCache, client.nioEngine(),
+          client.sslContext());
+      // Calls waiting for the group may now share this connection.
+      if (connectionGroup != null) connectionGroup.signal();
     }
-    
-    newConnection.connect(connectTimeout, readTimeout, writeTimeout, address.connectionSpecs(),
-        connectionRetryEnabled);
-    routeDatabase().connected(newConnection.route());
+    routeDatabase().connected(newConnection.route(), newConnection.socketConnectNanos());
+    if (hints != null) hints.connected(newConnection.route(), newConnection.protocol());
     long t4 = System.currentTimeMillis();
     if(newConnection.route().getHandshakeTimeANP() != 0)
     	request.getRequestTimingANP().setHandshakeTimeANP(newConnection.route().getHandshakeTimeANP());
+    if (newConnection.handshake() != null) {
+      Request.RequestTimingANP timing = request.getRequestTimingANP();
+      timing.setTlsConnSetupStartTimeANP(newConnection.route().getTlsConnSetupStartTimeANP());
+      timing.setTlsConnSetupEndTimeANP(newConnection.route().getTlsConnSetupEndTimeANP());
+      timing.setTlsResumedANP(newConnection.handshake().resumed());
+      if (tlsSessionCache != null) {
+        timing.setResumedHandshakeCountANP(tlsSessionCache.resumedHandshakeCount());
+        timing.setFullHandshakeCountANP(tlsSessionCache.fullHandshakeCount());
+      }
+    }
     request.getRequestTimingANP().setConnSetupEndTimeANP(t4);
     logger.log(Level.INFO, 
     		String.format("findConnection:   2. create new connection: %d", t4-t3));
@@ -233,6 +330,57 @@ public final class StreamAllocation {
     return newConnection;
   }
 
+  private static boolean isMultiplexed(Protocol protocol) {
+    return protocol == Protocol.HTTP_2 || protocol == Protocol.SPDY_3;
+  }
+
+  /**
+   * Returns true if this allocation's connection group has its maximum number of connections. If
+   * none of them had room for this allocation's stream, the call waits for one to finish.
+   */
+  private boolean connectionGroupIsFull() {
+    assert (Thread.holdsLock(connectionPool));
+    return connectionGroup != null
+        && Internal.instance.connectionGroupSize(connectionPool, address)
+        >= connectionGroup.maxConnections;
+  }
+
+  /**
+   * Races connections to {@code firstRoute} and the routes that follow it. Returns the winning
+   * connection, which is acquired by this allocation and added to the pool.
+   */
+  private RealConnection raceConnections(Route firstRoute, OkHttpClient client)
+      throws IOException, RouteException {
+    ConnectionRace race = new ConnectionRace(
+        routeSelector, routeDatabase(), address.connectionSpecs(), client);
+    synchronized (connectionPool) {
+      if (canceled) throw new IOException("Canceled");
+      this.race = race;
+    }
+
+    RealConnection winner = null;
+    try {
+      winner = race.connect(firstRoute);
+    } finally {
+      synchronized (connectionPool) {
+        this.race = null;
+        // The race has already recorded its failed routes. Select a fresh route next time.
+        if (winner == null) route = null;
+      }
+    }
+
+    acquire(winner);
+    synchronized (connectionPool) {
+      // The winner's route may differ from the one we selected.
+      route = winner.route();
+      Internal.instance.put(connectionPool, winner);
+      this.connection = winner;
+      if (connectionGroup != null) connectionGroup.signal();
+      if (canceled) throw new IOException("Canceled");
+    }
+    return winner;
+  }
+
   public void streamFinished(boolean noNewStreams, HttpStream stream) {
     synchronized (connectionPool) {
       if (stream == null || stream != this.stream) {
@@ -251,6 +399,17 @@ public final class StreamAllocation {
     }
   }
 
+  /** Returns how many calls may share an HTTP/1.1 connection with this one's current stream. */
+  public int maxPipelinedCalls() {
+    assert (Thread.holdsLock(connectionPool));
+    return maxPipelinedCalls;
+  }
+
+  /** Returns the group whose connections this allocation's streams are spread over, or null. */
+  public ConnectionGroup connectionGroup() {
+    return connectionGroup;
+  }
+
   private RouteDatabase routeDatabase() {
     return Internal.instance.routeDatabase(connectionPool);
   }
@@ -284,9 +443,11 @@ public final class StreamAllocation {
       if (connection != null) {
         if (noNewStreams) {
           connection.noNewStreams = true;
+          if (connection.pipeline != null) connection.pipeline.shutdown();
         }
         if (this.stream == null && (this.released || connection.noNewStreams)) {
           release(connection);
+          if (connectionGroup != null) connectionGroup.signal(); // Wake calls waiting for room.
           if (connection.allocations.isEmpty()) {
             connection.idleAtNanos = System.nanoTime();
             if (Internal.instance.connectionBecameIdle(connectionPool, connection)) {
@@ -305,15 +466,20 @@ public final class StreamAllocation {
   public void cancel() {
     HttpStream streamToCancel;
     RealConnection connectionToCancel;
+    ConnectionRace raceToCancel;
     synchronized (connectionPool) {
       canceled = true;
+      if (connectionGroup != null) connectionGroup.signal(); // Wake this call if it's waiting.
       streamToCancel = stream;
       connectionToCancel = connection;
+      raceToCancel = race;
     }
     if (streamToCancel != null) {
       streamToCancel.cancel();
     } else if (connectionToCancel != null) {
       connectionToCancel.cancel();
+    } else if (raceToCancel != null) {
+      raceToCancel.cancel();
     }
   }
 
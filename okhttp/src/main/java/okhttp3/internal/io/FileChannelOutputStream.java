@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.internal.Util;
+import okio.Buffer;
+
+/**
+ * Writes to a file channel at a position through one reused direct buffer, advancing the {@code
+ * written} and {@code progress} counters as bytes reach the file.
+ *
+ * <p>{@link #write(Buffer)} hands the Okio buffer's segments to this stream without copying them
+ * into a heap array first, so each byte is copied once, into the direct buffer, on its way to the
+ * file. Writing a heap buffer to a channel costs an extra copy into a temporary direct buffer, and
+ * writing it through a {@link java.io.FileOutputStream} makes a system call for every segment.
+ */
+public final class FileChannelOutputStream extends OutputStream {
+  private final FileChannel file;
+  private final ByteBuffer buffer;
+  private final AtomicLong written;
+  private final AtomicLong progress;
+  private long position;
+
+  public FileChannelOutputStream(FileChannel file, long position, ByteBuffer buffer,
+      AtomicLong written, AtomicLong progress) {
+    this.file = file;
+    this.position = position;
+    this.buffer = buffer;
+    this.written = written;
+    this.progress = progress;
+    ((java.nio.Buffer) buffer).clear();
+  }
+
+  /** Returns the file position following the bytes flushed so far. */
+  public long position() {
+    return position;
+  }
+
+  /** Returns the direct buffer that stages bytes for the file. It is empty after a flush. */
+  public ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /** Moves up to {@code byteCount} bytes from {@code source} to this stream. */
+  public long write(Buffer source, long byteCount) throws IOException {
+    byteCount = Math.min(byteCount, source.size());
+    source.writeTo(this, byteCount);
+    return byteCount;
+  }
+
+  /** Moves all bytes from {@code source} to this stream. */
+  public long write(Buffer source) throws IOException {
+    return write(source, source.size());
+  }
+
+  @Override public void write(int b) throws IOException {
+    if (!buffer.hasRemaining()) flush();
+    buffer.put((byte) b);
+  }
+
+  @Override public void write(byte[] source, int offset, int byteCount) throws IOException {
+    while (byteCount > 0) {
+      if (!buffer.hasRemaining()) flush();
+      int toCopy = Math.min(byteCount, buffer.remaining());
+      buffer.put(source, offset, toCopy);
+      offset += toCopy;
+      byteCount -= toCopy;
+    }
+  }
+
+  @Override public void flush() throws IOException {
+    java.nio.Buffer b = buffer; // Avoids ByteBuffer's covariant overrides, added in Java 9.
+    b.flip();
+    int byteCount = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      position += file.write(buffer, position);
+    }
+    b.clear();
+    Util.advance(written, progress, byteCount);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import okhttp3.internal.Util;
+
+import static okhttp3.internal.Internal.logger;
+
+/**
+ * Performs all socket I/O for many {@link NioSocket non-blocking sockets} on one thread. The loop
+ * thread reads each ready channel into that socket's inbound buffer, writes its outbound buffer
+ * when the channel accepts more, and runs the TLS engines of secure sockets. Callers only ever
+ * touch the sockets' buffers, so a connection that is idle or waiting for its peer costs no
+ * thread.
+ *
+ * <p>Scratch buffers are shared by all of this loop's sockets. A socket only keeps bytes that
+ * didn't fit through its channel or its TLS engine, so idle sockets hold no buffers.
+ *
+ * <p>The loop thread is a daemon that starts when the first socket connects and exits when the
+ * last one closes.
+ */
+public final class NioEventLoop implements Runnable {
+  /**
+   * Background threads run the event loops. There will be at most a single thread running per
+   * loop, and only while a socket is open. The thread pool executor permits the loop itself to be
+   * garbage collected.
+   */
+  private static final Executor executor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp NioEventLoop", true));
+
+  /** Large enough for the biggest TLS record, and for several plaintext reads. */
+  static final int SCRATCH_SIZE = 64 * 1024;
+
+  /** Tasks that the loop thread hasn't run yet. Guarded by 'this'. */
+  private final Deque<Runnable> tasks = new ArrayDeque<>();
+  /** Opened when the first socket connects. Guarded by 'this'. */
+  private Selector selector;
+  /** True while a thread runs this loop. Guarded by 'this'. */
+  private boolean running;
+  /** Sockets registered with the selector. Guarded by 'this'; only changed by the loop thread. */
+  private int socketCount;
+
+  // Scratch buffers, allocated when first used. Only used by the loop thread.
+  ByteBuffer readBuffer;
+  ByteBuffer writeBuffer;
+  ByteBuffer plaintextInBuffer;
+  ByteBuffer plaintextOutBuffer;
+
+  /** Runs {@code task} on the loop thread, starting that thread if necessary. */
+  void execute(Runnable task) throws IOException {
+    boolean start;
+    Selector selector;
+    synchronized (this) {
+      if (this.selector == null) this.selector = Selector.open();
+      selector = this.selector;
+      tasks.add(task);
+      start = !running;
+      running = true;
+    }
+    if (start) {
+      executor.execute(this);
+    } else {
+      selector.wakeup();
+    }
+  }
+
+  /** Registers {@code socket}'s channel with this loop's selector. Called on the loop thread. */
+  SelectionKey register(NioSocket socket, int ops) throws IOException {
+    SelectionKey key = socket.channel.register(selector, ops, socket);
+    synchronized (this) {
+      socketCount++;
+    }
+    return key;
+  }
+
+  /** Releases {@code key} of a socket that was registered. Called on the loop thread. */
+  void unregister(SelectionKey key) {
+    key.cancel();
+    synchronized (this) {
+      socketCount--;
+    }
+  }
+
+  /**
+   * Returns {@code buffer} if it holds at least {@code size} bytes, or a new scratch buffer that
+   * does. Called on the loop thread.
+   */
+  static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+    if (buffer != null && buffer.capacity() >= size) return buffer;
+    return ByteBuffer.allocate(Math.max(size, SCRATCH_SIZE));
+  }
+
+  @Override public void run() {
+    while (true) {
+      Selector selector;
+      try {
+        runTasks();
+        synchronized (this) {
+          selector = this.selector;
+          if (tasks.isEmpty() && socketCount == 0) {
+            running = false;
+            // Flush canceled keys so that their channels release their file descriptors.
+            selector.selectNow();
+            return;
+          }
+        }
+
+        selector.select();
+        for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+          SelectionKey key = i.next();
+          i.remove();
+          try {
+            ((NioSocket) key.attachment()).ready(key.readyOps());
+          } catch (CancelledKeyException ignored) {
+            // The socket was closed while it was being handled.
+          }
+        }
+      } catch (IOException e) {
+        if (!replaceSelector(e)) return;
+      }
+    }
+  }
+
+  private void runTasks() {
+    while (true) {
+      Runnable task;
+      synchronized (this) {
+        task = tasks.poll();
+      }
+      if (task == null) return;
+      task.run();
+    }
+  }
+
+  /**
+   * Fails the sockets of a selector that failed, and opens a new selector for the sockets that
+   * follow. Returns false if that isn't possible, and the loop must stop.
+   */
+  private boolean replaceSelector(IOException e) {
+    logger.log(Level.WARNING, "NioEventLoop selector failed", e);
+    Selector failed;
+    synchronized (this) {
+      failed = selector;
+    }
+    for (SelectionKey key : failed.keys()) {
+      ((NioSocket) key.attachment()).fail(e);
+    }
+    Util.closeQuietly(failed);
+    synchronized (this) {
+      socketCount = 0;
+      try {
+        selector = Selector.open();
+      } catch (IOException reopenFailed) {
+        selector = null;
+        tasks.clear();
+        running = false;
+      }
+    }
+    synchronized (this) {
+      return running;
+    }
+  }
+}
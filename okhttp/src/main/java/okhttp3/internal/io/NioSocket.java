@@ -0,0 +1,932 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLHandshakeException;
+import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
+
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.FINISHED;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_TASK;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NEED_WRAP;
+import static javax.net.ssl.SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+
+/**
+ * A socket whose channel is read and written by an {@link NioEventLoop}. Callers read and write
+ * plaintext buffers that the loop fills and drains as the channel becomes ready, running an {@link
+ * SSLEngine} between them once {@link #startTls} is called. Reads and writes wait only when those
+ * buffers are empty or full, and the {@linkplain #source() source} can be read without waiting.
+ *
+ * <p>Like blocking sockets, reads honor both their {@link Timeout} and {@link #getSoTimeout
+ * SO_TIMEOUT}, and writes honor their {@link Timeout}. Closing the socket wakes waiting callers,
+ * writes what the loop can of the unsent bytes, and closes the channel.
+ *
+ * <p>This socket has no {@linkplain #getChannel() channel} of its own, because its channel must
+ * only be used by the loop.
+ */
+public final class NioSocket extends Socket {
+  /** The loop stops reading once this many plaintext bytes are waiting to be read. */
+  static final long MAX_INBOUND = 64 * 1024;
+
+  /** Writers wait once this many plaintext bytes are waiting to be sent. */
+  static final long MAX_OUTBOUND = 64 * 1024;
+
+  /** The most plaintext that one TLS record holds. */
+  private static final int MAX_RECORD_PLAINTEXT = 16 * 1024;
+
+  /** Runs the delegated tasks of TLS engines, which are too slow to run on an event loop. */
+  private static final Executor tlsTaskExecutor = new ThreadPoolExecutor(0 /* corePoolSize */,
+      Integer.MAX_VALUE /* maximumPoolSize */, 60L /* keepAliveTime */, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp NioSocket TLS", true));
+
+  final NioEventLoop eventLoop;
+  final SocketChannel channel;
+  private final NioSource source = new NioSource();
+  private final Sink sink = new NioSink();
+  private final Runnable pump = new Runnable() {
+    @Override public void run() {
+      pump();
+    }
+  };
+
+  // Guarded by 'this'.
+  private final Buffer inbound = new Buffer();
+  private final Buffer outbound = new Buffer();
+  private IOException failure;
+  private boolean connected;
+  private boolean handshakeComplete;
+  private boolean inboundExhausted;
+  private boolean readPaused;
+  private boolean pumpScheduled;
+  private boolean closed;
+  private boolean inputShutdown;
+  private boolean outputShutdown;
+  private int soTimeout;
+  /** Runs once the source becomes readable. */
+  private Runnable readableCallback;
+
+  // Only accessed by the loop thread.
+  private SelectionKey key;
+  private SSLEngine engine;
+  /** TLS records that were read but not yet unwrapped. */
+  private final Buffer netInResidue = new Buffer();
+  /** TLS records that were wrapped but not yet accepted by the channel. */
+  private final Buffer netOutResidue = new Buffer();
+  private boolean channelExhausted;
+  private boolean channelClosed;
+  private boolean channelOutputShutdown;
+  private boolean inboundFinished;
+  private boolean tasksRunning;
+
+  public NioSocket(NioEventLoop eventLoop) throws IOException {
+    super((SocketImpl) null);
+    this.eventLoop = eventLoop;
+    this.channel = SocketChannel.open();
+    channel.configureBlocking(false);
+  }
+
+  /** Returns a source that reads the plaintext this socket receives. */
+  public NonBlockingSource source() {
+    return source;
+  }
+
+  /** Returns a sink that writes plaintext for this socket to send. */
+  public Sink sink() {
+    return sink;
+  }
+
+  @Override public void connect(SocketAddress endpoint) throws IOException {
+    connect(endpoint, 0);
+  }
+
+  @Override public void connect(SocketAddress endpoint, int timeout) throws IOException {
+    if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+    try {
+      final boolean connectedNow = channel.connect(endpoint);
+      synchronized (this) {
+        connected = connectedNow;
+      }
+      eventLoop.execute(new Runnable() {
+        @Override public void run() {
+          register(connectedNow ? OP_READ : OP_CONNECT);
+        }
+      });
+
+      synchronized (this) {
+        long deadlineNanos = timeout != 0
+            ? System.nanoTime() + MILLISECONDS.toNanos(timeout)
+            : 0;
+        while (!connected) {
+          checkNotClosed();
+          if (!awaitUntil(deadlineNanos)) throw new SocketTimeoutException("connect timed out");
+        }
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Performs a TLS handshake with {@code engine}, which must be in client mode and configured.
+   * Afterwards this socket's source and sink read and write the plaintext of the TLS session.
+   * Waits at most {@code timeout} milliseconds; a timeout of 0 waits indefinitely.
+   */
+  public void startTls(final SSLEngine engine, int timeout) throws IOException {
+    synchronized (this) {
+      if (inbound.size() > 0 || outbound.size() > 0) {
+        throw new IllegalStateException("TLS must start on an idle socket");
+      }
+    }
+    eventLoop.execute(new Runnable() {
+      @Override public void run() {
+        NioSocket.this.engine = engine;
+        try {
+          engine.beginHandshake();
+        } catch (IOException e) {
+          fail(e);
+          return;
+        }
+        pump();
+      }
+    });
+
+    synchronized (this) {
+      long deadlineNanos = timeout != 0
+          ? System.nanoTime() + MILLISECONDS.toNanos(timeout)
+          : 0;
+      while (!handshakeComplete) {
+        checkNotClosed();
+        if (!awaitUntil(deadlineNanos)) throw new SocketTimeoutException("handshake timed out");
+      }
+    }
+  }
+
+  @Override public void close() throws IOException {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      notifyAll();
+    }
+    notifyReadable();
+    try {
+      eventLoop.execute(new Runnable() {
+        @Override public void run() {
+          flushAndClose();
+        }
+      });
+    } catch (IOException e) {
+      channel.close();
+    }
+  }
+
+  @Override public void shutdownInput() throws IOException {
+    synchronized (this) {
+      checkNotClosed();
+      inputShutdown = true;
+      notifyAll();
+    }
+    notifyReadable();
+  }
+
+  /** Marks output as shut down. The channel's output shuts down once the unsent bytes are sent. */
+  @Override public void shutdownOutput() throws IOException {
+    synchronized (this) {
+      checkNotClosed();
+      outputShutdown = true;
+      notifyAll();
+      schedulePump();
+    }
+  }
+
+  @Override public synchronized boolean isConnected() {
+    return connected;
+  }
+
+  @Override public boolean isBound() {
+    return channel.socket().isBound();
+  }
+
+  @Override public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  @Override public synchronized boolean isInputShutdown() {
+    return inputShutdown;
+  }
+
+  @Override public synchronized boolean isOutputShutdown() {
+    return outputShutdown;
+  }
+
+  @Override public void bind(SocketAddress bindpoint) throws IOException {
+    channel.socket().bind(bindpoint);
+  }
+
+  @Override public InetAddress getInetAddress() {
+    return channel.socket().getInetAddress();
+  }
+
+  @Override public InetAddress getLocalAddress() {
+    return channel.socket().getLocalAddress();
+  }
+
+  @Override public int getPort() {
+    return channel.socket().getPort();
+  }
+
+  @Override public int getLocalPort() {
+    return channel.socket().getLocalPort();
+  }
+
+  @Override public SocketAddress getRemoteSocketAddress() {
+    return channel.socket().getRemoteSocketAddress();
+  }
+
+  @Override public SocketAddress getLocalSocketAddress() {
+    return channel.socket().getLocalSocketAddress();
+  }
+
+  @Override public SocketChannel getChannel() {
+    return null;
+  }
+
+  @Override public InputStream getInputStream() throws IOException {
+    return Okio.buffer(source).inputStream();
+  }
+
+  @Override public OutputStream getOutputStream() throws IOException {
+    return Okio.buffer(sink).outputStream();
+  }
+
+  @Override public synchronized void setSoTimeout(int timeout) throws SocketException {
+    if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+    this.soTimeout = timeout;
+  }
+
+  @Override public synchronized int getSoTimeout() throws SocketException {
+    return soTimeout;
+  }
+
+  @Override public void setTcpNoDelay(boolean on) throws SocketException {
+    channel.socket().setTcpNoDelay(on);
+  }
+
+  @Override public boolean getTcpNoDelay() throws SocketException {
+    return channel.socket().getTcpNoDelay();
+  }
+
+  @Override public void setSoLinger(boolean on, int linger) throws SocketException {
+    channel.socket().setSoLinger(on, linger);
+  }
+
+  @Override public int getSoLinger() throws SocketException {
+    return channel.socket().getSoLinger();
+  }
+
+  @Override public void sendUrgentData(int data) throws IOException {
+    channel.socket().sendUrgentData(data);
+  }
+
+  @Override public void setOOBInline(boolean on) throws SocketException {
+    channel.socket().setOOBInline(on);
+  }
+
+  @Override public boolean getOOBInline() throws SocketException {
+    return channel.socket().getOOBInline();
+  }
+
+  @Override public void setSendBufferSize(int size) throws SocketException {
+    channel.socket().setSendBufferSize(size);
+  }
+
+  @Override public int getSendBufferSize() throws SocketException {
+    return channel.socket().getSendBufferSize();
+  }
+
+  @Override public void setReceiveBufferSize(int size) throws SocketException {
+    channel.socket().setReceiveBufferSize(size);
+  }
+
+  @Override public int getReceiveBufferSize() throws SocketException {
+    return channel.socket().getReceiveBufferSize();
+  }
+
+  @Override public void setKeepAlive(boolean on) throws SocketException {
+    channel.socket().setKeepAlive(on);
+  }
+
+  @Override public boolean getKeepAlive() throws SocketException {
+    return channel.socket().getKeepAlive();
+  }
+
+  @Override public void setTrafficClass(int tc) throws SocketException {
+    channel.socket().setTrafficClass(tc);
+  }
+
+  @Override public int getTrafficClass() throws SocketException {
+    return channel.socket().getTrafficClass();
+  }
+
+  @Override public void setReuseAddress(boolean on) throws SocketException {
+    channel.socket().setReuseAddress(on);
+  }
+
+  @Override public boolean getReuseAddress() throws SocketException {
+    return channel.socket().getReuseAddress();
+  }
+
+  @Override public void setPerformancePreferences(
+      int connectionTime, int latency, int bandwidth) {
+    channel.socket().setPerformancePreferences(connectionTime, latency, bandwidth);
+  }
+
+  @Override public String toString() {
+    return "NioSocket[" + channel.socket() + "]";
+  }
+
+  /** Throws if this socket was closed or failed. Callers must hold this socket's lock. */
+  private void checkNotClosed() throws IOException {
+    if (closed) throw new SocketException("Socket closed");
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Waits for the loop to notify this socket, or until {@code deadlineNanos}. A deadline of 0 waits
+   * indefinitely. Returns false if the deadline passed. Callers must hold this socket's lock.
+   */
+  private boolean awaitUntil(long deadlineNanos) throws InterruptedIOException {
+    try {
+      if (deadlineNanos == 0) {
+        wait();
+      } else {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) return false;
+        NANOSECONDS.timedWait(this, remainingNanos);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted");
+    }
+  }
+
+  /**
+   * Returns the time that a wait with {@code timeout} must end, or 0 if it may wait indefinitely.
+   * This is the earliest of the timeout's deadline, its timeout, and {@code soTimeout} millis.
+   */
+  private static long deadlineNanos(Timeout timeout, int soTimeout) {
+    long now = System.nanoTime();
+    long result = 0;
+    if (timeout.hasDeadline()) result = timeout.deadlineNanoTime();
+    if (timeout.timeoutNanos() != 0) result = earliest(result, now + timeout.timeoutNanos());
+    if (soTimeout != 0) result = earliest(result, now + MILLISECONDS.toNanos(soTimeout));
+    return result;
+  }
+
+  private static long earliest(long a, long b) {
+    if (a == 0) return b;
+    return a - b < 0 ? a : b;
+  }
+
+  /** Runs the source's readable callback if it is readable. Callers must not hold the lock. */
+  private void notifyReadable() {
+    Runnable callback;
+    synchronized (this) {
+      callback = readableCallback;
+      if (callback == null) return;
+      boolean readable = inbound.size() > 0 || inboundExhausted || inputShutdown || closed
+          || failure != null;
+      if (!readable) return;
+      readableCallback = null;
+    }
+    callback.run();
+  }
+
+  /** Asks the loop to move bytes. Callers must hold this socket's lock. */
+  private void schedulePump() throws IOException {
+    if (pumpScheduled) return;
+    pumpScheduled = true;
+    eventLoop.execute(pump);
+  }
+
+  // Everything below runs on the loop thread.
+
+  private void register(int ops) {
+    if (channelClosed) return;
+    try {
+      key = eventLoop.register(this, ops);
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /** Handles the operations that the selector reports {@code readyOps} for. */
+  void ready(int readyOps) {
+    if ((readyOps & OP_CONNECT) != 0) {
+      try {
+        if (!channel.finishConnect()) return;
+      } catch (IOException e) {
+        fail(e);
+        return;
+      }
+      synchronized (this) {
+        connected = true;
+        notifyAll();
+      }
+    }
+    pump();
+  }
+
+  /** Moves as many bytes as the channel accepts, then waits on the selector for more. */
+  private void pump() {
+    synchronized (this) {
+      pumpScheduled = false;
+    }
+    if (channelClosed || key == null) return;
+    try {
+      if (engine == null) {
+        pumpPlaintext();
+      } else {
+        pumpTls();
+      }
+      shutdownOutputIfSent();
+      updateInterestOps();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void updateInterestOps() {
+    int ops;
+    synchronized (this) {
+      if (!connected) {
+        ops = OP_CONNECT;
+      } else {
+        boolean handshaking = engine != null && !handshakeComplete;
+        boolean wantsRead = !channelExhausted && !tasksRunning && (handshaking || !readPaused);
+        boolean wantsWrite = netOutResidue.size() > 0 || (engine == null && outbound.size() > 0);
+        ops = (wantsRead ? OP_READ : 0) | (wantsWrite ? OP_WRITE : 0);
+      }
+    }
+    if (key.interestOps() != ops) key.interestOps(ops);
+  }
+
+  private void pumpPlaintext() throws IOException {
+    while (writePlaintext() | readPlaintext()) {
+      // Keep going until the channel is full and empty, or the reader falls behind.
+    }
+  }
+
+  private boolean writePlaintext() throws IOException {
+    ByteBuffer scratch = eventLoop.writeBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.writeBuffer, 0);
+    int byteCount;
+    synchronized (this) {
+      byteCount = (int) Math.min(outbound.size(), scratch.capacity());
+      if (byteCount == 0) return false;
+      peek(outbound, scratch.array(), byteCount);
+    }
+    // Avoids ByteBuffer's covariant overrides, added in Java 9.
+    ((java.nio.Buffer) scratch).clear();
+    ((java.nio.Buffer) scratch).limit(byteCount);
+    int written = channel.write(scratch);
+    if (written == 0) return false;
+    synchronized (this) {
+      outbound.skip(written);
+      notifyAll();
+    }
+    return true;
+  }
+
+  private boolean readPlaintext() throws IOException {
+    synchronized (this) {
+      if (readPaused) return false;
+    }
+    if (channelExhausted) return false;
+    ByteBuffer scratch = eventLoop.readBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.readBuffer, 0);
+    ((java.nio.Buffer) scratch).clear();
+    int read = channel.read(scratch);
+    if (read == -1) {
+      channelExhausted = true;
+      finishInbound();
+      return false;
+    }
+    if (read == 0) return false;
+    deliver(scratch.array(), read);
+    return true;
+  }
+
+  private void pumpTls() throws IOException {
+    while (!tasksRunning) {
+      boolean progress = writeResidue();
+      HandshakeStatus status = engine.getHandshakeStatus();
+      if (status == NEED_TASK) {
+        runDelegatedTasks();
+        return;
+      }
+      progress |= wrap(status);
+
+      status = engine.getHandshakeStatus();
+      if (status == NEED_TASK) {
+        runDelegatedTasks();
+        return;
+      }
+      progress |= unwrap(status);
+      if (!progress) return;
+    }
+  }
+
+  /** Writes the TLS records that the channel didn't accept earlier. */
+  private boolean writeResidue() throws IOException {
+    if (netOutResidue.size() == 0) return false;
+    ByteBuffer scratch = eventLoop.writeBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.writeBuffer, 0);
+    int byteCount = (int) Math.min(netOutResidue.size(), scratch.capacity());
+    peek(netOutResidue, scratch.array(), byteCount);
+    ((java.nio.Buffer) scratch).clear();
+    ((java.nio.Buffer) scratch).limit(byteCount);
+    int written = channel.write(scratch);
+    netOutResidue.skip(written);
+    return written > 0;
+  }
+
+  /** Encrypts outbound plaintext or handshake messages, and writes them to the channel. */
+  private boolean wrap(HandshakeStatus status) throws IOException {
+    if (netOutResidue.size() > 0 || status == NEED_UNWRAP || engine.isOutboundDone()) return false;
+
+    ByteBuffer plaintext = eventLoop.plaintextOutBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.plaintextOutBuffer, MAX_RECORD_PLAINTEXT);
+    int byteCount = 0;
+    if (status == NOT_HANDSHAKING) {
+      synchronized (this) {
+        byteCount = (int) Math.min(outbound.size(), MAX_RECORD_PLAINTEXT);
+        peek(outbound, plaintext.array(), byteCount);
+      }
+      if (byteCount == 0) return false;
+    }
+    ((java.nio.Buffer) plaintext).clear();
+    ((java.nio.Buffer) plaintext).limit(byteCount);
+
+    ByteBuffer net = eventLoop.writeBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.writeBuffer, engine.getSession().getPacketBufferSize());
+    ((java.nio.Buffer) net).clear();
+    SSLEngineResult result = engine.wrap(plaintext, net);
+    if (result.bytesConsumed() > 0) {
+      synchronized (this) {
+        outbound.skip(result.bytesConsumed());
+        notifyAll();
+      }
+    }
+    if (result.getHandshakeStatus() == FINISHED) handshakeFinished();
+    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+      eventLoop.writeBuffer = ByteBuffer.allocate(net.capacity() * 2);
+      return true;
+    }
+
+    ((java.nio.Buffer) net).flip();
+    channel.write(net);
+    if (net.hasRemaining()) {
+      netOutResidue.write(net.array(), net.position(), net.remaining());
+    }
+    return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+        || result.getHandshakeStatus() != status;
+  }
+
+  /** Reads TLS records from the channel and decrypts them into the inbound plaintext. */
+  private boolean unwrap(HandshakeStatus status) throws IOException {
+    if (status == NEED_WRAP || inboundFinished) return false;
+    if (status == NOT_HANDSHAKING) {
+      synchronized (this) {
+        if (readPaused) return false;
+      }
+    }
+
+    // Read after the records that weren't complete the last time.
+    ByteBuffer net = eventLoop.readBuffer = NioEventLoop.ensureCapacity(
+        eventLoop.readBuffer, engine.getSession().getPacketBufferSize());
+    int residue = (int) netInResidue.size();
+    peek(netInResidue, net.array(), residue);
+    netInResidue.clear();
+    ((java.nio.Buffer) net).clear();
+    ((java.nio.Buffer) net).position(residue);
+    boolean progress = false;
+    if (!channelExhausted) {
+      int read = channel.read(net);
+      if (read == -1) channelExhausted = true;
+      progress = read != 0;
+    }
+    ((java.nio.Buffer) net).flip();
+
+    boolean stalled = true;
+    boolean closeNotified = false;
+    while (net.hasRemaining()) {
+      ByteBuffer plaintext = eventLoop.plaintextInBuffer = NioEventLoop.ensureCapacity(
+          eventLoop.plaintextInBuffer, engine.getSession().getApplicationBufferSize());
+      ((java.nio.Buffer) plaintext).clear();
+      SSLEngineResult result = engine.unwrap(net, plaintext);
+      if (plaintext.position() > 0) deliver(plaintext.array(), plaintext.position());
+      if (result.getHandshakeStatus() == FINISHED) handshakeFinished();
+
+      SSLEngineResult.Status resultStatus = result.getStatus();
+      if (resultStatus == SSLEngineResult.Status.BUFFER_UNDERFLOW) break; // An incomplete record.
+      if (resultStatus == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+        eventLoop.plaintextInBuffer = ByteBuffer.allocate(plaintext.capacity() * 2);
+        continue;
+      }
+      if (resultStatus == SSLEngineResult.Status.CLOSED) {
+        closeNotified = true;
+        progress = true;
+        break;
+      }
+      HandshakeStatus next = result.getHandshakeStatus();
+      if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 && next == status) break;
+      progress = true;
+
+      // Let the engine's messages and tasks, or the reader, catch up before unwrapping more.
+      if (next == NEED_WRAP || next == NEED_TASK) {
+        stalled = false;
+        break;
+      }
+      status = next == FINISHED ? NOT_HANDSHAKING : next;
+      if (status == NOT_HANDSHAKING) {
+        synchronized (this) {
+          if (readPaused) {
+            stalled = false;
+            break;
+          }
+        }
+      }
+    }
+    if (net.hasRemaining()) {
+      netInResidue.write(net.array(), net.position(), net.remaining());
+    }
+
+    if (closeNotified || (channelExhausted && stalled)) finishInbound();
+    return progress;
+  }
+
+  private void runDelegatedTasks() {
+    final List<Runnable> delegatedTasks = new ArrayList<>();
+    for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+      delegatedTasks.add(task);
+    }
+    tasksRunning = true;
+    tlsTaskExecutor.execute(new Runnable() {
+      @Override public void run() {
+        for (Runnable task : delegatedTasks) {
+          task.run();
+        }
+        try {
+          eventLoop.execute(new Runnable() {
+            @Override public void run() {
+              tasksRunning = false;
+              pump();
+            }
+          });
+        } catch (IOException e) {
+          synchronized (NioSocket.this) {
+            if (failure == null) failure = e;
+            NioSocket.this.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /** Once the caller has shut down output and everything was sent, shuts down the channel's. */
+  private void shutdownOutputIfSent() throws IOException {
+    if (channelOutputShutdown) return;
+    synchronized (this) {
+      if (!outputShutdown || outbound.size() > 0) return;
+    }
+    if (engine != null && !engine.isOutboundDone()) {
+      engine.closeOutbound();
+      pumpTls();
+    }
+    if (netOutResidue.size() > 0) return;
+    channel.socket().shutdownOutput();
+    channelOutputShutdown = true;
+  }
+
+  private void deliver(byte[] bytes, int byteCount) {
+    synchronized (this) {
+      inbound.write(bytes, 0, byteCount);
+      if (inbound.size() >= MAX_INBOUND) readPaused = true;
+      notifyAll();
+    }
+    notifyReadable();
+  }
+
+  private void handshakeFinished() {
+    synchronized (this) {
+      handshakeComplete = true;
+      notifyAll();
+    }
+  }
+
+  /** Records that the peer won't send more, so reads return -1 once the inbound bytes are read. */
+  private void finishInbound() {
+    if (inboundFinished) return;
+    inboundFinished = true;
+    if (engine != null && !handshakeComplete) {
+      fail(new SSLHandshakeException("Remote host terminated the handshake"));
+      return;
+    }
+    synchronized (this) {
+      inboundExhausted = true;
+      notifyAll();
+    }
+    notifyReadable();
+  }
+
+  /** Fails this socket's callers with {@code e} and closes its channel. */
+  void fail(IOException e) {
+    synchronized (this) {
+      if (failure == null) failure = e;
+      notifyAll();
+    }
+    notifyReadable();
+    closeChannel();
+  }
+
+  /** Sends what the channel accepts of the unsent bytes, then closes it. */
+  private void flushAndClose() {
+    if (channelClosed) return;
+    if (key != null) {
+      try {
+        if (engine == null) {
+          while (writePlaintext()) {
+          }
+        } else if (!tasksRunning) {
+          pumpTls();
+          engine.closeOutbound();
+          pumpTls();
+        }
+      } catch (IOException ignored) {
+        // The bytes weren't sent. The socket is closing anyway.
+      }
+    }
+    closeChannel();
+  }
+
+  private void closeChannel() {
+    if (channelClosed) return;
+    channelClosed = true;
+    if (key != null) eventLoop.unregister(key);
+    Util.closeQuietly(channel);
+  }
+
+  /** Copies {@code byteCount} bytes from the front of {@code source} without consuming them. */
+  private static void peek(Buffer source, byte[] sink, int byteCount) {
+    Buffer copy = new Buffer();
+    source.copyTo(copy, 0, byteCount);
+    for (int offset = 0; offset < byteCount; ) {
+      offset += copy.read(sink, offset, byteCount - offset);
+    }
+  }
+
+  private final class NioSource implements NonBlockingSource {
+    private final Timeout timeout = new Timeout();
+
+    @Override public long read(Buffer sink, long byteCount) throws IOException {
+      if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+      if (byteCount == 0) return 0;
+
+      synchronized (NioSocket.this) {
+        long deadlineNanos = deadlineNanos(timeout, soTimeout);
+        while (inbound.size() == 0) {
+          checkNotClosed();
+          if (inboundExhausted || inputShutdown) return -1;
+          if (!awaitUntil(deadlineNanos)) throw new SocketTimeoutException("timeout");
+        }
+        if (closed) throw new SocketException("Socket closed");
+
+        long result = inbound.read(sink, byteCount);
+        resumeReadingIfDrained();
+        return result;
+      }
+    }
+
+    @Override public long readAvailable(Buffer sink) throws IOException {
+      synchronized (NioSocket.this) {
+        checkNotClosed();
+        if (inbound.size() == 0) return inboundExhausted || inputShutdown ? -1 : 0;
+        long result = inbound.read(sink, inbound.size());
+        resumeReadingIfDrained();
+        return result;
+      }
+    }
+
+    @Override public void whenReadable(Runnable callback) {
+      synchronized (NioSocket.this) {
+        if (readableCallback != null) throw new IllegalStateException("already waiting");
+        readableCallback = callback;
+      }
+      notifyReadable();
+    }
+
+    /** Lets the loop read again once the reader caught up. Callers must hold the lock. */
+    private void resumeReadingIfDrained() throws IOException {
+      if (readPaused && inbound.size() < MAX_INBOUND / 2) {
+        readPaused = false;
+        schedulePump();
+      }
+    }
+
+    @Override public Timeout timeout() {
+      return timeout;
+    }
+
+    @Override public void close() throws IOException {
+      NioSocket.this.close();
+    }
+  }
+
+  private final class NioSink implements Sink {
+    private final Timeout timeout = new Timeout();
+
+    @Override public void write(Buffer source, long byteCount) throws IOException {
+      synchronized (NioSocket.this) {
+        long deadlineNanos = deadlineNanos(timeout, 0);
+        while (byteCount > 0) {
+          checkWritable();
+          long space = MAX_OUTBOUND - outbound.size();
+          if (space <= 0) {
+            schedulePump();
+            if (!awaitUntil(deadlineNanos)) throw new SocketTimeoutException("timeout");
+            continue;
+          }
+          long toWrite = Math.min(space, byteCount);
+          outbound.write(source, toWrite);
+          byteCount -= toWrite;
+        }
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      synchronized (NioSocket.this) {
+        checkWritable();
+        if (outbound.size() > 0) schedulePump();
+      }
+    }
+
+    private void checkWritable() throws IOException {
+      checkNotClosed();
+      if (outputShutdown) throw new SocketException("Socket output is shutdown");
+    }
+
+    @Override public Timeout timeout() {
+      return timeout;
+    }
+
+    @Override public void close() throws IOException {
+      NioSocket.this.close();
+    }
+  }
+}
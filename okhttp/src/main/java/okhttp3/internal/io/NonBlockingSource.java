@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package okhttp3.internal.io;
+
+import java.io.IOException;
+import okio.Buffer;
+import okio.Source;
+
+/**
+ * A source that can be read without waiting for it. Rather than blocking a thread in {@link
+ * #read}, a reader takes what has arrived with {@link #readAvailable}, and asks to be called back
+ * with {@link #whenReadable} when there is more.
+ */
+public interface NonBlockingSource extends Source {
+  /**
+   * Moves the bytes that have already arrived to {@code sink}. Returns the number of bytes moved,
+   * which is 0 if none arrived yet, or -1 if this source is exhausted.
+   */
+  long readAvailable(Buffer sink) throws IOException;
+
+  /**
+   * Runs {@code callback} once, as soon as this source has bytes to read, is exhausted, or fails.
+   * If that is already the case it runs immediately on the calling thread. Otherwise it runs on the
+   * thread that receives the bytes, so it must not block.
+   */
+  void whenReadable(Runnable callback);
+}
@@ -16,18 +16,27 @@
  */
 package okhttp3.internal.io;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.ref.Reference;
 import java.net.ConnectException;
 import java.net.Proxy;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownServiceException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import okhttp3.Address;
@@ -36,20 +45,25 @@ import okhttp3.Connection;
 import okhttp3.ConnectionSpec;
 import okhttp3.Handshake;
 import okhttp3.HttpUrl;
+import okhttp3.NioEngine;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
+import okhttp3.TlsSessionCache;
 import okhttp3.internal.ConnectionSpecSelector;
+import okhttp3.internal.Internal;
 import okhttp3.internal.Platform;
 import okhttp3.internal.Util;
 import okhttp3.internal.Version;
 import okhttp3.internal.framed.FramedConnection;
+import okhttp3.internal.http.Http1xPipeline;
 import okhttp3.internal.http.Http1xStream;
 import okhttp3.internal.http.OkHeaders;
 import okhttp3.internal.http.RouteException;
 import okhttp3.internal.http.StreamAllocation;
 import okhttp3.internal.tls.OkHostnameVerifier;
+import okio.AsyncTimeout;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
@@ -58,6 +72,7 @@ import okio.Source;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_PROXY_AUTH;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static okhttp3.internal.Util.closeQuietly;
 
 public final class RealConnection implements Connection {
@@ -74,21 +89,85 @@ public final class RealConnection implements Connection {
   private Handshake handshake;
   private Protocol protocol;
   public volatile FramedConnection framedConnection;
+  /** Orders pipelined HTTP/1.1 streams. Created by the first pipelined stream. Guarded by pool. */
+  public Http1xPipeline pipeline;
   public int successCount;
   public BufferedSource source;
   public BufferedSink sink;
   public final List<Reference<StreamAllocation>> allocations = new ArrayList<>();
   public boolean noNewStreams;
   public long idleAtNanos = Long.MAX_VALUE;
+  private long socketConnectNanos;
+  /** True once {@link #connect} has returned or thrown. Guarded by this. */
+  private boolean connectFinished;
+
+  /**
+   * The fewest and most bytes sent from a file to the socket at once. Each slice enters and exits
+   * the write timeout and costs a system call, so slices are large. Between these bounds a slice
+   * is sized to take about half the write timeout at the rate the previous slice was sent.
+   */
+  private static final long MIN_TRANSFER_SLICE_SIZE = 1024 * 1024;
+  private static final long MAX_TRANSFER_SLICE_SIZE = 64 * 1024 * 1024;
 
   public RealConnection(Route route) {
     this.route = route;
   }
 
+  /**
+   * Connects this connection's route. If {@code tlsSessionCache} is non-null, TLS handshakes are
+   * recorded in it so that they may be resumed. If {@code nioEngine} is non-null, the connection
+   * uses a non-blocking socket whose I/O is performed by one of its event loops. Such connections
+   * secure TLS with engines of {@code sslContext}, and use blocking sockets for TLS if it is null.
+   */
   public void connect(int connectTimeout, int readTimeout, int writeTimeout,
-      List<ConnectionSpec> connectionSpecs, boolean connectionRetryEnabled) throws RouteException {
+      List<ConnectionSpec> connectionSpecs, boolean connectionRetryEnabled,
+      TlsSessionCache tlsSessionCache, NioEngine nioEngine, SSLContext sslContext)
+      throws RouteException {
     if (protocol != null) throw new IllegalStateException("already connected");
 
+    try {
+      connectRoute(connectTimeout, readTimeout, writeTimeout, connectionSpecs,
+          connectionRetryEnabled, tlsSessionCache, nioEngine, sslContext);
+    } finally {
+      synchronized (this) {
+        connectFinished = true;
+        notifyAll();
+      }
+    }
+  }
+
+  /** Returns true once {@link #connect} has returned or thrown. */
+  public synchronized boolean isConnectFinished() {
+    return connectFinished;
+  }
+
+  /**
+   * Waits until {@link #connect} has returned or thrown, or until {@code deadlineNanos}. A deadline
+   * of 0 waits indefinitely. Returns false if the deadline passed.
+   */
+  public synchronized boolean awaitConnectFinished(long deadlineNanos)
+      throws InterruptedIOException {
+    try {
+      while (!connectFinished) {
+        if (deadlineNanos == 0) {
+          wait();
+        } else {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) return false;
+          NANOSECONDS.timedWait(this, remainingNanos);
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void connectRoute(int connectTimeout, int readTimeout, int writeTimeout,
+      List<ConnectionSpec> connectionSpecs, boolean connectionRetryEnabled,
+      TlsSessionCache tlsSessionCache, NioEngine nioEngine, SSLContext sslContext)
+      throws RouteException {
+
     RouteException routeException = null;
     ConnectionSpecSelector connectionSpecSelector = new ConnectionSpecSelector(connectionSpecs);
     Proxy proxy = route.proxy();
@@ -100,12 +179,22 @@ public final class RealConnection implements Connection {
           "CLEARTEXT communication not supported: " + connectionSpecs));
     }
 
+    boolean nonBlocking = nioEngine != null
+        && proxy.type() != Proxy.Type.SOCKS
+        && (address.sslSocketFactory() == null || sslContext != null);
+
     while (protocol == null) {
       try {
-        rawSocket = proxy.type() == Proxy.Type.DIRECT || proxy.type() == Proxy.Type.HTTP
-            ? address.socketFactory().createSocket()
-            : new Socket(proxy);
-        connectSocket(connectTimeout, readTimeout, writeTimeout, connectionSpecSelector);
+        if (nonBlocking) {
+          rawSocket = new NioSocket(Internal.instance.nextEventLoop(nioEngine));
+        } else {
+          rawSocket = proxy.type() == Proxy.Type.DIRECT || proxy.type() == Proxy.Type.HTTP
+              ? address.socketFactory().createSocket()
+              : new Socket(proxy);
+        }
+        Internal.instance.apply(address.socketOptions(), rawSocket);
+        connectSocket(connectTimeout, readTimeout, writeTimeout, connectionSpecSelector,
+            tlsSessionCache, sslContext);
       } catch (IOException e) {
         closeQuietly(socket);
         closeQuietly(rawSocket);
@@ -131,21 +220,36 @@ public final class RealConnection implements Connection {
 
   /** Does all the work necessary to build a full HTTP or HTTPS connection on a raw socket. */
   private void connectSocket(int connectTimeout, int readTimeout, int writeTimeout,
-      ConnectionSpecSelector connectionSpecSelector) throws IOException {
+      ConnectionSpecSelector connectionSpecSelector, TlsSessionCache tlsSessionCache,
+      SSLContext sslContext) throws IOException {
     rawSocket.setSoTimeout(readTimeout);
     try {
     	long t1 = System.currentTimeMillis();
+      long connectStartNanos = System.nanoTime();
       Platform.get().connectSocket(rawSocket, route.socketAddress(), connectTimeout);
+      socketConnectNanos = System.nanoTime() - connectStartNanos;
       	long t2 = System.currentTimeMillis();
       	route.setHandshakeTimeANP(t2-t1);
     } catch (ConnectException e) {
       throw new ConnectException("Failed to connect to " + route.socketAddress());
     }
-    source = Okio.buffer(Okio.source(rawSocket));
-    sink = Okio.buffer(Okio.sink(rawSocket));
+    if (rawSocket instanceof NioSocket) {
+      source = Okio.buffer(((NioSocket) rawSocket).source());
+      sink = Okio.buffer(((NioSocket) rawSocket).sink());
+    } else {
+      source = Okio.buffer(Okio.source(rawSocket));
+      sink = Okio.buffer(Okio.sink(rawSocket));
+    }
 
     if (route.address().sslSocketFactory() != null) {
-      connectTls(readTimeout, writeTimeout, connectionSpecSelector);
+      if (route.requiresTunnel()) {
+        createTunnel(readTimeout, writeTimeout);
+      }
+      if (rawSocket instanceof NioSocket) {
+        connectNioTls(readTimeout, connectionSpecSelector, tlsSessionCache, sslContext);
+      } else {
+        connectTls(connectionSpecSelector, tlsSessionCache);
+      }
     } else {
       protocol = Protocol.HTTP_1_1;
       socket = rawSocket;
@@ -154,10 +258,13 @@ public final class RealConnection implements Connection {
     if (protocol == Protocol.SPDY_3 || protocol == Protocol.HTTP_2) {
       socket.setSoTimeout(0); // Framed connection timeouts are set per-stream.
 
-      FramedConnection framedConnection = new FramedConnection.Builder(true)
+      FramedConnection.Builder builder = new FramedConnection.Builder(true)
           .socket(socket, route.address().url().host(), source, sink)
-          .protocol(protocol)
-          .build();
+          .protocol(protocol);
+      if (socket instanceof NioSocket) {
+        builder.nonBlockingSource(((NioSocket) socket).source());
+      }
+      FramedConnection framedConnection = builder.build();
       framedConnection.sendConnectionPreface();
 
       // Only assign the framed connection once the preface has been sent successfully.
@@ -165,12 +272,8 @@ public final class RealConnection implements Connection {
     }
   }
 
-  private void connectTls(int readTimeout, int writeTimeout,
-      ConnectionSpecSelector connectionSpecSelector) throws IOException {
-    if (route.requiresTunnel()) {
-      createTunnel(readTimeout, writeTimeout);
-    }
-
+  private void connectTls(ConnectionSpecSelector connectionSpecSelector,
+      TlsSessionCache tlsSessionCache) throws IOException {
     Address address = route.address();
     SSLSocketFactory sslSocketFactory = address.sslSocketFactory();
     boolean success = false;
@@ -188,21 +291,12 @@ public final class RealConnection implements Connection {
       }
 
       // Force handshake. This can throw!
+      long handshakeStartMillis = System.currentTimeMillis();
+      route.setTlsConnSetupStartTimeANP(handshakeStartMillis);
       sslSocket.startHandshake();
-      Handshake unverifiedHandshake = Handshake.get(sslSocket.getSession());
-
-      // Verify that the socket's certificates are acceptable for the target host.
-      if (!address.hostnameVerifier().verify(address.url().host(), sslSocket.getSession())) {
-        X509Certificate cert = (X509Certificate) unverifiedHandshake.peerCertificates().get(0);
-        throw new SSLPeerUnverifiedException("Hostname " + address.url().host() + " not verified:"
-            + "\n    certificate: " + CertificatePinner.pin(cert)
-            + "\n    DN: " + cert.getSubjectDN().getName()
-            + "\n    subjectAltNames: " + OkHostnameVerifier.allSubjectAltNames(cert));
-      }
-
-      // Check that the certificate pinner is satisfied by the certificates presented.
-      address.certificatePinner().check(address.url().host(),
-          unverifiedHandshake.peerCertificates());
+      route.setTlsConnSetupEndTimeANP(System.currentTimeMillis());
+      Handshake verifiedHandshake =
+          verifyHandshake(sslSocket.getSession(), handshakeStartMillis, tlsSessionCache);
 
       // Success! Save the handshake and the ALPN protocol.
       String maybeProtocol = connectionSpec.supportsTlsExtensions()
@@ -211,7 +305,7 @@ public final class RealConnection implements Connection {
       socket = sslSocket;
       source = Okio.buffer(Okio.source(socket));
       sink = Okio.buffer(Okio.sink(socket));
-      handshake = unverifiedHandshake;
+      handshake = verifiedHandshake;
       protocol = maybeProtocol != null
           ? Protocol.get(maybeProtocol)
           : Protocol.HTTP_1_1;
@@ -229,6 +323,80 @@ public final class RealConnection implements Connection {
     }
   }
 
+  /**
+   * Performs a TLS handshake with an engine of {@code sslContext} on the non-blocking {@link
+   * #rawSocket}. The socket's source and sink then carry the session's plaintext.
+   */
+  private void connectNioTls(int readTimeout, ConnectionSpecSelector connectionSpecSelector,
+      TlsSessionCache tlsSessionCache, SSLContext sslContext) throws IOException {
+    Address address = route.address();
+    SSLEngine sslEngine = sslContext.createSSLEngine(address.url().host(), address.url().port());
+    sslEngine.setUseClientMode(true);
+    try {
+      // Configure the engine's ciphers, TLS versions, and extensions.
+      ConnectionSpec connectionSpec = connectionSpecSelector.configureSecureEngine(sslEngine);
+      if (connectionSpec.supportsTlsExtensions()) {
+        Platform.get().configureTlsExtensions(
+            sslEngine, address.url().host(), address.protocols());
+      }
+
+      long handshakeStartMillis = System.currentTimeMillis();
+      route.setTlsConnSetupStartTimeANP(handshakeStartMillis);
+      ((NioSocket) rawSocket).startTls(sslEngine, readTimeout);
+      route.setTlsConnSetupEndTimeANP(System.currentTimeMillis());
+      Handshake verifiedHandshake =
+          verifyHandshake(sslEngine.getSession(), handshakeStartMillis, tlsSessionCache);
+
+      String maybeProtocol = connectionSpec.supportsTlsExtensions()
+          ? Platform.get().getSelectedProtocol(sslEngine)
+          : null;
+      socket = rawSocket;
+      handshake = verifiedHandshake;
+      protocol = maybeProtocol != null
+          ? Protocol.get(maybeProtocol)
+          : Protocol.HTTP_1_1;
+    } finally {
+      Platform.get().afterHandshake(sslEngine);
+    }
+  }
+
+  /**
+   * Records the handshake of {@code session} in {@code tlsSessionCache} and checks that its
+   * certificates are acceptable for the target host. Returns the verified handshake.
+   */
+  private Handshake verifyHandshake(SSLSession session, long handshakeStartMillis,
+      TlsSessionCache tlsSessionCache) throws IOException {
+    Address address = route.address();
+    boolean resumed = tlsSessionCache != null && Internal.instance.handshakeCompleted(
+        tlsSessionCache, address.url().host(), address.url().port(), session,
+        handshakeStartMillis);
+    Handshake unverifiedHandshake = Handshake.get(session, resumed);
+
+    try {
+      // Verify that the socket's certificates are acceptable for the target host.
+      if (!address.hostnameVerifier().verify(address.url().host(), session)) {
+        X509Certificate cert = (X509Certificate) unverifiedHandshake.peerCertificates().get(0);
+        throw new SSLPeerUnverifiedException("Hostname " + address.url().host()
+            + " not verified:"
+            + "\n    certificate: " + CertificatePinner.pin(cert)
+            + "\n    DN: " + cert.getSubjectDN().getName()
+            + "\n    subjectAltNames: " + OkHostnameVerifier.allSubjectAltNames(cert));
+      }
+
+      // Check that the certificate pinner is satisfied by the certificates presented.
+      address.certificatePinner().check(address.url().host(),
+          unverifiedHandshake.peerCertificates());
+    } catch (SSLPeerUnverifiedException e) {
+      // Don't let a future connection resume a session with an unacceptable peer.
+      if (tlsSessionCache != null) {
+        Internal.instance.invalidate(
+            tlsSessionCache, address.url().host(), address.url().port(), session);
+      }
+      throw e;
+    }
+    return unverifiedHandshake;
+  }
+
   /**
    * To make an HTTPS connection over an HTTP proxy, send an unencrypted CONNECT request to create
    * the proxy connection. This may need to be retried if the proxy requires authorization.
@@ -311,11 +479,113 @@ public final class RealConnection implements Connection {
     return socket;
   }
 
-  public int allocationLimit() {
+  /**
+   * Returns true if {@link #transferFrom} and {@link #transferTo} can move file content to and from
+   * this connection's socket. This requires a cleartext HTTP/1.1 connection whose socket has a
+   * channel, as sockets from a {@link okhttp3.ChannelSocketFactory} do.
+   */
+  public boolean supportsFileTransfer() {
+    return socket != null && socket.getChannel() != null && socket == rawSocket
+        && framedConnection == null;
+  }
+
+  /**
+   * Writes {@code byteCount} bytes of {@code file}, starting at {@code position}, directly to this
+   * connection's socket. Callers must flush {@link #sink} first.
+   */
+  public void transferFrom(FileChannel file, long position, long byteCount) throws IOException {
+    if (!supportsFileTransfer()) throw new IllegalStateException("file transfer unsupported");
+
+    // Like the sink's writes, each slice must complete within the write timeout.
+    AsyncTimeout writeTimeout = (AsyncTimeout) sink.timeout();
+    long timeoutNanos = writeTimeout.timeoutNanos();
+    SocketChannel channel = rawSocket.getChannel();
+    long sliceSize = timeoutNanos != 0 ? MIN_TRANSFER_SLICE_SIZE : MAX_TRANSFER_SLICE_SIZE;
+    while (byteCount > 0) {
+      long transferred;
+      long sliceStartNanos = System.nanoTime();
+      writeTimeout.enter();
+      try {
+        transferred = file.transferTo(position, Math.min(byteCount, sliceSize), channel);
+      } catch (IOException e) {
+        if (writeTimeout.exit()) throw timeoutException(e);
+        throw e;
+      }
+      if (writeTimeout.exit()) throw timeoutException(null);
+      if (transferred == 0) throw new EOFException("unexpected end of file");
+      position += transferred;
+      byteCount -= transferred;
+
+      if (timeoutNanos != 0) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - sliceStartNanos);
+        double bytesPerHalfTimeout = (double) transferred * (timeoutNanos / 2) / elapsedNanos;
+        sliceSize = (long) Math.max(MIN_TRANSFER_SLICE_SIZE,
+            Math.min(MAX_TRANSFER_SLICE_SIZE, bytesPerHalfTimeout));
+      }
+    }
+  }
+
+  private static InterruptedIOException timeoutException(IOException cause) {
+    InterruptedIOException result = new SocketTimeoutException("timeout");
+    if (cause != null) result.initCause(cause);
+    return result;
+  }
+
+  /**
+   * Reads up to {@code byteCount} bytes directly from this connection's socket into {@code file},
+   * staging them in {@code buffer}, and advances {@code written} and {@code progress} as bytes are
+   * written. Callers must first consume the bytes in {@link #source}'s buffer. Returns the number
+   * of bytes transferred.
+   */
+  public long transferTo(FileChannel file, long position, long byteCount, ByteBuffer buffer,
+      AtomicLong written, AtomicLong progress) throws IOException {
+    if (!supportsFileTransfer()) throw new IllegalStateException("file transfer unsupported");
+
+    // Like the source's reads, each read must complete within the read timeout.
+    AsyncTimeout readTimeout = (AsyncTimeout) source.timeout();
+    SocketChannel channel = rawSocket.getChannel();
+    java.nio.Buffer b = buffer; // Avoids ByteBuffer's covariant overrides, added in Java 9.
+    long result = 0;
+    while (result < byteCount) {
+      b.clear();
+      if (byteCount - result < buffer.capacity()) b.limit((int) (byteCount - result));
+      int read;
+      readTimeout.enter();
+      try {
+        read = channel.read(buffer);
+      } catch (IOException e) {
+        if (readTimeout.exit()) throw timeoutException(e);
+        throw e;
+      }
+      if (readTimeout.exit()) throw timeoutException(null);
+      if (read == -1) break;
+
+      b.flip();
+      for (long p = position + result; b.hasRemaining(); ) {
+        p += file.write(buffer, p);
+      }
+      result += read;
+      Util.advance(written, progress, read);
+    }
+    return result;
+  }
+
+  /**
+   * Returns how many allocations this connection can carry, counting {@code candidate}. HTTP/1.1
+   * connections carry one unless the candidate and every current allocation pipeline their calls.
+   * A busy connection only accepts pipelined calls once its first pipelined stream has started.
+   */
+  public int allocationLimit(StreamAllocation candidate) {
     FramedConnection framedConnection = this.framedConnection;
-    return framedConnection != null
-        ? framedConnection.maxConcurrentStreams()
-        : 1;
+    if (framedConnection != null) return framedConnection.maxConcurrentStreams();
+    if (!allocations.isEmpty() && pipeline == null) return 1;
+
+    int maxPipelinedCalls = candidate.maxPipelinedCalls();
+    for (int i = 0, size = allocations.size(); i < size && maxPipelinedCalls > 1; i++) {
+      StreamAllocation allocation = allocations.get(i).get();
+      if (allocation == null || allocation.maxPipelinedCalls() == 1) maxPipelinedCalls = 1;
+    }
+    return maxPipelinedCalls;
   }
 
   /** Returns true if this connection is ready to host new streams. */
@@ -361,6 +631,11 @@ public final class RealConnection implements Connection {
     return true;
   }
 
+  /** Returns how long it took to establish this connection's TCP socket. */
+  public long socketConnectNanos() {
+    return socketConnectNanos;
+  }
+
   @Override public Handshake handshake() {
     return handshake;
   }
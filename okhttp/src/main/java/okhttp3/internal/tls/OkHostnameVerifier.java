@@ -23,8 +23,10 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
@@ -41,7 +43,21 @@ public final class OkHostnameVerifier implements HostnameVerifier {
   private static final int ALT_DNS_NAME = 2;
   private static final int ALT_IPA_NAME = 7;
 
-  private OkHostnameVerifier() {
+  /** The maximum number of host and certificate pairs whose verification result is remembered. */
+  static final int MAX_CACHED_RESULTS = 256;
+
+  /**
+   * Results of recent verifications. Servers present the same certificate on every connection, so
+   * this saves parsing its subject alternative names and distinguished name each time.
+   */
+  private final Map<Verification, Boolean> results =
+      new LinkedHashMap<Verification, Boolean>(0, 0.75f, true /* accessOrder */) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Verification, Boolean> eldest) {
+          return size() > MAX_CACHED_RESULTS;
+        }
+      };
+
+  OkHostnameVerifier() {
   }
 
   @Override
@@ -55,9 +71,26 @@ public final class OkHostnameVerifier implements HostnameVerifier {
   }
 
   public boolean verify(String host, X509Certificate certificate) {
-    return verifyAsIpAddress(host)
+    Verification verification = new Verification(host, certificate);
+    synchronized (results) {
+      Boolean cached = results.get(verification);
+      if (cached != null) return cached;
+    }
+
+    boolean result = verifyAsIpAddress(host)
         ? verifyIpAddress(host, certificate)
         : verifyHostName(host, certificate);
+
+    synchronized (results) {
+      results.put(verification, result);
+    }
+    return result;
+  }
+
+  int cachedResultCount() {
+    synchronized (results) {
+      return results.size();
+    }
   }
 
   /** Returns true if {@code certificate} matches {@code ipAddress}. */
@@ -227,4 +260,25 @@ public final class OkHostnameVerifier implements HostnameVerifier {
     // hostName matches pattern
     return true;
   }
+
+  /** A host and the certificate it was verified against. */
+  private static final class Verification {
+    final String host;
+    final X509Certificate certificate;
+
+    Verification(String host, X509Certificate certificate) {
+      this.host = host;
+      this.certificate = certificate;
+    }
+
+    @Override public boolean equals(Object other) {
+      return other instanceof Verification
+          && host.equals(((Verification) other).host)
+          && certificate.equals(((Verification) other).certificate);
+    }
+
+    @Override public int hashCode() {
+      return 31 * host.hashCode() + certificate.hashCode();
+    }
+  }
 }